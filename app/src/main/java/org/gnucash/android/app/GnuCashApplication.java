@@ -40,15 +40,18 @@ import org.gnucash.android.BuildConfig;
 import org.gnucash.android.R;
 import org.gnucash.android.db.BookDbHelper;
 import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.ReadConnectionPool;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
 import org.gnucash.android.db.adapter.BudgetAmountsDbAdapter;
 import org.gnucash.android.db.adapter.BudgetsDbAdapter;
 import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
+import org.gnucash.android.db.adapter.CommodityCache;
 import org.gnucash.android.db.adapter.PricesDbAdapter;
 import org.gnucash.android.db.adapter.RecurrenceDbAdapter;
 import org.gnucash.android.db.adapter.ScheduledActionDbAdapter;
 import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.StatementCache;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
@@ -106,6 +109,11 @@ public class GnuCashApplication extends MultiDexApplication {
     private static BooksDbAdapter mBooksDbAdapter;
     private static DatabaseHelper mDbHelper;
 
+    /**
+     * Read connections to the database of the active book, for long reads in the background
+     */
+    private static ReadConnectionPool mReadConnectionPool;
+
     /**
      * Returns darker version of specified <code>color</code>.
      * Use for theming the status bar color when setting the color of the actionBar
@@ -142,8 +150,14 @@ public class GnuCashApplication extends MultiDexApplication {
      * This method should be called every time a new book is opened
      */
     public static void initializeDatabaseAdapters() {
+        if (mReadConnectionPool != null){
+            mReadConnectionPool.close();
+        }
         if (mDbHelper != null){ //close if open
-            mDbHelper.getReadableDatabase().close();
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            StatementCache.release(db);
+            CommodityCache.release(db);
+            db.close();
         }
 
         try {
@@ -162,6 +176,7 @@ public class GnuCashApplication extends MultiDexApplication {
             Log.e("GnuCashApplication", "Error getting database: " + e.getMessage());
             mainDb = mDbHelper.getReadableDatabase();
         }
+        mReadConnectionPool = new ReadConnectionPool(mainDb.getPath(), ReadConnectionPool.DEFAULT_SIZE);
 
         mSplitsDbAdapter            = new SplitsDbAdapter(mainDb);
         mTransactionsDbAdapter      = new TransactionsDbAdapter(mainDb, mSplitsDbAdapter);
@@ -174,6 +189,16 @@ public class GnuCashApplication extends MultiDexApplication {
         mBudgetsDbAdapter           = new BudgetsDbAdapter(mainDb, mBudgetAmountsDbAdapter, mRecurrenceDbAdapter);
     }
 
+    /**
+     * Returns the pool of read connections to the database of the active book.
+     * <p>Background work which only reads the book, like the reports, should use these connections
+     * instead of the one shared by the database adapters</p>
+     * @return Pool of read connections
+     */
+    public static ReadConnectionPool getReadConnectionPool() {
+        return mReadConnectionPool;
+    }
+
     public static AccountsDbAdapter getAccountsDbAdapter() {
         return mAccountsDbAdapter;
     }
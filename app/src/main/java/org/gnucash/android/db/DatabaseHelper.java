@@ -17,6 +17,7 @@
 package org.gnucash.android.db;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
@@ -34,11 +35,14 @@ import java.lang.reflect.Method;
 
 import javax.xml.parsers.ParserConfigurationException;
 
+import static org.gnucash.android.db.DatabaseSchema.AccountBalanceEntry;
 import static org.gnucash.android.db.DatabaseSchema.AccountEntry;
 import static org.gnucash.android.db.DatabaseSchema.BudgetAmountEntry;
 import static org.gnucash.android.db.DatabaseSchema.BudgetEntry;
 import static org.gnucash.android.db.DatabaseSchema.CommodityEntry;
 import static org.gnucash.android.db.DatabaseSchema.CommonColumns;
+import static org.gnucash.android.db.DatabaseSchema.DeletedRecordEntry;
+import static org.gnucash.android.db.DatabaseSchema.ImportCheckpointEntry;
 import static org.gnucash.android.db.DatabaseSchema.PriceEntry;
 import static org.gnucash.android.db.DatabaseSchema.RecurrenceEntry;
 import static org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry;
@@ -57,6 +61,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	 */
 	public static final String LOG_TAG = DatabaseHelper.class.getName();
 
+    /**
+     * Size of the page cache of each connection. Negative sizes are in KiB instead of pages.
+     * The default of 2000 pages is too small for the reports over large books
+     */
+    private static final int CACHE_SIZE_KIB = -8192;
+
+    /**
+     * Size of the memory mapped part of the database file, in bytes
+     */
+    private static final long MMAP_SIZE_BYTES = 64L * 1024 * 1024;
+
     /**
 	 * SQL statement to create the accounts table in the database
 	 */
@@ -222,6 +237,58 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + createUpdatedAtTrigger(RecurrenceEntry.TABLE_NAME);
 
 
+    /**
+     * SQL statement to create the table of running account balances
+     */
+    static final String ACCOUNT_BALANCES_TABLE_CREATE = "CREATE TABLE " + AccountBalanceEntry.TABLE_NAME + " ("
+            + AccountBalanceEntry._ID                   + " integer primary key autoincrement, "
+            + AccountBalanceEntry.COLUMN_ACCOUNT_UID    + " varchar(255) not null, "
+            + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " integer not null, "
+            + AccountBalanceEntry.COLUMN_BALANCE_NUM    + " integer not null default 0, "
+            + "UNIQUE (" + AccountBalanceEntry.COLUMN_ACCOUNT_UID + ", " + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + "), "
+            + "FOREIGN KEY (" 	+ AccountBalanceEntry.COLUMN_ACCOUNT_UID + ") REFERENCES " + AccountEntry.TABLE_NAME + " (" + AccountEntry.COLUMN_UID + ") ON DELETE CASCADE "
+            + ");";
+
+    /**
+     * SQL statement to create the table of deleted records
+     */
+    static final String DELETED_RECORDS_TABLE_CREATE = "CREATE TABLE " + DeletedRecordEntry.TABLE_NAME + " ("
+            + DeletedRecordEntry._ID                + " integer primary key autoincrement, "
+            + DeletedRecordEntry.COLUMN_TABLE_NAME  + " varchar(255) not null, "
+            + DeletedRecordEntry.COLUMN_UID         + " varchar(255) not null, "
+            + DeletedRecordEntry.COLUMN_DELETED_AT  + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP "
+            + ");";
+
+    /**
+     * SQL statement to create the table of the checkpoint of an import in progress
+     */
+    static final String IMPORT_CHECKPOINT_TABLE_CREATE = "CREATE TABLE " + ImportCheckpointEntry.TABLE_NAME + " ("
+            + ImportCheckpointEntry._ID                             + " integer primary key autoincrement, "
+            + ImportCheckpointEntry.COLUMN_SOURCE_URI               + " text not null, "
+            + ImportCheckpointEntry.COLUMN_SOURCE_FINGERPRINT       + " text, "
+            + ImportCheckpointEntry.COLUMN_TRANSACTION_ELEMENTS     + " integer not null default 0, "
+            + ImportCheckpointEntry.COLUMN_SPLIT_ELEMENTS           + " integer not null default 0, "
+            + ImportCheckpointEntry.COLUMN_PRICE_ELEMENTS           + " integer not null default 0, "
+            + ImportCheckpointEntry.COLUMN_SAVED_ACCOUNTS           + " integer not null default 0, "
+            + ImportCheckpointEntry.COLUMN_SAVED_TRANSACTIONS       + " integer not null default 0, "
+            + ImportCheckpointEntry.COLUMN_SAVED_SPLITS             + " integer not null default 0, "
+            + ImportCheckpointEntry.COLUMN_ROOT_ACCOUNT_UID         + " varchar(255), "
+            + ImportCheckpointEntry.COLUMN_IMBALANCE_ACCOUNTS       + " text, "
+            + ImportCheckpointEntry.COLUMN_MODIFIED_AT              + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP "
+            + ");";
+
+    /**
+     * Tables whose records have their modification time maintained by a trigger
+     */
+    private static final String[] MODIFICATION_TRACKED_TABLES = {AccountEntry.TABLE_NAME, TransactionEntry.TABLE_NAME,
+            SplitEntry.TABLE_NAME, ScheduledActionEntry.TABLE_NAME, PriceEntry.TABLE_NAME, RecurrenceEntry.TABLE_NAME};
+
+    /**
+     * Tables whose deleted records are added to the table of deleted records by a trigger
+     */
+    private static final String[] DELETION_TRACKED_TABLES = {AccountEntry.TABLE_NAME, TransactionEntry.TABLE_NAME,
+            ScheduledActionEntry.TABLE_NAME, PriceEntry.TABLE_NAME};
+
     /**
 	 * Constructor
 	 * @param context Application context
@@ -229,12 +296,36 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	 */
 	public DatabaseHelper(Context context, String databaseName){
 		super(context, databaseName, null, DatabaseSchema.DATABASE_VERSION);
-
+		// readers on other threads (reports, exports, loaders) no longer wait for the writer, and the
+		// framework keeps a pool of read connections next to the primary connection
+		setWriteAheadLoggingEnabled(true);
 	}
 
+    /**
+     * Applies the tuning of the book databases to a connection.
+     * <p>The settings only last as long as the connection. The framework does not expose its pooled
+     * read connections, so this applies to the primary connection and to the connections of the
+     * {@link ReadConnectionPool}</p>
+     * @param db Database connection
+     */
+    public static void tuneConnection(SQLiteDatabase db) {
+        db.execSQL("PRAGMA cache_size = " + CACHE_SIZE_KIB);
+        db.execSQL("PRAGMA temp_store = MEMORY");
+        // mmap_size returns the new size, so it cannot go through execSQL.
+        // Versions of SQLite older than 3.7.17 ignore it and return no row
+        Cursor cursor = db.rawQuery("PRAGMA mmap_size = " + MMAP_SIZE_BYTES, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Creates an update trigger to update the updated_at column for all records in the database.
-     * This has to be run per table, and is currently appended to the create table statement.
+     * <p>This is appended to the create table statements, but only the first statement passed to
+     * {@link SQLiteDatabase#execSQL(String)} is run, so the trigger was never created.
+     * The triggers are created by {@link #createChangeTrackingTriggers(SQLiteDatabase)} instead.</p>
      * @param tableName Name of table on which to create trigger
      * @return SQL statement for creating trigger
      */
@@ -257,6 +348,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public void onOpen(SQLiteDatabase db) {
         super.onOpen(db);
         db.execSQL("PRAGMA foreign_keys=ON");
+        tuneConnection(db);
     }
 
     @Override
@@ -301,6 +393,91 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	}
 
 
+    /**
+     * Creates the non-unique indexes used by the most frequent queries.
+     * <p>The split index on the account also holds the amount columns so that balances
+     * can be computed from the index alone. The transaction index starts with the timestamp
+     * (and not the template flag) so that it is not chosen over the split indexes
+     * when filtering the splits of an account.</p>
+     * <p>This is also called at the end of an import, to recreate the indexes dropped with
+     * {@link #dropDeferredIndexes(SQLiteDatabase)}</p>
+     * @param db Database instance
+     */
+    public static void createSecondaryIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS '" + SplitEntry.INDEX_ACCOUNT_UID + "' ON "
+                + SplitEntry.TABLE_NAME + "(" + SplitEntry.COLUMN_ACCOUNT_UID + ", "
+                + SplitEntry.COLUMN_TRANSACTION_UID + ", " + SplitEntry.COLUMN_TYPE + ", "
+                + SplitEntry.COLUMN_QUANTITY_NUM + ", " + SplitEntry.COLUMN_QUANTITY_DENOM + ")");
+
+        db.execSQL("CREATE INDEX IF NOT EXISTS '" + SplitEntry.INDEX_TRANSACTION_UID + "' ON "
+                + SplitEntry.TABLE_NAME + "(" + SplitEntry.COLUMN_TRANSACTION_UID + ")");
+
+        db.execSQL("CREATE INDEX IF NOT EXISTS '" + TransactionEntry.INDEX_TIMESTAMP + "' ON "
+                + TransactionEntry.TABLE_NAME + "(" + TransactionEntry.COLUMN_TIMESTAMP + ", "
+                + TransactionEntry.COLUMN_TEMPLATE + ")");
+
+        db.execSQL("CREATE INDEX IF NOT EXISTS '" + AccountEntry.INDEX_PARENT_ACCOUNT_UID + "' ON "
+                + AccountEntry.TABLE_NAME + "(" + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + ")");
+
+        db.execSQL("CREATE INDEX IF NOT EXISTS '" + PriceEntry.INDEX_COMMODITY_CURRENCY_DATE + "' ON "
+                + PriceEntry.TABLE_NAME + "(" + PriceEntry.COLUMN_COMMODITY_UID + ", "
+                + PriceEntry.COLUMN_CURRENCY_UID + ", " + PriceEntry.COLUMN_DATE + ")");
+    }
+
+    /**
+     * Drops the secondary indexes which are not used while importing a book, so that they are not updated
+     * with each inserted row. Building them once with {@link #createSecondaryIndexes(SQLiteDatabase)}
+     * after all records are inserted is faster.
+     * <p>The index of the splits on their transaction is kept: the account balances of each batch
+     * of imported transactions are computed with it.</p>
+     * @param db Database instance
+     */
+    public static void dropDeferredIndexes(SQLiteDatabase db) {
+        db.execSQL("DROP INDEX IF EXISTS '" + SplitEntry.INDEX_ACCOUNT_UID + "'");
+        db.execSQL("DROP INDEX IF EXISTS '" + TransactionEntry.INDEX_TIMESTAMP + "'");
+        db.execSQL("DROP INDEX IF EXISTS '" + AccountEntry.INDEX_PARENT_ACCOUNT_UID + "'");
+        db.execSQL("DROP INDEX IF EXISTS '" + PriceEntry.INDEX_COMMODITY_CURRENCY_DATE + "'");
+    }
+
+    /**
+     * Creates the triggers which keep track of the changes to the records, for incremental backups.
+     * <p>The modification time of accounts, transactions, splits, scheduled actions, prices and recurrences
+     * is set when they are updated (it is set by the column default when they are inserted or replaced).
+     * The GUIDs of deleted accounts, transactions, scheduled actions and prices are added to the table of
+     * deleted records. Deleting a split modifies its transaction instead, since transactions are always
+     * backed up with all their splits.</p>
+     * <p>Each trigger is created with a separate statement, as {@link SQLiteDatabase#execSQL(String)}
+     * only runs the first statement of the SQL it is passed.</p>
+     * @param db Database instance
+     */
+    static void createChangeTrackingTriggers(SQLiteDatabase db) {
+        for (String tableName : MODIFICATION_TRACKED_TABLES) {
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + tableName + "_modified_at_trigger"
+                    + " AFTER UPDATE ON " + tableName + " FOR EACH ROW"
+                    + " WHEN NEW." + CommonColumns.COLUMN_MODIFIED_AT + " = OLD." + CommonColumns.COLUMN_MODIFIED_AT
+                    + " BEGIN UPDATE " + tableName
+                    + " SET " + CommonColumns.COLUMN_MODIFIED_AT + " = CURRENT_TIMESTAMP"
+                    + " WHERE " + CommonColumns._ID + " = NEW." + CommonColumns._ID + ";"
+                    + " END");
+        }
+
+        for (String tableName : DELETION_TRACKED_TABLES) {
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + tableName + "_deleted_trigger"
+                    + " AFTER DELETE ON " + tableName + " FOR EACH ROW"
+                    + " BEGIN INSERT INTO " + DeletedRecordEntry.TABLE_NAME
+                    + " (" + DeletedRecordEntry.COLUMN_TABLE_NAME + ", " + DeletedRecordEntry.COLUMN_UID + ")"
+                    + " VALUES ('" + tableName + "', OLD." + CommonColumns.COLUMN_UID + ");"
+                    + " END");
+        }
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + SplitEntry.TABLE_NAME + "_deleted_trigger"
+                + " AFTER DELETE ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                + " BEGIN UPDATE " + TransactionEntry.TABLE_NAME
+                + " SET " + TransactionEntry.COLUMN_MODIFIED_AT + " = CURRENT_TIMESTAMP"
+                + " WHERE " + TransactionEntry.COLUMN_UID + " = OLD." + SplitEntry.COLUMN_TRANSACTION_UID + ";"
+                + " END");
+    }
+
     /**
      * Creates the tables in the database and import default commodities into the database
      * @param db Database instance
@@ -316,7 +493,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(RECURRENCE_TABLE_CREATE);
         db.execSQL(BUDGETS_TABLE_CREATE);
         db.execSQL(BUDGET_AMOUNTS_TABLE_CREATE);
-
+        db.execSQL(ACCOUNT_BALANCES_TABLE_CREATE);
+        db.execSQL(DELETED_RECORDS_TABLE_CREATE);
+        db.execSQL(IMPORT_CHECKPOINT_TABLE_CREATE);
+        createChangeTrackingTriggers(db);
 
         String createAccountUidIndex = "CREATE UNIQUE INDEX '" + AccountEntry.INDEX_UID + "' ON "
                 + AccountEntry.TABLE_NAME + "(" + AccountEntry.COLUMN_UID + ")";
@@ -355,6 +535,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(createRecurrenceUidIndex);
         db.execSQL(createBudgetAmountUidIndex);
 
+        createSecondaryIndexes(db);
+
         try {
             MigrationHelper.importCommodities(db);
         } catch (SAXException | ParserConfigurationException | IOException e) {
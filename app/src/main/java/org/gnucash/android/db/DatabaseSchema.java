@@ -39,7 +39,7 @@ public class DatabaseSchema {
      * Version number of database containing accounts and transactions info.
      * With any change to the database schema, this number must increase
      */
-    public static final int DATABASE_VERSION = 15;
+    public static final int DATABASE_VERSION = 19;
 
     /**
      * Name of the database
@@ -92,6 +92,7 @@ public class DatabaseSchema {
         public static final String COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID = "default_transfer_account_uid";
 
         public static final String INDEX_UID                    = "account_uid_index";
+        public static final String INDEX_PARENT_ACCOUNT_UID     = "account_parent_uid_index";
     }
 
     /**
@@ -118,6 +119,7 @@ public class DatabaseSchema {
         public static final String COLUMN_SCHEDX_ACTION_UID     = "scheduled_action_uid";
 
         public static final String INDEX_UID                    = "transaction_uid_index";
+        public static final String INDEX_TIMESTAMP              = "transaction_timestamp_index";
     }
 
     /**
@@ -147,6 +149,57 @@ public class DatabaseSchema {
         public static final String COLUMN_RECONCILE_DATE        = "reconcile_date";
 
         public static final String INDEX_UID                    = "split_uid_index";
+        public static final String INDEX_ACCOUNT_UID            = "split_account_uid_index";
+        public static final String INDEX_TRANSACTION_UID        = "split_transaction_uid_index";
+    }
+
+    /**
+     * Column schema for the table of running account balances.
+     * <p>The table holds the sum of the quantities of the splits of non-template transactions
+     * for each account and quantity denominator. Debit quantities are positive, credit quantities negative.
+     * It is maintained by the transactions adapter and can be rebuilt from the splits at any time.</p>
+     */
+    public static abstract class AccountBalanceEntry implements BaseColumns {
+        public static final String TABLE_NAME                   = "account_balances";
+
+        public static final String COLUMN_ACCOUNT_UID           = "account_uid";
+        public static final String COLUMN_QUANTITY_DENOM        = "quantity_denom";
+        public static final String COLUMN_BALANCE_NUM           = "balance_num";
+    }
+
+    /**
+     * Column schema for the table of deleted records.
+     * <p>A row is added by a trigger whenever an account, transaction, scheduled action or price is deleted,
+     * so that incremental backups can record the deletions. The rows are purged when a full backup is made.</p>
+     */
+    public static abstract class DeletedRecordEntry implements BaseColumns {
+        public static final String TABLE_NAME                   = "deleted_records";
+
+        public static final String COLUMN_TABLE_NAME            = "table_name";
+        public static final String COLUMN_UID                   = "uid";
+        public static final String COLUMN_DELETED_AT            = "deleted_at";
+    }
+
+    /**
+     * Column schema for the checkpoint of an import in progress.
+     * <p>The table has at most one row, which is committed together with each chunk of imported records.
+     * It records how far into the file the committed records go, so that an interrupted import can be resumed.
+     * The row is deleted when the import is complete.</p>
+     */
+    public static abstract class ImportCheckpointEntry implements BaseColumns {
+        public static final String TABLE_NAME                   = "import_checkpoint";
+
+        public static final String COLUMN_SOURCE_URI            = "source_uri";
+        public static final String COLUMN_SOURCE_FINGERPRINT    = "source_fingerprint";
+        public static final String COLUMN_TRANSACTION_ELEMENTS  = "transaction_elements";
+        public static final String COLUMN_SPLIT_ELEMENTS        = "split_elements";
+        public static final String COLUMN_PRICE_ELEMENTS        = "price_elements";
+        public static final String COLUMN_SAVED_ACCOUNTS        = "saved_accounts";
+        public static final String COLUMN_SAVED_TRANSACTIONS    = "saved_transactions";
+        public static final String COLUMN_SAVED_SPLITS          = "saved_splits";
+        public static final String COLUMN_ROOT_ACCOUNT_UID      = "root_account_uid";
+        public static final String COLUMN_IMBALANCE_ACCOUNTS    = "imbalance_accounts";
+        public static final String COLUMN_MODIFIED_AT           = "modified_at";
     }
 
     public static abstract class ScheduledActionEntry implements CommonColumns {
@@ -234,6 +287,7 @@ public class DatabaseSchema {
         public static final String COLUMN_VALUE_DENOM   = "value_denom";
 
         public static final String INDEX_UID = "prices_uid_index";
+        public static final String INDEX_COMMODITY_CURRENCY_DATE = "prices_commodity_currency_date_index";
 
     }
 
@@ -33,6 +33,7 @@ import com.crashlytics.android.Crashlytics;
 
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.adapter.AccountBalancesDbAdapter;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.export.ExportFormat;
 import org.gnucash.android.export.ExportParams;
@@ -1628,4 +1629,107 @@ public class MigrationHelper {
         rescheduleServiceAlarm();
         return dbVersion;
     }
+
+    /**
+     * Upgrades the database to version 16.
+     * <p>This migration makes the following changes to the database:
+     * <ul>
+     *     <li>Adds indexes on the split account and transaction, the transaction timestamp,
+     *         the parent account and the price commodity/currency/date</li>
+     * </ul>
+     * </p>
+     * @param db SQLite database to be upgraded
+     * @return New database version, 16 if migration succeeds, 15 otherwise
+     */
+    static int upgradeDbToVersion16(SQLiteDatabase db) {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 16");
+        int dbVersion = 15;
+
+        db.beginTransaction();
+        try {
+            DatabaseHelper.createSecondaryIndexes(db);
+            db.setTransactionSuccessful();
+            dbVersion = 16;
+        } finally {
+            db.endTransaction();
+        }
+        return dbVersion;
+    }
+
+    /**
+     * Upgrades the database to version 17.
+     * <p>This migration makes the following changes to the database:
+     * <ul>
+     *     <li>Adds the table of running account balances and fills it from the existing splits</li>
+     * </ul>
+     * </p>
+     * @param db SQLite database to be upgraded
+     * @return New database version, 17 if migration succeeds, 16 otherwise
+     */
+    static int upgradeDbToVersion17(SQLiteDatabase db) {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 17");
+        int dbVersion = 16;
+
+        db.beginTransaction();
+        try {
+            db.execSQL(DatabaseHelper.ACCOUNT_BALANCES_TABLE_CREATE);
+            new AccountBalancesDbAdapter(db).rebuild();
+            db.setTransactionSuccessful();
+            dbVersion = 17;
+        } finally {
+            db.endTransaction();
+        }
+        return dbVersion;
+    }
+
+    /**
+     * Upgrades the database to version 18.
+     * <p>This migration makes the following changes to the database:
+     * <ul>
+     *     <li>Adds the table of deleted records, used by incremental backups</li>
+     *     <li>Creates the triggers which set the modification time of updated records and record the deleted ones.
+     *     The update triggers of earlier versions were never created</li>
+     * </ul>
+     * </p>
+     * @param db SQLite database to be upgraded
+     * @return New database version, 18 if migration succeeds, 17 otherwise
+     */
+    static int upgradeDbToVersion18(SQLiteDatabase db) {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 18");
+        int dbVersion = 17;
+
+        db.beginTransaction();
+        try {
+            db.execSQL(DatabaseHelper.DELETED_RECORDS_TABLE_CREATE);
+            DatabaseHelper.createChangeTrackingTriggers(db);
+            db.setTransactionSuccessful();
+            dbVersion = 18;
+        } finally {
+            db.endTransaction();
+        }
+        return dbVersion;
+    }
+
+    /**
+     * Upgrades the database to version 19.
+     * <p>This migration adds the table of the checkpoint of an import in progress,
+     * which lets an interrupted import of a large book be resumed. The checkpoint holds the fingerprint
+     * of the imported file, so that it is only resumed with the same file.</p>
+     * @param db SQLite database to be upgraded
+     * @return New database version, 19 if migration succeeds, 18 otherwise
+     */
+    static int upgradeDbToVersion19(SQLiteDatabase db) {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 19");
+        int dbVersion = 18;
+
+        db.beginTransaction();
+        try {
+            db.execSQL(DatabaseHelper.IMPORT_CHECKPOINT_TABLE_CREATE);
+            db.setTransactionSuccessful();
+            dbVersion = 19;
+        } finally {
+            db.endTransaction();
+        }
+        return dbVersion;
+    }
 }
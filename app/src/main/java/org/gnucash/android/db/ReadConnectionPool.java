@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import org.gnucash.android.db.adapter.CommodityCache;
+import org.gnucash.android.db.adapter.StatementCache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Pool of read-only connections to the database of a book, for long reads in the background.
+ * <p>The book databases are in write-ahead logging mode, so these connections read a consistent
+ * snapshot of the book without waiting for the writer, and without holding up the connections
+ * used by the UI. Each connection is tuned with {@link DatabaseHelper#tuneConnection(SQLiteDatabase)}.</p>
+ * <p>In write-ahead logging mode, {@link SQLiteDatabase} already runs read-only statements on a few
+ * secondary connections of its own, but those do not fit long report scans:
+ * <ul>
+ *     <li>They are not exposed, and a {@code PRAGMA} run with {@link SQLiteDatabase#execSQL(String)} only
+ *     reaches the primary connection. So the page cache, {@code temp_store} and memory mapping set by
+ *     {@link DatabaseHelper#tuneConnection(SQLiteDatabase)} do not apply to them, while the grouping
+ *     and sorting of the reports depend on them.</li>
+ *     <li>They are shared with the cursors of the lists. A report which fills its window on one of
+ *     them leaves one less for the lists loaded at the same time.</li>
+ *     <li>Reading several queries from the same snapshot requires a transaction, which always runs
+ *     on the primary connection and holds up the writers.</li>
+ * </ul>
+ * The reports only read their balances here, see {@code BaseReportFragment#getPeriodBalances}.</p>
+ * <p>Connections are opened when first needed, up to a maximum number. A reader which asks for a
+ * connection when they are all in use waits for one to be released. Connections must always
+ * be released, in a {@code finally} block:</p>
+ * <pre>
+ *     SQLiteDatabase db = pool.acquire();
+ *     try {
+ *         ...
+ *     } finally {
+ *         pool.release(db);
+ *     }
+ * </pre>
+ */
+public class ReadConnectionPool {
+
+    private static final String LOG_TAG = "ReadConnectionPool";
+
+    /**
+     * Default number of read connections of a pool
+     */
+    public static final int DEFAULT_SIZE = 2;
+
+    private final String mDatabasePath;
+    private final int mMaxConnections;
+    private final Deque<SQLiteDatabase> mIdleConnections = new ArrayDeque<>();
+    private int mOpenConnections = 0;
+    private boolean mClosed = false;
+
+    /**
+     * Creates a pool of read connections. No connection is opened until one is acquired
+     * @param databasePath Path of the database file of the book
+     * @param maxConnections Maximum number of open connections
+     */
+    public ReadConnectionPool(@NonNull String databasePath, int maxConnections) {
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("A pool needs at least one connection");
+        mDatabasePath = databasePath;
+        mMaxConnections = maxConnections;
+    }
+
+    /**
+     * Takes a read connection from the pool, opening one if needed.
+     * Waits if all the connections are in use
+     * @return Read-only database connection
+     * @throws IllegalStateException if the pool was closed
+     */
+    @WorkerThread
+    public SQLiteDatabase acquire() {
+        synchronized (this) {
+            while (true) {
+                if (mClosed)
+                    throw new IllegalStateException("The read connection pool of " + mDatabasePath + " is closed");
+                SQLiteDatabase db = mIdleConnections.pollFirst();
+                if (db != null)
+                    return db;
+                if (mOpenConnections < mMaxConnections) {
+                    mOpenConnections++;
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for a read connection", e);
+                }
+            }
+        }
+
+        // the connection is opened outside of the lock, so that other readers can release theirs meanwhile
+        try {
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(mDatabasePath, null, SQLiteDatabase.OPEN_READONLY);
+            DatabaseHelper.tuneConnection(db);
+            Log.d(LOG_TAG, "Opened read connection to " + mDatabasePath);
+            return db;
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                mOpenConnections--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool. The connection is closed if the pool was closed meanwhile.
+     * <p>The commodity cache of the connection is dropped: the adapters only invalidate the cache of the connection
+     * they write with, so the next user of the connection reads the current commodities and prices again</p>
+     * @param db Connection obtained from {@link #acquire()}
+     */
+    public void release(@NonNull SQLiteDatabase db) {
+        CommodityCache.release(db);
+        synchronized (this) {
+            if (!mClosed) {
+                mIdleConnections.addFirst(db);
+                notifyAll();
+                return;
+            }
+            mOpenConnections--;
+        }
+        StatementCache.release(db);
+        db.close();
+    }
+
+    /**
+     * Closes the idle connections of the pool. Connections in use are closed when they are released.
+     * <p>This should be called when the book is closed, e.g. when another book is opened</p>
+     */
+    public void close() {
+        List<SQLiteDatabase> idleConnections;
+        synchronized (this) {
+            mClosed = true;
+            idleConnections = new ArrayList<>(mIdleConnections);
+            mIdleConnections.clear();
+            mOpenConnections -= idleConnections.size();
+            notifyAll();
+        }
+        for (SQLiteDatabase db : idleConnections) {
+            StatementCache.release(db);
+            CommodityCache.release(db);
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db.adapter;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.gnucash.android.db.DatabaseSchema.AccountBalanceEntry;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maintains the table of running account balances.
+ * <p>For every account and quantity denominator, the table holds the sum of the quantities of all the
+ * splits of non-template transactions (debits positive, credits negative). This lets the balance of an
+ * account be read without going over all of its splits.</p>
+ * <p>The table is kept up to date by {@link TransactionsDbAdapter}: the splits of a transaction are
+ * subtracted before it is modified or deleted and added back after it has been saved, all within the
+ * same database transaction. Code which modifies splits directly in the database should either do the
+ * same or call {@link #rebuild()} afterwards.</p>
+ */
+public class AccountBalancesDbAdapter {
+
+    private static final String LOG_TAG = "AccountBalancesDbAdapter";
+
+    /**
+     * Maximum number of transaction GUIDs bound in a single statement.
+     * SQLite does not allow more than 999 host parameters in a statement
+     */
+    private static final int MAX_BIND_ARGS = 500;
+
+    /**
+     * Signed quantity of a split, debits being positive
+     */
+    private static final String SIGNED_QUANTITY = "CASE WHEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE
+            + " = 'DEBIT' THEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM
+            + " ELSE - " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END";
+
+    /**
+     * Query computing the balances of all accounts from the splits.
+     * Columns are account UID, quantity denominator and balance numerator
+     */
+    private static final String COMPUTE_BALANCES_QUERY = "SELECT "
+            + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " AS " + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " , "
+            + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " AS " + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " , "
+            + "SUM ( " + SIGNED_QUANTITY + " ) AS " + AccountBalanceEntry.COLUMN_BALANCE_NUM
+            + " FROM " + SplitEntry.TABLE_NAME + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+            + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = "
+            + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+            + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0";
+
+    private final SQLiteDatabase mDb;
+
+    private SQLiteStatement mInsertRowStatement;
+
+    private SQLiteStatement mAddToRowStatement;
+
+    /**
+     * Creates an adapter for the balances of an open book database
+     * @param db SQLite database of the book
+     */
+    public AccountBalancesDbAdapter(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Adds the splits of the transactions to the account balances.
+     * <p>This should be called after the transactions and their splits have been saved.
+     * Template transactions are ignored.</p>
+     * @param transactionUIDs GUIDs of the transactions
+     */
+    public void addTransactions(@NonNull Collection<String> transactionUIDs) {
+        applyTransactions(transactionUIDs, 1);
+    }
+
+    /**
+     * Subtracts the splits of the transactions from the account balances.
+     * <p>This should be called before the transactions or their splits are modified or deleted.
+     * Template transactions are ignored.</p>
+     * @param transactionUIDs GUIDs of the transactions
+     */
+    public void subtractTransactions(@NonNull Collection<String> transactionUIDs) {
+        applyTransactions(transactionUIDs, -1);
+    }
+
+    /**
+     * Subtracts the splits of all transactions matching a condition from the account balances
+     * @param transactionWhere SQL condition on the transactions table. Columns should be qualified with the table name
+     * @param whereArgs Arguments for the condition
+     */
+    public void subtractTransactions(@NonNull String transactionWhere, String[] whereArgs) {
+        applyDeltas(transactionWhere, whereArgs, -1);
+    }
+
+    /**
+     * Adds the balances of the account {@code srcAccountUID} to those of {@code dstAccountUID} and clears them.
+     * <p>This should be used when all the splits of an account are reassigned to another account</p>
+     * @param srcAccountUID GUID of the account whose splits were moved
+     * @param dstAccountUID GUID of the account which received the splits
+     */
+    public void moveAccountBalances(@NonNull String srcAccountUID, @NonNull String dstAccountUID) {
+        mDb.beginTransaction();
+        try {
+            mDb.execSQL("INSERT OR IGNORE INTO " + AccountBalanceEntry.TABLE_NAME + " ( "
+                            + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " , " + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " ) "
+                            + "SELECT ? , " + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " FROM " + AccountBalanceEntry.TABLE_NAME
+                            + " WHERE " + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " = ?",
+                    new Object[]{dstAccountUID, srcAccountUID});
+            mDb.execSQL("UPDATE " + AccountBalanceEntry.TABLE_NAME + " SET " + AccountBalanceEntry.COLUMN_BALANCE_NUM + " = "
+                            + AccountBalanceEntry.COLUMN_BALANCE_NUM + " + IFNULL ( ( SELECT src." + AccountBalanceEntry.COLUMN_BALANCE_NUM
+                            + " FROM " + AccountBalanceEntry.TABLE_NAME + " AS src WHERE src." + AccountBalanceEntry.COLUMN_ACCOUNT_UID
+                            + " = ? AND src." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " = "
+                            + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " ) , 0 )"
+                            + " WHERE " + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " = ?",
+                    new Object[]{srcAccountUID, dstAccountUID});
+            mDb.delete(AccountBalanceEntry.TABLE_NAME, AccountBalanceEntry.COLUMN_ACCOUNT_UID + " = ?",
+                    new String[]{srcAccountUID});
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Recomputes the balances of all accounts from the splits in the database
+     */
+    public void rebuild() {
+        long startTime = System.nanoTime();
+        mDb.beginTransaction();
+        try {
+            mDb.delete(AccountBalanceEntry.TABLE_NAME, null, null);
+            mDb.execSQL("INSERT INTO " + AccountBalanceEntry.TABLE_NAME + " ( "
+                    + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " , "
+                    + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " , "
+                    + AccountBalanceEntry.COLUMN_BALANCE_NUM + " ) "
+                    + COMPUTE_BALANCES_QUERY
+                    + " GROUP BY " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        Log.d(LOG_TAG, String.format("Account balances rebuilt in %d ns", System.nanoTime() - startTime));
+    }
+
+    /**
+     * Deletes all the account balances.
+     * <p>Only use this when all the splits are deleted as well</p>
+     */
+    public void deleteAll() {
+        mDb.delete(AccountBalanceEntry.TABLE_NAME, null, null);
+    }
+
+    /**
+     * Compares the stored account balances with those computed from the splits
+     * @return GUIDs of the accounts whose stored balance differs from the splits. Empty if the table is consistent
+     */
+    public List<String> findInconsistentAccounts() {
+        String computed = "( " + COMPUTE_BALANCES_QUERY
+                + " GROUP BY " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " )";
+        String sql = "SELECT computed." + AccountBalanceEntry.COLUMN_ACCOUNT_UID
+                + " FROM " + computed + " AS computed LEFT OUTER JOIN " + AccountBalanceEntry.TABLE_NAME + " AS stored"
+                + " ON computed." + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " = stored." + AccountBalanceEntry.COLUMN_ACCOUNT_UID
+                + " AND computed." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " = stored." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM
+                + " WHERE IFNULL ( stored." + AccountBalanceEntry.COLUMN_BALANCE_NUM + " , 0 ) != computed." + AccountBalanceEntry.COLUMN_BALANCE_NUM
+                + " UNION SELECT stored." + AccountBalanceEntry.COLUMN_ACCOUNT_UID
+                + " FROM " + AccountBalanceEntry.TABLE_NAME + " AS stored LEFT OUTER JOIN " + computed + " AS computed"
+                + " ON computed." + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " = stored." + AccountBalanceEntry.COLUMN_ACCOUNT_UID
+                + " AND computed." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " = stored." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM
+                + " WHERE computed." + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " IS NULL"
+                + " AND stored." + AccountBalanceEntry.COLUMN_BALANCE_NUM + " != 0";
+
+        List<String> accountUIDs = new ArrayList<>();
+        Cursor cursor = mDb.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                accountUIDs.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return accountUIDs;
+    }
+
+    /**
+     * Checks if the stored account balances match the splits in the database
+     * @return {@code true} if the balances are consistent, {@code false} otherwise
+     * @see #findInconsistentAccounts()
+     */
+    public boolean isConsistent() {
+        return findInconsistentAccounts().isEmpty();
+    }
+
+    /**
+     * Returns the stored balances of a set of accounts, summed up per currency and denominator.
+     * <p>The cursor has three columns: the balance numerator, the quantity denominator and the currency code of the accounts</p>
+     * @param accountUIDs GUIDs of the accounts
+     * @return Cursor to the balances
+     */
+    public Cursor fetchBalances(@NonNull List<String> accountUIDs) {
+        return mDb.rawQuery("SELECT SUM ( " + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_BALANCE_NUM + " ) , "
+                + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " , "
+                + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_CURRENCY
+                + " FROM " + AccountBalanceEntry.TABLE_NAME + " INNER JOIN " + AccountEntry.TABLE_NAME + " ON "
+                + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " = "
+                + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_UID
+                + " WHERE " + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_ACCOUNT_UID
+                + " IN ( '" + TextUtils.join("' , '", accountUIDs) + "' )"
+                + " GROUP BY " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_CURRENCY + " , "
+                + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM, null);
+    }
+
+    /**
+     * Applies the splits of the transactions to the balances in batches of {@link #MAX_BIND_ARGS}
+     * @param transactionUIDs GUIDs of the transactions
+     * @param sign 1 to add the splits, -1 to subtract them
+     */
+    private void applyTransactions(Collection<String> transactionUIDs, int sign) {
+        List<String> uidList = new ArrayList<>(transactionUIDs);
+        for (int start = 0; start < uidList.size(); start += MAX_BIND_ARGS) {
+            List<String> batch = uidList.subList(start, Math.min(start + MAX_BIND_ARGS, uidList.size()));
+            String placeholders = TextUtils.join(" , ", Collections.nCopies(batch.size(), "?"));
+            applyDeltas(TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " IN ( " + placeholders + " )",
+                    batch.toArray(new String[batch.size()]), sign);
+        }
+    }
+
+    /**
+     * Computes the balance change caused by the splits of the matching transactions and applies it to the table
+     * @param transactionWhere SQL condition on the transactions table
+     * @param whereArgs Arguments for the condition
+     * @param sign 1 to add the splits, -1 to subtract them
+     */
+    private void applyDeltas(String transactionWhere, String[] whereArgs, int sign) {
+        Cursor cursor = mDb.rawQuery(COMPUTE_BALANCES_QUERY + " AND ( " + transactionWhere + " )"
+                + " GROUP BY " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM, whereArgs);
+        try {
+            while (cursor.moveToNext()) {
+                long delta = cursor.getLong(2);
+                if (delta == 0)
+                    continue;
+                String accountUID = cursor.getString(0);
+                long denominator = cursor.getLong(1);
+
+                SQLiteStatement insertStatement = getInsertRowStatement();
+                insertStatement.bindString(1, accountUID);
+                insertStatement.bindLong(2, denominator);
+                insertStatement.execute();
+
+                SQLiteStatement updateStatement = getAddToRowStatement();
+                updateStatement.bindLong(1, sign * delta);
+                updateStatement.bindString(2, accountUID);
+                updateStatement.bindLong(3, denominator);
+                updateStatement.execute();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private SQLiteStatement getInsertRowStatement() {
+        if (mInsertRowStatement == null) {
+            mInsertRowStatement = mDb.compileStatement("INSERT OR IGNORE INTO " + AccountBalanceEntry.TABLE_NAME + " ( "
+                    + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " , " + AccountBalanceEntry.COLUMN_QUANTITY_DENOM
+                    + " ) VALUES ( ? , ? )");
+        }
+        return mInsertRowStatement;
+    }
+
+    private SQLiteStatement getAddToRowStatement() {
+        if (mAddToRowStatement == null) {
+            mAddToRowStatement = mDb.compileStatement("UPDATE " + AccountBalanceEntry.TABLE_NAME + " SET "
+                    + AccountBalanceEntry.COLUMN_BALANCE_NUM + " = " + AccountBalanceEntry.COLUMN_BALANCE_NUM + " + ?"
+                    + " WHERE " + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " = ? AND "
+                    + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " = ?");
+        }
+        return mAddToRowStatement;
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db.adapter;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Pair;
+
+import org.gnucash.android.db.DatabaseSchema.AccountBalanceEntry;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory snapshot of the account tree, used to compute the balances of many accounts at once.
+ * <p>The accounts are numbered by their position in the snapshot and the tree is held in parent
+ * and children arrays indexed by that position. Balances including sub-accounts are computed from
+ * one grouped query over the splits (or over the stored account balances when no time range is given),
+ * instead of querying the descendants of every account level by level.</p>
+ * <p>A snapshot holds either the whole account tree, see {@link #load(SQLiteDatabase)}, or only the sub-tree
+ * of one account, see {@link #loadSubtree(SQLiteDatabase, String)}, which is enough for the balance of that account.</p>
+ */
+final class AccountTreeSnapshot {
+
+    private static final String LOG_TAG = "AccountTreeSnapshot";
+
+    private static final int NO_PARENT = -1;
+
+    /**
+     * Columns of the accounts read by {@link #readAccounts(Cursor, List, List, List, List, Set)}
+     */
+    private static final String[] ACCOUNT_PROJECTION = {AccountEntry.COLUMN_UID, AccountEntry.COLUMN_PARENT_ACCOUNT_UID,
+            AccountEntry.COLUMN_CURRENCY, AccountEntry.COLUMN_TYPE};
+
+    private final String[] mAccountUIDs;
+    private final String[] mCurrencyCodes;
+    private final boolean[] mDebitNormalBalances;
+    private final int[] mParents;
+    private final int[][] mChildren;
+
+    /**
+     * Account positions ordered so that every account comes after its parent
+     */
+    private final int[] mTopDownOrder;
+
+    private final Map<String, Integer> mPositions;
+
+    /**
+     * Whether the snapshot holds all the accounts of the book, or only a sub-tree
+     */
+    private final boolean mWholeTree;
+
+    private AccountTreeSnapshot(List<String> accountUIDs, List<String> parentUIDs,
+                                List<String> currencyCodes, List<String> accountTypes, boolean wholeTree) {
+        int count = accountUIDs.size();
+        mWholeTree = wholeTree;
+        mAccountUIDs = accountUIDs.toArray(new String[count]);
+        mCurrencyCodes = currencyCodes.toArray(new String[count]);
+        mDebitNormalBalances = new boolean[count];
+        mParents = new int[count];
+        mPositions = new HashMap<>(count * 2);
+
+        for (int i = 0; i < count; i++) {
+            mPositions.put(mAccountUIDs[i], i);
+            mDebitNormalBalances[i] = AccountType.valueOf(accountTypes.get(i)).hasDebitNormalBalance();
+        }
+
+        int[] childCounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            String parentUID = parentUIDs.get(i);
+            Integer parent = parentUID == null ? null : mPositions.get(parentUID);
+            mParents[i] = parent == null ? NO_PARENT : parent;
+            if (mParents[i] != NO_PARENT)
+                childCounts[mParents[i]]++;
+        }
+
+        mChildren = new int[count][];
+        for (int i = 0; i < count; i++) {
+            mChildren[i] = new int[childCounts[i]];
+            childCounts[i] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int parent = mParents[i];
+            if (parent != NO_PARENT)
+                mChildren[parent][childCounts[parent]++] = i;
+        }
+
+        // breadth-first from the top-level accounts. Accounts caught in a parent cycle are never reached
+        int[] order = new int[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (mParents[i] == NO_PARENT)
+                order[size++] = i;
+        }
+        for (int head = 0; head < size; head++) {
+            for (int child : mChildren[order[head]]) {
+                order[size++] = child;
+            }
+        }
+        if (size < count) {
+            Log.w(LOG_TAG, String.format("%d accounts are not reachable from a top-level account", count - size));
+        }
+        mTopDownOrder = new int[size];
+        System.arraycopy(order, 0, mTopDownOrder, 0, size);
+    }
+
+    /**
+     * Loads the account tree from the database
+     * @param db Database of the book
+     * @return Snapshot of the account tree
+     */
+    static AccountTreeSnapshot load(@NonNull SQLiteDatabase db) {
+        List<String> accountUIDs = new ArrayList<>();
+        List<String> parentUIDs = new ArrayList<>();
+        List<String> currencyCodes = new ArrayList<>();
+        List<String> accountTypes = new ArrayList<>();
+
+        Cursor cursor = db.query(AccountEntry.TABLE_NAME, ACCOUNT_PROJECTION,
+                null, null, null, null, AccountEntry._ID + " ASC");
+        readAccounts(cursor, accountUIDs, parentUIDs, currencyCodes, accountTypes, new HashSet<String>());
+        return new AccountTreeSnapshot(accountUIDs, parentUIDs, currencyCodes, accountTypes, true);
+    }
+
+    /**
+     * Loads an account and its descendants from the database.
+     * <p>The sub-tree is read level by level through the index on the parent account, so only the rows
+     * of the sub-tree are read, instead of the whole account table</p>
+     * @param db Database of the book
+     * @param accountUID GUID of the account at the top of the sub-tree
+     * @return Snapshot of the sub-tree, empty if the account does not exist
+     */
+    static AccountTreeSnapshot loadSubtree(@NonNull SQLiteDatabase db, @NonNull String accountUID) {
+        List<String> accountUIDs = new ArrayList<>();
+        List<String> parentUIDs = new ArrayList<>();
+        List<String> currencyCodes = new ArrayList<>();
+        List<String> accountTypes = new ArrayList<>();
+
+        Cursor cursor = db.query(AccountEntry.TABLE_NAME, ACCOUNT_PROJECTION,
+                AccountEntry.COLUMN_UID + " = ?", new String[]{accountUID}, null, null, null);
+        Set<String> readUIDs = new HashSet<>();
+        int levelStart = 0;
+        int levelEnd = readAccounts(cursor, accountUIDs, parentUIDs, currencyCodes, accountTypes, readUIDs);
+        while (levelEnd > levelStart) {
+            List<String> levelUIDs = accountUIDs.subList(levelStart, levelEnd);
+            cursor = db.query(AccountEntry.TABLE_NAME, ACCOUNT_PROJECTION,
+                    AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " IN ( '" + TextUtils.join("' , '", levelUIDs) + "' )",
+                    null, null, null, AccountEntry._ID + " ASC");
+            levelStart = levelEnd;
+            levelEnd = readAccounts(cursor, accountUIDs, parentUIDs, currencyCodes, accountTypes, readUIDs);
+        }
+        return new AccountTreeSnapshot(accountUIDs, parentUIDs, currencyCodes, accountTypes, false);
+    }
+
+    /**
+     * Appends the accounts of a cursor with the {@link #ACCOUNT_PROJECTION} columns to the lists, and closes it.
+     * Accounts which are already in the lists are skipped, so that a cycle of parent accounts is only read once
+     * @return Number of accounts in the lists
+     */
+    private static int readAccounts(Cursor cursor, List<String> accountUIDs, List<String> parentUIDs,
+                                    List<String> currencyCodes, List<String> accountTypes, Set<String> readUIDs) {
+        try {
+            while (cursor.moveToNext()) {
+                if (!readUIDs.add(cursor.getString(0)))
+                    continue;
+                accountUIDs.add(cursor.getString(0));
+                parentUIDs.add(cursor.getString(1));
+                currencyCodes.add(cursor.getString(2));
+                accountTypes.add(cursor.getString(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        return accountUIDs.size();
+    }
+
+    /**
+     * Computes the balances of accounts, including their sub-accounts.
+     * <p>Each balance is in the currency of its account. Amounts in other currencies are converted with
+     * the latest price in the database and ignored if there is no price. Amounts in the currency "XXX" are ignored.
+     * Unknown account GUIDs are left out of the result.</p>
+     * <p>Pass -1 for either timestamp to leave the time range open on that side</p>
+     * @param db Database of the book
+     * @param accountUIDs GUIDs of the accounts
+     * @param startTimestamp Start of the time range in milliseconds
+     * @param endTimestamp End of the time range in milliseconds
+     * @return Map of account GUID to balance
+     */
+    Map<String, Money> computeBalances(@NonNull SQLiteDatabase db, @NonNull Collection<String> accountUIDs,
+                                       long startTimestamp, long endTimestamp) {
+        int count = mAccountUIDs.length;
+        Map<String, Money> balances = new HashMap<>(accountUIDs.size() * 2);
+
+        // mark the requested accounts and all their descendants
+        boolean[] included = new boolean[count];
+        int includedCount = 0;
+        int[] stack = new int[count];
+        for (String accountUID : accountUIDs) {
+            Integer position = mPositions.get(accountUID);
+            if (position == null || included[position])
+                continue;
+            int top = 0;
+            stack[top++] = position;
+            while (top > 0) {
+                int current = stack[--top];
+                if (included[current])
+                    continue;
+                included[current] = true;
+                includedCount++;
+                for (int child : mChildren[current]) {
+                    stack[top++] = child;
+                }
+            }
+        }
+        if (includedCount == 0)
+            return balances;
+
+        // the balances of the whole book are only loaded at once when all of them are needed
+        List<String> subtreeUIDs = null;
+        if (includedCount < count || !mWholeTree) {
+            subtreeUIDs = new ArrayList<>(includedCount);
+            for (int i = 0; i < count; i++) {
+                if (included[i])
+                    subtreeUIDs.add(mAccountUIDs[i]);
+            }
+        }
+
+        BigDecimal[] ownBalances = loadOwnBalances(db, subtreeUIDs, startTimestamp, endTimestamp);
+
+        // roll up from the leaves, grouping the amounts by currency
+        @SuppressWarnings("unchecked")
+        Map<String, BigDecimal>[] totals = new Map[count];
+        for (int i = mTopDownOrder.length - 1; i >= 0; i--) {
+            int position = mTopDownOrder[i];
+            if (!included[position])
+                continue;
+            if (ownBalances[position] != null)
+                addAmount(totals, position, mCurrencyCodes[position], ownBalances[position]);
+            int parent = mParents[position];
+            if (parent != NO_PARENT && included[parent] && totals[position] != null) {
+                for (Map.Entry<String, BigDecimal> entry : totals[position].entrySet()) {
+                    addAmount(totals, parent, entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        PriceConverter converter = new PriceConverter(db);
+        for (String accountUID : accountUIDs) {
+            Integer position = mPositions.get(accountUID);
+            if (position == null)
+                continue;
+            balances.put(accountUID, toMoney(totals[position], mCurrencyCodes[position],
+                    mDebitNormalBalances[position], converter));
+        }
+        return balances;
+    }
+
+    /**
+     * Loads the signed sum of the split quantities of each account, without sub-accounts
+     * @param db Database of the book
+     * @param accountUIDs GUIDs of the accounts to load, or {@code null} to load all accounts
+     * @param startTimestamp Start of the time range in milliseconds, or -1
+     * @param endTimestamp End of the time range in milliseconds, or -1
+     * @return Balances indexed by account position. Entries are {@code null} for accounts without splits
+     */
+    private BigDecimal[] loadOwnBalances(SQLiteDatabase db, List<String> accountUIDs,
+                                         long startTimestamp, long endTimestamp) {
+        String sql;
+        String[] selectionArgs = null;
+        if (startTimestamp == -1 && endTimestamp == -1) {
+            sql = "SELECT " + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " , "
+                    + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " , "
+                    + AccountBalanceEntry.COLUMN_BALANCE_NUM
+                    + " FROM " + AccountBalanceEntry.TABLE_NAME;
+            if (accountUIDs != null)
+                sql += " WHERE " + AccountBalanceEntry.COLUMN_ACCOUNT_UID
+                        + " IN ( '" + TextUtils.join("' , '", accountUIDs) + "' )";
+        } else {
+            String accountColumn = SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID;
+            String denomColumn = SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM;
+            String timestampColumn = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP;
+            sql = "SELECT " + accountColumn + " , " + denomColumn + " , SUM ( CASE WHEN "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END )"
+                    + " FROM " + SplitEntry.TABLE_NAME + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                    + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0";
+            if (startTimestamp != -1 && endTimestamp != -1) {
+                sql += " AND " + timestampColumn + " BETWEEN ? AND ?";
+                selectionArgs = new String[]{String.valueOf(startTimestamp), String.valueOf(endTimestamp)};
+            } else if (startTimestamp == -1) {
+                sql += " AND " + timestampColumn + " <= ?";
+                selectionArgs = new String[]{String.valueOf(endTimestamp)};
+            } else {
+                sql += " AND " + timestampColumn + " >= ?";
+                selectionArgs = new String[]{String.valueOf(startTimestamp)};
+            }
+            if (accountUIDs != null)
+                sql += " AND " + accountColumn + " IN ( '" + TextUtils.join("' , '", accountUIDs) + "' )";
+            sql += " GROUP BY " + accountColumn + " , " + denomColumn;
+        }
+
+        BigDecimal[] ownBalances = new BigDecimal[mAccountUIDs.length];
+        Cursor cursor = db.rawQuery(sql, selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                Integer position = mPositions.get(cursor.getString(0));
+                long amountNum = cursor.getLong(2);
+                if (position == null || amountNum == 0)
+                    continue;
+                BigDecimal amount = Money.getBigDecimal(amountNum, cursor.getLong(1));
+                ownBalances[position] = ownBalances[position] == null ? amount : ownBalances[position].add(amount);
+            }
+        } finally {
+            cursor.close();
+        }
+        return ownBalances;
+    }
+
+    private static void addAmount(Map<String, BigDecimal>[] totals, int position, String currencyCode, BigDecimal amount) {
+        Map<String, BigDecimal> total = totals[position];
+        if (total == null) {
+            total = new HashMap<>(4);
+            totals[position] = total;
+        }
+        BigDecimal previous = total.get(currencyCode);
+        total.put(currencyCode, previous == null ? amount : previous.add(amount));
+    }
+
+    private static Money toMoney(Map<String, BigDecimal> amounts, String currencyCode,
+                                 boolean hasDebitNormalBalance, PriceConverter converter) {
+        Commodity commodity = Commodity.getInstance(currencyCode);
+        BigDecimal total = BigDecimal.ZERO;
+        if (amounts != null) {
+            for (Map.Entry<String, BigDecimal> entry : amounts.entrySet()) {
+                String amountCurrencyCode = entry.getKey();
+                BigDecimal amount = entry.getValue();
+                if (amountCurrencyCode.equals("XXX") || amount.signum() == 0) {
+                    // ignore custom currency
+                    continue;
+                }
+                if (amountCurrencyCode.equals(currencyCode)) {
+                    total = total.add(amount);
+                } else {
+                    BigDecimal converted = converter.convert(amount, amountCurrencyCode, commodity);
+                    if (converted != null)
+                        total = total.add(converted);
+                }
+            }
+        }
+        if (!hasDebitNormalBalance)
+            total = total.negate();
+        return new Money(total, commodity);
+    }
+
+    /**
+     * Converts amounts between currencies using the latest prices, looking up each currency pair only once
+     */
+    private static class PriceConverter {
+        private final CommodityCache mCommodityCache;
+        private final Map<String, Pair<Long, Long>> mPrices = new HashMap<>();
+
+        PriceConverter(SQLiteDatabase db) {
+            mCommodityCache = CommodityCache.getInstance(db);
+        }
+
+        /**
+         * Converts an amount to another currency
+         * @param amount Amount to convert
+         * @param fromCurrencyCode Currency of the amount
+         * @param toCommodity Target currency
+         * @return Converted amount, or {@code null} if there is no price for the currency pair
+         */
+        BigDecimal convert(BigDecimal amount, String fromCurrencyCode, Commodity toCommodity) {
+            String key = fromCurrencyCode + "/" + toCommodity.getCurrencyCode();
+            Pair<Long, Long> price = mPrices.get(key);
+            if (price == null) {
+                price = mCommodityCache.getPriceByCurrencyCode(fromCurrencyCode, toCommodity.getCurrencyCode());
+                mPrices.put(key, price);
+            }
+            if (price.first <= 0 || price.second <= 0) {
+                // no price exists, just ignore it
+                return null;
+            }
+            return amount.multiply(new BigDecimal(price.first))
+                    .divide(new BigDecimal(price.second), toCommodity.getSmallestFractionDigits(), BigDecimal.ROUND_HALF_EVEN);
+        }
+    }
+}
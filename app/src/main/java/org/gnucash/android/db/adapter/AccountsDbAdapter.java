@@ -35,6 +35,7 @@ import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
 import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
+import org.gnucash.android.model.MoneyAccumulator;
 import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
 import org.gnucash.android.model.TransactionType;
@@ -43,9 +44,12 @@ import org.gnucash.android.util.TimestampHelper;
 import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import static org.gnucash.android.db.DatabaseSchema.AccountEntry;
 import static org.gnucash.android.db.DatabaseSchema.SplitEntry;
@@ -816,29 +820,41 @@ public class AccountsDbAdapter extends DatabaseAdapter<Account> {
      * @return Money balance of the account types
      */
     public Money getAccountBalance(List<AccountType> accountTypes, long start, long end){
-        Money balance = Money.createZeroInstance(GnuCashApplication.getDefaultCurrencyCode());
+        MoneyAccumulator balance = new MoneyAccumulator(GnuCashApplication.getDefaultCurrencyCode());
         for (AccountType accountType : accountTypes) {
-            balance = balance.add(getAccountBalance(accountType, start, end));
+            balance.add(getAccountBalance(accountType, start, end));
         }
-        return balance;
+        return balance.toMoney();
     }
 
     private Money computeBalance(String accountUID, long startTimestamp, long endTimestamp) {
         Log.d(LOG_TAG, "Computing account balance for account ID " + accountUID);
-        String currencyCode = mTransactionsAdapter.getAccountCurrencyCode(accountUID);
-        boolean hasDebitNormalBalance = getAccountType(accountUID).hasDebitNormalBalance();
-
-        List<String> accountsList = getDescendantAccountUIDs(accountUID,
-                null, null);
-
-        accountsList.add(0, accountUID);
+        // only the sub-tree of the account is loaded, instead of the whole account tree
+        Money balance = AccountTreeSnapshot.loadSubtree(mDb, accountUID)
+                .computeBalances(mDb, Collections.singletonList(accountUID), startTimestamp, endTimestamp)
+                .get(accountUID);
+        if (balance == null)
+            throw new IllegalArgumentException("Account " + accountUID + " does not exist");
+        return balance;
+    }
 
-        Log.d(LOG_TAG, "all account list : " + accountsList.size());
-        SplitsDbAdapter splitsDbAdapter = mTransactionsAdapter.getSplitDbAdapter();
-        return (startTimestamp == -1 && endTimestamp == -1)
-                ? splitsDbAdapter.computeSplitBalance(accountsList, currencyCode, hasDebitNormalBalance)
-                : splitsDbAdapter.computeSplitBalance(accountsList, currencyCode, hasDebitNormalBalance, startTimestamp, endTimestamp);
-        
+    /**
+     * Returns the balances of several accounts while taking sub-accounts into consideration.
+     * <p>The balances are computed together from a snapshot of the account tree, which is much faster than
+     * calling {@link #getAccountBalance(String, long, long)} for each account.
+     * Each balance is in the currency of its account. Pass -1 for either timestamp to leave the time range open on that side.</p>
+     * @param accountUIDs GUIDs of the accounts
+     * @param startTimestamp the start timestamp of the time range
+     * @param endTimestamp the end timestamp of the time range
+     * @return Map of account GUID to the balance of the account including sub-accounts.
+     * Accounts which do not exist are not in the map
+     */
+    public Map<String, Money> getAccountBalances(@NonNull Collection<String> accountUIDs, long startTimestamp, long endTimestamp) {
+        long start = System.nanoTime();
+        Map<String, Money> balances = AccountTreeSnapshot.load(mDb)
+                .computeBalances(mDb, accountUIDs, startTimestamp, endTimestamp);
+        Log.d(LOG_TAG, String.format("%d account balances computed in %d ns", balances.size(), System.nanoTime() - start));
+        return balances;
     }
 
     /**
@@ -1012,15 +1028,35 @@ public class AccountsDbAdapter extends DatabaseAdapter<Account> {
      * @return Number of sub accounts
      */
     public int getSubAccountCount(String accountUID){
-        //TODO: at some point when API level 11 and above only is supported, use DatabaseUtils.queryNumEntries
+        return (int) mStatementCache.queryForLong("SELECT COUNT(*) FROM " + AccountEntry.TABLE_NAME
+                + " WHERE " + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " = ?", accountUID);
+    }
 
-        String queryCount = "SELECT COUNT(*) FROM " + AccountEntry.TABLE_NAME + " WHERE "
-                + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " = ?";
-        Cursor cursor = mDb.rawQuery(queryCount, new String[]{accountUID});
-        cursor.moveToFirst();
-        int count = cursor.getInt(0);
-        cursor.close();
-        return count;
+    /**
+     * Returns the number of first level sub-accounts of several accounts, with one query.
+     * @param accountUIDs GUIDs of the accounts
+     * @return Map of account GUID to the number of sub-accounts. Accounts without sub-accounts are not in the map
+     * @see #getSubAccountCount(String)
+     */
+    public Map<String, Integer> getSubAccountCounts(@NonNull Collection<String> accountUIDs) {
+        Map<String, Integer> subAccountCounts = new HashMap<>();
+        if (accountUIDs.isEmpty())
+            return subAccountCounts;
+
+        Cursor cursor = mDb.rawQuery("SELECT " + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + ", COUNT(*)"
+                + " FROM " + AccountEntry.TABLE_NAME
+                + " WHERE " + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " IS NOT NULL"
+                + " GROUP BY " + AccountEntry.COLUMN_PARENT_ACCOUNT_UID, null);
+        try {
+            while (cursor.moveToNext()) {
+                String parentUID = cursor.getString(0);
+                if (accountUIDs.contains(parentUID))
+                    subAccountCounts.put(parentUID, cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return subAccountCounts;
     }
 
     /**
@@ -1107,6 +1143,48 @@ public class AccountsDbAdapter extends DatabaseAdapter<Account> {
         throw new IllegalArgumentException("account UID: " + accountUID + " does not exist");
     }
 
+    /**
+     * Recomputes the full names of all accounts from their names and the account hierarchy.
+     * <p>The full names are updated one level of the hierarchy at a time, so the number of
+     * statements executed depends on the depth of the hierarchy and not on the number of accounts.</p>
+     */
+    public void updateAllAccountFullNames() {
+        long startTime = System.nanoTime();
+        mDb.beginTransaction();
+        try {
+            mDb.execSQL("UPDATE " + AccountEntry.TABLE_NAME + " SET " + AccountEntry.COLUMN_FULL_NAME
+                    + " = CASE WHEN " + AccountEntry.COLUMN_TYPE + " = ? THEN ? ELSE NULL END",
+                    new Object[]{AccountType.ROOT.name(), ROOT_ACCOUNT_FULL_NAME});
+            // top level accounts are not prefixed with the name of the ROOT account
+            mDb.execSQL("UPDATE " + AccountEntry.TABLE_NAME + " SET " + AccountEntry.COLUMN_FULL_NAME
+                    + " = " + AccountEntry.COLUMN_NAME + " WHERE " + AccountEntry.COLUMN_PARENT_ACCOUNT_UID
+                    + " IN ( SELECT " + AccountEntry.COLUMN_UID + " FROM " + AccountEntry.TABLE_NAME
+                    + " WHERE " + AccountEntry.COLUMN_TYPE + " = ? )",
+                    new Object[]{AccountType.ROOT.name()});
+            SQLiteStatement nextLevel = mDb.compileStatement("UPDATE " + AccountEntry.TABLE_NAME
+                    + " SET " + AccountEntry.COLUMN_FULL_NAME + " = ( SELECT parent." + AccountEntry.COLUMN_FULL_NAME
+                    + " FROM " + AccountEntry.TABLE_NAME + " AS parent WHERE parent." + AccountEntry.COLUMN_UID
+                    + " = " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " ) || '"
+                    + ACCOUNT_NAME_SEPARATOR + "' || " + AccountEntry.COLUMN_NAME
+                    + " WHERE " + AccountEntry.COLUMN_FULL_NAME + " IS NULL AND "
+                    + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " IN ( SELECT " + AccountEntry.COLUMN_UID
+                    + " FROM " + AccountEntry.TABLE_NAME + " WHERE " + AccountEntry.COLUMN_FULL_NAME + " IS NOT NULL )");
+            try {
+                int passes = 1;
+                while (nextLevel.executeUpdateDelete() > 0) {
+                    passes++;
+                }
+                Log.d(LOG_TAG, String.format("Full names of accounts updated in %d passes, %d ns",
+                        passes, System.nanoTime() - startTime));
+            } finally {
+                nextLevel.close();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
 
     /**
      * Returns <code>true</code> if the account with unique ID <code>accountUID</code> is a placeholder account.
@@ -1269,12 +1347,14 @@ public class AccountsDbAdapter extends DatabaseAdapter<Account> {
         // clearing the split table first, but only needs a little more that 1s
         // if the split table is cleared first.
         mDb.delete(DatabaseSchema.PriceEntry.TABLE_NAME, null, null);
+        CommodityCache.getInstance(mDb).invalidatePrices();
         mDb.delete(SplitEntry.TABLE_NAME, null, null);
         mDb.delete(TransactionEntry.TABLE_NAME, null, null);
         mDb.delete(DatabaseSchema.ScheduledActionEntry.TABLE_NAME, null, null);
         mDb.delete(DatabaseSchema.BudgetAmountEntry.TABLE_NAME, null, null);
         mDb.delete(DatabaseSchema.BudgetEntry.TABLE_NAME, null, null);
         mDb.delete(DatabaseSchema.RecurrenceEntry.TABLE_NAME, null, null);
+        mDb.delete(DatabaseSchema.AccountBalanceEntry.TABLE_NAME, null, null);
 
         return mDb.delete(AccountEntry.TABLE_NAME, null, null);
     }
@@ -23,6 +23,7 @@ import android.support.annotation.NonNull;
 import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.model.BudgetAmount;
 import org.gnucash.android.model.Money;
+import org.gnucash.android.model.MoneyAccumulator;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -132,10 +133,10 @@ public class BudgetAmountsDbAdapter extends DatabaseAdapter<BudgetAmount> {
      */
     public Money getBudgetAmountSum(String accountUID){
         List<BudgetAmount> budgetAmounts = getBudgetAmounts(accountUID);
-        Money sum = Money.createZeroInstance(getAccountCurrencyCode(accountUID));
+        MoneyAccumulator sum = new MoneyAccumulator(getAccountCurrencyCode(accountUID));
         for (BudgetAmount budgetAmount : budgetAmounts) {
-            sum = sum.add(budgetAmount.getAmount());
+            sum.add(budgetAmount.getAmount());
         }
-        return sum;
+        return sum.toMoney();
     }
 }
@@ -31,7 +31,10 @@ import org.gnucash.android.model.Money;
 import org.gnucash.android.model.Recurrence;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -171,6 +174,52 @@ public class BudgetsDbAdapter extends DatabaseAdapter<Budget>{
         return budgets;
     }
 
+    /**
+     * Returns the budgets associated with several accounts, loading each budget only once
+     * <p>The (small) table of budget amounts is read with one query, instead of one query per account
+     * with {@link #getAccountBudgets(String)}</p>
+     * @param accountUIDs GUIDs of the accounts
+     * @return Map of account GUID to the budgets of the account, sorted by name.
+     * Accounts without budgets are not in the map
+     */
+    public Map<String, List<Budget>> getAccountsBudgets(@NonNull Collection<String> accountUIDs) {
+        Map<String, List<Budget>> accountBudgets = new HashMap<>();
+        if (accountUIDs.isEmpty())
+            return accountBudgets;
+
+        Cursor cursor = mDb.rawQuery("SELECT DISTINCT "
+                + BudgetAmountEntry.TABLE_NAME + "." + BudgetAmountEntry.COLUMN_ACCOUNT_UID + ", "
+                + BudgetEntry.TABLE_NAME + "." + BudgetEntry.COLUMN_UID + ", "
+                + BudgetEntry.TABLE_NAME + "." + BudgetEntry.COLUMN_NAME
+                + " FROM " + BudgetEntry.TABLE_NAME + " INNER JOIN " + BudgetAmountEntry.TABLE_NAME
+                + " ON " + BudgetEntry.TABLE_NAME + "." + BudgetEntry.COLUMN_UID + " = "
+                + BudgetAmountEntry.TABLE_NAME + "." + BudgetAmountEntry.COLUMN_BUDGET_UID
+                + " ORDER BY " + BudgetEntry.TABLE_NAME + "." + BudgetEntry.COLUMN_NAME + " ASC", null);
+        Map<String, Budget> budgets = new HashMap<>();
+        try {
+            while (cursor.moveToNext()) {
+                String accountUID = cursor.getString(0);
+                if (!accountUIDs.contains(accountUID))
+                    continue;
+                String budgetUID = cursor.getString(1);
+                Budget budget = budgets.get(budgetUID);
+                if (budget == null) {
+                    budget = getRecord(budgetUID);
+                    budgets.put(budgetUID, budget);
+                }
+                List<Budget> budgetList = accountBudgets.get(accountUID);
+                if (budgetList == null) {
+                    budgetList = new ArrayList<>();
+                    accountBudgets.put(accountUID, budgetList);
+                }
+                budgetList.add(budget);
+            }
+        } finally {
+            cursor.close();
+        }
+        return accountBudgets;
+    }
+
     /**
      * Returns the sum of the account balances for all accounts in a budget for a specified time period
      * <p>This represents the total amount spent within the account of this budget in a given period</p>
@@ -9,7 +9,6 @@ import android.util.Log;
 import com.crashlytics.android.Crashlytics;
 
 import org.gnucash.android.app.GnuCashApplication;
-import org.gnucash.android.db.DatabaseSchema;
 import org.gnucash.android.model.Commodity;
 
 import static org.gnucash.android.db.DatabaseSchema.CommodityEntry;
@@ -51,6 +50,11 @@ public class CommoditiesDbAdapter extends DatabaseAdapter<Commodity> {
         return GnuCashApplication.getCommoditiesDbAdapter();
     }
 
+    @Override
+    protected void onRecordsChanged() {
+        CommodityCache.getInstance(mDb).invalidateCommodities();
+    }
+
     @Override
     protected @NonNull SQLiteStatement setBindings(@NonNull SQLiteStatement stmt, @NonNull final Commodity commodity) {
         stmt.clearBindings();
@@ -123,17 +127,6 @@ public class CommoditiesDbAdapter extends DatabaseAdapter<Commodity> {
     }
 
     public String getCurrencyCode(@NonNull String guid) {
-        Cursor cursor = mDb.query(mTableName, new String[]{CommodityEntry.COLUMN_MNEMONIC},
-                DatabaseSchema.CommonColumns.COLUMN_UID + " = ?", new String[]{guid},
-                null, null, null);
-        try {
-            if (cursor.moveToNext()) {
-                return cursor.getString(cursor.getColumnIndexOrThrow(CommodityEntry.COLUMN_MNEMONIC));
-            } else {
-                throw new IllegalArgumentException("guid " + guid + " not exits in commodity db");
-            }
-        } finally {
-            cursor.close();
-        }
+        return CommodityCache.getInstance(mDb).getCurrencyCode(guid);
     }
 }
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db.adapter;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.Pair;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.model.Commodity;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * In-memory cache of the commodities and latest prices of a book.
+ * <p>Commodities are looked up by currency code or GUID, and prices by commodity/currency pair,
+ * very often while computing balances. The cache answers those lookups without a trip to the database.
+ * There is one cache per book database.</p>
+ * <p>The {@link CommoditiesDbAdapter} and {@link PricesDbAdapter} invalidate the cache of their database
+ * whenever they write, so lookups never run SQL when the entries are cached. Code writing commodities or prices
+ * with raw SQL has to invalidate the cache itself. Entries read inside a database transaction are discarded
+ * once the transaction is over, in case it was rolled back.</p>
+ * <p>The commodities returned are copies, which callers are free to modify.</p>
+ */
+public final class CommodityCache {
+
+    private static final String LOG_TAG = "CommodityCache";
+
+    /**
+     * Caches of the open databases
+     */
+    private static final Map<SQLiteDatabase, CommodityCache> sCaches = new IdentityHashMap<>();
+
+    private final SQLiteDatabase mDb;
+
+    /**
+     * Commodities of the book, indexed by currency code (mnemonic)
+     */
+    private final Map<String, Commodity> mCommodities = new HashMap<>();
+
+    /**
+     * Currency codes (mnemonics) of the commodities, indexed by commodity GUID
+     */
+    private final Map<String, String> mCurrencyCodes = new HashMap<>();
+
+    /**
+     * Latest prices, indexed by {@link #priceKey(String, String)}
+     */
+    private final Map<String, Pair<Long, Long>> mPrices = new HashMap<>();
+
+    private boolean mCommoditiesLoaded;
+
+    /**
+     * Whether some of the cached entries were read inside a database transaction
+     */
+    private boolean mReadInTransaction;
+    private CommoditiesDbAdapter mCommoditiesDbAdapter;
+    private PricesDbAdapter mPricesDbAdapter;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    private CommodityCache(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Returns the cache for a book database
+     * @param db SQLite database of the book
+     * @return Commodity cache of the book
+     */
+    public static CommodityCache getInstance(@NonNull SQLiteDatabase db) {
+        synchronized (sCaches) {
+            Iterator<CommodityCache> iterator = sCaches.values().iterator();
+            while (iterator.hasNext()) {
+                if (!iterator.next().mDb.isOpen())
+                    iterator.remove();
+            }
+
+            CommodityCache cache = sCaches.get(db);
+            if (cache == null) {
+                cache = new CommodityCache(db);
+                sCaches.put(db, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Drops the cache of a database, before the database is closed
+     * @param db SQLite database of the book
+     */
+    public static void release(@NonNull SQLiteDatabase db) {
+        synchronized (sCaches) {
+            sCaches.remove(db);
+        }
+    }
+
+    /**
+     * Returns the cache for the currently active book
+     * @return Commodity cache of the active book
+     */
+    public static CommodityCache getInstance() {
+        return getInstance(GnuCashApplication.getActiveDb());
+    }
+
+    /**
+     * Returns the commodity with a currency code
+     * @param currencyCode Currency code (mnemonic) of the commodity
+     * @return Copy of the commodity, or {@code null} if there is no such commodity in the book
+     */
+    public @Nullable Commodity getCommodity(@NonNull String currencyCode) {
+        Commodity commodity;
+        synchronized (this) {
+            validate();
+            countLookup(mCommoditiesLoaded);
+            loadCommodities();
+            commodity = mCommodities.get(currencyCode);
+        }
+        return commodity == null ? null : new Commodity(commodity);
+    }
+
+    /**
+     * Returns the GUID of the commodity with a currency code
+     * @param currencyCode Currency code (mnemonic) of the commodity
+     * @return GUID of the commodity
+     * @throws IllegalArgumentException if there is no such commodity in the book
+     */
+    public synchronized @NonNull String getCommodityUID(@NonNull String currencyCode) {
+        validate();
+        countLookup(mCommoditiesLoaded);
+        loadCommodities();
+        Commodity commodity = mCommodities.get(currencyCode);
+        if (commodity == null)
+            throw new IllegalArgumentException("Currency code not found in commodities");
+        return commodity.getUID();
+    }
+
+    /**
+     * Returns the currency code (mnemonic) of the commodity with a GUID
+     * @param commodityUID GUID of the commodity
+     * @return Currency code of the commodity
+     * @throws IllegalArgumentException if there is no such commodity in the book
+     */
+    public synchronized @NonNull String getCurrencyCode(@NonNull String commodityUID) {
+        validate();
+        countLookup(mCommoditiesLoaded);
+        loadCommodities();
+        String currencyCode = mCurrencyCodes.get(commodityUID);
+        if (currencyCode == null)
+            throw new IllegalArgumentException("guid " + commodityUID + " not exits in commodity db");
+        return currencyCode;
+    }
+
+    /**
+     * Returns the latest price for a commodity/currency pair
+     * @param commodityUID GUID of the commodity which is starting point for conversion
+     * @param currencyUID GUID of target commodity for the conversion
+     * @return The numerator/denominator pair of the price, or (0, 0) if there is no price
+     * @see PricesDbAdapter#getPrice(String, String)
+     */
+    public synchronized @NonNull Pair<Long, Long> getPrice(@NonNull String commodityUID, @NonNull String currencyUID) {
+        validate();
+        String key = priceKey(commodityUID, currencyUID);
+        Pair<Long, Long> price = mPrices.get(key);
+        countLookup(price != null);
+        if (price == null) {
+            if (mPricesDbAdapter == null)
+                mPricesDbAdapter = new PricesDbAdapter(mDb);
+            price = mPricesDbAdapter.getPrice(commodityUID, currencyUID);
+            mPrices.put(key, price);
+            mReadInTransaction |= mDb.inTransaction();
+        }
+        return price;
+    }
+
+    /**
+     * Returns the latest price for converting between two currencies
+     * @param fromCurrencyCode Currency code of the starting point of the conversion
+     * @param toCurrencyCode Currency code of the target of the conversion
+     * @return The numerator/denominator pair of the price, or (0, 0) if there is no price
+     */
+    public @NonNull Pair<Long, Long> getPriceByCurrencyCode(@NonNull String fromCurrencyCode, @NonNull String toCurrencyCode) {
+        return getPrice(getCommodityUID(fromCurrencyCode), getCommodityUID(toCurrencyCode));
+    }
+
+    /**
+     * Loads all commodities of the book now, so that later lookups of commodities do not access the database
+     */
+    public synchronized void preload() {
+        validate();
+        loadCommodities();
+    }
+
+    /**
+     * Discards all cached commodities and prices.
+     * <p>This is called by the {@link CommoditiesDbAdapter} after writing commodities</p>
+     */
+    public synchronized void invalidateCommodities() {
+        mCommodities.clear();
+        mCurrencyCodes.clear();
+        mCommoditiesLoaded = false;
+        mPrices.clear();
+        mReadInTransaction = false;
+    }
+
+    /**
+     * Discards all cached prices.
+     * <p>This is called by the {@link PricesDbAdapter} after writing prices</p>
+     */
+    public synchronized void invalidatePrices() {
+        mPrices.clear();
+    }
+
+    /**
+     * Returns the number of lookups which were answered from memory
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of lookups which needed a trip to the database
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Resets the hit and miss counters
+     */
+    public synchronized void resetStatistics() {
+        mHitCount = 0;
+        mMissCount = 0;
+    }
+
+    /**
+     * Discards the cached entries if some of them were read inside a transaction which is over.
+     * <p>They may have been uncommitted changes of a transaction which was rolled back.
+     * This only checks the state of the connection, it does not access the database.</p>
+     */
+    private void validate() {
+        if (mReadInTransaction && !mDb.inTransaction())
+            invalidateCommodities();
+    }
+
+    private void countLookup(boolean hit) {
+        if (hit)
+            mHitCount++;
+        else
+            mMissCount++;
+    }
+
+    /**
+     * Loads all commodities of the book, unless they are already loaded.
+     * <p>Books only have a couple hundred commodities, so they are read with a single query
+     * instead of one query for each missing currency code</p>
+     */
+    private void loadCommodities() {
+        if (mCommoditiesLoaded)
+            return;
+        if (mCommoditiesDbAdapter == null)
+            mCommoditiesDbAdapter = new CommoditiesDbAdapter(mDb);
+        long startTime = System.nanoTime();
+        Cursor cursor = mCommoditiesDbAdapter.fetchAllRecords();
+        try {
+            while (cursor.moveToNext()) {
+                Commodity commodity = mCommoditiesDbAdapter.buildModelInstance(cursor);
+                mCommodities.put(commodity.getMnemonic(), commodity);
+                mCurrencyCodes.put(commodity.getUID(), commodity.getMnemonic());
+            }
+        } finally {
+            cursor.close();
+        }
+        mCommoditiesLoaded = true;
+        mReadInTransaction |= mDb.inTransaction();
+        Log.d(LOG_TAG, String.format("%d commodities loaded in %d ns",
+                mCommodities.size(), System.nanoTime() - startTime));
+    }
+
+    private static String priceKey(String commodityUID, String currencyUID) {
+        return commodityUID + "/" + currencyUID;
+    }
+}
@@ -18,7 +18,9 @@ package org.gnucash.android.db.adapter;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
@@ -64,6 +66,11 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
 
     protected volatile SQLiteStatement mInsertStatement;
 
+    /**
+     * Cached statements of the lookups of a single value
+     */
+    protected final StatementCache mStatementCache;
+
     public enum UpdateMethod {
         insert, update, replace
     };
@@ -78,6 +85,7 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
         this.mColumns = columns;
         if (!db.isOpen() || db.isReadOnly())
             throw new IllegalArgumentException("Database not open or is read-only. Require writeable database");
+        mStatementCache = StatementCache.getInstance(db);
 
         if (mDb.getVersion() >= 9) {
             createTempView();
@@ -237,6 +245,7 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
                 }
                 break;
         }
+        onRecordsChanged();
     }
 
     /**
@@ -257,12 +266,7 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
                 }
                 break;
             case insert:
-                synchronized(getInsertStatement()) {
-                    for (Model model : modelList) {
-                        setBindings(getInsertStatement(), model).execute();
-                        nRow++;
-                    }
-                }
+                nRow = insertRecords(modelList);
                 break;
             default:
                 synchronized(getReplaceStatement()) {
@@ -276,6 +280,24 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
         return nRow;
     }
 
+    /**
+     * Inserts the models as new records, for a bulk add with {@link UpdateMethod#insert}
+     * <p>Sub-classes can override this method to insert the records more efficiently</p>
+     * @param modelList List of records
+     * @return Number of rows inserted
+     * @see MultiRowInsertAdapter
+     */
+    protected long insertRecords(@NonNull final List<Model> modelList) {
+        long nRow = 0;
+        synchronized(getInsertStatement()) {
+            for (Model model : modelList) {
+                setBindings(getInsertStatement(), model).execute();
+                nRow++;
+            }
+        }
+        return nRow;
+    }
+
     /**
      * Add multiple records to the database at once
      * <p>Either all or none of the records will be inserted/updated into the database.</p>
@@ -302,6 +324,7 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
         }
         finally {
             mDb.endTransaction();
+            onRecordsChanged();
         }
 
         return nRow;
@@ -513,7 +536,9 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
 	 */
 	public boolean deleteRecord(long rowId){
         Log.d(LOG_TAG, "Deleting record with id " + rowId + " from " + mTableName);
-		return mDb.delete(mTableName, DatabaseSchema.CommonColumns._ID + "=" + rowId, null) > 0;
+		boolean deleted = mDb.delete(mTableName, DatabaseSchema.CommonColumns._ID + "=" + rowId, null) > 0;
+        onRecordsChanged();
+        return deleted;
 	}
 
     /**
@@ -521,7 +546,18 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
      * @return Number of deleted records
      */
     public int deleteAllRecords(){
-        return mDb.delete(mTableName, null, null);
+        int count = mDb.delete(mTableName, null, null);
+        onRecordsChanged();
+        return count;
+    }
+
+    /**
+     * Called after records of the table of this adapter have been added, modified or deleted.
+     * <p>Subclasses which keep derived data about their table in memory should override this
+     * method to invalidate it</p>
+     */
+    protected void onRecordsChanged() {
+        //nothing to invalidate by default
     }
 
     /**
@@ -531,22 +567,12 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
      * @throws IllegalArgumentException if the GUID does not exist in the database
      */
     public long getID(@NonNull String uid){
-        Cursor cursor = mDb.query(mTableName,
-                new String[] {DatabaseSchema.CommonColumns._ID},
-                DatabaseSchema.CommonColumns.COLUMN_UID + " = ?",
-                new String[]{uid},
-                null, null, null);
-        long result = -1;
-        try{
-            if (cursor.moveToFirst()) {
-                result = cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseSchema.CommonColumns._ID));
-            } else {
-                throw new IllegalArgumentException(mTableName + " with GUID " + uid + " does not exist in the db");
-            }
-        } finally {
-            cursor.close();
+        try {
+            return mStatementCache.queryForLong("SELECT " + CommonColumns._ID + " FROM " + mTableName
+                    + " WHERE " + CommonColumns.COLUMN_UID + " = ?", uid);
+        } catch (SQLiteDoneException e) {
+            throw new IllegalArgumentException(mTableName + " with GUID " + uid + " does not exist in the db");
         }
-        return result;
     }
 
     /**
@@ -556,22 +582,12 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
      * @throws IllegalArgumentException if the record ID does not exist in the database
      */
     public String getUID(long id){
-        Cursor cursor = mDb.query(mTableName,
-                new String[]{DatabaseSchema.CommonColumns.COLUMN_UID},
-                DatabaseSchema.CommonColumns._ID + " = " + id,
-                null, null, null, null);
-
-        String uid = null;
         try {
-            if (cursor.moveToFirst()) {
-                uid = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.CommonColumns.COLUMN_UID));
-            } else {
-                throw new IllegalArgumentException(mTableName + " Record ID " + id + " does not exist in the db");
-            }
-        } finally {
-            cursor.close();
+            return mStatementCache.queryForString("SELECT " + CommonColumns.COLUMN_UID + " FROM " + mTableName
+                    + " WHERE " + CommonColumns._ID + " = ?", id);
+        } catch (SQLiteDoneException e) {
+            throw new IllegalArgumentException(mTableName + " Record ID " + id + " does not exist in the db");
         }
-        return uid;
     }
 
     /**
@@ -582,18 +598,11 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
      *      does not exist in DB
      */
     public String getAccountCurrencyCode(@NonNull String accountUID) {
-        Cursor cursor = mDb.query(DatabaseSchema.AccountEntry.TABLE_NAME,
-                new String[] {DatabaseSchema.AccountEntry.COLUMN_CURRENCY},
-                DatabaseSchema.AccountEntry.COLUMN_UID + "= ?",
-                new String[]{accountUID}, null, null, null);
         try {
-            if (cursor.moveToFirst()) {
-                return cursor.getString(0);
-            } else {
-                throw new IllegalArgumentException("Account " + accountUID + " does not exist");
-            }
-        } finally {
-            cursor.close();
+            return mStatementCache.queryForString("SELECT " + AccountEntry.COLUMN_CURRENCY
+                    + " FROM " + AccountEntry.TABLE_NAME + " WHERE " + AccountEntry.COLUMN_UID + " = ?", accountUID);
+        } catch (SQLiteDoneException e) {
+            throw new IllegalArgumentException("Account " + accountUID + " does not exist");
         }
     }
 
@@ -604,21 +613,7 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
      * @return GUID of commodity
      */
     public String getCommodityUID(String currencyCode){
-        String where = DatabaseSchema.CommodityEntry.COLUMN_MNEMONIC + "= ?";
-        String[] whereArgs = new String[]{currencyCode};
-
-        Cursor cursor = mDb.query(DatabaseSchema.CommodityEntry.TABLE_NAME,
-                new String[]{DatabaseSchema.CommodityEntry.COLUMN_UID},
-                where, whereArgs, null, null, null);
-        try {
-            if (cursor.moveToNext()) {
-                return cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.CommodityEntry.COLUMN_UID));
-            } else {
-                throw new IllegalArgumentException("Currency code not found in commodities");
-            }
-        } finally {
-            cursor.close();
-        }
+        return CommodityCache.getInstance(mDb).getCommodityUID(currencyCode);
     }
 
     /**
@@ -628,19 +623,12 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
      * @throws java.lang.IllegalArgumentException if accountUID does not exist in DB,
      */
     public AccountType getAccountType(@NonNull String accountUID){
-        String type = "";
-        Cursor c = mDb.query(DatabaseSchema.AccountEntry.TABLE_NAME,
-                new String[]{DatabaseSchema.AccountEntry.COLUMN_TYPE},
-                DatabaseSchema.AccountEntry.COLUMN_UID + "=?",
-                new String[]{accountUID}, null, null, null);
+        String type;
         try {
-            if (c.moveToFirst()) {
-                type = c.getString(c.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_TYPE));
-            } else {
-                throw new IllegalArgumentException("account " + accountUID + " does not exist in DB");
-            }
-        } finally {
-            c.close();
+            type = mStatementCache.queryForString("SELECT " + AccountEntry.COLUMN_TYPE
+                    + " FROM " + AccountEntry.TABLE_NAME + " WHERE " + AccountEntry.COLUMN_UID + " = ?", accountUID);
+        } catch (SQLiteDoneException e) {
+            throw new IllegalArgumentException("account " + accountUID + " does not exist in DB");
         }
         return AccountType.valueOf(type);
     }
@@ -659,8 +647,11 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
         } else {
             contentValues.put(columnKey, newValue);
         }
-        return mDb.update(tableName, contentValues,
+        int count = mDb.update(tableName, contentValues,
                 DatabaseSchema.CommonColumns._ID + "=" + recordId, null);
+        if (tableName.equals(mTableName))
+            onRecordsChanged();
+        return count;
     }
 
     /**
@@ -681,7 +672,9 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
      * @return Number of records updated
      */
     public int updateRecord(@NonNull String uid, @NonNull ContentValues contentValues){
-        return mDb.update(mTableName, contentValues, CommonColumns.COLUMN_UID + "=?", new String[]{uid});
+        int count = mDb.update(mTableName, contentValues, CommonColumns.COLUMN_UID + "=?", new String[]{uid});
+        onRecordsChanged();
+        return count;
     }
 
     /**
@@ -699,7 +692,9 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
         } else {
             contentValues.put(columnKey, newValue);
         }
-        return mDb.update(mTableName, contentValues, where, whereArgs);
+        int count = mDb.update(mTableName, contentValues, where, whereArgs);
+        onRecordsChanged();
+        return count;
     }
 
     /**
@@ -740,19 +735,11 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
      * @throws IllegalArgumentException if either the {@code recordUID} or {@code columnName} do not exist in the database
      */
     protected String getAttribute(@NonNull String tableName, @NonNull String recordUID, @NonNull String columnName){
-        Cursor cursor = mDb.query(tableName,
-                new String[]{columnName},
-                AccountEntry.COLUMN_UID + " = ?",
-                new String[]{recordUID}, null, null, null);
-
         try {
-            if (cursor.moveToFirst())
-                return cursor.getString(cursor.getColumnIndexOrThrow(columnName));
-            else {
-                throw new IllegalArgumentException(String.format("Record with GUID %s does not exist in the db", recordUID));
-            }
-        } finally {
-            cursor.close();
+            return mStatementCache.queryForString("SELECT " + columnName + " FROM " + tableName
+                    + " WHERE " + CommonColumns.COLUMN_UID + " = ?", recordUID);
+        } catch (SQLiteDoneException e) {
+            throw new IllegalArgumentException(String.format("Record with GUID %s does not exist in the db", recordUID));
         }
     }
 
@@ -761,9 +748,16 @@ public abstract class DatabaseAdapter<Model extends BaseModel> {
      * @return Total number of records in the database
      */
     public long getRecordsCount(){
-        String sql = "SELECT COUNT(*) FROM " + mTableName;
-        SQLiteStatement statement = mDb.compileStatement(sql);
-        return statement.simpleQueryForLong();
+        return mStatementCache.queryForLong("SELECT COUNT(*) FROM " + mTableName);
+    }
+
+    /**
+     * Checks if a record with the GUID exists in the database table backed by this adapter
+     * @param uid GUID of the record
+     * @return {@code true} if the record exists, {@code false} otherwise
+     */
+    public boolean hasRecord(@NonNull String uid){
+        return DatabaseUtils.queryNumEntries(mDb, mTableName, CommonColumns.COLUMN_UID + " = ?", new String[]{uid}) > 0;
     }
 
     /**
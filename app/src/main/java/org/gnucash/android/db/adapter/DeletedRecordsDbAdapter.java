@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db.adapter;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.gnucash.android.db.DatabaseSchema.CommonColumns;
+import org.gnucash.android.db.DatabaseSchema.DeletedRecordEntry;
+import org.gnucash.android.util.TimestampHelper;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the table of deleted records, which is filled by database triggers.
+ * <p>Incremental backups use it to record which accounts, transactions, scheduled actions and prices
+ * were deleted since the previous backup.</p>
+ */
+public class DeletedRecordsDbAdapter {
+
+    private static final String LOG_TAG = "DeletedRecordsDbAdapter";
+
+    private final SQLiteDatabase mDb;
+
+    /**
+     * Creates an adapter for the deleted records of an open book database
+     * @param db SQLite database of the book
+     */
+    public DeletedRecordsDbAdapter(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Returns the GUIDs of the records of a table which were deleted since a point in time.
+     * <p>Records which were deleted and then saved again with the same GUID are not returned</p>
+     * @param tableName Name of the table of the records
+     * @param since Start time. It is truncated to the second, like the deletion times
+     * @return GUIDs of the deleted records
+     */
+    public List<String> getDeletedRecordUIDs(@NonNull String tableName, @NonNull Timestamp since) {
+        Cursor cursor = mDb.rawQuery("SELECT DISTINCT " + DeletedRecordEntry.COLUMN_UID
+                        + " FROM " + DeletedRecordEntry.TABLE_NAME
+                        + " WHERE " + DeletedRecordEntry.COLUMN_TABLE_NAME + " = ?"
+                        + " AND " + DeletedRecordEntry.COLUMN_DELETED_AT + " >= ?"
+                        + " AND " + DeletedRecordEntry.COLUMN_UID + " NOT IN ( SELECT "
+                        + CommonColumns.COLUMN_UID + " FROM " + tableName + " )",
+                new String[]{tableName, TimestampHelper.getUtcStringWithoutMilliseconds(since)});
+        List<String> uids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                uids.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return uids;
+    }
+
+    /**
+     * Deletes the records of deletions which happened before a point in time.
+     * <p>This should be called when a full backup is made, as the deletions are part of it</p>
+     * @param before Time of the full backup
+     * @return Number of records purged
+     */
+    public int purge(@NonNull Timestamp before) {
+        int count = mDb.delete(DeletedRecordEntry.TABLE_NAME, DeletedRecordEntry.COLUMN_DELETED_AT + " < ?",
+                new String[]{TimestampHelper.getUtcStringWithoutMilliseconds(before)});
+        Log.d(LOG_TAG, String.format("%d deleted records purged", count));
+        return count;
+    }
+}
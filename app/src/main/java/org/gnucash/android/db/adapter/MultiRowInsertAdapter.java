@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db.adapter;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+
+import org.gnucash.android.db.DatabaseSchema.CommonColumns;
+import org.gnucash.android.model.BaseModel;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Database adapter which inserts many records with each statement during bulk inserts.
+ * <p>Bulk inserts with {@link UpdateMethod#insert} bind as many rows to an {@code INSERT ... VALUES} statement
+ * as fit in its variables, which saves executing a statement for each record. Sub-classes bind the values
+ * of one row with {@link #bindRow(SQLiteStatement, int, BaseModel)}, which is also used for the single-row
+ * statements.</p>
+ */
+public abstract class MultiRowInsertAdapter<Model extends BaseModel> extends DatabaseAdapter<Model> {
+
+    /**
+     * Maximum number of variables in an SQL statement (SQLITE_MAX_VARIABLE_NUMBER of the SQLite shipped with Android)
+     */
+    static final int MAX_SQL_VARIABLES = 999;
+
+    /**
+     * Maximum number of rows in a VALUES clause. Before SQLite 3.8.8, the rows are
+     * a compound SELECT, limited by SQLITE_MAX_COMPOUND_SELECT
+     */
+    static final int MAX_VALUES_ROWS = 500;
+
+    /**
+     * Statement inserting {@link #getRowsPerInsert()} records at once
+     */
+    private volatile SQLiteStatement mMultiRowInsertStatement;
+
+    public MultiRowInsertAdapter(SQLiteDatabase db, @NonNull String tableName, @NonNull String[] columns) {
+        super(db, tableName, columns);
+    }
+
+    /**
+     * Binds the values from the model to one row of a multi-row insert statement.
+     * <p>The values are bound in the order of the columns of the adapter, followed by the GUID,
+     * starting at the index {@code offset + 1}. The bindings are not cleared.</p>
+     * @param stmt SQL statement with placeholders for one or several rows
+     * @param offset Number of placeholders of the previous rows
+     * @param model Model from which to read bind attributes
+     */
+    protected abstract void bindRow(@NonNull SQLiteStatement stmt, int offset, @NonNull final Model model);
+
+    @Override
+    protected @NonNull SQLiteStatement setBindings(@NonNull SQLiteStatement stmt, @NonNull final Model model) {
+        stmt.clearBindings();
+        bindRow(stmt, 0, model);
+        return stmt;
+    }
+
+    /**
+     * Inserts the models with statements of {@link #getRowsPerInsert()} rows each.
+     * The models which do not fill a whole statement are inserted one by one, so that only one
+     * multi-row statement has to be compiled.
+     * @param modelList List of records
+     * @return Number of rows inserted
+     */
+    @Override
+    protected long insertRecords(@NonNull final List<Model> modelList) {
+        int rowsPerInsert = getRowsPerInsert();
+        int variablesPerRow = mColumns.length + 1;
+        int multiRowCount = modelList.size() - modelList.size() % rowsPerInsert;
+        Iterator<Model> iterator = modelList.iterator();
+        long nRow = 0;
+        if (multiRowCount > 0) {
+            SQLiteStatement stmt = getMultiRowInsertStatement();
+            synchronized (stmt) {
+                while (nRow < multiRowCount) {
+                    stmt.clearBindings();
+                    for (int row = 0; row < rowsPerInsert; row++) {
+                        bindRow(stmt, row * variablesPerRow, iterator.next());
+                    }
+                    stmt.execute();
+                    nRow += rowsPerInsert;
+                }
+            }
+        }
+        synchronized (getInsertStatement()) {
+            while (iterator.hasNext()) {
+                setBindings(getInsertStatement(), iterator.next()).execute();
+                nRow++;
+            }
+        }
+        return nRow;
+    }
+
+    /**
+     * Returns the number of records inserted by each multi-row insert statement.
+     * <p>It is the largest number of rows whose values fit in the variables of a statement</p>
+     */
+    final int getRowsPerInsert() {
+        return Math.min(MAX_SQL_VARIABLES / (mColumns.length + 1), MAX_VALUES_ROWS);
+    }
+
+    private @NonNull SQLiteStatement getMultiRowInsertStatement() {
+        SQLiteStatement stmt = mMultiRowInsertStatement;
+        if (stmt == null) {
+            synchronized (this) {
+                stmt = mMultiRowInsertStatement;
+                if (stmt == null) {
+                    String rowPlaceholders = "( " + (new String(new char[mColumns.length]).replace("\0", "? , ")) + "?)";
+                    mMultiRowInsertStatement = stmt
+                            = mDb.compileStatement("INSERT INTO " + mTableName + " ( "
+                            + TextUtils.join(" , ", mColumns) + " , "
+                            + CommonColumns.COLUMN_UID
+                            + " ) VALUES "
+                            + TextUtils.join(" , ", Collections.nCopies(getRowsPerInsert(), rowPlaceholders)));
+                }
+            }
+        }
+        return stmt;
+    }
+}
@@ -36,6 +36,11 @@ public class PricesDbAdapter extends DatabaseAdapter<Price> {
         return GnuCashApplication.getPricesDbAdapter();
     }
 
+    @Override
+    protected void onRecordsChanged() {
+        CommodityCache.getInstance(mDb).invalidatePrices();
+    }
+
     @Override
     protected @NonNull SQLiteStatement setBindings(@NonNull SQLiteStatement stmt, @NonNull final Price price) {
         stmt.clearBindings();
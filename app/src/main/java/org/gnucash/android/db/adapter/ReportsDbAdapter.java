@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db.adapter;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.model.Money;
+import org.joda.time.LocalDateTime;
+import org.joda.time.Period;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the aggregate queries behind the reports.
+ * <p>Instead of querying the balance of each account for each period of a report, the balances of all
+ * accounts in all periods are computed by a single query grouped by account and period.</p>
+ */
+public class ReportsDbAdapter {
+
+    private static final String LOG_TAG = "ReportsDbAdapter";
+
+    private final SQLiteDatabase mDb;
+
+    /**
+     * Creates an adapter for the reports of an open book database
+     * @param db SQLite database of the book
+     */
+    public ReportsDbAdapter(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Returns a reports adapter for the currently active book
+     * @return Reports database adapter
+     */
+    public static ReportsDbAdapter getInstance() {
+        return new ReportsDbAdapter(GnuCashApplication.getActiveDb());
+    }
+
+    /**
+     * Returns the number of rows inserted, updated or deleted through the database connection since it was opened.
+     * <p>The rows changed by triggers and foreign key actions are counted too, so any change to the records
+     * the reports are computed from increases it.</p>
+     * <p>The counter belongs to the connection which writes, the primary one. With write-ahead logging,
+     * queries outside of a transaction run on one of the read connections, whose counter never moves,
+     * so the counter is read inside a transaction, which holds the primary connection.
+     * This waits for a transaction in progress on another thread to end, so it is read once
+     * per report generation, not for each result.</p>
+     * @return Number of rows changed by the connection of the adapter
+     */
+    public long getChangeCount() {
+        mDb.beginTransactionNonExclusive();
+        try {
+            return DatabaseUtils.longForQuery(mDb, "SELECT total_changes()", null);
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Computes the balance of each account in consecutive periods of time.
+     * <p>Only the splits of the accounts themselves are counted, not those of their sub-accounts.
+     * Template transactions are ignored.</p>
+     * @param accountUIDs GUIDs of the accounts
+     * @param firstPeriodStart Start of the first period, in local time
+     * @param period Length of each period, e.g. one month
+     * @param periodCount Number of periods
+     * @return Balances of the accounts in each period
+     */
+    public PeriodBalances getPeriodBalances(@NonNull List<String> accountUIDs, @NonNull LocalDateTime firstPeriodStart,
+                                            @NonNull Period period, int periodCount) {
+        long[] periodStarts = new long[periodCount + 1];
+        LocalDateTime periodStart = firstPeriodStart;
+        for (int i = 0; i <= periodCount; i++) {
+            periodStarts[i] = periodStart.toDate().getTime();
+            periodStart = periodStart.plus(period);
+        }
+
+        PeriodBalances balances = new PeriodBalances(accountUIDs, periodStarts);
+        if (accountUIDs.isEmpty() || periodCount <= 0)
+            return balances;
+
+        long startTime = System.nanoTime();
+        String timestampColumn = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP;
+        String accountColumn = SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID;
+        String denomColumn = SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM;
+        String sql = "SELECT " + accountColumn + " , " + denomColumn + " , "
+                + periodIndexExpression(timestampColumn, periodStarts, 0, periodCount - 1) + " AS period_index , "
+                + "SUM ( CASE WHEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END )"
+                + " FROM " + SplitEntry.TABLE_NAME + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = "
+                + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                + " AND " + timestampColumn + " >= ? AND " + timestampColumn + " < ?"
+                + " AND " + accountColumn + " IN ( '" + TextUtils.join("' , '", accountUIDs) + "' )"
+                + " GROUP BY " + accountColumn + " , " + denomColumn + " , period_index";
+
+        Cursor cursor = mDb.rawQuery(sql, new String[]{
+                String.valueOf(periodStarts[0]), String.valueOf(periodStarts[periodCount])});
+        try {
+            while (cursor.moveToNext()) {
+                balances.add(cursor.getString(0), cursor.getInt(2), cursor.getLong(3), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.d(LOG_TAG, String.format("Balances of %d accounts in %d periods computed in %d ns",
+                accountUIDs.size(), periodCount, System.nanoTime() - startTime));
+        return balances;
+    }
+
+    /**
+     * Builds an SQL expression which evaluates to the index of the period containing a timestamp.
+     * <p>The expression is a binary search over the period start times, so each row needs only a
+     * logarithmic number of comparisons</p>
+     * @param timestampColumn Name of the timestamp column
+     * @param periodStarts Start times of the periods
+     * @param first Index of the first period to consider
+     * @param last Index of the last period to consider
+     * @return SQL expression
+     */
+    private static String periodIndexExpression(String timestampColumn, long[] periodStarts, int first, int last) {
+        if (first == last)
+            return String.valueOf(first);
+        int middle = (first + last + 1) / 2;
+        return "CASE WHEN " + timestampColumn + " < " + periodStarts[middle]
+                + " THEN " + periodIndexExpression(timestampColumn, periodStarts, first, middle - 1)
+                + " ELSE " + periodIndexExpression(timestampColumn, periodStarts, middle, last) + " END";
+    }
+
+    /**
+     * Balances of a list of accounts in consecutive periods of time.
+     * <p>The balances are held as a dense matrix of numerators indexed by account and period.
+     * All balances of an account share the same denominator. Debits are positive and credits negative.</p>
+     */
+    public static final class PeriodBalances {
+        private final List<String> mAccountUIDs;
+        private final Map<String, Integer> mAccountIndexes;
+        private final long[] mPeriodStarts;
+        private final long[][] mNumerators;
+        private final long[] mDenominators;
+
+        PeriodBalances(List<String> accountUIDs, long[] periodStarts) {
+            mAccountUIDs = new ArrayList<>(accountUIDs);
+            mAccountIndexes = new HashMap<>(accountUIDs.size() * 2);
+            for (int i = 0; i < mAccountUIDs.size(); i++) {
+                mAccountIndexes.put(mAccountUIDs.get(i), i);
+            }
+            mPeriodStarts = periodStarts;
+            mNumerators = new long[mAccountUIDs.size()][periodStarts.length - 1];
+            mDenominators = new long[mAccountUIDs.size()];
+            for (int i = 0; i < mDenominators.length; i++) {
+                mDenominators[i] = 1;
+            }
+        }
+
+        /**
+         * Adds an amount to the balance of an account in a period, bringing the amounts to a common denominator
+         */
+        void add(String accountUID, int period, long numerator, long denominator) {
+            Integer account = mAccountIndexes.get(accountUID);
+            if (account == null || numerator == 0 || denominator <= 0)
+                return;
+            long current = mDenominators[account];
+            if (denominator != current) {
+                if (denominator % current == 0) {
+                    long factor = denominator / current;
+                    long[] row = mNumerators[account];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] *= factor;
+                    }
+                    mDenominators[account] = denominator;
+                } else if (current % denominator == 0) {
+                    numerator *= current / denominator;
+                } else {
+                    Log.w(LOG_TAG, String.format("Cannot bring amount %d/%d of account %s to denominator %d",
+                            numerator, denominator, accountUID, current));
+                    numerator = BigDecimal.valueOf(numerator).multiply(BigDecimal.valueOf(current))
+                            .divide(BigDecimal.valueOf(denominator), BigDecimal.ROUND_HALF_EVEN).longValue();
+                }
+            }
+            mNumerators[account][period] += numerator;
+        }
+
+        /**
+         * Returns the GUIDs of the accounts, in the order of the rows of the matrix
+         */
+        public List<String> getAccountUIDs() {
+            return mAccountUIDs;
+        }
+
+        /**
+         * Returns the number of periods
+         */
+        public int getPeriodCount() {
+            return mPeriodStarts.length - 1;
+        }
+
+        /**
+         * Returns the start time of a period in milliseconds
+         * @param period Index of the period
+         */
+        public long getPeriodStart(int period) {
+            return mPeriodStarts[period];
+        }
+
+        /**
+         * Returns the balance numerators of an account, one for each period
+         * @param account Index of the account in {@link #getAccountUIDs()}
+         */
+        public long[] getNumerators(int account) {
+            return mNumerators[account];
+        }
+
+        /**
+         * Returns the denominator of all the balances of an account
+         * @param account Index of the account in {@link #getAccountUIDs()}
+         */
+        public long getDenominator(int account) {
+            return mDenominators[account];
+        }
+
+        /**
+         * Returns the balance of an account in a period as a double
+         * @param account Index of the account in {@link #getAccountUIDs()}
+         * @param period Index of the period
+         */
+        public double getAmount(int account, int period) {
+            return Money.getBigDecimal(mNumerators[account][period], mDenominators[account]).doubleValue();
+        }
+
+        /**
+         * Returns the sum of the balances of all accounts in a period as a double
+         * @param period Index of the period
+         */
+        public double getTotalAmount(int period) {
+            double total = 0;
+            for (int account = 0; account < mNumerators.length; account++) {
+                total += getAmount(account, period);
+            }
+            return total;
+        }
+    }
+}
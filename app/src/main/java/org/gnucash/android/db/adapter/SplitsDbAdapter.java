@@ -30,14 +30,20 @@ import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.DatabaseSchema;
 import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
+import org.gnucash.android.model.MoneyAccumulator;
 import org.gnucash.android.model.Split;
 import org.gnucash.android.model.TransactionType;
 import org.gnucash.android.util.TimestampHelper;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import static org.gnucash.android.db.DatabaseSchema.AccountEntry;
 import static org.gnucash.android.db.DatabaseSchema.SplitEntry;
 import static org.gnucash.android.db.DatabaseSchema.TransactionEntry;
 
@@ -48,7 +54,21 @@ import static org.gnucash.android.db.DatabaseSchema.TransactionEntry;
  * @author Yongxin Wang <fefe.wyx@gmail.com>
  * @author Oleksandr Tyshkovets <olexandr.tyshkovets@gmail.com>
  */
-public class SplitsDbAdapter extends DatabaseAdapter<Split> {
+public class SplitsDbAdapter extends MultiRowInsertAdapter<Split> {
+
+    /**
+     * Alias of the currency code of the owning transaction in cursors returned by
+     * {@link #fetchSplitsWithCurrencies(String, String[])}
+     */
+    static final String COLUMN_TRANSACTION_CURRENCY = "trans_currency_code";
+
+    /**
+     * Alias of the currency code of the split account in cursors returned by
+     * {@link #fetchSplitsWithCurrencies(String, String[])}
+     */
+    static final String COLUMN_ACCOUNT_CURRENCY     = "acct_currency_code";
+
+    private final AccountBalancesDbAdapter mAccountBalancesDbAdapter;
 
     public SplitsDbAdapter(SQLiteDatabase db) {
         super(db, SplitEntry.TABLE_NAME, new String[]{
@@ -64,6 +84,7 @@ public class SplitsDbAdapter extends DatabaseAdapter<Split> {
                 SplitEntry.COLUMN_ACCOUNT_UID,
                 SplitEntry.COLUMN_TRANSACTION_UID
         });
+        mAccountBalancesDbAdapter = new AccountBalancesDbAdapter(db);
     }
 
     /**
@@ -77,9 +98,35 @@ public class SplitsDbAdapter extends DatabaseAdapter<Split> {
     /**
      * Adds a split to the database.
      * The transactions belonging to the split are marked as exported
+     * <p>If the split was saved before in another transaction, the balances of both transactions are updated</p>
      * @param split {@link org.gnucash.android.model.Split} to be recorded in DB
      */
     public void addRecord(@NonNull final Split split, UpdateMethod updateMethod){
+        List<String> transactionUIDs = new ArrayList<>();
+        transactionUIDs.add(split.getTransactionUID());
+        mDb.beginTransaction();
+        try {
+            if (hasRecord(split.getUID())) {
+                String storedTransactionUID = getAttribute(split.getUID(), SplitEntry.COLUMN_TRANSACTION_UID);
+                if (!storedTransactionUID.equals(split.getTransactionUID()))
+                    transactionUIDs.add(storedTransactionUID);
+            }
+            mAccountBalancesDbAdapter.subtractTransactions(transactionUIDs);
+            addSplitRecord(split, updateMethod);
+            mAccountBalancesDbAdapter.addTransactions(transactionUIDs);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Adds a split to the database without updating the account balances.
+     * <p>Used by {@link TransactionsDbAdapter}, which updates the balances for the whole transaction</p>
+     * @param split {@link org.gnucash.android.model.Split} to be recorded in DB
+     * @param updateMethod Method used to write the record
+     */
+    void addSplitRecord(@NonNull final Split split, UpdateMethod updateMethod){
         Log.d(LOG_TAG, "Replace transaction split in db");
         super.addRecord(split, updateMethod);
 
@@ -94,24 +141,21 @@ public class SplitsDbAdapter extends DatabaseAdapter<Split> {
     }
 
     @Override
-    protected @NonNull SQLiteStatement setBindings(@NonNull SQLiteStatement stmt, @NonNull final Split split) {
-        stmt.clearBindings();
+    protected void bindRow(@NonNull SQLiteStatement stmt, int offset, @NonNull final Split split) {
         if (split.getMemo() != null) {
-            stmt.bindString(1, split.getMemo());
+            stmt.bindString(offset + 1, split.getMemo());
         }
-        stmt.bindString(2, split.getType().name());
-        stmt.bindLong(3, split.getValue().getNumerator());
-        stmt.bindLong(4, split.getValue().getDenominator());
-        stmt.bindLong(5, split.getQuantity().getNumerator());
-        stmt.bindLong(6, split.getQuantity().getDenominator());
-        stmt.bindString(7, split.getCreatedTimestamp().toString());
-        stmt.bindString(8, String.valueOf(split.getReconcileState()));
-        stmt.bindString(9, split.getReconcileDate().toString());
-        stmt.bindString(10, split.getAccountUID());
-        stmt.bindString(11, split.getTransactionUID());
-        stmt.bindString(12, split.getUID());
-
-        return stmt;
+        stmt.bindString(offset + 2, split.getType().name());
+        stmt.bindLong(offset + 3, split.getValue().getNumerator());
+        stmt.bindLong(offset + 4, split.getValue().getDenominator());
+        stmt.bindLong(offset + 5, split.getQuantity().getNumerator());
+        stmt.bindLong(offset + 6, split.getQuantity().getDenominator());
+        stmt.bindString(offset + 7, split.getCreatedTimestamp().toString());
+        stmt.bindString(offset + 8, String.valueOf(split.getReconcileState()));
+        stmt.bindString(offset + 9, split.getReconcileDate().toString());
+        stmt.bindString(offset + 10, split.getAccountUID());
+        stmt.bindString(offset + 11, split.getTransactionUID());
+        stmt.bindString(offset + 12, split.getUID());
     }
     /**
      * Builds a split instance from the data pointed to by the cursor provided
@@ -131,9 +175,14 @@ public class SplitsDbAdapter extends DatabaseAdapter<Split> {
         String reconcileState = cursor.getString(cursor.getColumnIndexOrThrow(SplitEntry.COLUMN_RECONCILE_STATE));
         String reconcileDate  = cursor.getString(cursor.getColumnIndexOrThrow(SplitEntry.COLUMN_RECONCILE_DATE));
 
-        String transactionCurrency = getAttribute(TransactionEntry.TABLE_NAME, transxUID, TransactionEntry.COLUMN_CURRENCY);
+        //cursors from fetchSplitsWithCurrencies() already carry the currencies, so avoid the extra lookups
+        int transactionCurrencyIndex = cursor.getColumnIndex(COLUMN_TRANSACTION_CURRENCY);
+        String transactionCurrency = transactionCurrencyIndex >= 0 ? cursor.getString(transactionCurrencyIndex)
+                : getAttribute(TransactionEntry.TABLE_NAME, transxUID, TransactionEntry.COLUMN_CURRENCY);
         Money value = new Money(valueNum, valueDenom, transactionCurrency);
-        String currencyCode = getAccountCurrencyCode(accountUID);
+        int accountCurrencyIndex = cursor.getColumnIndex(COLUMN_ACCOUNT_CURRENCY);
+        String currencyCode = accountCurrencyIndex >= 0 ? cursor.getString(accountCurrencyIndex)
+                : getAccountCurrencyCode(accountUID);
         Money quantity = new Money(quantityNum, quantityDenom, currencyCode);
 
         Split split = new Split(value, accountUID);
@@ -159,7 +208,16 @@ public class SplitsDbAdapter extends DatabaseAdapter<Split> {
      * @return Balance of the splits for this account
      */
     public Money computeSplitBalance(List<String> accountUIDList, String currencyCode, boolean hasDebitNormalBalance){
-        return calculateSplitBalance(accountUIDList, currencyCode, hasDebitNormalBalance, -1, -1);
+        if (accountUIDList.size() == 0){
+            return new Money("0", currencyCode);
+        }
+
+        Cursor cursor = mAccountBalancesDbAdapter.fetchBalances(accountUIDList);
+        try {
+            return sumBalances(cursor, currencyCode, hasDebitNormalBalance);
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -210,53 +268,64 @@ public class SplitsDbAdapter extends DatabaseAdapter<Split> {
                 selection, selectionArgs, DatabaseSchema.AccountEntry.TABLE_NAME + "_" + DatabaseSchema.AccountEntry.COLUMN_CURRENCY, null, null);
 
         try {
-            Money total = Money.createZeroInstance(currencyCode);
-            CommoditiesDbAdapter commoditiesDbAdapter = null;
-            PricesDbAdapter pricesDbAdapter = null;
-            Commodity commodity = null;
-            String currencyUID = null;
-            while (cursor.moveToNext()) {
-                long amount_num = cursor.getLong(0);
-                long amount_denom = cursor.getLong(1);
-                String commodityCode = cursor.getString(2);
-                //Log.d(getClass().getName(), commodity + " " + amount_num + "/" + amount_denom);
-                if (commodityCode.equals("XXX") || amount_num == 0) {
-                    // ignore custom currency
-                    continue;
-                }
-                if (!hasDebitNormalBalance) {
-                    amount_num = -amount_num;
+            return sumBalances(cursor, currencyCode, hasDebitNormalBalance);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds up the balances in a cursor, converting them to {@code currencyCode} where necessary.
+     * <p>The cursor should have the balance numerator, the quantity denominator and
+     * the currency code of the accounts as its first three columns</p>
+     * @param cursor Cursor with the balances. It is not closed by this method
+     * @param currencyCode Currency of the result
+     * @param hasDebitNormalBalance Does the final balance has normal debit credit meaning
+     * @return Sum of the balances
+     */
+    private Money sumBalances(Cursor cursor, String currencyCode, boolean hasDebitNormalBalance){
+        MoneyAccumulator total = new MoneyAccumulator(currencyCode);
+        CommodityCache commodityCache = null;
+        Commodity commodity = null;
+        String currencyUID = null;
+        while (cursor.moveToNext()) {
+            long amount_num = cursor.getLong(0);
+            long amount_denom = cursor.getLong(1);
+            String commodityCode = cursor.getString(2);
+            //Log.d(getClass().getName(), commodity + " " + amount_num + "/" + amount_denom);
+            if (commodityCode.equals("XXX") || amount_num == 0) {
+                // ignore custom currency
+                continue;
+            }
+            if (!hasDebitNormalBalance) {
+                amount_num = -amount_num;
+            }
+            if (commodityCode.equals(currencyCode)) {
+                // currency matches
+                total.add(amount_num, amount_denom);
+                //Log.d(getClass().getName(), "currency " + commodity + " sub - total " + total);
+            } else {
+                // there is a second currency involved
+                if (commodityCache == null) {
+                    commodityCache = CommodityCache.getInstance(mDb);
+                    commodity = commodityCache.getCommodity(currencyCode);
+                    currencyUID = commodityCache.getCommodityUID(currencyCode);
                 }
-                if (commodityCode.equals(currencyCode)) {
-                    // currency matches
-                    total = total.add(new Money(amount_num, amount_denom, currencyCode));
-                    //Log.d(getClass().getName(), "currency " + commodity + " sub - total " + total);
-                } else {
-                    // there is a second currency involved
-                    if (commoditiesDbAdapter == null) {
-                        commoditiesDbAdapter = new CommoditiesDbAdapter(mDb);
-                        pricesDbAdapter = new PricesDbAdapter(mDb);
-                        commodity = commoditiesDbAdapter.getCommodity(currencyCode);
-                        currencyUID = commoditiesDbAdapter.getCommodityUID(currencyCode);
-                    }
-                    // get price
-                    String commodityUID = commoditiesDbAdapter.getCommodityUID(commodityCode);
-                    Pair<Long, Long> price = pricesDbAdapter.getPrice(commodityUID, currencyUID);
-                    if (price.first <= 0 || price.second <= 0) {
-                        // no price exists, just ignore it
-                        continue;
-                    }
-                    BigDecimal amount = Money.getBigDecimal(amount_num, amount_denom);
-                    BigDecimal amountConverted = amount.multiply(new BigDecimal(price.first))
-                            .divide(new BigDecimal(price.second), commodity.getSmallestFractionDigits(), BigDecimal.ROUND_HALF_EVEN);
-                    total = total.add(new Money(amountConverted, commodity));
-                    //Log.d(getClass().getName(), "currency " + commodity + " sub - total " + total);
+                // get price
+                String commodityUID = commodityCache.getCommodityUID(commodityCode);
+                Pair<Long, Long> price = commodityCache.getPrice(commodityUID, currencyUID);
+                if (price.first <= 0 || price.second <= 0) {
+                    // no price exists, just ignore it
+                    continue;
                 }
+                BigDecimal amount = Money.getBigDecimal(amount_num, amount_denom);
+                BigDecimal amountConverted = amount.multiply(new BigDecimal(price.first))
+                        .divide(new BigDecimal(price.second), commodity.getSmallestFractionDigits(), BigDecimal.ROUND_HALF_EVEN);
+                total.add(amountConverted);
+                //Log.d(getClass().getName(), "currency " + commodity + " sub - total " + total);
             }
-            return total;
-        } finally {
-            cursor.close();
         }
+        return total.toMoney();
     }
 
     /**
@@ -265,7 +334,8 @@ public class SplitsDbAdapter extends DatabaseAdapter<Split> {
      * @return List of {@link org.gnucash.android.model.Split}s
      */
     public List<Split> getSplitsForTransaction(String transactionUID){
-        Cursor cursor = fetchSplitsForTransaction(transactionUID);
+        Cursor cursor = fetchSplitsWithCurrencies(SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = ?",
+                new String[]{transactionUID});
         List<Split> splitList = new ArrayList<Split>();
         try {
             while (cursor.moveToNext()) {
@@ -277,6 +347,38 @@ public class SplitsDbAdapter extends DatabaseAdapter<Split> {
         return splitList;
     }
 
+    /**
+     * Returns the splits of several transactions at once, grouped by the GUID of their transaction.
+     * <p>All splits are loaded with a single query, which already includes the transaction and account currencies.
+     * The number of transactions should not exceed the SQLite host parameter limit (999)</p>
+     * @param transactionUIDs GUIDs of the transactions
+     * @return Map of transaction GUID to the list of splits of the transaction
+     */
+    public Map<String, List<Split>> getSplitsForTransactions(@NonNull Collection<String> transactionUIDs){
+        Map<String, List<Split>> splitsMap = new HashMap<>(transactionUIDs.size());
+        if (transactionUIDs.isEmpty())
+            return splitsMap;
+
+        String placeholders = TextUtils.join(" , ", Collections.nCopies(transactionUIDs.size(), "?"));
+        Cursor cursor = fetchSplitsWithCurrencies(SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID
+                        + " IN ( " + placeholders + " )",
+                transactionUIDs.toArray(new String[transactionUIDs.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                Split split = buildModelInstance(cursor);
+                List<Split> splitList = splitsMap.get(split.getTransactionUID());
+                if (splitList == null) {
+                    splitList = new ArrayList<>();
+                    splitsMap.put(split.getTransactionUID(), splitList);
+                }
+                splitList.add(split);
+            }
+        } finally {
+            cursor.close();
+        }
+        return splitsMap;
+    }
+
     /**
      * Returns the list of splits for a transaction
      * @param transactionID DB record ID of the transaction
@@ -295,17 +397,46 @@ public class SplitsDbAdapter extends DatabaseAdapter<Split> {
      * @return List of splits
      */
     public List<Split> getSplitsForTransactionInAccount(String transactionUID, String accountUID){
-        Cursor cursor = fetchSplitsForTransactionAndAccount(transactionUID, accountUID);
         List<Split> splitList = new ArrayList<Split>();
-        if (cursor != null){
+        if (transactionUID == null || accountUID == null)
+            return splitList;
+
+        Cursor cursor = fetchSplitsWithCurrencies(SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = ? AND "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " = ?",
+                new String[]{transactionUID, accountUID});
+        try {
             while (cursor.moveToNext()){
                 splitList.add(buildModelInstance(cursor));
             }
+        } finally {
             cursor.close();
         }
         return splitList;
     }
 
+    /**
+     * Fetches splits together with the currency codes of their transaction and account.
+     * <p>Splits built from this cursor with {@link #buildModelInstance(Cursor)} do not require
+     * any further database lookups</p>
+     * @param where SQL WHERE clause. Columns should be qualified with the table name
+     * @param whereArgs Arguments for the WHERE clause
+     * @return Cursor to the splits ordered by record ID
+     */
+    private Cursor fetchSplitsWithCurrencies(String where, String[] whereArgs){
+        return mDb.query(SplitEntry.TABLE_NAME
+                        + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                        + " INNER JOIN " + AccountEntry.TABLE_NAME + " ON "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " = "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_UID,
+                new String[]{SplitEntry.TABLE_NAME + ".*",
+                        TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_CURRENCY + " AS " + COLUMN_TRANSACTION_CURRENCY,
+                        AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_CURRENCY + " AS " + COLUMN_ACCOUNT_CURRENCY},
+                where, whereArgs, null, null,
+                SplitEntry.TABLE_NAME + "." + SplitEntry._ID + " ASC");
+    }
+
     /**
      * Fetches a collection of splits for a given condition and sorted by <code>sortOrder</code>
      * @param where String condition, formatted as SQL WHERE clause
@@ -402,23 +533,52 @@ public class SplitsDbAdapter extends DatabaseAdapter<Split> {
     public boolean deleteRecord(long rowId) {
         Split split = getRecord(rowId);
         String transactionUID = split.getTransactionUID();
-        boolean result = mDb.delete(SplitEntry.TABLE_NAME, SplitEntry._ID + "=" + rowId, null) > 0;
-
-        if (!result) //we didn't delete for whatever reason, invalid rowId etc
-            return false;
-
-        //if we just deleted the last split, then remove the transaction from db
-        Cursor cursor = fetchSplitsForTransaction(transactionUID);
+        List<String> transactionUIDs = Collections.singletonList(transactionUID);
+        mDb.beginTransaction();
         try {
-            if (cursor.getCount() > 0) {
-                long transactionID = getTransactionID(transactionUID);
-                result = mDb.delete(TransactionEntry.TABLE_NAME,
-                        TransactionEntry._ID + "=" + transactionID, null) > 0;
+            mAccountBalancesDbAdapter.subtractTransactions(transactionUIDs);
+            boolean result = mDb.delete(SplitEntry.TABLE_NAME, SplitEntry._ID + "=" + rowId, null) > 0;
+
+            if (!result) //we didn't delete for whatever reason, invalid rowId etc
+                return false;
+
+            //if we just deleted the last split, then remove the transaction from db
+            Cursor cursor = fetchSplitsForTransaction(transactionUID);
+            try {
+                if (cursor.getCount() > 0) {
+                    long transactionID = getTransactionID(transactionUID);
+                    result = mDb.delete(TransactionEntry.TABLE_NAME,
+                            TransactionEntry._ID + "=" + transactionID, null) > 0;
+                }
+            } finally {
+                cursor.close();
             }
+            mAccountBalancesDbAdapter.addTransactions(transactionUIDs);
+            mDb.setTransactionSuccessful();
+            return result;
         } finally {
-            cursor.close();
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Assigns all the splits of an account to another account.
+     * <p>The stored account balances are moved along with the splits</p>
+     * @param srcAccountUID GUID of the account whose splits are reassigned
+     * @param dstAccountUID GUID of the account which will receive the splits
+     * @return Number of splits reassigned
+     */
+    public int reassignAccountSplits(@NonNull String srcAccountUID, @NonNull String dstAccountUID){
+        mDb.beginTransaction();
+        try {
+            int count = updateRecords(SplitEntry.COLUMN_ACCOUNT_UID + " = ?", new String[]{srcAccountUID},
+                    SplitEntry.COLUMN_ACCOUNT_UID, dstAccountUID);
+            mAccountBalancesDbAdapter.moveAccountBalances(srcAccountUID, dstAccountUID);
+            mDb.setTransactionSuccessful();
+            return count;
+        } finally {
+            mDb.endTransaction();
         }
-        return result;
     }
 
     /**
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db.adapter;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of compiled statements for the queries which return a single value, like the lookups of
+ * a GUID, an ID or a column of one record.
+ * <p>Those lookups are very frequent. Running them with {@link SQLiteStatement#simpleQueryForString()} or
+ * {@link SQLiteStatement#simpleQueryForLong()} on a cached statement avoids compiling the query and
+ * allocating a cursor with its window every time.</p>
+ * <p>There is one cache per book database. A statement must not be used by two threads at once, so
+ * each thread has its own statements, and the least recently used ones are closed when there are more
+ * than {@link #CAPACITY}. A thread only locks its own statements, so a lookup never waits for another thread.</p>
+ * <p>The statements keep their database alive, so the cache of a database must be released with
+ * {@link #release(SQLiteDatabase)} when the database is closed. The caches of databases which were closed
+ * without it are released the next time a cache is requested.</p>
+ */
+public final class StatementCache {
+
+    /**
+     * Maximum number of statements cached for each thread
+     */
+    public static final int CAPACITY = 32;
+
+    /**
+     * Caches of the open databases. The read connections to a book are distinct databases with the same path
+     */
+    private static final Map<SQLiteDatabase, StatementCache> sCaches = new IdentityHashMap<>();
+
+    private final SQLiteDatabase mDb;
+
+    /**
+     * Statements of all the threads, so that they can be closed with the database
+     */
+    private final List<Map<String, SQLiteStatement>> mThreadStatements = new ArrayList<>();
+
+    private final ThreadLocal<Map<String, SQLiteStatement>> mStatements = new ThreadLocal<Map<String, SQLiteStatement>>() {
+        @Override
+        protected Map<String, SQLiteStatement> initialValue() {
+            Map<String, SQLiteStatement> statements = new LinkedHashMap<String, SQLiteStatement>(CAPACITY * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() <= CAPACITY)
+                        return false;
+                    eldest.getValue().close();
+                    mEvictionCount.incrementAndGet();
+                    return true;
+                }
+            };
+            synchronized (mThreadStatements) {
+                mThreadStatements.add(statements);
+            }
+            return statements;
+        }
+    };
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    private StatementCache(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Returns the statement cache of a book database
+     * @param db SQLite database of the book
+     * @return Statement cache of the database
+     */
+    public static StatementCache getInstance(@NonNull SQLiteDatabase db) {
+        synchronized (sCaches) {
+            Iterator<StatementCache> iterator = sCaches.values().iterator();
+            while (iterator.hasNext()) {
+                StatementCache cache = iterator.next();
+                if (!cache.mDb.isOpen()) {
+                    iterator.remove();
+                    cache.closeStatements();
+                }
+            }
+
+            StatementCache cache = sCaches.get(db);
+            if (cache == null) {
+                cache = new StatementCache(db);
+                sCaches.put(db, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Closes the cached statements of a database, before the database is closed.
+     * <p>The adapters of the database must not be used afterwards</p>
+     * @param db SQLite database of the book
+     */
+    public static void release(@NonNull SQLiteDatabase db) {
+        StatementCache cache;
+        synchronized (sCaches) {
+            cache = sCaches.remove(db);
+        }
+        if (cache != null)
+            cache.closeStatements();
+    }
+
+    /**
+     * Closes the statements of all the threads and drops them, so that they no longer hold the database
+     */
+    private void closeStatements() {
+        synchronized (mThreadStatements) {
+            for (Map<String, SQLiteStatement> statements : mThreadStatements) {
+                synchronized (statements) {
+                    for (SQLiteStatement statement : statements.values()) {
+                        statement.close();
+                    }
+                    statements.clear();
+                }
+            }
+            mThreadStatements.clear();
+        }
+    }
+
+    /**
+     * Runs a query which returns a single string value
+     * @param sql SQL query. It must not be built from values, those are passed as arguments
+     * @param bindArgs Arguments of the query: strings, numbers or {@code null}
+     * @return Value of the first column of the first row, which may be {@code null}
+     * @throws SQLiteDoneException if the query returned no row
+     */
+    public @Nullable String queryForString(@NonNull String sql, Object... bindArgs) {
+        Map<String, SQLiteStatement> statements = mStatements.get();
+        synchronized (statements) {
+            SQLiteStatement statement = getStatement(statements, sql, bindArgs);
+            try {
+                return statement.simpleQueryForString();
+            } finally {
+                statement.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Runs a query which returns a single number
+     * @param sql SQL query. It must not be built from values, those are passed as arguments
+     * @param bindArgs Arguments of the query: strings, numbers or {@code null}
+     * @return Value of the first column of the first row
+     * @throws SQLiteDoneException if the query returned no row
+     */
+    public long queryForLong(@NonNull String sql, Object... bindArgs) {
+        Map<String, SQLiteStatement> statements = mStatements.get();
+        synchronized (statements) {
+            SQLiteStatement statement = getStatement(statements, sql, bindArgs);
+            try {
+                return statement.simpleQueryForLong();
+            } finally {
+                statement.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Returns the cached statement of this thread for a query, with its arguments bound.
+     * <p>The lock of the statements of the thread is only contended when the database is being closed</p>
+     */
+    private SQLiteStatement getStatement(Map<String, SQLiteStatement> statements, String sql, Object[] bindArgs) {
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            mMissCount.incrementAndGet();
+            statement = mDb.compileStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            mHitCount.incrementAndGet();
+        }
+
+        for (int i = 0; i < bindArgs.length; i++) {
+            Object arg = bindArgs[i];
+            if (arg == null) {
+                statement.bindNull(i + 1);
+            } else if (arg instanceof Long || arg instanceof Integer) {
+                statement.bindLong(i + 1, ((Number) arg).longValue());
+            } else {
+                statement.bindString(i + 1, arg.toString());
+            }
+        }
+        return statement;
+    }
+
+    /**
+     * Number of lookups which found their statement in the cache
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * Number of lookups which had to compile their statement
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Number of statements closed because they were the least recently used
+     */
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+}
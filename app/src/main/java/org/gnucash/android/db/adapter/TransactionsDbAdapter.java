@@ -32,6 +32,7 @@ import com.crashlytics.android.Crashlytics;
 
 import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
 import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
@@ -39,7 +40,13 @@ import org.gnucash.android.util.TimestampHelper;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import static org.gnucash.android.db.DatabaseSchema.AccountEntry;
 import static org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry;
@@ -53,12 +60,20 @@ import static org.gnucash.android.db.DatabaseSchema.TransactionEntry;
  * @author Yongxin Wang <fefe.wyx@gmail.com>
  * @author Oleksandr Tyshkovets <olexandr.tyshkovets@gmail.com>
  */
-public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
+public class TransactionsDbAdapter extends MultiRowInsertAdapter<Transaction> {
+
+    /**
+     * Number of transactions whose splits are loaded together when building many transactions.
+     * Must stay below the SQLite limit of host parameters in a statement (999)
+     */
+    static final int HYDRATION_PAGE_SIZE = 500;
 
     private final SplitsDbAdapter mSplitsDbAdapter;
 
     private final CommoditiesDbAdapter mCommoditiesDbAdapter;
 
+    private final AccountBalancesDbAdapter mAccountBalancesDbAdapter;
+
     /**
      * Overloaded constructor. Creates adapter for already open db
      * @param db SQlite db instance
@@ -77,6 +92,7 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
         });
         mSplitsDbAdapter = splitsDbAdapter;
         mCommoditiesDbAdapter = new CommoditiesDbAdapter(db);
+        mAccountBalancesDbAdapter = new AccountBalancesDbAdapter(db);
     }
 
     /**
@@ -100,8 +116,12 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
     @Override
 	public void addRecord(@NonNull Transaction transaction, UpdateMethod updateMethod){
         Log.d(LOG_TAG, "Adding transaction to the db via " + updateMethod.name());
+        List<String> transactionUIDs = Collections.singletonList(transaction.getUID());
         mDb.beginTransaction();
         try {
+            if (updateMethod != UpdateMethod.insert)
+                mAccountBalancesDbAdapter.subtractTransactions(transactionUIDs);
+
             Split imbalanceSplit = transaction.createAutoBalanceSplit();
             if (imbalanceSplit != null){
                 String imbalanceAccountUID = new AccountsDbAdapter(mDb, this)
@@ -115,9 +135,9 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
             for (Split split : transaction.getSplits()) {
                 Log.d(LOG_TAG, "Replace transaction split in db");
                 if (imbalanceSplit == split) {
-                    mSplitsDbAdapter.addRecord(split, UpdateMethod.insert);
+                    mSplitsDbAdapter.addSplitRecord(split, UpdateMethod.insert);
                 } else {
-                    mSplitsDbAdapter.addRecord(split, updateMethod);
+                    mSplitsDbAdapter.addSplitRecord(split, updateMethod);
                 }
                 splitUIDs.add(split.getUID());
             }
@@ -129,6 +149,7 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
                     new String[]{transaction.getUID()});
             Log.d(LOG_TAG, deleted + " splits deleted");
 
+            mAccountBalancesDbAdapter.addTransactions(transactionUIDs);
             mDb.setTransactionSuccessful();
         } catch (SQLException sqlEx) {
             Log.e(LOG_TAG, sqlEx.getMessage());
@@ -149,51 +170,86 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
      */
     @Override
     public long bulkAddRecords(@NonNull List<Transaction> transactionList, UpdateMethod updateMethod){
-        long start = System.nanoTime();
-        long rowInserted = super.bulkAddRecords(transactionList, updateMethod);
-        long end = System.nanoTime();
-        Log.d(getClass().getSimpleName(), String.format("bulk add transaction time %d ", end - start));
-        List<Split> splitList = new ArrayList<>(transactionList.size()*3);
+        List<String> transactionUIDs = new ArrayList<>(transactionList.size());
+        List<String> emptyTransactionUIDs = new ArrayList<>();
+        int splitCount = 0;
         for (Transaction transaction : transactionList) {
-            splitList.addAll(transaction.getSplits());
+            transactionUIDs.add(transaction.getUID());
+            int nSplits = transaction.getSplits().size();
+            if (nSplits == 0)
+                emptyTransactionUIDs.add(transaction.getUID());
+            splitCount += nSplits;
         }
-        if (rowInserted != 0 && !splitList.isEmpty()) {
-            try {
+
+        long rowInserted;
+        mDb.beginTransaction();
+        try {
+            if (updateMethod != UpdateMethod.insert)
+                mAccountBalancesDbAdapter.subtractTransactions(transactionUIDs);
+
+            long start = System.nanoTime();
+            rowInserted = super.bulkAddRecords(transactionList, updateMethod);
+            long end = System.nanoTime();
+            Log.d(getClass().getSimpleName(), String.format("bulk add transaction time %d ", end - start));
+            if (rowInserted != 0 && splitCount > 0) {
+                List<Split> splitList = new ArrayList<>(splitCount);
+                for (Transaction transaction : transactionList) {
+                    splitList.addAll(transaction.getSplits());
+                }
                 start = System.nanoTime();
                 long nSplits = mSplitsDbAdapter.bulkAddRecords(splitList, updateMethod);
                 Log.d(LOG_TAG, String.format("%d splits inserted in %d ns", nSplits, System.nanoTime()-start));
             }
-            finally {
-                SQLiteStatement deleteEmptyTransaction = mDb.compileStatement("DELETE FROM " +
-                        TransactionEntry.TABLE_NAME + " WHERE NOT EXISTS ( SELECT * FROM " +
-                        SplitEntry.TABLE_NAME +
-                        " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID +
-                        " = " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " ) ");
+            // only the transactions of the list can have been left without splits, the others are not looked at
+            deleteEmptyTransactions(emptyTransactionUIDs);
+
+            start = System.nanoTime();
+            mAccountBalancesDbAdapter.addTransactions(transactionUIDs);
+            Log.d(LOG_TAG, String.format("account balances updated in %d ns", System.nanoTime() - start));
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return rowInserted;
+    }
+
+    /**
+     * Deletes the transactions without splits among those which have just been added
+     * @param transactionUIDs GUIDs of the added transactions which have no splits
+     */
+    private void deleteEmptyTransactions(List<String> transactionUIDs) {
+        if (transactionUIDs.isEmpty())
+            return;
+        SQLiteStatement deleteEmptyTransaction = mDb.compileStatement("DELETE FROM " + TransactionEntry.TABLE_NAME
+                + " WHERE " + TransactionEntry.COLUMN_UID + " = ? AND NOT EXISTS ( SELECT * FROM "
+                + SplitEntry.TABLE_NAME + " WHERE " + SplitEntry.COLUMN_TRANSACTION_UID + " = ? )");
+        try {
+            for (String transactionUID : transactionUIDs) {
+                deleteEmptyTransaction.bindString(1, transactionUID);
+                deleteEmptyTransaction.bindString(2, transactionUID);
                 deleteEmptyTransaction.execute();
             }
+        } finally {
+            deleteEmptyTransaction.close();
         }
-        return rowInserted;
     }
 
     @Override
-    protected @NonNull SQLiteStatement setBindings(@NonNull SQLiteStatement stmt, @NonNull Transaction transaction) {
-        stmt.clearBindings();
-        stmt.bindString(1, transaction.getDescription());
-        stmt.bindString(2, transaction.getNote());
-        stmt.bindLong(3, transaction.getTimeMillis());
-        stmt.bindLong(4, transaction.isExported() ? 1 : 0);
-        stmt.bindString(5, transaction.getCurrencyCode());
-        stmt.bindString(6, transaction.getCommodity().getUID());
-        stmt.bindString(7, TimestampHelper.getUtcStringFromTimestamp(transaction.getCreatedTimestamp()));
+    protected void bindRow(@NonNull SQLiteStatement stmt, int offset, @NonNull final Transaction transaction) {
+        stmt.bindString(offset + 1, transaction.getDescription());
+        stmt.bindString(offset + 2, transaction.getNote());
+        stmt.bindLong(offset + 3, transaction.getTimeMillis());
+        stmt.bindLong(offset + 4, transaction.isExported() ? 1 : 0);
+        stmt.bindString(offset + 5, transaction.getCurrencyCode());
+        stmt.bindString(offset + 6, transaction.getCommodity().getUID());
+        stmt.bindString(offset + 7, TimestampHelper.getUtcStringFromTimestamp(transaction.getCreatedTimestamp()));
 
         if (transaction.getScheduledActionUID() == null)
-            stmt.bindNull(8);
+            stmt.bindNull(offset + 8);
         else
-            stmt.bindString(8, transaction.getScheduledActionUID());
-        stmt.bindLong(9, transaction.isTemplate() ? 1 : 0);
-        stmt.bindString(10, transaction.getUID());
-
-        return stmt;
+            stmt.bindString(offset + 8, transaction.getScheduledActionUID());
+        stmt.bindLong(offset + 9, transaction.isTemplate() ? 1 : 0);
+        stmt.bindString(offset + 10, transaction.getUID());
     }
 
     /**
@@ -219,6 +275,90 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
         return queryBuilder.query(mDb, projectionIn, selection, selectionArgs, null, null, sortOrder);
     }
 
+    /**
+     * Fetches one page of the transactions of an account, with what is needed to list them.
+     * <p>The transactions are ordered by time and then by ID, newest first. A page starts right after
+     * the last transaction of the previous page, so the cost of a page does not depend on how far down it is.
+     * Use {@link Long#MAX_VALUE} for both the timestamp and the ID to get the first page.</p>
+     * <p>There is a row for each transaction and denominator of its splits in the account. The splits of
+     * an account in a transaction normally share the same denominator, so there is usually one row per
+     * transaction. The rows of a transaction are next to each other, and their amounts must be added up,
+     * e.g. with a {@link org.gnucash.android.model.MoneyAccumulator}.</p>
+     * <p>The columns are the transaction {@code _id, uid, name} and {@code timestamp}, plus:
+     * <ul>
+     *     <li>{@code amount_num, amount_denom}: exact sum of the splits in the account which have this
+     *     denominator, in the account currency, with debits as positive amounts</li>
+     *     <li>{@code split_count}: number of splits of the transaction</li>
+     *     <li>{@code transfer_account}: full name of the other account, when the transaction is made of
+     *     two splits which are a pair (see {@link Split#isPairOf(Split)}), or null</li>
+     * </ul></p>
+     * @param accountUID GUID of the account
+     * @param accountCurrencyCode Currency code of the account
+     * @param beforeTimestamp Timestamp of the last transaction of the previous page
+     * @param beforeId Database ID of the last transaction of the previous page
+     * @param pageSize Maximum number of transactions to return
+     * @return Cursor to the transactions of the page
+     */
+    public Cursor fetchTransactionsPageForAccount(@NonNull String accountUID, @NonNull String accountCurrencyCode,
+                                                  long beforeTimestamp, long beforeId, int pageSize) {
+        String transactionUID = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID;
+        String transactionTimestamp = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP;
+        String transactionId = TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID;
+        String pageQuery = "SELECT "
+                + transactionId + " AS " + TransactionEntry._ID + ", "
+                + transactionUID + " AS " + TransactionEntry.COLUMN_UID + ", "
+                + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_DESCRIPTION + " AS " + TransactionEntry.COLUMN_DESCRIPTION + ", "
+                + transactionTimestamp + " AS " + TransactionEntry.COLUMN_TIMESTAMP + ", "
+                + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_CURRENCY + " = ? AS in_account_currency, "
+                + "(SELECT COUNT(*) FROM " + SplitEntry.TABLE_NAME + " AS all_splits"
+                + " WHERE all_splits." + SplitEntry.COLUMN_TRANSACTION_UID + " = " + transactionUID + ") AS split_count"
+                + " FROM " + TransactionEntry.TABLE_NAME
+                + " INNER JOIN " + SplitEntry.TABLE_NAME
+                + " ON " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = " + transactionUID
+                + " WHERE " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " = ?"
+                + " AND " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                + " AND (" + transactionTimestamp + " < ? OR (" + transactionTimestamp + " = ? AND " + transactionId + " < ?))"
+                + " GROUP BY " + transactionId
+                + " ORDER BY " + transactionTimestamp + " DESC, " + transactionId + " DESC"
+                + " LIMIT " + pageSize;
+
+        // the amounts are only summed for the transactions of the page, with integer arithmetic so that they are exact.
+        // The other account is only looked up for the few transactions which have two splits
+        return mDb.rawQuery("SELECT page." + TransactionEntry._ID + " AS " + TransactionEntry._ID + ", "
+                        + "page." + TransactionEntry.COLUMN_UID + " AS " + TransactionEntry.COLUMN_UID + ", "
+                        + "page." + TransactionEntry.COLUMN_DESCRIPTION + " AS " + TransactionEntry.COLUMN_DESCRIPTION + ", "
+                        + "page." + TransactionEntry.COLUMN_TIMESTAMP + " AS " + TransactionEntry.COLUMN_TIMESTAMP + ", "
+                        + "page.split_count AS split_count, "
+                        + "SUM(CASE WHEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN 1 ELSE -1 END"
+                        + " * CASE WHEN page.in_account_currency THEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_VALUE_NUM
+                        + " ELSE " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END) AS amount_num, "
+                        + "CASE WHEN page.in_account_currency THEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_VALUE_DENOM
+                        + " ELSE " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " END AS amount_denom, "
+                        + "CASE WHEN page.split_count = 2 THEN"
+                        + " (SELECT " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_FULL_NAME
+                        + " FROM " + SplitEntry.TABLE_NAME + " AS other"
+                        + " INNER JOIN " + SplitEntry.TABLE_NAME + " AS mine"
+                        + " ON mine." + SplitEntry.COLUMN_TRANSACTION_UID + " = other." + SplitEntry.COLUMN_TRANSACTION_UID
+                        + " AND mine." + SplitEntry._ID + " <> other." + SplitEntry._ID
+                        + " INNER JOIN " + AccountEntry.TABLE_NAME
+                        + " ON " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_UID + " = other." + SplitEntry.COLUMN_ACCOUNT_UID
+                        + " WHERE other." + SplitEntry.COLUMN_TRANSACTION_UID + " = page." + TransactionEntry.COLUMN_UID
+                        + " AND other." + SplitEntry.COLUMN_ACCOUNT_UID + " <> ?"
+                        + " AND other." + SplitEntry.COLUMN_TYPE + " <> mine." + SplitEntry.COLUMN_TYPE
+                        + " AND other." + SplitEntry.COLUMN_VALUE_NUM + " * mine." + SplitEntry.COLUMN_VALUE_DENOM
+                        + " = mine." + SplitEntry.COLUMN_VALUE_NUM + " * other." + SplitEntry.COLUMN_VALUE_DENOM
+                        + " LIMIT 1) END AS transfer_account"
+                        + " FROM (" + pageQuery + ") AS page"
+                        + " INNER JOIN " + SplitEntry.TABLE_NAME
+                        + " ON " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = page." + TransactionEntry.COLUMN_UID
+                        + " AND " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " = ?"
+                        + " GROUP BY page." + TransactionEntry._ID + ", amount_denom"
+                        + " ORDER BY page." + TransactionEntry.COLUMN_TIMESTAMP + " DESC, page." + TransactionEntry._ID + " DESC",
+                new String[]{accountUID, accountCurrencyCode, accountUID,
+                        Long.toString(beforeTimestamp), Long.toString(beforeTimestamp), Long.toString(beforeId),
+                        accountUID});
+    }
+
     /**
      * Returns a cursor to all scheduled transactions which have at least one split in the account
      * <p>This is basically a set of all template transactions for this account</p>
@@ -248,10 +388,20 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
      * @param accountUID GUID of the account
      */
     public void deleteTransactionsForAccount(String accountUID){
+        String transactionWhere = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " IN "
+                + " (SELECT " + SplitEntry.COLUMN_TRANSACTION_UID + " FROM " + SplitEntry.TABLE_NAME + " WHERE "
+                + SplitEntry.COLUMN_ACCOUNT_UID + " = ?)";
         String rawDeleteQuery = "DELETE FROM " + TransactionEntry.TABLE_NAME + " WHERE " + TransactionEntry.COLUMN_UID + " IN "
                 + " (SELECT " + SplitEntry.COLUMN_TRANSACTION_UID + " FROM " + SplitEntry.TABLE_NAME + " WHERE "
                 + SplitEntry.COLUMN_ACCOUNT_UID + " = ?)";
-        mDb.execSQL(rawDeleteQuery, new String[]{accountUID});
+        mDb.beginTransaction();
+        try {
+            mAccountBalancesDbAdapter.subtractTransactions(transactionWhere, new String[]{accountUID});
+            mDb.execSQL(rawDeleteQuery, new String[]{accountUID});
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
     }
 
     /**
@@ -294,15 +444,11 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
 	 */
     public List<Transaction> getAllTransactionsForAccount(String accountUID){
 		Cursor c = fetchAllTransactionsForAccount(accountUID);
-		ArrayList<Transaction> transactionsList = new ArrayList<>();
         try {
-            while (c.moveToNext()) {
-                transactionsList.add(buildModelInstance(c));
-            }
+            return buildModelInstances(c);
         } finally {
             c.close();
         }
-		return transactionsList;
 	}
 
     /**
@@ -311,15 +457,16 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
      */
     public List<Transaction> getAllTransactions(){
         Cursor cursor = fetchAllRecords();
-        List<Transaction> transactions = new ArrayList<Transaction>();
         try {
-            while (cursor.moveToNext()) {
-                transactions.add(buildModelInstance(cursor));
-            }
+            return buildModelInstances(cursor);
         } finally {
             cursor.close();
         }
-        return transactions;
+    }
+
+    @Override
+    public List<Transaction> getAllRecords() {
+        return getAllTransactions();
     }
 
     public Cursor fetchTransactionsWithSplits(String [] columns, @Nullable String where, @Nullable String[] whereArgs, @Nullable String orderBy) {
@@ -344,7 +491,62 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
                 null, null, null, TransactionEntry.COLUMN_TIMESTAMP + " ASC", null);
     }
 
+    /**
+     * Fetches the splits of all transactions modified since a given timestamp, together with their transaction and account.
+     * <p>There is one row per split. The rows are ordered by transaction time (oldest first),
+     * and the splits of a transaction are consecutive and in the order they were saved.</p>
+     * <p>The columns are: {@code trans_uid, trans_time, trans_desc, trans_notes, trans_currency, split_memo, split_type,
+     * split_value_num, split_value_denom, split_quantity_num, split_quantity_denom, split_reconcile_state,
+     * split_reconcile_date, acct_full_name, acct_name, acct_currency}</p>
+     * @param timestamp Timestamp in milliseconds (since Epoch)
+     * @return Cursor to the splits of the transactions
+     * @see #fetchTransactionsModifiedSince(Timestamp)
+     */
+    public Cursor fetchSplitsOfTransactionsModifiedSince(Timestamp timestamp) {
+        return mDb.rawQuery("SELECT "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " AS trans_uid, "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " AS trans_time, "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_DESCRIPTION + " AS trans_desc, "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_NOTES + " AS trans_notes, "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_CURRENCY + " AS trans_currency, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_MEMO + " AS split_memo, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " AS split_type, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_VALUE_NUM + " AS split_value_num, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_VALUE_DENOM + " AS split_value_denom, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " AS split_quantity_num, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " AS split_quantity_denom, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_RECONCILE_STATE + " AS split_reconcile_state, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_RECONCILE_DATE + " AS split_reconcile_date, "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_FULL_NAME + " AS acct_full_name, "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_NAME + " AS acct_name, "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_CURRENCY + " AS acct_currency"
+                        + " FROM " + TransactionEntry.TABLE_NAME
+                        + " INNER JOIN " + SplitEntry.TABLE_NAME
+                        + " ON " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                        + " INNER JOIN " + AccountEntry.TABLE_NAME
+                        + " ON " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_UID + " = "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID
+                        + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_MODIFIED_AT + " >= ?"
+                        + " ORDER BY trans_time ASC, trans_uid ASC, " + SplitEntry.TABLE_NAME + "." + SplitEntry._ID + " ASC",
+                new String[]{TimestampHelper.getUtcStringFromTimestamp(timestamp)});
+    }
+
     public Cursor fetchTransactionsWithSplitsWithTransactionAccount(String [] columns, String where, String[] whereArgs, String orderBy) {
+        return fetchTransactionsWithSplitsWithTransactionAccount(false, columns, where, whereArgs, orderBy);
+    }
+
+    /**
+     * Fetches transactions with their splits and the account they are grouped under, like
+     * {@link #fetchTransactionsWithSplitsWithTransactionAccount(String[], String, String[], String)}
+     * @param distinct true if each row should be unique
+     * @param columns Columns to return
+     * @param where SQL WHERE clause
+     * @param whereArgs Arguments of the WHERE clause
+     * @param orderBy Sort order of the rows
+     * @return Cursor to the rows
+     */
+    public Cursor fetchTransactionsWithSplitsWithTransactionAccount(boolean distinct, String [] columns, String where, String[] whereArgs, String orderBy) {
         // table is :
         // trans_split_acct , trans_extra_info ON trans_extra_info.trans_acct_t_uid = transactions_uid ,
         // accounts AS account1 ON account1.uid = trans_extra_info.trans_acct_a_uid
@@ -355,12 +557,69 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
         // can be eliminated with a WHERE clause. Transactions in QIF can be auto balanced.
         //
         // Account, transaction and split Information can be retrieve in a single query.
-        return mDb.query(
+        return mDb.query(distinct,
                 "trans_split_acct , trans_extra_info ON trans_extra_info.trans_acct_t_uid = trans_split_acct." +
                 TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_UID + " , " +
                 AccountEntry.TABLE_NAME + " AS account1 ON account1." + AccountEntry.COLUMN_UID +
                 " = trans_extra_info.trans_acct_a_uid",
-                columns, where, whereArgs, null, null , orderBy);
+                columns, where, whereArgs, null, null , orderBy, null);
+    }
+
+    /**
+     * Fetches the splits of all transactions of the accounts which have transactions modified since a point in time.
+     * <p>There is one row per account, transaction of the account and split of the transaction, so that an account
+     * statement can be streamed without loading the transactions of the account into memory.
+     * The rows are ordered by account GUID, then by transaction time (newest first), and the splits of a transaction
+     * are consecutive and in the order they were saved. Template transactions are excluded.</p>
+     * <p>The columns are: {@code acct_uid, acct_name, acct_type, acct_currency, trans_uid, trans_desc, trans_notes,
+     * trans_time, trans_modified_at, trans_currency, split_type, split_value_num, split_value_denom,
+     * split_quantity_num, split_quantity_denom, split_acct_uid, split_acct_type}</p>
+     * @param lastExportTimeStamp Timestamp after which any transactions created/modified make an account exportable
+     * @return Cursor to the splits of the exportable accounts
+     */
+    public Cursor fetchSplitsOfExportableAccounts(Timestamp lastExportTimeStamp) {
+        // a transaction may have more than one split in the account, so the pairs have to be made distinct
+        String accountTransactions = "( SELECT DISTINCT " + SplitEntry.COLUMN_ACCOUNT_UID + " AS acct_uid , "
+                + SplitEntry.COLUMN_TRANSACTION_UID + " AS trans_uid FROM " + SplitEntry.TABLE_NAME + " )";
+        return mDb.rawQuery("SELECT "
+                        + "account." + AccountEntry.COLUMN_UID + " AS acct_uid, "
+                        + "account." + AccountEntry.COLUMN_NAME + " AS acct_name, "
+                        + "account." + AccountEntry.COLUMN_TYPE + " AS acct_type, "
+                        + "account." + AccountEntry.COLUMN_CURRENCY + " AS acct_currency, "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " AS trans_uid, "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_DESCRIPTION + " AS trans_desc, "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_NOTES + " AS trans_notes, "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " AS trans_time, "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_MODIFIED_AT + " AS trans_modified_at, "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_CURRENCY + " AS trans_currency, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " AS split_type, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_VALUE_NUM + " AS split_value_num, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_VALUE_DENOM + " AS split_value_denom, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " AS split_quantity_num, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " AS split_quantity_denom, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " AS split_acct_uid, "
+                        + "split_account." + AccountEntry.COLUMN_TYPE + " AS split_acct_type"
+                        + " FROM " + AccountEntry.TABLE_NAME + " AS account"
+                        + " INNER JOIN " + accountTransactions + " AS account_transaction"
+                        + " ON account_transaction.acct_uid = account." + AccountEntry.COLUMN_UID
+                        + " INNER JOIN " + TransactionEntry.TABLE_NAME
+                        + " ON " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " = account_transaction.trans_uid"
+                        + " INNER JOIN " + SplitEntry.TABLE_NAME
+                        + " ON " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                        + " INNER JOIN " + AccountEntry.TABLE_NAME + " AS split_account"
+                        + " ON split_account." + AccountEntry.COLUMN_UID + " = "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID
+                        + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                        + " AND account." + AccountEntry.COLUMN_UID + " IN ( SELECT "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID
+                        + " FROM " + TransactionEntry.TABLE_NAME + " INNER JOIN " + SplitEntry.TABLE_NAME
+                        + " ON " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " = "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID
+                        + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_MODIFIED_AT + " > ? )"
+                        + " ORDER BY acct_uid ASC, trans_time DESC, trans_uid ASC, "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry._ID + " ASC",
+                new String[]{TimestampHelper.getUtcStringFromTimestamp(lastExportTimeStamp)});
     }
 
     /**
@@ -412,23 +671,116 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
 	 */
     @Override
     public Transaction buildModelInstance(@NonNull final Cursor c){
-		String name   = c.getString(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_DESCRIPTION));
-		Transaction transaction = new Transaction(name);
-        populateBaseModelAttributes(c, transaction);
-
-		transaction.setTime(c.getLong(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_TIMESTAMP)));
-		transaction.setNote(c.getString(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_NOTES)));
-		transaction.setExported(c.getInt(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_EXPORTED)) == 1);
-		transaction.setTemplate(c.getInt(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_TEMPLATE)) == 1);
         String currencyCode = c.getString(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_CURRENCY));
-        transaction.setCommodity(mCommoditiesDbAdapter.getCommodity(currencyCode));
-        transaction.setScheduledActionUID(c.getString(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_SCHEDX_ACTION_UID)));
-        long transactionID = c.getLong(c.getColumnIndexOrThrow(TransactionEntry._ID));
-        transaction.setSplits(mSplitsDbAdapter.getSplitsForTransaction(transactionID));
+        Transaction transaction = buildTransactionWithoutSplits(c, mCommoditiesDbAdapter.getCommodity(currencyCode));
+        transaction.setSplits(mSplitsDbAdapter.getSplitsForTransaction(transaction.getUID()));
 
 		return transaction;
 	}
 
+    /**
+     * Builds all the transactions in the cursor, starting from its current position.
+     * <p>Unlike calling {@link #buildModelInstance(Cursor)} for each row, the splits are loaded
+     * for {@link #HYDRATION_PAGE_SIZE} transactions at a time with a single query, and the commodities
+     * are only looked up once per currency. The cursor is left after the last row.</p>
+     * @param cursor Cursor to transaction records
+     * @return List of transactions in the order of the cursor
+     */
+    public List<Transaction> buildModelInstances(@NonNull Cursor cursor){
+        List<Transaction> transactions = new ArrayList<>(Math.max(cursor.getCount(), 0));
+        TransactionIterator iterator = new TransactionIterator(cursor);
+        while (iterator.hasNext()) {
+            transactions.add(iterator.next());
+        }
+        return transactions;
+    }
+
+    /**
+     * Returns an iterator which builds the transactions in the cursor page by page.
+     * <p>Only {@link #HYDRATION_PAGE_SIZE} transactions are held in memory at any time, which makes
+     * this suitable for streaming large numbers of transactions e.g. during exports.
+     * The caller remains responsible for closing the cursor.</p>
+     * @param cursor Cursor to transaction records
+     * @return Iterator over fully built transactions
+     * @see #buildModelInstances(Cursor)
+     */
+    public Iterator<Transaction> iterateModelInstances(@NonNull Cursor cursor){
+        return new TransactionIterator(cursor);
+    }
+
+    /**
+     * Builds a transaction from the cursor without loading its splits
+     * @param c Cursor pointing to transaction record in database
+     * @param commodity Commodity of the transaction
+     * @return Transaction without any splits
+     */
+    private Transaction buildTransactionWithoutSplits(@NonNull Cursor c, Commodity commodity){
+        String name   = c.getString(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_DESCRIPTION));
+        Transaction transaction = new Transaction(name);
+        populateBaseModelAttributes(c, transaction);
+
+        transaction.setTime(c.getLong(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_TIMESTAMP)));
+        transaction.setNote(c.getString(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_NOTES)));
+        transaction.setExported(c.getInt(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_EXPORTED)) == 1);
+        transaction.setTemplate(c.getInt(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_TEMPLATE)) == 1);
+        transaction.setCommodity(commodity);
+        transaction.setScheduledActionUID(c.getString(c.getColumnIndexOrThrow(TransactionEntry.COLUMN_SCHEDX_ACTION_UID)));
+        return transaction;
+    }
+
+    /**
+     * Iterates over the transactions of a cursor, loading the splits of one page of transactions at a time
+     */
+    private class TransactionIterator implements Iterator<Transaction> {
+        private final Cursor mCursor;
+        private final Map<String, Commodity> mCommodities = new HashMap<>();
+        private final LinkedList<Transaction> mPage = new LinkedList<>();
+
+        TransactionIterator(Cursor cursor){
+            mCursor = cursor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (mPage.isEmpty())
+                loadNextPage();
+            return !mPage.isEmpty();
+        }
+
+        @Override
+        public Transaction next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return mPage.removeFirst();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void loadNextPage(){
+            List<String> transactionUIDs = new ArrayList<>(HYDRATION_PAGE_SIZE);
+            while (mPage.size() < HYDRATION_PAGE_SIZE && mCursor.moveToNext()) {
+                String currencyCode = mCursor.getString(mCursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_CURRENCY));
+                Commodity commodity = mCommodities.get(currencyCode);
+                if (commodity == null) {
+                    commodity = mCommoditiesDbAdapter.getCommodity(currencyCode);
+                    mCommodities.put(currencyCode, commodity);
+                }
+                Transaction transaction = buildTransactionWithoutSplits(mCursor, commodity);
+                mPage.add(transaction);
+                transactionUIDs.add(transaction.getUID());
+            }
+
+            Map<String, List<Split>> splitsMap = mSplitsDbAdapter.getSplitsForTransactions(transactionUIDs);
+            for (Transaction transaction : mPage) {
+                List<Split> splits = splitsMap.get(transaction.getUID());
+                transaction.setSplits(splits == null ? new ArrayList<Split>() : splits);
+            }
+        }
+    }
+
     /**
      * Returns the transaction balance for the transaction for the specified account.
      * <p>We consider only those splits which belong to this account</p>
@@ -458,7 +810,16 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
         for (Split split : splits) {
             split.setAccountUID(dstAccountUID);
         }
-        mSplitsDbAdapter.bulkAddRecords(splits, UpdateMethod.update);
+        List<String> transactionUIDs = Collections.singletonList(transactionUID);
+        mDb.beginTransaction();
+        try {
+            mAccountBalancesDbAdapter.subtractTransactions(transactionUIDs);
+            mSplitsDbAdapter.bulkAddRecords(splits, UpdateMethod.update);
+            mAccountBalancesDbAdapter.addTransactions(transactionUIDs);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
         return splits.size();
 	}
 
@@ -496,12 +857,8 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
      */
     public List<Transaction> getScheduledTransactionsForAccount(String accountUID){
         Cursor cursor = fetchScheduledTransactionsForAccount(accountUID);
-        List<Transaction> scheduledTransactions = new ArrayList<>();
         try {
-            while (cursor.moveToNext()) {
-                scheduledTransactions.add(buildModelInstance(cursor));
-            }
-            return scheduledTransactions;
+            return buildModelInstances(cursor);
         } finally {
             cursor.close();
         }
@@ -590,7 +947,46 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
      */
     public int deleteAllNonTemplateTransactions(){
         String where = TransactionEntry.COLUMN_TEMPLATE + "=0";
-        return mDb.delete(mTableName, where, null);
+        mDb.beginTransaction();
+        try {
+            int count = mDb.delete(mTableName, where, null);
+            mAccountBalancesDbAdapter.deleteAll();
+            mDb.setTransactionSuccessful();
+            return count;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes all transactions and their splits from the database, including the templates
+     * @return Number of records deleted
+     */
+    @Override
+    public int deleteAllRecords() {
+        mDb.beginTransaction();
+        try {
+            int count = super.deleteAllRecords();
+            mAccountBalancesDbAdapter.deleteAll();
+            mDb.setTransactionSuccessful();
+            return count;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @Override
+    public boolean deleteRecord(long rowId) {
+        List<String> transactionUIDs = Collections.singletonList(getUID(rowId));
+        mDb.beginTransaction();
+        try {
+            mAccountBalancesDbAdapter.subtractTransactions(transactionUIDs);
+            boolean result = super.deleteRecord(rowId);
+            mDb.setTransactionSuccessful();
+            return result;
+        } finally {
+            mDb.endTransaction();
+        }
     }
 
     /**
@@ -38,11 +38,10 @@ import org.gnucash.android.db.adapter.RecurrenceDbAdapter;
 import org.gnucash.android.db.adapter.ScheduledActionDbAdapter;
 import org.gnucash.android.db.adapter.SplitsDbAdapter;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 
 import java.io.File;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
@@ -85,7 +84,7 @@ public abstract class Exporter {
      */
     private final File mCacheDir;
 
-    private static final SimpleDateFormat EXPORT_FILENAME_DATE_FORMAT = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US);
+    private static final DateTimeFormatter EXPORT_FILENAME_DATE_FORMAT = DateTimeFormat.forPattern("yyyyMMdd_HHmmss").withLocale(Locale.US);
 
     /**
      * Adapter for retrieving accounts to export
@@ -159,7 +158,7 @@ public abstract class Exporter {
      * @return String containing the file name
      */
     public static String buildExportFilename(ExportFormat format, String bookName) {
-        return EXPORT_FILENAME_DATE_FORMAT.format(new Date(System.currentTimeMillis()))
+        return EXPORT_FILENAME_DATE_FORMAT.print(System.currentTimeMillis())
                 + "_gnucash_export_" + sanitizeFilename(bookName) +
                 (format == ExportFormat.CSVA ? "_accounts" : "") +
                 (format == ExportFormat.CSVT ? "_transactions" : "") +
@@ -178,9 +177,8 @@ public abstract class Exporter {
             return timeMillis;
         }
         try {
-            Date date = EXPORT_FILENAME_DATE_FORMAT.parse(tokens[0] + "_" + tokens[1]);
-            timeMillis = date.getTime();
-        } catch (ParseException e) {
+            timeMillis = EXPORT_FILENAME_DATE_FORMAT.parseMillis(tokens[0] + "_" + tokens[1]);
+        } catch (IllegalArgumentException e) {
             Log.e("Exporter", "Error parsing time from file name: " + e.getMessage());
             Crashlytics.logException(e);
         }
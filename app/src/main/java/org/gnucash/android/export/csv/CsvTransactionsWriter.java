@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export.csv;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.util.TimestampHelper;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes the rows of a CSV transactions export as they are read from a cursor.
+ * <p>The cursor has one row per split, with the splits of a transaction on consecutive rows, as returned by
+ * {@link org.gnucash.android.db.adapter.TransactionsDbAdapter#fetchSplitsOfTransactionsModifiedSince(java.sql.Timestamp)}.
+ * The first split of a transaction is written on the same line as the transaction, and the other splits
+ * on their own lines. No model objects are built, and the amounts are formatted like {@link Money} does.</p>
+ */
+final class CsvTransactionsWriter {
+
+    /**
+     * Dates are written in the default time zone, like they are shown in the app.
+     * Unlike {@link java.text.SimpleDateFormat}, the formatter can be shared
+     */
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern("yyyy-MM-dd");
+
+    private final CsvWriter mWriter;
+
+    /**
+     * Empty transaction columns which precede the second and following splits of a transaction
+     */
+    private final String mEmptyTransactionColumns;
+
+    private final Locale mLocale;
+
+    /**
+     * Formats amounts with two decimal places, reusing the same buffer for every amount
+     */
+    private final StringBuilder mDecimalBuffer = new StringBuilder();
+    private final Formatter mDecimalFormatter;
+
+    /**
+     * Currency formats of the account commodities, by currency code
+     */
+    private final Map<String, CommodityFormat> mCommodityFormats = new HashMap<>();
+
+    /**
+     * Creates a writer of transaction rows
+     * @param writer CSV writer of the export file. The header line should have been written already
+     * @param separator Separator of the CSV columns
+     */
+    CsvTransactionsWriter(@NonNull CsvWriter writer, char separator) {
+        mWriter = writer;
+        StringBuilder emptyColumns = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            emptyColumns.append(separator);
+        }
+        mEmptyTransactionColumns = emptyColumns.toString();
+        mLocale = Locale.getDefault();
+        mDecimalFormatter = new Formatter(mDecimalBuffer, mLocale);
+    }
+
+    /**
+     * Writes all rows of the cursor, starting from its current position
+     * @param cursor Cursor to the splits of the exported transactions
+     * @return Number of split rows written
+     * @throws IOException if the export file could not be written
+     */
+    int writeTransactions(@NonNull Cursor cursor) throws IOException {
+        int transactionUIDIndex     = cursor.getColumnIndexOrThrow("trans_uid");
+        int timestampIndex          = cursor.getColumnIndexOrThrow("trans_time");
+        int descriptionIndex        = cursor.getColumnIndexOrThrow("trans_desc");
+        int notesIndex              = cursor.getColumnIndexOrThrow("trans_notes");
+        int transactionCurrencyIndex = cursor.getColumnIndexOrThrow("trans_currency");
+        int memoIndex               = cursor.getColumnIndexOrThrow("split_memo");
+        int splitTypeIndex          = cursor.getColumnIndexOrThrow("split_type");
+        int valueNumIndex           = cursor.getColumnIndexOrThrow("split_value_num");
+        int valueDenomIndex         = cursor.getColumnIndexOrThrow("split_value_denom");
+        int quantityNumIndex        = cursor.getColumnIndexOrThrow("split_quantity_num");
+        int quantityDenomIndex      = cursor.getColumnIndexOrThrow("split_quantity_denom");
+        int reconcileStateIndex     = cursor.getColumnIndexOrThrow("split_reconcile_state");
+        int reconcileDateIndex      = cursor.getColumnIndexOrThrow("split_reconcile_date");
+        int accountFullNameIndex    = cursor.getColumnIndexOrThrow("acct_full_name");
+        int accountNameIndex        = cursor.getColumnIndexOrThrow("acct_name");
+        int accountCurrencyIndex    = cursor.getColumnIndexOrThrow("acct_currency");
+
+        String currentTransactionUID = null;
+        int rowCount = 0;
+        while (cursor.moveToNext()) {
+            String transactionUID = cursor.getString(transactionUIDIndex);
+            if (transactionUID.equals(currentTransactionUID)) {
+                // the first split is on the same line as the transaction, the others are not
+                mWriter.write(mEmptyTransactionColumns);
+            } else {
+                currentTransactionUID = transactionUID;
+                mWriter.writeToken(DATE_FORMATTER.print(cursor.getLong(timestampIndex)));
+                mWriter.writeToken(transactionUID);
+                mWriter.writeToken(null);  //Transaction number
+                mWriter.writeToken(cursor.getString(descriptionIndex));
+                mWriter.writeToken(cursor.getString(notesIndex));
+                mWriter.writeToken("CURRENCY::" + cursor.getString(transactionCurrencyIndex));
+                mWriter.writeToken(null); // Void Reason
+                mWriter.writeToken(null); // Action
+            }
+
+            mWriter.writeToken(cursor.getString(memoIndex));
+            mWriter.writeToken(cursor.getString(accountFullNameIndex));
+            mWriter.writeToken(cursor.getString(accountNameIndex));
+
+            CommodityFormat commodityFormat = getCommodityFormat(cursor.getString(accountCurrencyIndex));
+            long quantityNum = cursor.getLong(quantityNumIndex);
+            long quantityDenom = cursor.getLong(quantityDenomIndex);
+            double quantity = Money.getBigDecimal(quantityNum, quantityDenom).doubleValue();
+            String sign = TransactionType.CREDIT.name().equals(cursor.getString(splitTypeIndex)) ? "-" : "";
+            mWriter.writeToken(sign + commodityFormat.mCurrencyFormat.format(quantity));
+            mWriter.writeToken(sign + formatDecimal(quantity));
+
+            String reconcileState = cursor.getString(reconcileStateIndex);
+            mWriter.writeToken(reconcileState);
+            String reconcileDate = cursor.getString(reconcileDateIndex);
+            if (reconcileState.charAt(0) == Split.FLAG_RECONCILED && reconcileDate != null && !reconcileDate.isEmpty()) {
+                long reconcileTime = TimestampHelper.getTimestampFromUtcString(reconcileDate).getTime();
+                mWriter.writeToken(DATE_FORMATTER.print(reconcileTime));
+            } else {
+                mWriter.writeToken(null);
+            }
+
+            // price of the split, which is the ratio of its quantity to its value
+            BigDecimal value = Money.getBigDecimal(cursor.getLong(valueNumIndex), cursor.getLong(valueDenomIndex));
+            if (value.signum() == 0) {
+                mWriter.writeEndToken(null);
+            } else {
+                BigDecimal price = Money.getBigDecimal(quantityNum, quantityDenom)
+                        .divide(value, commodityFormat.mFractionDigits, RoundingMode.HALF_EVEN);
+                mWriter.writeEndToken(formatDecimal(price.doubleValue()));
+            }
+            rowCount++;
+        }
+        return rowCount;
+    }
+
+    /**
+     * Formats an amount with two decimal places in the default locale, like {@link Money#toLocaleString()}
+     * @param amount Amount to format
+     * @return Formatted amount
+     */
+    private String formatDecimal(double amount) {
+        mDecimalBuffer.setLength(0);
+        mDecimalFormatter.format("%.2f", amount);
+        return mDecimalBuffer.toString();
+    }
+
+    /**
+     * Returns the currency format of a commodity, creating it the first time the commodity is used
+     * @param currencyCode Currency code of the commodity
+     * @return Currency format of the commodity
+     */
+    private CommodityFormat getCommodityFormat(String currencyCode) {
+        CommodityFormat commodityFormat = mCommodityFormats.get(currencyCode);
+        if (commodityFormat == null) {
+            commodityFormat = new CommodityFormat(Commodity.getInstance(currencyCode), mLocale);
+            mCommodityFormats.put(currencyCode, commodityFormat);
+        }
+        return commodityFormat;
+    }
+
+    /**
+     * Currency format of a commodity, set up like {@link Money#formattedString(Locale)} does
+     */
+    private static class CommodityFormat {
+        final NumberFormat mCurrencyFormat;
+        final int mFractionDigits;
+
+        CommodityFormat(Commodity commodity, Locale locale) {
+            mFractionDigits = commodity.getSmallestFractionDigits();
+            mCurrencyFormat = NumberFormat.getCurrencyInstance(locale);
+
+            //if we want to show US Dollars for locales which also use Dollars, for example, Canada
+            String symbol = commodity.equals(Commodity.USD) && !locale.equals(Locale.US)
+                    ? "US$" : commodity.getSymbol();
+            DecimalFormatSymbols decimalFormatSymbols = ((DecimalFormat) mCurrencyFormat).getDecimalFormatSymbols();
+            decimalFormatSymbols.setCurrencySymbol(symbol);
+            ((DecimalFormat) mCurrencyFormat).setDecimalFormatSymbols(decimalFormatSymbols);
+            mCurrencyFormat.setMinimumFractionDigits(mFractionDigits);
+            mCurrencyFormat.setMaximumFractionDigits(mFractionDigits);
+        }
+    }
+}
@@ -55,25 +55,26 @@ public class CsvWriter extends BufferedWriter {
      * @throws IOException if the token could not be written to the underlying stream
      */
     public void writeToken(String token) throws IOException {
-        if (token == null || token.isEmpty()){
-            write(separator);
-        } else {
-            token = escape(token);
-            write(token + separator);
+        if (token != null && !token.isEmpty()){
+            writeEscaped(token);
         }
+        write(separator);
     }
 
     /**
-     * Escape any CSV separators by surrounding the token in double quotes
+     * Writes a token, escaping any CSV separators by surrounding the token in double quotes.
+     * <p>The token is written straight to the buffer, without building an escaped copy</p>
      * @param token String token to be written to CSV
-     * @return Escaped CSV token
+     * @throws IOException if the token could not be written to the underlying stream
      */
-    @NonNull
-    private String escape(@NonNull String token) {
+    private void writeEscaped(@NonNull String token) throws IOException {
         if (token.contains(separator)){
-            return "\"" + token + "\"";
+            write('"');
+            write(token);
+            write('"');
+        } else {
+            write(token);
         }
-        return token;
     }
 
     /**
@@ -86,7 +87,7 @@ public class CsvWriter extends BufferedWriter {
      */
     public void writeEndToken(String token) throws IOException {
         if (token != null && !token.isEmpty()) {
-            write(escape(token));
+            writeEscaped(token);
         }
         this.newLine();
     }
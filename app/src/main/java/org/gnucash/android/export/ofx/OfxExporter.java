@@ -17,57 +17,62 @@
 
 package org.gnucash.android.export.ofx;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.preference.PreferenceManager;
-import android.util.Log;
-
-import com.crashlytics.android.Crashlytics;
 
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
-import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.export.ExportParams;
 import org.gnucash.android.export.Exporter;
 import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Money;
 import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
 import org.gnucash.android.util.PreferencesHelper;
 import org.gnucash.android.util.TimestampHelper;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.ProcessingInstruction;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.io.StringWriter;
 import java.io.Writer;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
 /**
  * Exports the data in the database in OFX format
+ * <p>The export is streamed to the file from a single cursor over the splits of the exported accounts,
+ * so that the memory used does not grow with the number of transactions.
+ * The document is written in the layout which the XML transformer used to produce:
+ * one element per line, indented by two spaces, with the text of leaf elements on the same line.</p>
  * @author Ngewi Fet <ngewi.fet@gmail.com>
  * @author Yongxin Wang <fefe.wyx@gmail.com>
  */
 public class OfxExporter extends Exporter{
 
     /**
-	 * List of accounts in the expense report
-	 */
-	private List<Account> mAccountsList;
+     * XML declaration which precedes the OFX processing instruction when XML headers are used
+     */
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+
+    /**
+     * Number of spaces by which each level of the document is indented
+     */
+    private static final int INDENT_AMOUNT = 2;
+
+    /**
+     * Writer of the export file
+     */
+    private Writer mWriter;
+
+    /**
+     * Number of elements which are currently open in the document
+     */
+    private int mDepth;
 
     /**
 	 * Builds an XML representation of the {@link Account}s and {@link Transaction}s in the database
@@ -87,139 +92,290 @@ public class OfxExporter extends Exporter{
         LOG_TAG = "OfxExporter";
     }
 
-    /**
-	 * Converts all expenses into OFX XML format and adds them to the XML document
-	 * @param doc DOM document of the OFX expenses.
-	 * @param parent Parent node for all expenses in report
-	 */
-	private void generateOfx(Document doc, Element parent){
-		Element transactionUid = doc.createElement(OfxHelper.TAG_TRANSACTION_UID);
-		//unsolicited because the data exported is not as a result of a request
-		transactionUid.appendChild(doc.createTextNode(OfxHelper.UNSOLICITED_TRANSACTION_ID));
-
-		Element statementTransactionResponse = doc.createElement(OfxHelper.TAG_STATEMENT_TRANSACTION_RESPONSE);
-		statementTransactionResponse.appendChild(transactionUid);
-		
-		Element bankmsgs = doc.createElement(OfxHelper.TAG_BANK_MESSAGES_V1);
-		bankmsgs.appendChild(statementTransactionResponse);
-		
-		parent.appendChild(bankmsgs);		
-		
-		AccountsDbAdapter accountsDbAdapter = mAccountsDbAdapter;
-		for (Account account : mAccountsList) {		
-			if (account.getTransactionCount() == 0)
-				continue; 
-
-            //do not export imbalance accounts for OFX transactions and double-entry disabled
-            if (!GnuCashApplication.isDoubleEntryEnabled() && account.getName().contains(mContext.getString(R.string.imbalance_account_name)))
-                continue;
-
+    @Override
+    public List<String> generateExport() throws ExporterException {
+        List<String> exportedAccountUIDs;
+        Cursor cursor = mTransactionsDbAdapter.fetchSplitsOfExportableAccounts(mExportParams.getExportStartTime());
+        try {
+            if (!cursor.moveToFirst())
+                return new ArrayList<>(); // Nothing to export, so no files generated
 
-			//add account details (transactions) to the XML document			
-			account.toOfx(doc, statementTransactionResponse, mExportParams.getExportStartTime());
-			
-			//mark as exported
-			accountsDbAdapter.markAsExported(account.getUID());
-			
-		}
-	}
+            BufferedWriter writer = null;
+            try {
+                File file = new File(getExportCacheFilePath());
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+                exportedAccountUIDs = generateOfxExport(writer, cursor);
+            } catch (IOException e) {
+                throw new ExporterException(mExportParams, e);
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        throw new ExporterException(mExportParams, e);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
 
-    /**
-     * Generate OFX export file from the transactions in the database
-     * @return String containing OFX export
-     * @throws ExporterException
-     */
-    private String generateOfxExport() throws ExporterException {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory
-                .newInstance();
-        DocumentBuilder docBuilder;
-        try {
-            docBuilder = docFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ExporterException(mExportParams, e);
+        for (String accountUID : exportedAccountUIDs) {
+            mAccountsDbAdapter.markAsExported(accountUID);
         }
+        PreferencesHelper.setLastExportTime(TimestampHelper.getTimestampFromNow());
 
-        Document document = docBuilder.newDocument();
-        Element root = document.createElement("OFX");
+        List<String> exportedFiles = new ArrayList<>();
+        exportedFiles.add(getExportCacheFilePath());
 
-        ProcessingInstruction pi = document.createProcessingInstruction("OFX", OfxHelper.OFX_HEADER);
-        document.appendChild(pi);
-        document.appendChild(root);
+        return exportedFiles;
+    }
 
-        generateOfx(document, root);
+    /**
+     * Writes the OFX export of the transactions in the database
+     * @param writer Writer of the export file
+     * @param cursor Cursor from {@link org.gnucash.android.db.adapter.TransactionsDbAdapter#fetchSplitsOfExportableAccounts(Timestamp)},
+     *               positioned on its first row
+     * @return GUIDs of the accounts whose statements were exported
+     * @throws IOException if the export file could not be written
+     */
+    private List<String> generateOfxExport(Writer writer, Cursor cursor) throws IOException {
+        mWriter = writer;
+        mDepth = 0;
 
         boolean useXmlHeader = PreferenceManager.getDefaultSharedPreferences(mContext)
                 .getBoolean(mContext.getString(R.string.key_xml_ofx_header), false);
-
-        PreferencesHelper.setLastExportTime(TimestampHelper.getTimestampFromNow());
-
-        StringWriter stringWriter = new StringWriter();
-        //if we want SGML OFX headers, write first to string and then prepend header
         if (useXmlHeader){
-            write(document, stringWriter, false);
-            return stringWriter.toString();
+            mWriter.write(XML_DECLARATION);
+            mWriter.write("<?OFX " + OfxHelper.OFX_HEADER + "?>");
         } else {
-            Node ofxNode = document.getElementsByTagName("OFX").item(0);
-            write(ofxNode, stringWriter, true);
-            return OfxHelper.OFX_SGML_HEADER + '\n' + stringWriter.toString();
+            mWriter.write(OfxHelper.OFX_SGML_HEADER);
+            mWriter.write('\n');
         }
+
+        startElement("OFX");
+        startElement(OfxHelper.TAG_BANK_MESSAGES_V1);
+        startElement(OfxHelper.TAG_STATEMENT_TRANSACTION_RESPONSE);
+        //unsolicited because the data exported is not as a result of a request
+        writeElement(OfxHelper.TAG_TRANSACTION_UID, OfxHelper.UNSOLICITED_TRANSACTION_ID);
+        List<String> exportedAccountUIDs = writeStatements(cursor);
+        endElement(OfxHelper.TAG_STATEMENT_TRANSACTION_RESPONSE);
+        endElement(OfxHelper.TAG_BANK_MESSAGES_V1);
+        endElement("OFX");
+        return exportedAccountUIDs;
     }
 
-    @Override
-    public List<String> generateExport() throws ExporterException {
-        mAccountsList = mAccountsDbAdapter.getExportableAccounts(mExportParams.getExportStartTime());
-        if (mAccountsList.isEmpty())
-            return new ArrayList<>(); // Nothing to export, so no files generated
+    /**
+     * Writes one statement per account, with the transactions of the account modified since the export start time.
+     * <p>The balances of the accounts and transactions are computed from the splits as they are read</p>
+     * @param cursor Cursor to the splits of the exported accounts, positioned on its first row
+     * @return GUIDs of the accounts whose statements were written
+     * @throws IOException if the export file could not be written
+     */
+    private List<String> writeStatements(Cursor cursor) throws IOException {
+        int accountUIDIndex         = cursor.getColumnIndexOrThrow("acct_uid");
+        int accountNameIndex        = cursor.getColumnIndexOrThrow("acct_name");
+        int accountTypeIndex        = cursor.getColumnIndexOrThrow("acct_type");
+        int accountCurrencyIndex    = cursor.getColumnIndexOrThrow("acct_currency");
+        int transactionUIDIndex     = cursor.getColumnIndexOrThrow("trans_uid");
+        int descriptionIndex        = cursor.getColumnIndexOrThrow("trans_desc");
+        int notesIndex              = cursor.getColumnIndexOrThrow("trans_notes");
+        int timestampIndex          = cursor.getColumnIndexOrThrow("trans_time");
+        int modifiedAtIndex         = cursor.getColumnIndexOrThrow("trans_modified_at");
+        int transactionCurrencyIndex = cursor.getColumnIndexOrThrow("trans_currency");
+        int splitTypeIndex          = cursor.getColumnIndexOrThrow("split_type");
+        int valueNumIndex           = cursor.getColumnIndexOrThrow("split_value_num");
+        int valueDenomIndex         = cursor.getColumnIndexOrThrow("split_value_denom");
+        int quantityNumIndex        = cursor.getColumnIndexOrThrow("split_quantity_num");
+        int quantityDenomIndex      = cursor.getColumnIndexOrThrow("split_quantity_denom");
+        int splitAccountUIDIndex    = cursor.getColumnIndexOrThrow("split_acct_uid");
+        int splitAccountTypeIndex   = cursor.getColumnIndexOrThrow("split_acct_type");
 
-        BufferedWriter writer = null;
+        Timestamp exportStartTime = mExportParams.getExportStartTime();
+        String imbalanceAccountName = mContext.getString(R.string.imbalance_account_name);
+        List<String> exportedAccountUIDs = new ArrayList<>();
 
-        try {
-            File file = new File(getExportCacheFilePath());
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
-            writer.write(generateOfxExport());
-        } catch (IOException e) {
-            throw new ExporterException(mExportParams, e);
-        } finally {
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (IOException e) {
-                    throw new ExporterException(mExportParams, e);
+        while (!cursor.isAfterLast()) {
+            String accountUID = cursor.getString(accountUIDIndex);
+            AccountType accountType = AccountType.valueOf(cursor.getString(accountTypeIndex));
+            String currencyCode = cursor.getString(accountCurrencyIndex);
+
+            //do not export imbalance accounts for OFX transactions and double-entry disabled
+            boolean skipAccount = !GnuCashApplication.isDoubleEntryEnabled()
+                    && cursor.getString(accountNameIndex).contains(imbalanceAccountName);
+            String formattedCurrentTimeString = OfxHelper.getFormattedCurrentTime();
+            if (!skipAccount) {
+                startElement(OfxHelper.TAG_STATEMENT_TRANSACTIONS);
+                writeElement(OfxHelper.TAG_CURRENCY_DEF, currencyCode);
+                startElement(OfxHelper.TAG_BANK_ACCOUNT_FROM);
+                writeElement(OfxHelper.TAG_BANK_ID, OfxHelper.APP_ID);
+                writeElement(OfxHelper.TAG_ACCOUNT_ID, accountUID);
+                writeElement(OfxHelper.TAG_ACCOUNT_TYPE, Account.convertToOfxAccountType(accountType).toString());
+                endElement(OfxHelper.TAG_BANK_ACCOUNT_FROM);
+                startElement(OfxHelper.TAG_BANK_TRANSACTION_LIST);
+                writeElement(OfxHelper.TAG_DATE_START, formattedCurrentTimeString);
+                writeElement(OfxHelper.TAG_DATE_END, formattedCurrentTimeString);
+            }
+
+            boolean isDebitAccount = accountType.hasDebitNormalBalance();
+            Money accountBalance = Money.createZeroInstance(currencyCode);
+            while (!cursor.isAfterLast() && accountUID.equals(cursor.getString(accountUIDIndex))) {
+                String transactionUID = cursor.getString(transactionUIDIndex);
+                String description = cursor.getString(descriptionIndex);
+                String notes = cursor.getString(notesIndex);
+                long timestamp = cursor.getLong(timestampIndex);
+                Timestamp modifiedTimestamp = TimestampHelper.getTimestampFromUtcString(cursor.getString(modifiedAtIndex));
+                boolean isInAccountCurrency = currencyCode.equals(cursor.getString(transactionCurrencyIndex));
+
+                // balance of the transaction in the account, computed like Transaction#getBalance(String)
+                Money balance = Money.createZeroInstance(currencyCode);
+                int splitCount = 0;
+                String transferAccountUID = null;
+                String transferAccountType = null;
+                do {
+                    splitCount++;
+                    String splitAccountUID = cursor.getString(splitAccountUIDIndex);
+                    if (splitAccountUID.equals(accountUID)) {
+                        Money amount = isInAccountCurrency
+                                ? new Money(cursor.getLong(valueNumIndex), cursor.getLong(valueDenomIndex), currencyCode)
+                                : new Money(cursor.getLong(quantityNumIndex), cursor.getLong(quantityDenomIndex), currencyCode);
+                        boolean isDebitSplit = TransactionType.DEBIT.name().equals(cursor.getString(splitTypeIndex));
+                        balance = isDebitAccount == isDebitSplit ? balance.add(amount) : balance.subtract(amount);
+                    } else if (transferAccountUID == null) {
+                        transferAccountUID = splitAccountUID;
+                        transferAccountType = cursor.getString(splitAccountTypeIndex);
+                    }
+                } while (cursor.moveToNext()
+                        && transactionUID.equals(cursor.getString(transactionUIDIndex))
+                        && accountUID.equals(cursor.getString(accountUIDIndex)));
+
+                accountBalance = accountBalance.add(balance);
+                if (skipAccount || modifiedTimestamp.before(exportStartTime))
+                    continue;
+
+                startElement(OfxHelper.TAG_STATEMENT_TRANSACTION);
+                writeElement(OfxHelper.TAG_TRANSACTION_TYPE,
+                        (balance.isNegative() ? TransactionType.DEBIT : TransactionType.CREDIT).toString());
+                writeElement(OfxHelper.TAG_DATE_POSTED, OfxHelper.getOfxFormattedTime(timestamp));
+                writeElement(OfxHelper.TAG_DATE_USER, OfxHelper.getOfxFormattedTime(timestamp));
+                writeElement(OfxHelper.TAG_TRANSACTION_AMOUNT, balance.toPlainString());
+                writeElement(OfxHelper.TAG_TRANSACTION_FITID, transactionUID);
+                writeElement(OfxHelper.TAG_NAME, description);
+                if (notes != null && notes.length() > 0)
+                    writeElement(OfxHelper.TAG_MEMO, notes);
+
+                if (splitCount == 2){ //if we have exactly one other split, then treat it like a transfer
+                    if (transferAccountUID == null) {
+                        transferAccountUID = accountUID;
+                        transferAccountType = accountType.name();
+                    }
+                    startElement(OfxHelper.TAG_BANK_ACCOUNT_TO);
+                    writeElement(OfxHelper.TAG_BANK_ID, OfxHelper.APP_ID);
+                    writeElement(OfxHelper.TAG_ACCOUNT_ID, transferAccountUID);
+                    writeElement(OfxHelper.TAG_ACCOUNT_TYPE,
+                            Account.convertToOfxAccountType(AccountType.valueOf(transferAccountType)).toString());
+                    endElement(OfxHelper.TAG_BANK_ACCOUNT_TO);
                 }
+                endElement(OfxHelper.TAG_STATEMENT_TRANSACTION);
             }
+
+            if (skipAccount)
+                continue;
+
+            endElement(OfxHelper.TAG_BANK_TRANSACTION_LIST);
+            startElement(OfxHelper.TAG_LEDGER_BALANCE);
+            writeElement(OfxHelper.TAG_BALANCE_AMOUNT, accountBalance.toPlainString());
+            writeElement(OfxHelper.TAG_DATE_AS_OF, formattedCurrentTimeString);
+            endElement(OfxHelper.TAG_LEDGER_BALANCE);
+            endElement(OfxHelper.TAG_STATEMENT_TRANSACTIONS);
+            exportedAccountUIDs.add(accountUID);
         }
+        return exportedAccountUIDs;
+    }
 
-        List<String> exportedFiles = new ArrayList<>();
-        exportedFiles.add(getExportCacheFilePath());
+    /**
+     * Writes the start tag of an element which contains other elements, on a new line
+     * @param name Name of the element
+     * @throws IOException if the export file could not be written
+     */
+    private void startElement(String name) throws IOException {
+        writeIndent();
+        mWriter.write('<');
+        mWriter.write(name);
+        mWriter.write('>');
+        mDepth++;
+    }
 
-        return exportedFiles;
+    /**
+     * Writes the end tag of an element which contains other elements, on a new line
+     * @param name Name of the element
+     * @throws IOException if the export file could not be written
+     */
+    private void endElement(String name) throws IOException {
+        mDepth--;
+        writeIndent();
+        mWriter.write("</");
+        mWriter.write(name);
+        mWriter.write('>');
     }
 
     /**
-     * Writes out the document held in <code>node</code> to <code>outputWriter</code>
-     * @param node {@link Node} containing the OFX document structure. Usually the parent node
-     * @param outputWriter {@link java.io.Writer} to use in writing the file to stream
-     * @param omitXmlDeclaration Flag which causes the XML declaration to be omitted
+     * Writes an element containing only text on a new line.
+     * <p>An element without text is written as an empty element tag</p>
+     * @param name Name of the element
+     * @param text Text of the element. May be null
+     * @throws IOException if the export file could not be written
      */
-    private void write(Node node, Writer outputWriter, boolean omitXmlDeclaration){
-        try {
-            TransformerFactory transformerFactory = TransformerFactory
-                    .newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            DOMSource source = new DOMSource(node);
-            StreamResult result = new StreamResult(outputWriter);
-
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            if (omitXmlDeclaration) {
-                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            }
+    private void writeElement(String name, String text) throws IOException {
+        writeIndent();
+        mWriter.write('<');
+        mWriter.write(name);
+        if (text == null || text.isEmpty()){
+            mWriter.write("/>");
+            return;
+        }
+        mWriter.write('>');
+        writeEscaped(text);
+        mWriter.write("</");
+        mWriter.write(name);
+        mWriter.write('>');
+    }
 
-            transformer.transform(source, result);
-        } catch (TransformerException tfException) {
-            Log.e(LOG_TAG, tfException.getMessage());
-            Crashlytics.logException(tfException);
+    /**
+     * Starts a new line indented for the current depth. Nothing is written before the root element
+     * @throws IOException if the export file could not be written
+     */
+    private void writeIndent() throws IOException {
+        if (mDepth == 0)
+            return;
+        mWriter.write('\n');
+        for (int i = 0; i < mDepth * INDENT_AMOUNT; i++) {
+            mWriter.write(' ');
+        }
+    }
+
+    /**
+     * Writes text content, escaping the characters which are markup in XML
+     * @param text Text to write
+     * @throws IOException if the export file could not be written
+     */
+    private void writeEscaped(String text) throws IOException {
+        int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            String replacement;
+            switch (text.charAt(i)) {
+                case '&':  replacement = "&amp;"; break;
+                case '<':  replacement = "&lt;"; break;
+                case '>':  replacement = "&gt;"; break;
+                case '\r': replacement = "&#13;"; break;
+                default: continue;
+            }
+            mWriter.write(text, start, i - start);
+            mWriter.write(replacement);
+            start = i + 1;
         }
+        mWriter.write(text, start, length - start);
     }
 
     /**
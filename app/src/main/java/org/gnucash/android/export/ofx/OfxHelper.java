@@ -15,9 +15,9 @@
  */
 package org.gnucash.android.export.ofx;
 
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
 import java.util.Locale;
 import java.util.TimeZone;
 
@@ -28,9 +28,10 @@ import java.util.TimeZone;
  */
 public class OfxHelper {
     /**
-     * A date formatter used when creating file names for the exported data
+     * A date formatter used when creating file names for the exported data.
+     * It is immutable and can be shared by threads
      */
-    public final static SimpleDateFormat OFX_DATE_FORMATTER = new SimpleDateFormat("yyyyMMddHHmmss", Locale.US);
+    public final static DateTimeFormatter OFX_DATE_FORMATTER = DateTimeFormat.forPattern("yyyyMMddHHmmss").withLocale(Locale.US);
 
     /**
      * The Transaction ID is usually the client ID sent in a request.
@@ -97,9 +98,8 @@ public class OfxHelper {
      * @return Formatted string representation of time in <code>milliseconds</code>
      */
     public static String getOfxFormattedTime(long milliseconds){
-        Date date = new Date(milliseconds);
-        String dateString = OFX_DATE_FORMATTER.format(date);
-        TimeZone tz = Calendar.getInstance().getTimeZone();
+        String dateString = OFX_DATE_FORMATTER.print(milliseconds);
+        TimeZone tz = TimeZone.getDefault();
         int offset = tz.getRawOffset();
         int hours   = (int) (( offset / (1000*60*60)) % 24);
         String sign = offset > 0 ?  "+" : "";
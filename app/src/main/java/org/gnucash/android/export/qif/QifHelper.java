@@ -19,8 +19,8 @@ package org.gnucash.android.export.qif;
 
 import org.gnucash.android.model.AccountType;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 
 /**
  * @author Ngewi Fet <ngewif@gmail.com>
@@ -44,7 +44,11 @@ public class QifHelper {
     public static final String INTERNAL_CURRENCY_PREFIX = "*";
 
     public static final String ENTRY_TERMINATOR = "^";
-    private static final SimpleDateFormat QIF_DATE_FORMATTER = new SimpleDateFormat("yyyy/M/d");
+
+    /**
+     * Formats dates in the default time zone. It is thread-safe, so that currencies can be exported concurrently
+     */
+    private static final DateTimeFormatter QIF_DATE_FORMATTER = DateTimeFormat.forPattern("yyyy/M/d");
 
     /**
      * Formats the date for QIF in the form d MMMM YYYY.
@@ -53,8 +57,7 @@ public class QifHelper {
      * @return Formatted date from the time
      */
     public static final String formatDate(long timeMillis){
-        Date date = new Date(timeMillis);
-        return QIF_DATE_FORMATTER.format(date);
+        return QIF_DATE_FORMATTER.print(timeMillis);
     }
 
     /**
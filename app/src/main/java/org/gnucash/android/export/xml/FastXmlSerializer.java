@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export.xml;
+
+import android.support.annotation.NonNull;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * XML serializer which writes UTF-8 straight to an output stream, for large exports.
+ * <p>Unlike the serializer of the XmlPull library, it doesn't indent the output, doesn't go through
+ * an {@link java.io.OutputStreamWriter} and encodes each tag and attribute name only once.
+ * The output is collected in a byte buffer which is written to the stream when it is full.</p>
+ * <p>Only what the GnuCash XML export needs is supported: names are written as given, including their
+ * prefix, and namespaces can only be declared with {@code xmlns} attributes. Elements without content are
+ * written as empty-element tags.</p>
+ */
+public class FastXmlSerializer implements XmlSerializer {
+
+    private static final String FEATURE_INDENT_OUTPUT = "http://xmlpull.org/v1/doc/features.html#indent-output";
+
+    /**
+     * Size of the output buffer in bytes
+     */
+    static final int BUFFER_SIZE = 32 * 1024;
+
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPosition = 0;
+    private OutputStream mOutputStream;
+
+    /**
+     * UTF-8 encoding of the tag and attribute names written so far
+     */
+    private final Map<String, byte[]> mEncodedNames = new HashMap<>();
+
+    private String[] mOpenTags = new String[16];
+    private int mDepth = 0;
+
+    /**
+     * Whether the start tag of the current element is still open for attributes
+     */
+    private boolean mStartTagOpen = false;
+
+    @Override
+    public void setFeature(String name, boolean state) {
+        if (FEATURE_INDENT_OUTPUT.equals(name) && !state)
+            return;
+        throw new IllegalStateException("Unsupported feature: " + name);
+    }
+
+    @Override
+    public boolean getFeature(String name) {
+        return false;
+    }
+
+    @Override
+    public void setProperty(String name, Object value) {
+        throw new IllegalStateException("Unsupported property: " + name);
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public void setOutput(OutputStream os, String encoding) {
+        if (encoding != null && !"utf-8".equalsIgnoreCase(encoding))
+            throw new IllegalArgumentException("Only UTF-8 output is supported");
+        mOutputStream = os;
+        mPosition = 0;
+        mDepth = 0;
+        mStartTagOpen = false;
+    }
+
+    @Override
+    public void setOutput(Writer writer) {
+        throw new UnsupportedOperationException("Output to a writer is not supported, use an output stream");
+    }
+
+    @Override
+    public void startDocument(String encoding, Boolean standalone) throws IOException {
+        writeAscii("<?xml version='1.0' encoding='utf-8'");
+        if (standalone != null)
+            writeAscii(standalone ? " standalone='yes'" : " standalone='no'");
+        writeAscii(" ?>\n");
+    }
+
+    @Override
+    public void endDocument() throws IOException {
+        while (mDepth > 0) {
+            endTag(null, mOpenTags[mDepth - 1]);
+        }
+        flush();
+    }
+
+    @Override
+    public void setPrefix(String prefix, String namespace) {
+        throw new UnsupportedOperationException("Declare namespaces with xmlns attributes");
+    }
+
+    @Override
+    public String getPrefix(String namespace, boolean generatePrefix) {
+        return null;
+    }
+
+    @Override
+    public int getDepth() {
+        return mDepth;
+    }
+
+    @Override
+    public String getNamespace() {
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return mDepth == 0 ? null : mOpenTags[mDepth - 1];
+    }
+
+    @Override
+    public XmlSerializer startTag(String namespace, @NonNull String name) throws IOException {
+        checkNoNamespace(namespace);
+        closeStartTag();
+        if (mDepth == mOpenTags.length)
+            mOpenTags = Arrays.copyOf(mOpenTags, mDepth * 2);
+        mOpenTags[mDepth++] = name;
+        writeByte('<');
+        writeName(name);
+        mStartTagOpen = true;
+        return this;
+    }
+
+    @Override
+    public XmlSerializer attribute(String namespace, @NonNull String name, @NonNull String value) throws IOException {
+        checkNoNamespace(namespace);
+        if (!mStartTagOpen)
+            throw new IllegalStateException("Attribute " + name + " written outside of a start tag");
+        writeByte(' ');
+        writeName(name);
+        writeByte('=');
+        writeByte('"');
+        writeEscaped(value, true);
+        writeByte('"');
+        return this;
+    }
+
+    @Override
+    public XmlSerializer endTag(String namespace, @NonNull String name) throws IOException {
+        checkNoNamespace(namespace);
+        if (mDepth == 0 || !mOpenTags[mDepth - 1].equals(name))
+            throw new IllegalArgumentException("End tag " + name + " does not match the open element "
+                    + (mDepth == 0 ? null : mOpenTags[mDepth - 1]));
+        mDepth--;
+        if (mStartTagOpen) {
+            writeByte(' ');
+            writeByte('/');
+            writeByte('>');
+            mStartTagOpen = false;
+        } else {
+            writeByte('<');
+            writeByte('/');
+            writeName(name);
+            writeByte('>');
+        }
+        return this;
+    }
+
+    @Override
+    public XmlSerializer text(String text) throws IOException {
+        closeStartTag();
+        writeEscaped(text, false);
+        return this;
+    }
+
+    @Override
+    public XmlSerializer text(char[] buf, int start, int len) throws IOException {
+        closeStartTag();
+        int end = start + len;
+        for (int i = start; i < end; i++) {
+            char c = buf[i];
+            if (Character.isHighSurrogate(c) && i + 1 < end) {
+                writeCodePoint(Character.toCodePoint(c, buf[++i]));
+            } else {
+                writeEscapedChar(c, false);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public void cdsect(String text) throws IOException {
+        closeStartTag();
+        writeAscii("<![CDATA[");
+        writeRaw(text.replace("]]>", "]]]]><![CDATA[>"));
+        writeAscii("]]>");
+    }
+
+    @Override
+    public void entityRef(String text) throws IOException {
+        closeStartTag();
+        writeByte('&');
+        writeRaw(text);
+        writeByte(';');
+    }
+
+    @Override
+    public void processingInstruction(String text) throws IOException {
+        closeStartTag();
+        writeAscii("<?");
+        writeRaw(text);
+        writeAscii("?>");
+    }
+
+    @Override
+    public void comment(String text) throws IOException {
+        closeStartTag();
+        writeAscii("<!--");
+        writeRaw(text);
+        writeAscii("-->");
+    }
+
+    @Override
+    public void docdecl(String text) throws IOException {
+        writeAscii("<!DOCTYPE");
+        writeRaw(text);
+        writeByte('>');
+    }
+
+    @Override
+    public void ignorableWhitespace(String text) throws IOException {
+        closeStartTag();
+        writeRaw(text);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        closeStartTag();
+        flushBuffer();
+        mOutputStream.flush();
+    }
+
+    private static void checkNoNamespace(String namespace) {
+        if (namespace != null && !namespace.isEmpty())
+            throw new IllegalArgumentException("Namespaces are not supported, use prefixed names");
+    }
+
+    private void closeStartTag() throws IOException {
+        if (mStartTagOpen) {
+            writeByte('>');
+            mStartTagOpen = false;
+        }
+    }
+
+    private void writeName(String name) throws IOException {
+        byte[] encoded = mEncodedNames.get(name);
+        if (encoded == null) {
+            encoded = name.getBytes("UTF-8");
+            mEncodedNames.put(name, encoded);
+        }
+        if (encoded.length > mBuffer.length - mPosition)
+            flushBuffer();
+        System.arraycopy(encoded, 0, mBuffer, mPosition, encoded.length);
+        mPosition += encoded.length;
+    }
+
+    private void writeEscaped(String text, boolean inAttribute) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < length) {
+                writeCodePoint(Character.toCodePoint(c, text.charAt(++i)));
+            } else {
+                writeEscapedChar(c, inAttribute);
+            }
+        }
+    }
+
+    private void writeEscapedChar(char c, boolean inAttribute) throws IOException {
+        switch (c) {
+            case '&':
+                writeAscii("&amp;");
+                break;
+            case '<':
+                writeAscii("&lt;");
+                break;
+            case '>':
+                writeAscii("&gt;");
+                break;
+            case '"':
+                if (inAttribute)
+                    writeAscii("&quot;");
+                else
+                    writeByte(c);
+                break;
+            case '\n':
+            case '\r':
+            case '\t':
+                if (inAttribute)
+                    writeAscii("&#" + (int) c + ";");
+                else
+                    writeByte(c);
+                break;
+            default:
+                if (c < 0x20) {
+                    writeAscii("&#" + (int) c + ";");
+                } else {
+                    writeCodePoint(c);
+                }
+        }
+    }
+
+    /**
+     * Writes text without escaping it
+     */
+    private void writeRaw(String text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < length) {
+                writeCodePoint(Character.toCodePoint(c, text.charAt(++i)));
+            } else {
+                writeCodePoint(c);
+            }
+        }
+    }
+
+    private void writeAscii(String text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            writeByte(text.charAt(i));
+        }
+    }
+
+    private void writeCodePoint(int codePoint) throws IOException {
+        if (mBuffer.length - mPosition < 4)
+            flushBuffer();
+        if (codePoint < 0x80) {
+            mBuffer[mPosition++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            mBuffer[mPosition++] = (byte) (0xC0 | (codePoint >> 6));
+            mBuffer[mPosition++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            mBuffer[mPosition++] = (byte) (0xE0 | (codePoint >> 12));
+            mBuffer[mPosition++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            mBuffer[mPosition++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+            mBuffer[mPosition++] = (byte) (0xF0 | (codePoint >> 18));
+            mBuffer[mPosition++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            mBuffer[mPosition++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            mBuffer[mPosition++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (mPosition == mBuffer.length)
+            flushBuffer();
+        mBuffer[mPosition++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mPosition > 0) {
+            mOutputStream.write(mBuffer, 0, mPosition);
+            mPosition = 0;
+        }
+    }
+}
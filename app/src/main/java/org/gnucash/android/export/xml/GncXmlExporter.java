@@ -18,6 +18,7 @@
 package org.gnucash.android.export.xml;
 
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.util.Log;
@@ -28,8 +29,7 @@ import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.DatabaseSchema;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
 import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
-import org.gnucash.android.db.adapter.RecurrenceDbAdapter;
-import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.db.adapter.DeletedRecordsDbAdapter;
 import org.gnucash.android.export.ExportFormat;
 import org.gnucash.android.export.ExportParams;
 import org.gnucash.android.export.Exporter;
@@ -50,11 +50,9 @@ import org.gnucash.android.util.TimestampHelper;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
-import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.sql.Timestamp;
@@ -65,6 +63,10 @@ import java.util.Map;
 import java.util.TreeMap;
 import java.util.zip.GZIPOutputStream;
 
+import static org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import static org.gnucash.android.db.DatabaseSchema.CommonColumns;
+import static org.gnucash.android.db.DatabaseSchema.PriceEntry;
+import static org.gnucash.android.db.DatabaseSchema.RecurrenceEntry;
 import static org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry;
 import static org.gnucash.android.db.DatabaseSchema.SplitEntry;
 import static org.gnucash.android.db.DatabaseSchema.TransactionEntry;
@@ -83,6 +85,30 @@ public class GncXmlExporter extends Exporter{
     private Account mRootTemplateAccount;
     private Map<String, Account> mTransactionToTemplateAccountMap = new TreeMap<>();
 
+    /**
+     * Start of the changes written by a delta export. {@code null} for a full export
+     */
+    private Timestamp mModifiedSince;
+
+    /**
+     * Builder in which the times and split amounts are formatted, and buffer they are copied to for the
+     * serializer, to avoid creating a string for each of them
+     */
+    private final StringBuilder mFormatBuilder = new StringBuilder(64);
+    private char[] mFormatBuffer = new char[64];
+
+    /**
+     * Compression level of the gzipped exports.
+     * <p>Exports are mostly tags repeated over and over, which already compress well at a low level,
+     * while the default level takes much longer for a few percent smaller files.</p>
+     */
+    static final int GZIP_COMPRESSION_LEVEL = 4;
+
+    /**
+     * Size of the buffer of the gzipped exports, in bytes
+     */
+    static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
     /**
      * Construct a new exporter with export parameters
      * @param params Parameters for the export
@@ -128,7 +154,8 @@ public class GncXmlExporter extends Exporter{
     private void exportAccounts(XmlSerializer xmlSerializer) throws IOException {
         // gnucash desktop requires that parent account appears before its descendants.
         // sort by full-name to fulfill the request
-        Cursor cursor = mAccountsDbAdapter.fetchAccounts(null, null, DatabaseSchema.AccountEntry.COLUMN_FULL_NAME + " ASC");
+        String where = isDeltaExport() ? getModifiedSinceCondition(AccountEntry.TABLE_NAME) : null;
+        Cursor cursor = mAccountsDbAdapter.fetchAccounts(where, null, DatabaseSchema.AccountEntry.COLUMN_FULL_NAME + " ASC");
         while (cursor.moveToNext()) {
             // write account
             xmlSerializer.startTag(null, GncXmlHelper.TAG_ACCOUNT);
@@ -274,6 +301,9 @@ public class GncXmlExporter extends Exporter{
         if (exportTemplates) {
             where = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + "=1";
         }
+        if (isDeltaExport()) {
+            where += " AND " + getChangedTransactionsCondition(exportTemplates);
+        }
         Cursor cursor = mTransactionsDbAdapter.fetchTransactionsWithSplits(
                 new String[]{
                         TransactionEntry.TABLE_NAME+"."+ TransactionEntry.COLUMN_UID + " AS trans_uid",
@@ -346,19 +376,17 @@ public class GncXmlExporter extends Exporter{
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_COMMODITY_ID);
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_TRX_CURRENCY);
                 // date posted, time which user put on the transaction
-                String strDate = GncXmlHelper.formatDate(cursor.getLong(cursor.getColumnIndexOrThrow("trans_time")));
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_DATE_POSTED);
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_TS_DATE);
-                xmlSerializer.text(strDate);
+                writeTime(xmlSerializer, cursor.getLong(cursor.getColumnIndexOrThrow("trans_time")));
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_TS_DATE);
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_DATE_POSTED);
 
                 // date entered, time when the transaction was actually created
                 Timestamp timeEntered = TimestampHelper.getTimestampFromUtcString(cursor.getString(cursor.getColumnIndexOrThrow("trans_date_posted")));
-                String dateEntered = GncXmlHelper.formatDate(timeEntered.getTime());
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_DATE_ENTERED);
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_TS_DATE);
-                xmlSerializer.text(dateEntered);
+                writeTime(xmlSerializer, timeEntered.getTime());
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_TS_DATE);
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_DATE_ENTERED);
 
@@ -412,24 +440,26 @@ public class GncXmlExporter extends Exporter{
             //todo: if split is reconciled, add reconciled date
             // value, in the transaction's currency
             String trxType = cursor.getString(cursor.getColumnIndexOrThrow("split_type"));
-            int splitValueNum = cursor.getInt(cursor.getColumnIndexOrThrow("split_value_num"));
-            int splitValueDenom = cursor.getInt(cursor.getColumnIndexOrThrow("split_value_denom"));
-            BigDecimal splitAmount = Money.getBigDecimal(splitValueNum, splitValueDenom);
-            String strValue = "0/" + denomString;
-            if (!exportTemplates) { //when doing normal transaction export
-                strValue = (trxType.equals("CREDIT") ? "-" : "") + splitValueNum + "/" + splitValueDenom;
-            }
+            boolean isCredit = trxType.equals("CREDIT");
+            long splitValueNum = cursor.getLong(cursor.getColumnIndexOrThrow("split_value_num"));
+            long splitValueDenom = cursor.getLong(cursor.getColumnIndexOrThrow("split_value_denom"));
             xmlSerializer.startTag(null, GncXmlHelper.TAG_SPLIT_VALUE);
-            xmlSerializer.text(strValue);
+            if (exportTemplates) {
+                xmlSerializer.text("0/" + denomString);
+            } else { //when doing normal transaction export
+                writeSplitAmount(xmlSerializer, splitValueNum, splitValueDenom, isCredit);
+            }
             xmlSerializer.endTag(null, GncXmlHelper.TAG_SPLIT_VALUE);
             // quantity, in the split account's currency
-            String splitQuantityNum = cursor.getString(cursor.getColumnIndexOrThrow("split_quantity_num"));
-            String splitQuantityDenom = cursor.getString(cursor.getColumnIndexOrThrow("split_quantity_denom"));
-            if (!exportTemplates) {
-                strValue = (trxType.equals("CREDIT") ? "-" : "") + splitQuantityNum + "/" + splitQuantityDenom;
-            }
             xmlSerializer.startTag(null, GncXmlHelper.TAG_SPLIT_QUANTITY);
-            xmlSerializer.text(strValue);
+            if (exportTemplates) {
+                xmlSerializer.text("0/" + denomString);
+            } else {
+                writeSplitAmount(xmlSerializer,
+                        cursor.getLong(cursor.getColumnIndexOrThrow("split_quantity_num")),
+                        cursor.getLong(cursor.getColumnIndexOrThrow("split_quantity_denom")),
+                        isCredit);
+            }
             xmlSerializer.endTag(null, GncXmlHelper.TAG_SPLIT_QUANTITY);
             // account guid
             xmlSerializer.startTag(null, GncXmlHelper.TAG_SPLIT_ACCOUNT);
@@ -446,6 +476,7 @@ public class GncXmlExporter extends Exporter{
 
             //if we are exporting a template transaction, then we need to add some extra slots
             if (exportTemplates){
+                BigDecimal splitAmount = Money.getBigDecimal(splitValueNum, splitValueDenom);
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_SPLIT_SLOTS);
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_SLOT);
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_SLOT_KEY);
@@ -515,15 +546,14 @@ public class GncXmlExporter extends Exporter{
             xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, GncXmlHelper.BOOK_VERSION);
             xmlSerializer.startTag(null, GncXmlHelper.TAG_SX_ID);
 
-            String nameUID = accountUID.getName();
             xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_TYPE, GncXmlHelper.ATTR_VALUE_GUID);
-            xmlSerializer.text(nameUID);
+            xmlSerializer.text(scheduledAction.getUID());
             xmlSerializer.endTag(null, GncXmlHelper.TAG_SX_ID);
             xmlSerializer.startTag(null, GncXmlHelper.TAG_SX_NAME);
 
             ScheduledAction.ActionType actionType = scheduledAction.getActionType();
             if (actionType == ScheduledAction.ActionType.TRANSACTION) {
-                String description = TransactionsDbAdapter.getInstance().getAttribute(actionUID, TransactionEntry.COLUMN_DESCRIPTION);
+                String description = mTransactionsDbAdapter.getAttribute(actionUID, TransactionEntry.COLUMN_DESCRIPTION);
                 xmlSerializer.text(description);
             } else {
                 xmlSerializer.text(actionType.name());
@@ -594,9 +624,7 @@ public class GncXmlExporter extends Exporter{
             xmlSerializer.startTag(null, GncXmlHelper.TAG_GNC_RECURRENCE);
             xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, GncXmlHelper.RECURRENCE_VERSION);
 
-            String recurrenceUID = cursor.getString(cursor.getColumnIndexOrThrow(ScheduledActionEntry.COLUMN_RECURRENCE_UID));
-            Recurrence recurrence = RecurrenceDbAdapter.getInstance().getRecord(recurrenceUID);
-            exportRecurrence(xmlSerializer, recurrence);
+            exportRecurrence(xmlSerializer, scheduledAction.getRecurrence());
             xmlSerializer.endTag(null, GncXmlHelper.TAG_GNC_RECURRENCE);
             xmlSerializer.endTag(null, GncXmlHelper.TAG_SX_SCHEDULE);
 
@@ -604,6 +632,42 @@ public class GncXmlExporter extends Exporter{
         }
     }
 
+    /**
+     * Writes a time as text, in the format of {@link GncXmlHelper#formatDate(long)}
+     * @param xmlSerializer XML serializer
+     * @param timeMillis Time in milliseconds since epoch
+     * @throws IOException if the XML serializer cannot be written to
+     */
+    private void writeTime(XmlSerializer xmlSerializer, long timeMillis) throws IOException {
+        GncXmlHelper.formatDate(timeMillis, mFormatBuilder);
+        writeFormatted(xmlSerializer);
+    }
+
+    /**
+     * Writes a split amount as text, in the format 2550/100
+     * @param xmlSerializer XML serializer
+     * @param numerator Numerator of the amount
+     * @param denominator Denominator of the amount
+     * @param negate Whether the amount is written with a minus sign, for credit splits
+     * @throws IOException if the XML serializer cannot be written to
+     */
+    private void writeSplitAmount(XmlSerializer xmlSerializer, long numerator, long denominator, boolean negate) throws IOException {
+        GncXmlHelper.formatSplitAmount(numerator, denominator, negate, mFormatBuilder);
+        writeFormatted(xmlSerializer);
+    }
+
+    /**
+     * Writes the text formatted in {@link #mFormatBuilder} and clears it
+     */
+    private void writeFormatted(XmlSerializer xmlSerializer) throws IOException {
+        int length = mFormatBuilder.length();
+        if (length > mFormatBuffer.length)
+            mFormatBuffer = new char[length];
+        mFormatBuilder.getChars(0, length, mFormatBuffer, 0);
+        mFormatBuilder.setLength(0);
+        xmlSerializer.text(mFormatBuffer, 0, length);
+    }
+
     /**
      * Serializes a date as a {@code tag} which has a nested {@link GncXmlHelper#TAG_GDATE} which
      * has the date as a text element formatted using {@link GncXmlHelper#DATE_FORMATTER}
@@ -615,7 +679,7 @@ public class GncXmlExporter extends Exporter{
     private void serializeDate(XmlSerializer xmlSerializer, String tag, long timeMillis) throws IOException {
         xmlSerializer.startTag(null, tag);
         xmlSerializer.startTag(null, GncXmlHelper.TAG_GDATE);
-        xmlSerializer.text(GncXmlHelper.DATE_FORMATTER.format(timeMillis));
+        xmlSerializer.text(GncXmlHelper.DATE_FORMATTER.print(timeMillis));
         xmlSerializer.endTag(null, GncXmlHelper.TAG_GDATE);
         xmlSerializer.endTag(null, tag);
     }
@@ -637,7 +701,8 @@ public class GncXmlExporter extends Exporter{
     private void exportPrices(XmlSerializer xmlSerializer) throws IOException {
         xmlSerializer.startTag(null, GncXmlHelper.TAG_PRICEDB);
         xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, "1");
-        Cursor cursor = mPricesDbAdapter.fetchAllRecords();
+        String where = isDeltaExport() ? getModifiedSinceCondition(PriceEntry.TABLE_NAME) : null;
+        Cursor cursor = mPricesDbAdapter.fetchAllRecords(where, null, null);
         try {
             while(cursor.moveToNext()) {
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_PRICE);
@@ -665,10 +730,10 @@ public class GncXmlExporter extends Exporter{
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_COMMODITY_ID);
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_PRICE_CURRENCY);
                 // time
-                String strDate = GncXmlHelper.formatDate(TimestampHelper.getTimestampFromUtcString(cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.PriceEntry.COLUMN_DATE))).getTime());
+                long priceTime = TimestampHelper.getTimestampFromUtcString(cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.PriceEntry.COLUMN_DATE))).getTime();
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_PRICE_TIME);
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_TS_DATE);
-                xmlSerializer.text(strDate);
+                writeTime(xmlSerializer, priceTime);
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_TS_DATE);
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_PRICE_TIME);
                 // source
@@ -774,23 +839,91 @@ public class GncXmlExporter extends Exporter{
         cursor.close();
     }
 
+    /**
+     * Serializes the records deleted since the start of a delta export
+     * @param xmlSerializer XML serializer
+     * @throws IOException if the XML serializer cannot be written to
+     */
+    private void exportDeletedRecords(XmlSerializer xmlSerializer) throws IOException {
+        DeletedRecordsDbAdapter deletedRecordsDbAdapter = new DeletedRecordsDbAdapter(mDb);
+        exportDeletedRecords(xmlSerializer, deletedRecordsDbAdapter.getDeletedRecordUIDs(
+                TransactionEntry.TABLE_NAME, mModifiedSince), GncXmlHelper.ATTR_VALUE_TRANSACTION);
+        exportDeletedRecords(xmlSerializer, deletedRecordsDbAdapter.getDeletedRecordUIDs(
+                ScheduledActionEntry.TABLE_NAME, mModifiedSince), GncXmlHelper.ATTR_VALUE_SCHEDXACTION);
+        exportDeletedRecords(xmlSerializer, deletedRecordsDbAdapter.getDeletedRecordUIDs(
+                PriceEntry.TABLE_NAME, mModifiedSince), GncXmlHelper.ATTR_VALUE_PRICE);
+        exportDeletedRecords(xmlSerializer, deletedRecordsDbAdapter.getDeletedRecordUIDs(
+                AccountEntry.TABLE_NAME, mModifiedSince), GncXmlHelper.ATTR_VALUE_ACCOUNT);
+    }
+
+    private void exportDeletedRecords(XmlSerializer xmlSerializer, List<String> recordUIDs, String recordType) throws IOException {
+        for (String recordUID : recordUIDs) {
+            xmlSerializer.startTag(null, GncXmlHelper.TAG_DELETED_RECORD);
+            xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, recordType);
+            xmlSerializer.text(recordUID);
+            xmlSerializer.endTag(null, GncXmlHelper.TAG_DELETED_RECORD);
+        }
+    }
+
+    /**
+     * Returns {@code true} if only the changes since a point in time are exported
+     */
+    private boolean isDeltaExport() {
+        return mModifiedSince != null;
+    }
+
+    /**
+     * Returns an SQL condition which matches the records of a table modified since the start of the delta export
+     * @param tableName Name of the table
+     * @return SQL condition
+     */
+    private String getModifiedSinceCondition(String tableName) {
+        return tableName + "." + CommonColumns.COLUMN_MODIFIED_AT + " >= " + DatabaseUtils.sqlEscapeString(
+                TimestampHelper.getUtcStringWithoutMilliseconds(mModifiedSince));
+    }
+
+    /**
+     * Returns an SQL condition which matches the transactions to be written by a delta export.
+     * <p>A transaction is written if it, or one of its splits, was modified since the start of the export.
+     * The deletion of a split marks its transaction as modified.<br>
+     * A template transaction is also written if its scheduled action or the recurrence of the scheduled action
+     * was modified, because scheduled actions are imported together with their template transaction.</p>
+     * @param templates {@code true} for template transactions, {@code false} for normal transactions
+     * @return SQL condition on the transactions table
+     */
+    private String getChangedTransactionsCondition(boolean templates) {
+        String transactionChanged = getModifiedSinceCondition(TransactionEntry.TABLE_NAME)
+                + " OR " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                + " IN ( SELECT " + SplitEntry.COLUMN_TRANSACTION_UID + " FROM " + SplitEntry.TABLE_NAME
+                + " WHERE " + getModifiedSinceCondition(SplitEntry.TABLE_NAME) + " )";
+        if (!templates)
+            return "( " + transactionChanged + " )";
+
+        String scheduledActionChanged = getModifiedSinceCondition(ScheduledActionEntry.TABLE_NAME)
+                + " OR " + ScheduledActionEntry.COLUMN_RECURRENCE_UID
+                + " IN ( SELECT " + RecurrenceEntry.COLUMN_UID + " FROM " + RecurrenceEntry.TABLE_NAME
+                + " WHERE " + getModifiedSinceCondition(RecurrenceEntry.TABLE_NAME) + " )";
+        return "( " + transactionChanged
+                + " OR " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                + " IN ( SELECT " + ScheduledActionEntry.COLUMN_ACTION_UID + " FROM " + ScheduledActionEntry.TABLE_NAME
+                + " WHERE " + scheduledActionChanged + " ) )";
+    }
+
     @Override
     public List<String> generateExport() throws ExporterException {
-        OutputStreamWriter writer = null;
+        OutputStream outputStream = null;
         String outputFile = getExportCacheFilePath();
         try {
-            FileOutputStream fileOutputStream = new FileOutputStream(outputFile);
-            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(fileOutputStream);
-            writer = new OutputStreamWriter(bufferedOutputStream);
-
-            generateExport(writer);
+            // the fast serializer buffers its output itself
+            outputStream = new FileOutputStream(outputFile);
+            generateExport(outputStream);
         } catch (IOException ex){
             Crashlytics.log("Error exporting XML");
             Crashlytics.logException(ex);
         } finally {
-            if (writer != null) {
+            if (outputStream != null) {
                 try {
-                    writer.close();
+                    outputStream.close();
                 } catch (IOException e) {
                     throw new ExporterException(mExportParams, e);
                 }
@@ -809,9 +942,72 @@ public class GncXmlExporter extends Exporter{
      * @throws ExporterException
      */
     public void generateExport(Writer writer) throws ExporterException {
+        mModifiedSince = null;
+        writeExport(writer);
+    }
+
+    /**
+     * Generates an XML export of the database and writes it to an output stream in UTF-8.
+     * <p>This is faster than {@link #generateExport(Writer)}: the XML is not indented and it is encoded
+     * directly by a {@link FastXmlSerializer}. Use {@link #createGzipOutputStream(OutputStream)} to compress it.</p>
+     * @param outputStream Output stream. It is flushed, but not closed
+     * @throws ExporterException if the export failed
+     */
+    public void generateExport(OutputStream outputStream) throws ExporterException {
+        mModifiedSince = null;
+        writeExport(outputStream);
+    }
+
+    /**
+     * Generates an XML export of the changes made to the database since a point in time, for incremental backups.
+     * <p>The accounts, transactions, scheduled actions and prices created or modified since then are written
+     * like in a full export, followed by a {@link GncXmlHelper#TAG_DELETED_RECORD} element for each record
+     * which has been deleted. The counts, commodities and budgets are left out.<br>
+     * The changes are found with the modification times of the records, which are kept by database triggers.
+     * They have a precision of one second, so a delta export may repeat some changes of the previous one.</p>
+     * @param writer Output stream
+     * @param since Start of the changes to export, usually the start time of the previous backup
+     * @throws ExporterException if the export failed
+     */
+    public void generateDeltaExport(Writer writer, Timestamp since) throws ExporterException {
+        mModifiedSince = since;
+        writeExport(writer);
+    }
+
+    /**
+     * Generates an XML export of the changes made to the database since a point in time, like
+     * {@link #generateDeltaExport(Writer, Timestamp)}, and writes it to an output stream like
+     * {@link #generateExport(OutputStream)}
+     * @param outputStream Output stream. It is flushed, but not closed
+     * @param since Start of the changes to export, usually the start time of the previous backup
+     * @throws ExporterException if the export failed
+     */
+    public void generateDeltaExport(OutputStream outputStream, Timestamp since) throws ExporterException {
+        mModifiedSince = since;
+        writeExport(outputStream);
+    }
+
+    /**
+     * Creates a stream which compresses an export with gzip, tuned for the XML of the exports.
+     * <p>It compresses with level {@link #GZIP_COMPRESSION_LEVEL} and a buffer of {@link #GZIP_BUFFER_SIZE} bytes,
+     * so no {@link java.io.BufferedOutputStream} is needed in between.</p>
+     * @param outputStream Stream to which the compressed data is written
+     * @return Stream to write the export to. Closing it closes {@code outputStream}
+     * @throws IOException if the gzip header could not be written
+     */
+    public static GZIPOutputStream createGzipOutputStream(OutputStream outputStream) throws IOException {
+        return new GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE) {
+            {
+                def.setLevel(GZIP_COMPRESSION_LEVEL);
+            }
+        };
+    }
+
+    /**
+     * Writes a full export, or a delta export if {@link #mModifiedSince} is set, indented with the XmlPull serializer
+     */
+    private void writeExport(Writer writer) throws ExporterException {
         try {
-            String[] namespaces = new String[]{"gnc", "act", "book", "cd", "cmdty", "price", "slot",
-                    "split", "trn", "ts", "sx", "bgt", "recurrence"};
             XmlSerializer xmlSerializer = XmlPullParserFactory.newInstance().newSerializer();
             try {
                 xmlSerializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
@@ -819,85 +1015,142 @@ public class GncXmlExporter extends Exporter{
                 // Feature not supported. No problem
             }
             xmlSerializer.setOutput(writer);
-            xmlSerializer.startDocument("utf-8", true);
-            // root tag
-            xmlSerializer.startTag(null, GncXmlHelper.TAG_ROOT);
-            for (String ns : namespaces) {
-                xmlSerializer.attribute(null, "xmlns:" + ns, "http://www.gnucash.org/XML/" + ns);
-            }
-            // book count
-            xmlSerializer.startTag(null, GncXmlHelper.TAG_COUNT_DATA);
-            xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, GncXmlHelper.ATTR_VALUE_BOOK);
-            xmlSerializer.text("1");
-            xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
-            // book
-            xmlSerializer.startTag(null, GncXmlHelper.TAG_BOOK);
-            xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, GncXmlHelper.BOOK_VERSION);
-            // book_id
-            xmlSerializer.startTag(null, GncXmlHelper.TAG_BOOK_ID);
-            xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_TYPE, GncXmlHelper.ATTR_VALUE_GUID);
-            xmlSerializer.text(BaseModel.generateUID());
-            xmlSerializer.endTag(null, GncXmlHelper.TAG_BOOK_ID);
-            //commodity count
-            List<Commodity> commodities = mAccountsDbAdapter.getCommoditiesInUse();
-            for (int i = 0; i < commodities.size(); i++) {
-                if (commodities.get(i).getCurrencyCode().equals("XXX")) {
-                    commodities.remove(i);
-                }
-            }
-            xmlSerializer.startTag(null, GncXmlHelper.TAG_COUNT_DATA);
-            xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, "commodity");
-            xmlSerializer.text(commodities.size() + "");
-            xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
-            //account count
-            xmlSerializer.startTag(null, GncXmlHelper.TAG_COUNT_DATA);
-            xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, "account");
-            xmlSerializer.text(mAccountsDbAdapter.getRecordsCount() + "");
-            xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
-            //transaction count
-            xmlSerializer.startTag(null, GncXmlHelper.TAG_COUNT_DATA);
-            xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, "transaction");
-            xmlSerializer.text(mTransactionsDbAdapter.getRecordsCount() + "");
-            xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
-            //price count
-            long priceCount = mPricesDbAdapter.getRecordsCount();
-            if (priceCount > 0) {
-                xmlSerializer.startTag(null, GncXmlHelper.TAG_COUNT_DATA);
-                xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, "price");
-                xmlSerializer.text(priceCount + "");
-                xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
-            }
-            // export the commodities used in the DB
-            exportCommodities(xmlSerializer, commodities);
+            writeExport(xmlSerializer);
+        } catch (Exception e) {
+            Crashlytics.logException(e);
+            throw new ExporterException(mExportParams, e);
+        }
+    }
+
+    /**
+     * Writes a full export, or a delta export if {@link #mModifiedSince} is set, with a {@link FastXmlSerializer}
+     */
+    private void writeExport(OutputStream outputStream) throws ExporterException {
+        try {
+            XmlSerializer xmlSerializer = new FastXmlSerializer();
+            xmlSerializer.setOutput(outputStream, "utf-8");
+            writeExport(xmlSerializer);
+        } catch (Exception e) {
+            Crashlytics.logException(e);
+            throw new ExporterException(mExportParams, e);
+        }
+    }
+
+    /**
+     * Writes the document of a full export, or a delta export if {@link #mModifiedSince} is set
+     * @param xmlSerializer XML serializer, with its output set
+     * @throws IOException if the XML serializer cannot be written to
+     */
+    private void writeExport(XmlSerializer xmlSerializer) throws IOException {
+        String[] namespaces = new String[]{"gnc", "act", "book", "cd", "cmdty", "price", "slot",
+                "split", "trn", "ts", "sx", "bgt", "recurrence"};
+        xmlSerializer.startDocument("utf-8", true);
+        // root tag
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_ROOT);
+        for (String ns : namespaces) {
+            xmlSerializer.attribute(null, "xmlns:" + ns, "http://www.gnucash.org/XML/" + ns);
+        }
+        // book count
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_COUNT_DATA);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, GncXmlHelper.ATTR_VALUE_BOOK);
+        xmlSerializer.text("1");
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
+        // book
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_BOOK);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, GncXmlHelper.BOOK_VERSION);
+        // book_id
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_BOOK_ID);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_TYPE, GncXmlHelper.ATTR_VALUE_GUID);
+        xmlSerializer.text(BaseModel.generateUID());
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_BOOK_ID);
+        if (isDeltaExport()) {
             // prices
-            if (priceCount > 0) {
+            if (DatabaseUtils.queryNumEntries(mDb, PriceEntry.TABLE_NAME, getModifiedSinceCondition(PriceEntry.TABLE_NAME)) > 0) {
                 exportPrices(xmlSerializer);
             }
-            // accounts.
+            // accounts
             exportAccounts(xmlSerializer);
-            // transactions.
+            // transactions
             exportTransactions(xmlSerializer, false);
-
-            //transaction templates
-            if (mTransactionsDbAdapter.getTemplateTransactionsCount() > 0) {
+            // transaction templates
+            if (DatabaseUtils.queryNumEntries(mDb, TransactionEntry.TABLE_NAME,
+                    TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + "=1 AND "
+                            + getChangedTransactionsCondition(true)) > 0) {
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS);
                 exportTransactions(xmlSerializer, true);
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS);
             }
-            //scheduled actions
+            // scheduled actions of the templates written above
             exportScheduledTransactions(xmlSerializer);
+            // deleted records
+            exportDeletedRecords(xmlSerializer);
+        } else {
+            writeBookContent(xmlSerializer);
+        }
 
-            //budgets
-            exportBudgets(xmlSerializer);
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_BOOK);
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_ROOT);
+        xmlSerializer.endDocument();
+        xmlSerializer.flush();
+    }
 
-            xmlSerializer.endTag(null, GncXmlHelper.TAG_BOOK);
-            xmlSerializer.endTag(null, GncXmlHelper.TAG_ROOT);
-            xmlSerializer.endDocument();
-            xmlSerializer.flush();
-        } catch (Exception e) {
-            Crashlytics.logException(e);
-            throw new ExporterException(mExportParams, e);
+    /**
+     * Writes the content of the book for a full export
+     * @param xmlSerializer XML serializer
+     * @throws IOException if the XML serializer cannot be written to
+     */
+    private void writeBookContent(XmlSerializer xmlSerializer) throws IOException {
+        //commodity count
+        List<Commodity> commodities = mAccountsDbAdapter.getCommoditiesInUse();
+        for (int i = 0; i < commodities.size(); i++) {
+            if (commodities.get(i).getCurrencyCode().equals("XXX")) {
+                commodities.remove(i);
+            }
+        }
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_COUNT_DATA);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, "commodity");
+        xmlSerializer.text(commodities.size() + "");
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
+        //account count
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_COUNT_DATA);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, "account");
+        xmlSerializer.text(mAccountsDbAdapter.getRecordsCount() + "");
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
+        //transaction count
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_COUNT_DATA);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, "transaction");
+        xmlSerializer.text(mTransactionsDbAdapter.getRecordsCount() + "");
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
+        //price count
+        long priceCount = mPricesDbAdapter.getRecordsCount();
+        if (priceCount > 0) {
+            xmlSerializer.startTag(null, GncXmlHelper.TAG_COUNT_DATA);
+            xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, "price");
+            xmlSerializer.text(priceCount + "");
+            xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
+        }
+        // export the commodities used in the DB
+        exportCommodities(xmlSerializer, commodities);
+        // prices
+        if (priceCount > 0) {
+            exportPrices(xmlSerializer);
         }
+        // accounts.
+        exportAccounts(xmlSerializer);
+        // transactions.
+        exportTransactions(xmlSerializer, false);
+
+        //transaction templates
+        if (mTransactionsDbAdapter.getTemplateTransactionsCount() > 0) {
+            xmlSerializer.startTag(null, GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS);
+            exportTransactions(xmlSerializer, true);
+            xmlSerializer.endTag(null, GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS);
+        }
+        //scheduled actions
+        exportScheduledTransactions(xmlSerializer);
+
+        //budgets
+        exportBudgets(xmlSerializer);
     }
 
     /**
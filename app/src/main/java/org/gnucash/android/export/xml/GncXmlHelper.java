@@ -18,14 +18,16 @@
 package org.gnucash.android.export.xml;
 
 import org.gnucash.android.model.Commodity;
-import org.gnucash.android.ui.transaction.TransactionFormFragment;
+import org.gnucash.android.util.AmountParser;
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.GJChronology;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.text.NumberFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Locale;
 
 /**
@@ -136,6 +138,17 @@ public abstract class GncXmlHelper {
     public static final String TAG_RX_START                 = "recurrence:start";
 
 
+    /**
+     * Element of incremental backups which lists a record deleted since the previous backup.
+     * <p>It is not part of the GnuCash XML format. The {@link #ATTR_KEY_CD_TYPE} attribute gives the type of the record
+     * and the text is its GUID</p>
+     */
+    public static final String TAG_DELETED_RECORD           = "gnc:deleted-record";
+    public static final String ATTR_VALUE_ACCOUNT           = "account";
+    public static final String ATTR_VALUE_TRANSACTION       = "transaction";
+    public static final String ATTR_VALUE_SCHEDXACTION      = "schedxaction";
+    public static final String ATTR_VALUE_PRICE             = "price";
+
     public static final String TAG_BUDGET                   = "gnc:budget";
     public static final String TAG_BUDGET_ID                = "bgt:id";
     public static final String TAG_BUDGET_NAME              = "bgt:name";
@@ -147,8 +160,19 @@ public abstract class GncXmlHelper {
 
     public static final String RECURRENCE_VERSION           = "1.0.0";
     public static final String BOOK_VERSION                 = "2.0.0";
-    public static final SimpleDateFormat TIME_FORMATTER     = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.US);
-    public static final SimpleDateFormat DATE_FORMATTER     = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+
+    /**
+     * Formatter of the times, in the default time zone.
+     * <p>Like all joda-time formatters, it is immutable and can be shared by threads.
+     * Prefer {@link #formatDate(long, StringBuilder)} and {@link #parseDate(char[], int, int)} which are faster.</p>
+     */
+    public static final DateTimeFormatter TIME_FORMATTER    = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss Z").withLocale(Locale.US);
+
+    /**
+     * Formatter of the dates of the {@link #TAG_GDATE} elements, in the default time zone.
+     * It is immutable and can be shared by threads
+     */
+    public static final DateTimeFormatter DATE_FORMATTER    = DateTimeFormat.forPattern("yyyy-MM-dd").withLocale(Locale.US);
 
     public static final String KEY_PLACEHOLDER              = "placeholder";
     public static final String KEY_COLOR                    = "color";
@@ -165,12 +189,97 @@ public abstract class GncXmlHelper {
     public static final String KEY_DEFAULT_TRANSFER_ACCOUNT = "default_transfer_account";
 
 
+    /**
+     * Number of characters of a time in the format "yyyy-MM-dd HH:mm:ss Z"
+     */
+    private static final int FORMATTED_TIME_LENGTH = 25;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Range of the years which are formatted and parsed directly.
+     * Before 1583, {@link #TIME_FORMATTER} is used with the Julian calendar, like {@link java.text.SimpleDateFormat} did.
+     */
+    private static final int MIN_DIRECT_YEAR = 1583;
+    private static final int MAX_DIRECT_YEAR = 9999;
+
+    /**
+     * Maximum number of digits of the numerator of a split amount which is parsed into a {@code long}
+     */
+    private static final int MAX_DIRECT_DIGITS = 18;
+
     /**
      * Formats dates for the GnuCash XML format
      * @param milliseconds Milliseconds since epoch
      */
     public static String formatDate(long milliseconds){
-        return TIME_FORMATTER.format(new Date(milliseconds));
+        StringBuilder builder = new StringBuilder(FORMATTED_TIME_LENGTH);
+        formatDate(milliseconds, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Formats a time in the format "yyyy-MM-dd HH:mm:ss Z" of the GnuCash XML, in the default time zone.
+     * <p>The time is appended to the builder without creating any object, so one builder can be reused
+     * for all the times of an export. This method can be called from any thread.</p>
+     * @param milliseconds Milliseconds since epoch
+     * @param builder Builder to which the formatted time is appended
+     */
+    public static void formatDate(long milliseconds, StringBuilder builder) {
+        DateTimeZone timeZone = DateTimeZone.getDefault();
+        int offsetMillis = timeZone.getOffset(milliseconds);
+        long localMillis = milliseconds + offsetMillis;
+        long days = localMillis / MILLIS_PER_DAY;
+        long millisOfDay = localMillis % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+
+        // converts the days since epoch to a date of the proleptic Gregorian calendar,
+        // with years starting in March so that the leap day is the last day of the year
+        long shiftedDays = days + 719468;
+        long era = (shiftedDays >= 0 ? shiftedDays : shiftedDays - 146096) / 146097;
+        long dayOfEra = shiftedDays - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < MIN_DIRECT_YEAR || year > MAX_DIRECT_YEAR) {
+            TIME_FORMATTER.withChronology(GJChronology.getInstance(timeZone)).printTo(builder, milliseconds);
+            return;
+        }
+
+        int seconds = (int) (millisOfDay / 1000);
+        appendDigits(builder, (int) year, 4);
+        builder.append('-');
+        appendDigits(builder, month, 2);
+        builder.append('-');
+        appendDigits(builder, day, 2);
+        builder.append(' ');
+        appendDigits(builder, seconds / 3600, 2);
+        builder.append(':');
+        appendDigits(builder, seconds / 60 % 60, 2);
+        builder.append(':');
+        appendDigits(builder, seconds % 60, 2);
+        builder.append(' ');
+        int offsetMinutes = offsetMillis / 60000;
+        builder.append(offsetMinutes < 0 ? '-' : '+');
+        offsetMinutes = Math.abs(offsetMinutes);
+        appendDigits(builder, offsetMinutes / 60, 2);
+        appendDigits(builder, offsetMinutes % 60, 2);
+    }
+
+    /**
+     * Appends a positive number with a fixed number of digits, padded with zeros
+     */
+    private static void appendDigits(StringBuilder builder, int value, int digits) {
+        for (int divisor = digits == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+            builder.append((char) ('0' + value / divisor % 10));
+        }
     }
 
     /**
@@ -180,8 +289,89 @@ public abstract class GncXmlHelper {
      * @throws ParseException if the date string could not be parsed e.g. because of different format
      */
     public static long parseDate(String dateString) throws ParseException {
-        Date date = TIME_FORMATTER.parse(dateString);
-        return date.getTime();
+        return parseDate(dateString.toCharArray(), 0, dateString.length());
+    }
+
+    /**
+     * Parses a time in the format "yyyy-MM-dd HH:mm:ss Z" from characters, like those received by a SAX handler.
+     * <p>The digits are read directly from the characters. Times in another layout, or before 1583, are parsed
+     * with {@link #TIME_FORMATTER}. Surrounding whitespace is ignored. This method can be called from any thread.</p>
+     * @param chars Characters containing the time
+     * @param start Index of the first character of the time
+     * @param length Number of characters of the time
+     * @return Time in milliseconds since epoch
+     * @throws ParseException if the characters are not a valid time
+     */
+    public static long parseDate(char[] chars, int start, int length) throws ParseException {
+        int end = start + length;
+        while (start < end && chars[start] <= ' ') {
+            start++;
+        }
+        while (end > start && chars[end - 1] <= ' ') {
+            end--;
+        }
+
+        if (end - start == FORMATTED_TIME_LENGTH && chars[start + 4] == '-' && chars[start + 7] == '-'
+                && chars[start + 10] == ' ' && chars[start + 13] == ':' && chars[start + 16] == ':'
+                && chars[start + 19] == ' ' && (chars[start + 20] == '+' || chars[start + 20] == '-')) {
+            int year = parseDigits(chars, start, 4);
+            int month = parseDigits(chars, start + 5, 2);
+            int day = parseDigits(chars, start + 8, 2);
+            int hours = parseDigits(chars, start + 11, 2);
+            int minutes = parseDigits(chars, start + 14, 2);
+            int seconds = parseDigits(chars, start + 17, 2);
+            int offsetHours = parseDigits(chars, start + 21, 2);
+            int offsetMinutes = parseDigits(chars, start + 23, 2);
+            if (year >= MIN_DIRECT_YEAR && month >= 1 && month <= 12 && day >= 1 && day <= getDaysInMonth(year, month)
+                    && hours >= 0 && hours < 24 && minutes >= 0 && minutes < 60 && seconds >= 0 && seconds < 60
+                    && offsetHours >= 0 && offsetMinutes >= 0 && offsetMinutes < 60) {
+                long offsetMillis = (offsetHours * 60 + offsetMinutes) * 60000L;
+                if (chars[start + 20] == '-')
+                    offsetMillis = -offsetMillis;
+                return getEpochDay(year, month, day) * MILLIS_PER_DAY
+                        + ((hours * 60 + minutes) * 60 + seconds) * 1000L - offsetMillis;
+            }
+        }
+
+        String dateString = new String(chars, start, end - start);
+        try {
+            return TIME_FORMATTER.withChronology(GJChronology.getInstance()).parseMillis(dateString);
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Cannot parse date : " + dateString, 0);
+        }
+    }
+
+    /**
+     * Parses a number with a fixed number of digits
+     * @return Value of the number, or -1 if one of the characters is not a digit
+     */
+    private static int parseDigits(char[] chars, int start, int digits) {
+        int value = 0;
+        for (int i = start; i < start + digits; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9')
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int getDaysInMonth(int year, int month) {
+        if (month == 2)
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    /**
+     * Returns the number of days between 1970-01-01 and a date of the proleptic Gregorian calendar
+     */
+    private static long getEpochDay(int year, int month, int day) {
+        long shiftedYear = month <= 2 ? year - 1 : year;
+        long era = (shiftedYear >= 0 ? shiftedYear : shiftedYear - 399) / 400;
+        long yearOfEra = shiftedYear - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
     }
 
     /**
@@ -192,18 +382,67 @@ public abstract class GncXmlHelper {
      * @throws ParseException if the amount could not be parsed
      */
     public static BigDecimal parseSplitAmount(String amountString) throws ParseException {
-        int pos = amountString.indexOf("/");
-        if (pos < 0)
-        {
-            throw new ParseException("Cannot parse money string : " + amountString, 0);
+        return parseSplitAmount(amountString.toCharArray(), 0, amountString.length());
+    }
+
+    /**
+     * Parses a split amount in the format 12345/100 from characters, like those received by a SAX handler.
+     * <p>The numerator is read like {@link AmountParser#stripCurrencyFormatting(String)} does: its sign is
+     * its first non blank character and everything else which is not a digit is ignored. The scale of the amount
+     * is the number of digits of the denominator minus one. Unless the numerator has more than 18 digits,
+     * it is read into a {@code long} without creating any string. This method can be called from any thread.</p>
+     * @param chars Characters containing the amount
+     * @param start Index of the first character of the amount
+     * @param length Number of characters of the amount
+     * @return BigDecimal with numerical value
+     * @throws ParseException if the amount could not be parsed
+     */
+    public static BigDecimal parseSplitAmount(char[] chars, int start, int length) throws ParseException {
+        int end = start + length;
+        int slash = start;
+        while (slash < end && chars[slash] != '/') {
+            slash++;
         }
+        if (slash == end) {
+            throw new ParseException("Cannot parse money string : " + new String(chars, start, length), 0);
+        }
+        int scale = end - slash - 2;
+
+        int position = start;
+        while (position < slash && chars[position] <= ' ') {
+            position++;
+        }
+        boolean negative = position < slash && chars[position] == '-';
+        long numerator = 0;
+        int digits = 0;
+        for (; position < slash; position++) {
+            char c = chars[position];
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_DIRECT_DIGITS) {
+                    String numeratorString = AmountParser.stripCurrencyFormatting(new String(chars, start, slash - start));
+                    return new BigDecimal(new BigInteger(numeratorString), scale);
+                }
+                numerator = numerator * 10 + (c - '0');
+            }
+        }
+        if (digits == 0) {
+            throw new ParseException("Cannot parse money string : " + new String(chars, start, length), 0);
+        }
+        return BigDecimal.valueOf(negative ? -numerator : numerator, scale);
+    }
 
-        int scale = amountString.length() - pos - 2; //do this before, because we could modify the string
-        //String numerator = TransactionFormFragment.stripCurrencyFormatting(amountString.substring(0, pos));
-        String numerator = amountString.substring(0,pos);
-        numerator = TransactionFormFragment.stripCurrencyFormatting(numerator);
-        BigInteger numeratorInt = new BigInteger(numerator);
-        return new BigDecimal(numeratorInt, scale);
+    /**
+     * Appends a split amount stored as a numerator and a denominator, in the format 2550/100.
+     * <p>Nothing but the appended characters is created. This method can be called from any thread.</p>
+     * @param numerator Numerator of the amount
+     * @param denominator Denominator of the amount
+     * @param negate Whether to prefix the amount with a minus sign, e.g. for credit splits
+     * @param builder Builder to which the formatted amount is appended
+     */
+    public static void formatSplitAmount(long numerator, long denominator, boolean negate, StringBuilder builder) {
+        if (negate)
+            builder.append('-');
+        builder.append(numerator).append('/').append(denominator);
     }
 
     /**
@@ -218,7 +457,7 @@ public abstract class GncXmlHelper {
         BigDecimal denom = new BigDecimal(denomInt);
         String denomString = Integer.toString(denomInt);
 
-        String numerator = TransactionFormFragment.stripCurrencyFormatting(amount.multiply(denom).stripTrailingZeros().toPlainString());
+        String numerator = AmountParser.stripCurrencyFormatting(amount.multiply(denom).stripTrailingZeros().toPlainString());
         return numerator + "/" + denomString;
     }
 
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Book;
+import org.gnucash.android.model.Price;
+import org.gnucash.android.model.Transaction;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Saves the imported records into a new book, committing them in chunks with a checkpoint of the import.
+ * <p>If an import of the same source was interrupted, its book is reused and the records committed up to its
+ * checkpoint are kept, see {@link ImportCheckpoint}. Otherwise the import is registered as pending until it is
+ * complete.</p>
+ */
+class CheckpointedImportWriter extends SingleTransactionImportWriter {
+
+    private static final String LOG_TAG = "ImportWriter";
+
+    /**
+     * Checkpoint of the interrupted import which is resumed, or {@code null} if the import starts from scratch
+     */
+    private ImportCheckpoint mResumedCheckpoint;
+
+    /**
+     * Creates a writer which resumes the interrupted import of a source, if there is one
+     * @param sourceUri URI of the imported file, identifying the import to resume
+     */
+    CheckpointedImportWriter(@NonNull String sourceUri) {
+        super(findPendingBook(sourceUri));
+        mResumedCheckpoint = ImportCheckpoint.load(mDb, sourceUri);
+    }
+
+    /**
+     * Returns the new book of the interrupted import of a source, or a new book whose import is registered
+     */
+    private static Book findPendingBook(@NonNull String sourceUri) {
+        Book book = new Book();
+        String pendingBookUID = ImportCheckpoint.findPendingImport(sourceUri);
+        if (pendingBookUID != null)
+            book.setUID(pendingBookUID);
+        else
+            ImportCheckpoint.registerPendingImport(sourceUri, book.getUID());
+        return book;
+    }
+
+    @Nullable
+    @Override
+    public ImportCheckpoint getResumedCheckpoint() {
+        return mResumedCheckpoint;
+    }
+
+    @Override
+    public void discardResumedCheckpoint() {
+        mResumedCheckpoint = null;
+    }
+
+    @Override
+    public void checkpoint(@NonNull List<Account> accounts, @NonNull ImportCheckpoint checkpoint) {
+        saveBatch(accounts, Collections.<Transaction>emptyList(), Collections.<Price>emptyList());
+        checkpoint.save(mDb);
+        commit();
+        Log.d(LOG_TAG, String.format("Checkpoint committed after %d transactions and %d prices",
+                checkpoint.getTransactionElements(), checkpoint.getPriceElements()));
+    }
+
+    @Override
+    public void finish(@NonNull FinalRecords records) {
+        super.finish(records);
+        ImportCheckpoint.clearPendingImport();
+    }
+
+    @Override
+    protected String getLastCommit() {
+        return "the last checkpoint";
+    }
+
+    @Override
+    protected boolean keepsCommittedRecords() {
+        return mResumedCheckpoint != null;
+    }
+
+    @Override
+    protected void onComplete() {
+        ImportCheckpoint.delete(mDb);
+    }
+
+    @Override
+    protected void onClosed() {
+        if (mDiscardCheckpoint)
+            ImportCheckpoint.discardPendingImport();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.BudgetAmountsDbAdapter;
+import org.gnucash.android.db.adapter.BudgetsDbAdapter;
+import org.gnucash.android.db.adapter.CommodityCache;
+import org.gnucash.android.db.adapter.PricesDbAdapter;
+import org.gnucash.android.db.adapter.RecurrenceDbAdapter;
+import org.gnucash.android.db.adapter.ScheduledActionDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.StatementCache;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Book;
+import org.gnucash.android.model.Commodity;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class of the writers which save the imported records into the database of a book.
+ * <p>The database of the book is opened when the writer is created, and closed once the import is complete
+ * or aborted.</p>
+ */
+abstract class DatabaseImportWriter implements ImportWriter {
+
+    protected final Book mBook;
+
+    protected final SQLiteDatabase mDb;
+    protected final SplitsDbAdapter mSplitsDbAdapter;
+    protected final TransactionsDbAdapter mTransactionsDbAdapter;
+    protected final AccountsDbAdapter mAccountsDbAdapter;
+    protected final ScheduledActionDbAdapter mScheduledActionsDbAdapter;
+    protected final PricesDbAdapter mPricesDbAdapter;
+    protected final BudgetsDbAdapter mBudgetsDbAdapter;
+
+    /**
+     * Commodities of the book. They are all loaded up front, so that the parsing thread
+     * does not access the database while a pipelined import is saving records
+     */
+    private final CommodityCache mCommodityCache;
+
+    /**
+     * Commodities looked up so far, indexed by currency code.
+     * <p>The import does not modify the commodities, so each one is only looked up once in the cache,
+     * which checks the database for changes at every lookup</p>
+     */
+    private final Map<String, Commodity> mCommodities = new HashMap<>();
+
+    /**
+     * Opens the database of a book
+     * @param book Book into which the records are saved
+     */
+    DatabaseImportWriter(@NonNull Book book) {
+        mBook = book;
+        DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), book.getUID());
+        mDb = databaseHelper.getWritableDatabase();
+        mSplitsDbAdapter = new SplitsDbAdapter(mDb);
+        mTransactionsDbAdapter = new TransactionsDbAdapter(mDb, mSplitsDbAdapter);
+        mAccountsDbAdapter = new AccountsDbAdapter(mDb, mTransactionsDbAdapter);
+        RecurrenceDbAdapter recurrenceDbAdapter = new RecurrenceDbAdapter(mDb);
+        mScheduledActionsDbAdapter = new ScheduledActionDbAdapter(mDb, recurrenceDbAdapter);
+        mPricesDbAdapter = new PricesDbAdapter(mDb);
+        mBudgetsDbAdapter = new BudgetsDbAdapter(mDb, new BudgetAmountsDbAdapter(mDb), recurrenceDbAdapter);
+        mCommodityCache = CommodityCache.getInstance(mDb);
+        mCommodityCache.preload();
+    }
+
+    @NonNull
+    @Override
+    public Book getBook() {
+        return mBook;
+    }
+
+    @Nullable
+    @Override
+    public Commodity getCommodity(@NonNull String currencyCode) {
+        Commodity commodity = mCommodities.get(currencyCode);
+        if (commodity == null) {
+            commodity = mCommodityCache.getCommodity(currencyCode);
+            if (commodity != null)
+                mCommodities.put(currencyCode, commodity);
+        }
+        return commodity;
+    }
+
+    @NonNull
+    @Override
+    public List<Account> getExistingAccounts() {
+        return Collections.emptyList();
+    }
+
+    @Nullable
+    @Override
+    public ImportCheckpoint getResumedCheckpoint() {
+        return null;
+    }
+
+    @Override
+    public void discardResumedCheckpoint() {
+        //nothing to resume
+    }
+
+    /**
+     * Closes the database of the book, after dropping the caches of its connection
+     */
+    protected void closeDatabase() {
+        StatementCache.release(mDb);
+        CommodityCache.release(mDb);
+        mDb.close();
+    }
+}
@@ -17,30 +17,18 @@
 
 package org.gnucash.android.importer;
 
-import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import com.crashlytics.android.Crashlytics;
 
-import org.gnucash.android.app.GnuCashApplication;
-import org.gnucash.android.db.DatabaseHelper;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
-import org.gnucash.android.db.adapter.BooksDbAdapter;
-import org.gnucash.android.db.adapter.BudgetAmountsDbAdapter;
-import org.gnucash.android.db.adapter.BudgetsDbAdapter;
-import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
-import org.gnucash.android.db.adapter.DatabaseAdapter;
-import org.gnucash.android.db.adapter.PricesDbAdapter;
-import org.gnucash.android.db.adapter.RecurrenceDbAdapter;
-import org.gnucash.android.db.adapter.ScheduledActionDbAdapter;
-import org.gnucash.android.db.adapter.SplitsDbAdapter;
-import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.export.xml.GncXmlHelper;
+import org.gnucash.android.importer.ImportWriter.FinalRecords;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
 import org.gnucash.android.model.BaseModel;
-import org.gnucash.android.model.Book;
 import org.gnucash.android.model.Budget;
 import org.gnucash.android.model.BudgetAmount;
 import org.gnucash.android.model.Commodity;
@@ -60,6 +48,7 @@ import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
@@ -72,6 +61,17 @@ import java.util.regex.Pattern;
 /**
  * Handler for parsing the GnuCash XML file.
  * The discovered accounts and transactions are automatically added to the database
+ * <p>By default all records are kept in memory and saved at the end of the document. In streaming mode,
+ * see {@link #GncXmlHandler(int)}, transactions and prices are saved in batches while parsing,
+ * so that the memory needed does not depend on the size of the file.</p>
+ * <p>In merge mode, see {@link #GncXmlHandler(String)}, the records of an incremental backup are merged
+ * into an existing book instead of being imported into a new one.</p>
+ * <p>A streaming import of a file with a known source, see {@link #GncXmlHandler(int, boolean, String)},
+ * commits the records in chunks with a checkpoint, so that it can be resumed if it is interrupted.</p>
+ * <p>The numbers of transactions and prices of the file are checked against its {@code gnc:count-data}
+ * elements, and the numbers of transactions and splits in the database against those saved.</p>
+ * <p>The handler parses the file and decides when the records are saved. How they are saved in each mode
+ * is left to an {@link ImportWriter}.</p>
  *
  * @author Ngewi Fet <ngewif@gmail.com>
  * @author Yongxin Wang <fefe.wyx@gmail.com>
@@ -107,14 +107,136 @@ public class GncXmlHandler extends DefaultHandler {
     public static final String ACCOUNT_COLOR_HEX_REGEX = "^#(?:[0-9a-fA-F]{3}){2}$";
 
     /**
-     * Adapter for saving the imported accounts
+     * Default number of transactions saved at once in streaming mode
      */
-    AccountsDbAdapter mAccountsDbAdapter;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
 
     /**
-     * StringBuilder for accumulating characters between XML tags
+     * Default number of batches saved between two checkpoints of a resumable import
      */
-    StringBuilder mContent;
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 20;
+
+    /**
+     * Elements handled by the parser.
+     * <p>The name of each element is looked up once in a table, instead of being compared with the name of each tag.
+     * The SAX parsers pass the same interned string for each occurrence of a name, so its hash code is computed
+     * only once and the lookup ends with a reference comparison.</p>
+     */
+    private enum ElementTag {
+        ACCOUNT(GncXmlHelper.TAG_ACCOUNT, false),
+        ACCT_NAME(GncXmlHelper.TAG_ACCT_NAME, true),
+        ACCT_ID(GncXmlHelper.TAG_ACCT_ID, true),
+        ACCT_TYPE(GncXmlHelper.TAG_ACCT_TYPE, true),
+        ACCT_DESCRIPTION(GncXmlHelper.TAG_ACCT_DESCRIPTION, true),
+        PARENT_UID(GncXmlHelper.TAG_PARENT_UID, true),
+        COMMODITY_SPACE(GncXmlHelper.TAG_COMMODITY_SPACE, true),
+        COMMODITY_ID(GncXmlHelper.TAG_COMMODITY_ID, true),
+        SLOT(GncXmlHelper.TAG_SLOT, false),
+        SLOT_KEY(GncXmlHelper.TAG_SLOT_KEY, true),
+        SLOT_VALUE(GncXmlHelper.TAG_SLOT_VALUE, true),
+        TRANSACTION(GncXmlHelper.TAG_TRANSACTION, false),
+        TRX_ID(GncXmlHelper.TAG_TRX_ID, true),
+        TRN_DESCRIPTION(GncXmlHelper.TAG_TRN_DESCRIPTION, true),
+        DATE_POSTED(GncXmlHelper.TAG_DATE_POSTED, false),
+        DATE_ENTERED(GncXmlHelper.TAG_DATE_ENTERED, false),
+        TS_DATE(GncXmlHelper.TAG_TS_DATE, true),
+        RECURRENCE_PERIOD(GncXmlHelper.TAG_RECURRENCE_PERIOD, true),
+        TEMPLATE_TRANSACTIONS(GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS, false),
+        TRN_SPLIT(GncXmlHelper.TAG_TRN_SPLIT, false),
+        SPLIT_ID(GncXmlHelper.TAG_SPLIT_ID, true),
+        SPLIT_MEMO(GncXmlHelper.TAG_SPLIT_MEMO, true),
+        SPLIT_VALUE(GncXmlHelper.TAG_SPLIT_VALUE, true),
+        SPLIT_QUANTITY(GncXmlHelper.TAG_SPLIT_QUANTITY, true),
+        SPLIT_ACCOUNT(GncXmlHelper.TAG_SPLIT_ACCOUNT, true),
+        SCHEDULED_ACTION(GncXmlHelper.TAG_SCHEDULED_ACTION, false),
+        SX_ID(GncXmlHelper.TAG_SX_ID, true),
+        SX_NAME(GncXmlHelper.TAG_SX_NAME, true),
+        SX_ENABLED(GncXmlHelper.TAG_SX_ENABLED, true),
+        SX_AUTO_CREATE(GncXmlHelper.TAG_SX_AUTO_CREATE, true),
+        SX_NUM_OCCUR(GncXmlHelper.TAG_SX_NUM_OCCUR, true),
+        SX_START(GncXmlHelper.TAG_SX_START, false),
+        SX_END(GncXmlHelper.TAG_SX_END, false),
+        SX_LAST(GncXmlHelper.TAG_SX_LAST, false),
+        SX_TEMPL_ACCOUNT(GncXmlHelper.TAG_SX_TEMPL_ACCOUNT, true),
+        GNC_RECURRENCE(GncXmlHelper.TAG_GNC_RECURRENCE, false),
+        RX_MULT(GncXmlHelper.TAG_RX_MULT, true),
+        RX_PERIOD_TYPE(GncXmlHelper.TAG_RX_PERIOD_TYPE, true),
+        RX_START(GncXmlHelper.TAG_RX_START, false),
+        GDATE(GncXmlHelper.TAG_GDATE, true),
+        PRICE(GncXmlHelper.TAG_PRICE, false),
+        PRICE_ID(GncXmlHelper.TAG_PRICE_ID, true),
+        PRICE_COMMODITY(GncXmlHelper.TAG_PRICE_COMMODITY, false),
+        PRICE_CURRENCY(GncXmlHelper.TAG_PRICE_CURRENCY, false),
+        PRICE_SOURCE(GncXmlHelper.TAG_PRICE_SOURCE, true),
+        PRICE_TYPE(GncXmlHelper.TAG_PRICE_TYPE, true),
+        PRICE_VALUE(GncXmlHelper.TAG_PRICE_VALUE, true),
+        BUDGET(GncXmlHelper.TAG_BUDGET, false),
+        BUDGET_NAME(GncXmlHelper.TAG_BUDGET_NAME, true),
+        BUDGET_DESCRIPTION(GncXmlHelper.TAG_BUDGET_DESCRIPTION, true),
+        BUDGET_NUM_PERIODS(GncXmlHelper.TAG_BUDGET_NUM_PERIODS, true),
+        BUDGET_RECURRENCE(GncXmlHelper.TAG_BUDGET_RECURRENCE, false),
+        BUDGET_SLOTS(GncXmlHelper.TAG_BUDGET_SLOTS, false),
+        COUNT_DATA(GncXmlHelper.TAG_COUNT_DATA, true),
+        BOOK_ID(GncXmlHelper.TAG_BOOK_ID, true),
+        DELETED_RECORD(GncXmlHelper.TAG_DELETED_RECORD, true);
+
+        private static final Map<String, ElementTag> TAGS_BY_NAME = new HashMap<>();
+
+        static {
+            for (ElementTag tag : values()) {
+                TAGS_BY_NAME.put(tag.mName, tag);
+            }
+        }
+
+        private final String mName;
+
+        /**
+         * Whether the text content of the element is used
+         */
+        private final boolean mHasText;
+
+        ElementTag(String name, boolean hasText) {
+            mName = name;
+            mHasText = hasText;
+        }
+
+        /**
+         * Returns the element with a qualified name
+         * @param qualifiedName Qualified name of the element
+         * @return Element, or {@code null} if it is not handled by the parser
+         */
+        static ElementTag forName(String qualifiedName) {
+            return TAGS_BY_NAME.get(qualifiedName);
+        }
+    }
+
+    /**
+     * Buffer accumulating the text of the element being parsed.
+     * <p>Only the text of the elements whose content is used is accumulated. Dates, amounts and prices
+     * are parsed straight from this buffer, the other values are decoded into strings when they are used.</p>
+     */
+    private char[] mContent = new char[256];
+
+    /**
+     * Number of characters in {@link #mContent}
+     */
+    private int mContentLength = 0;
+
+    /**
+     * Whether the characters are accumulated, i.e. whether the text of the innermost open element is used
+     */
+    private boolean mCollectContent = false;
+
+    /**
+     * Range of the text in {@link #mContent} without the surrounding whitespace, set at the end of each element
+     */
+    private int mTextStart;
+    private int mTextEnd;
+
+    /**
+     * Currency code of the last commodity element, reused while the following ones have the same code
+     */
+    private String mLastCurrencyCode;
 
     /**
      * Reference to account which is built when each account tag is parsed in the XML file
@@ -270,46 +392,261 @@ public class GncXmlHandler extends DefaultHandler {
     @Deprecated
     private long mRecurrencePeriod = 0;
 
-    private TransactionsDbAdapter mTransactionsDbAdapter;
+    private Map<String, Integer> mCurrencyCount;
 
-    private ScheduledActionDbAdapter mScheduledActionsDbAdapter;
+    /**
+     * Writer which saves the parsed records
+     */
+    private final ImportWriter mWriter;
 
-    private CommoditiesDbAdapter mCommoditiesDbAdapter;
+    /**
+     * Number of transactions or prices which are saved at once in streaming mode.
+     * Zero if all records are saved at the end of the document
+     */
+    private final int mBatchSize;
 
-    private PricesDbAdapter mPricesDbAdapter;
+    /**
+     * Number of accounts at the start of {@link #mAccountList} which have already been submitted for saving
+     */
+    private int mSavedAccountCount = 0;
 
-    private Map<String, Integer> mCurrencyCount;
+    /**
+     * Number of transactions submitted for saving so far, including the template transactions.
+     * The transactions without splits are not counted, since they are not kept
+     */
+    private long mSavedTransactionCount = 0;
+
+    /**
+     * Number of splits submitted for saving so far
+     */
+    private long mSavedSplitCount = 0;
+
+    /**
+     * Top level imbalance accounts, indexed by currency code, or {@code null} until an auto-balance split needs one
+     */
+    private Map<String, Account> mImbalanceAccounts;
+
+    /**
+     * GUIDs of the imbalance accounts created by the import, indexed by currency code.
+     * They are not in the file, so the checkpoints record them, to be restored when the import is resumed
+     */
+    private Map<String, String> mCreatedImbalanceAccountUIDs;
+
+    /**
+     * Whether the records are merged into an existing book instead of being imported into a new one
+     */
+    private final boolean mMerging;
+
+    /**
+     * Whether the runs of the scheduled actions missed since the file was saved are generated as transactions
+     */
+    private boolean mGenerateMissedTransactions;
+
+    /**
+     * GUIDs of the records listed as deleted by an incremental backup, indexed by record type
+     */
+    private Map<String, List<String>> mDeletedRecordUIDs;
+
+    /**
+     * Type of the deleted record element being parsed
+     */
+    private String mDeletedRecordType;
+
+    /**
+     * Numbers of records declared by the {@code gnc:count-data} elements of the file, indexed by record type
+     */
+    private Map<String, Long> mCountData;
+
+    /**
+     * Type of the count data element being parsed
+     */
+    private String mCountDataType;
+
+    /**
+     * Numbers of transaction elements (not counting the template transactions), of their split elements
+     * and of price elements parsed so far
+     */
+    private long mTransactionElementCount = 0;
+    private long mSplitElementCount = 0;
+    private long mPriceElementCount = 0;
+
+    /**
+     * URI of the imported file, or {@code null} if the import is not checkpointed
+     */
+    private final String mSourceUri;
+
+    /**
+     * Size of the imported file in bytes, or -1 if it is not known
+     */
+    private final long mSourceSize;
+
+    /**
+     * GUID of the book of the imported file, from its {@code book:id} element
+     */
+    private String mSourceBookUID;
+
+    /**
+     * Whether the file has been checked against the fingerprint of the resumed checkpoint
+     */
+    private boolean mResumedSourceChecked = false;
+
+    /**
+     * Number of batches saved between two checkpoints
+     */
+    private int mCheckpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    /**
+     * Number of batches saved since the last checkpoint
+     */
+    private int mBatchesSinceCheckpoint = 0;
+
+    /**
+     * Checkpoint of the interrupted import which is resumed, or {@code null} if the import starts from scratch.
+     * The transaction and price elements up to it are skipped
+     */
+    private ImportCheckpoint mResumedCheckpoint;
 
-    private BudgetsDbAdapter mBudgetsDbAdapter;
-    private Book mBook;
-    private SQLiteDatabase mainDb;
+    /**
+     * Whether the records of an interrupted import are discarded when the import is aborted,
+     * because the import cannot be completed without starting from scratch
+     */
+    private boolean mDiscardCheckpoint = false;
 
     /**
      * Creates a handler for handling XML stream events when parsing the XML backup file
+     * <p>All records are saved to the database at the end of the document</p>
      */
     public GncXmlHandler() {
-        init();
+        this(0);
     }
 
     /**
-     * Initialize the GnuCash XML handler
+     * Creates a handler which saves the transactions and prices in batches while the XML file is parsed.
+     * <p>Only the accounts, template transactions, scheduled actions and a batch of transactions are kept
+     * in memory. The accounts are saved before the first batch of transactions. The accounts of auto-balance
+     * splits and the full names of accounts are set at the end of the document with SQL updates.</p>
+     * <p>All records are saved in a single database transaction, which is committed at the end of the document.
+     * If parsing fails, {@link #abort()} should be called to roll back the records saved so far.</p>
+     * @param batchSize Number of transactions or prices to save at once, or 0 to save all records at the end
      */
-    private void init() {
-        mBook = new Book();
+    public GncXmlHandler(int batchSize) {
+        this(batchSize, false);
+    }
+
+    /**
+     * Creates a handler which saves the transactions and prices in batches, optionally on a separate thread.
+     * <p>When pipelined, the parsed batches are queued and saved by a writer thread while parsing goes on.
+     * The queue is bounded, so parsing pauses when saving falls behind.</p>
+     * @param batchSize Number of transactions or prices to save at once, or 0 to save all records at the end
+     * @param pipelined {@code true} to save the records on a separate thread
+     * @see #GncXmlHandler(int)
+     */
+    public GncXmlHandler(int batchSize, boolean pipelined) {
+        this(batchSize, pipelined, new SingleTransactionImportWriter(), false, null, -1);
+    }
 
-        DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), mBook.getUID());
-        mainDb = databaseHelper.getWritableDatabase();
-        mTransactionsDbAdapter = new TransactionsDbAdapter(mainDb, new SplitsDbAdapter(mainDb));
-        mAccountsDbAdapter = new AccountsDbAdapter(mainDb, mTransactionsDbAdapter);
-        RecurrenceDbAdapter recurrenceDbAdapter = new RecurrenceDbAdapter(mainDb);
-        mScheduledActionsDbAdapter = new ScheduledActionDbAdapter(mainDb, recurrenceDbAdapter);
-        mCommoditiesDbAdapter = new CommoditiesDbAdapter(mainDb);
-        mPricesDbAdapter = new PricesDbAdapter(mainDb);
-        mBudgetsDbAdapter = new BudgetsDbAdapter(mainDb, new BudgetAmountsDbAdapter(mainDb), recurrenceDbAdapter);
+    /**
+     * Creates a handler which hands the parsed records over to a writer of its own.
+     * <p>This lets the parsing be benchmarked on a plain JVM, with a writer which discards the records
+     * instead of saving them to a database.</p>
+     * @param batchSize Number of transactions or prices to hand over at once, or 0 to keep all records until the end
+     * @param writer Writer which receives the records
+     */
+    GncXmlHandler(int batchSize, @NonNull ImportWriter writer) {
+        this(batchSize, false, writer, false, null, -1);
+    }
+
+    /**
+     * Creates a handler which merges an incremental backup into an existing book.
+     * <p>The accounts, transactions, scheduled actions and prices of the file replace the records with the same GUID,
+     * or are added if there are none. The records listed as deleted are then deleted.
+     * All changes are saved in a single database transaction at the end of the document.</p>
+     * <p>The book should not be open while it is merged into. The runs of scheduled actions
+     * which have been missed are not generated.</p>
+     * @param bookUID GUID of the book
+     */
+    public GncXmlHandler(@NonNull String bookUID) {
+        this(0, false, new MergeImportWriter(bookUID), true, null, -1);
+    }
+
+    /**
+     * Creates a handler which saves the transactions and prices in batches, and which can resume an interrupted import.
+     * <p>The records are committed in chunks of {@link #DEFAULT_CHECKPOINT_INTERVAL} batches, each with a checkpoint
+     * of how far into the file they go. If an import of the same source was interrupted, it is resumed:
+     * the records already committed are kept, the transactions and prices of the file up to its checkpoint
+     * are skipped, and the rest of the file is imported into the same book.</p>
+     * <p>If parsing fails, {@link #abort()} rolls back the records saved since the last checkpoint only.
+     * No checkpoints are made once transactions are generated from scheduled actions,
+     * since they would be generated again when resuming.</p>
+     * @param batchSize Number of transactions or prices to save at once, it must be greater than 0
+     * @param pipelined {@code true} to save the records on a separate thread
+     * @param sourceUri URI of the imported file, identifying the import to resume
+     * @see #GncXmlHandler(int, boolean)
+     */
+    public GncXmlHandler(int batchSize, boolean pipelined, @NonNull String sourceUri) {
+        this(batchSize, pipelined, sourceUri, -1);
+    }
+
+    /**
+     * Creates a handler which saves the transactions and prices in batches, and which can resume an interrupted import.
+     * <p>An interrupted import of the same source is only resumed if the file has the same size and book GUID,
+     * so that a new file written to the same path is imported from the start.</p>
+     * @param batchSize Number of transactions or prices to save at once, it must be greater than 0
+     * @param pipelined {@code true} to save the records on a separate thread
+     * @param sourceUri URI of the imported file, identifying the import to resume
+     * @param sourceSize Size of the file in bytes, or -1 if it is not known
+     * @see #GncXmlHandler(int, boolean, String)
+     */
+    public GncXmlHandler(int batchSize, boolean pipelined, @NonNull String sourceUri, long sourceSize) {
+        // only the streaming imports commit before the end of the document
+        this(batchSize, pipelined,
+                batchSize > 0 ? new CheckpointedImportWriter(sourceUri) : new SingleTransactionImportWriter(),
+                false, batchSize > 0 ? sourceUri : null, sourceSize);
+    }
+
+    /**
+     * Creates a handler which saves the records with a writer
+     * @param batchSize Number of transactions or prices to save at once, or 0 to save all records at the end
+     * @param pipelined {@code true} to save the records on a separate thread
+     * @param writer Writer which saves the records
+     * @param merging {@code true} if the writer merges the records into an existing book
+     * @param sourceUri URI of the imported file if the writer commits checkpoints, {@code null} otherwise
+     * @param sourceSize Size of the file in bytes, or -1 if it is not known
+     */
+    private GncXmlHandler(int batchSize, boolean pipelined, @NonNull ImportWriter writer, boolean merging,
+                          String sourceUri, long sourceSize) {
+        mBatchSize = batchSize;
+        mWriter = pipelined ? new PipelinedImportWriter(writer) : writer;
+        mMerging = merging;
+        mGenerateMissedTransactions = !merging;
+        mSourceUri = sourceUri;
+        mSourceSize = sourceSize;
+        init();
+    }
 
+    /**
+     * Sets whether the runs of the scheduled actions which have been missed since the file was saved
+     * are generated as transactions during the import. They are generated by default, except in merge mode.
+     * <p>This is turned off when the file will be followed by incremental backups, which contain those runs</p>
+     * @param generateMissedTransactions {@code true} to generate the missed transactions
+     */
+    void setGenerateMissedTransactions(boolean generateMissedTransactions) {
+        mGenerateMissedTransactions = generateMissedTransactions;
+    }
 
-        mContent = new StringBuilder();
+    /**
+     * Sets the number of batches saved between two checkpoints of a resumable import
+     * @param batchCount Number of batches, at least 1
+     */
+    @VisibleForTesting
+    public void setCheckpointInterval(int batchCount) {
+        mCheckpointInterval = Math.max(1, batchCount);
+    }
 
+    /**
+     * Initialize the GnuCash XML handler
+     */
+    private void init() {
         mAccountList = new ArrayList<>();
         mAccountMap = new HashMap<>();
         mTransactionList = new ArrayList<>();
@@ -321,127 +658,178 @@ public class GncXmlHandler extends DefaultHandler {
         mTemplateAccountToTransactionMap = new HashMap<>();
 
         mAutoBalanceSplits = new ArrayList<>();
+        mCreatedImbalanceAccountUIDs = new HashMap<>();
 
         mPriceList = new ArrayList<>();
         mCurrencyCount = new HashMap<>();
+        mDeletedRecordUIDs = new HashMap<>();
+        mCountData = new HashMap<>();
+
+        mResumedCheckpoint = mWriter.getResumedCheckpoint();
+        if (mResumedCheckpoint != null) {
+            Log.i(LOG_TAG, String.format("Resuming import after %d transactions and %d prices",
+                    mResumedCheckpoint.getTransactionElements(), mResumedCheckpoint.getPriceElements()));
+            // the accounts are parsed again, but they are already saved
+            mSavedAccountCount = mResumedCheckpoint.getSavedAccounts();
+            mSavedTransactionCount = mResumedCheckpoint.getSavedTransactions();
+            mSavedSplitCount = mResumedCheckpoint.getSavedSplits();
+            mSplitElementCount = mResumedCheckpoint.getSplitElements();
+        }
+
+        if (isMerging()) {
+            // the parsed accounts can refer to the existing ones as parents or split accounts
+            for (Account account : mWriter.getExistingAccounts()) {
+                mAccountMap.put(account.getUID(), account);
+            }
+            mRootAccount = mAccountMap.get(mWriter.getBook().getRootAccountUID());
+        }
     }
 
     @Override
     public void startElement(String uri, String localName,
                              String qualifiedName, Attributes attributes) throws SAXException {
-        switch (qualifiedName){
-            case GncXmlHelper.TAG_ACCOUNT:
+        ElementTag tag = ElementTag.forName(qualifiedName);
+        // only the text of leaf elements is used, whitespace between the elements is dropped
+        mContentLength = 0;
+        mCollectContent = tag != null && tag.mHasText && mIgnoreElement == null;
+        if (tag == null || mIgnoreElement != null)
+            return;
+
+        switch (tag) {
+            case ACCOUNT:
                 mAccount = new Account(""); // dummy name, will be replaced when we find name tag
                 mISO4217Currency = false;
                 break;
-            case GncXmlHelper.TAG_TRANSACTION:
+            case TRANSACTION:
+                if (!mInTemplates)
+                    checkResumedSource();
+                if (!mInTemplates && mTransactionElementCount++ < getSkippedTransactionElements()) {
+                    mIgnoreElement = qualifiedName; //already saved by the interrupted import
+                    break;
+                }
                 mTransaction = new Transaction(""); // dummy name will be replaced
                 mTransaction.setExported(true);     // default to exported when import transactions
                 mISO4217Currency = false;
                 break;
-            case GncXmlHelper.TAG_TRN_SPLIT:
+            case TRN_SPLIT:
                 mSplit = new Split(Money.getZeroInstance(), "");
+                if (!mInTemplates)
+                    mSplitElementCount++;
                 break;
-            case GncXmlHelper.TAG_DATE_POSTED:
+            case DATE_POSTED:
                 mIsDatePosted = true;
                 break;
-            case GncXmlHelper.TAG_DATE_ENTERED:
+            case DATE_ENTERED:
                 mIsDateEntered = true;
                 break;
-            case GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS:
+            case TEMPLATE_TRANSACTIONS:
                 mInTemplates = true;
                 break;
-            case GncXmlHelper.TAG_SCHEDULED_ACTION:
+            case SCHEDULED_ACTION:
                 //default to transaction type, will be changed during parsing
                 mScheduledAction = new ScheduledAction(ScheduledAction.ActionType.TRANSACTION);
                 break;
-            case GncXmlHelper.TAG_SX_START:
+            case SX_START:
                 mIsScheduledStart = true;
                 break;
-            case GncXmlHelper.TAG_SX_END:
+            case SX_END:
                 mIsScheduledEnd = true;
                 break;
-            case GncXmlHelper.TAG_SX_LAST:
+            case SX_LAST:
                 mIsLastRun = true;
                 break;
-            case GncXmlHelper.TAG_RX_START:
+            case RX_START:
                 mIsRecurrenceStart = true;
                 break;
-            case GncXmlHelper.TAG_PRICE:
+            case PRICE:
+                checkResumedSource();
+                if (mPriceElementCount++ < getSkippedPriceElements()) {
+                    mIgnoreElement = qualifiedName; //already saved by the interrupted import
+                    break;
+                }
                 mPrice = new Price();
                 break;
-            case GncXmlHelper.TAG_PRICE_CURRENCY:
+            case PRICE_CURRENCY:
                 mPriceCurrency = true;
                 mPriceCommodity = false;
                 mISO4217Currency = false;
                 break;
-            case GncXmlHelper.TAG_PRICE_COMMODITY:
+            case PRICE_COMMODITY:
                 mPriceCurrency = false;
                 mPriceCommodity = true;
                 mISO4217Currency = false;
                 break;
 
-            case GncXmlHelper.TAG_BUDGET:
+            case BUDGET:
                 mBudget = new Budget();
                 break;
 
-            case GncXmlHelper.TAG_GNC_RECURRENCE:
-            case GncXmlHelper.TAG_BUDGET_RECURRENCE:
+            case GNC_RECURRENCE:
+            case BUDGET_RECURRENCE:
                 mRecurrenceMultiplier = 1;
                 mRecurrence = new Recurrence(PeriodType.MONTH);
                 break;
-            case GncXmlHelper.TAG_BUDGET_SLOTS:
+            case BUDGET_SLOTS:
                 mInBudgetSlot = true;
                 break;
-            case GncXmlHelper.TAG_SLOT:
+            case SLOT:
                 if (mInBudgetSlot){
                     mBudgetAmount = new BudgetAmount(mBudget.getUID(), mBudgetAmountAccountUID);
                 }
                 break;
-            case GncXmlHelper.TAG_SLOT_VALUE:
+            case SLOT_VALUE:
                 mSlotTagAttribute = attributes.getValue(GncXmlHelper.ATTR_KEY_TYPE);
                 break;
+            case DELETED_RECORD:
+                mDeletedRecordType = attributes.getValue(GncXmlHelper.ATTR_KEY_CD_TYPE);
+                break;
+            case COUNT_DATA:
+                mCountDataType = attributes.getValue(GncXmlHelper.ATTR_KEY_CD_TYPE);
+                break;
         }
     }
 
     @Override
     public void endElement(String uri, String localName, String qualifiedName) throws SAXException {
         // FIXME: 22.10.2015 First parse the number of accounts/transactions and use the numer to init the array lists
-        String characterString = mContent.toString().trim();
+        mCollectContent = false;
+        ElementTag tag = ElementTag.forName(qualifiedName);
 
-        if (mIgnoreElement != null) {
+        if (mIgnoreElement != null || tag == null) {
             // Ignore everything inside
             if (qualifiedName.equals(mIgnoreElement)) {
                 mIgnoreElement = null;
             }
-            mContent.setLength(0);
+            mContentLength = 0;
             return;
         }
 
-        switch (qualifiedName) {
-            case GncXmlHelper.TAG_ACCT_NAME:
-                mAccount.setName(characterString);
-                mAccount.setFullName(characterString);
+        trimContent();
+        switch (tag) {
+            case ACCT_NAME:
+                String accountName = getText();
+                mAccount.setName(accountName);
+                mAccount.setFullName(accountName);
                 break;
-            case GncXmlHelper.TAG_ACCT_ID:
-                mAccount.setUID(characterString);
+            case ACCT_ID:
+                mAccount.setUID(getText());
                 break;
-            case GncXmlHelper.TAG_ACCT_TYPE:
-                AccountType accountType = AccountType.valueOf(characterString);
+            case ACCT_TYPE:
+                AccountType accountType = AccountType.valueOf(getText());
                 mAccount.setAccountType(accountType);
                 mAccount.setHidden(accountType == AccountType.ROOT); //flag root account as hidden
                 break;
-            case GncXmlHelper.TAG_COMMODITY_SPACE:
-                if (characterString.equals("ISO4217") || characterString.equals("CURRENCY") ) {
+            case COMMODITY_SPACE:
+                if (textEquals("ISO4217") || textEquals("CURRENCY")) {
                     mISO4217Currency = true;
                 } else {
                     // price of non-ISO4217 commodities cannot be handled
                     mPrice = null;
                 }
                 break;
-            case GncXmlHelper.TAG_COMMODITY_ID:
-                String currencyCode = mISO4217Currency ? characterString : NO_CURRENCY_CODE;
-                Commodity commodity = mCommoditiesDbAdapter.getCommodity(currencyCode);
+            case COMMODITY_ID:
+                String currencyCode = mISO4217Currency ? getCurrencyCode() : NO_CURRENCY_CODE;
+                Commodity commodity = getCommodity(currencyCode);
                 if (mAccount != null) {
                     if (commodity != null) {
                         mAccount.setCommodity(commodity);
@@ -460,28 +848,28 @@ public class GncXmlHandler extends DefaultHandler {
                 }
                 if (mPrice != null) {
                     if (mPriceCommodity) {
-                        mPrice.setCommodityUID(mCommoditiesDbAdapter.getCommodityUID(currencyCode));
+                        mPrice.setCommodityUID(getCommodityUID(currencyCode));
                         mPriceCommodity = false;
                     }
                     if (mPriceCurrency) {
-                        mPrice.setCurrencyUID(mCommoditiesDbAdapter.getCommodityUID(currencyCode));
+                        mPrice.setCurrencyUID(getCommodityUID(currencyCode));
                         mPriceCurrency = false;
                     }
                 }
                 break;
-            case GncXmlHelper.TAG_ACCT_DESCRIPTION:
-                mAccount.setDescription(characterString);
+            case ACCT_DESCRIPTION:
+                mAccount.setDescription(getText());
                 break;
-            case GncXmlHelper.TAG_PARENT_UID:
-                mAccount.setParentUID(characterString);
+            case PARENT_UID:
+                mAccount.setParentUID(getText());
                 break;
-            case GncXmlHelper.TAG_ACCOUNT:
+            case ACCOUNT:
                 if (!mInTemplates) { //we ignore template accounts, we have no use for them. FIXME someday and import the templates too
                     mAccountList.add(mAccount);
                     mAccountMap.put(mAccount.getUID(), mAccount);
                     // check ROOT account
                     if (mAccount.getAccountType() == AccountType.ROOT) {
-                        if (mRootAccount == null) {
+                        if (mRootAccount == null || mRootAccount.getUID().equals(mAccount.getUID())) {
                             mRootAccount = mAccount;
                         } else {
                             throw new SAXException("Multiple ROOT accounts exist in book");
@@ -493,10 +881,11 @@ public class GncXmlHandler extends DefaultHandler {
                     mISO4217Currency = false;
                 }
                 break;
-            case GncXmlHelper.TAG_SLOT:
+            case SLOT:
                 break;
-            case GncXmlHelper.TAG_SLOT_KEY:
-                switch (characterString) {
+            case SLOT_KEY:
+                String slotKey = getText();
+                switch (slotKey) {
                     case GncXmlHelper.KEY_PLACEHOLDER:
                         mInPlaceHolderSlot = true;
                         break;
@@ -526,20 +915,20 @@ public class GncXmlHandler extends DefaultHandler {
                         break;
                 }
                 if (mInBudgetSlot && mBudgetAmountAccountUID == null){
-                    mBudgetAmountAccountUID = characterString;
-                    mBudgetAmount.setAccountUID(characterString);
+                    mBudgetAmountAccountUID = slotKey;
+                    mBudgetAmount.setAccountUID(slotKey);
                 } else if (mInBudgetSlot){
-                    mBudgetAmount.setPeriodNum(Long.parseLong(characterString));
+                    mBudgetAmount.setPeriodNum(Long.parseLong(slotKey));
                 }
                 break;
-            case GncXmlHelper.TAG_SLOT_VALUE:
+            case SLOT_VALUE:
                 if (mInPlaceHolderSlot) {
                     //Log.v(LOG_TAG, "Setting account placeholder flag");
-                    mAccount.setPlaceHolderFlag(Boolean.parseBoolean(characterString));
+                    mAccount.setPlaceHolderFlag(Boolean.parseBoolean(getText()));
                     mInPlaceHolderSlot = false;
                 } else if (mInColorSlot) {
-                    //Log.d(LOG_TAG, "Parsing color code: " + characterString);
-                    String color = characterString.trim();
+                    String color = getText();
+                    //Log.d(LOG_TAG, "Parsing color code: " + color);
                     //Gnucash exports the account color in format #rrrgggbbb, but we need only #rrggbb.
                     //so we trim the last digit in each block, doesn't affect the color much
                     if (!color.equals("Not Set")) {
@@ -557,32 +946,32 @@ public class GncXmlHandler extends DefaultHandler {
                     }
                     mInColorSlot = false;
                 } else if (mInFavoriteSlot) {
-                    mAccount.setFavorite(Boolean.parseBoolean(characterString));
+                    mAccount.setFavorite(Boolean.parseBoolean(getText()));
                     mInFavoriteSlot = false;
                 } else if (mIsNote) {
                     if (mTransaction != null) {
-                        mTransaction.setNote(characterString);
+                        mTransaction.setNote(getText());
                         mIsNote = false;
                     }
                 } else if (mInDefaultTransferAccount) {
-                    mAccount.setDefaultTransferAccountUID(characterString);
+                    mAccount.setDefaultTransferAccountUID(getText());
                     mInDefaultTransferAccount = false;
                 } else if (mInExported) {
                     if (mTransaction != null) {
-                        mTransaction.setExported(Boolean.parseBoolean(characterString));
+                        mTransaction.setExported(Boolean.parseBoolean(getText()));
                         mInExported = false;
                     }
                 } else if (mInTemplates && mInSplitAccountSlot) {
-                    mSplit.setAccountUID(characterString);
+                    mSplit.setAccountUID(getText());
                     mInSplitAccountSlot = false;
                 } else if (mInTemplates && mInCreditNumericSlot) {
-                    handleEndOfTemplateNumericSlot(characterString, TransactionType.CREDIT);
+                    handleEndOfTemplateNumericSlot(getText(), TransactionType.CREDIT);
                 } else if (mInTemplates && mInDebitNumericSlot) {
-                    handleEndOfTemplateNumericSlot(characterString, TransactionType.DEBIT);
+                    handleEndOfTemplateNumericSlot(getText(), TransactionType.DEBIT);
                 } else if (mInBudgetSlot){
                     if (mSlotTagAttribute.equals(GncXmlHelper.ATTR_VALUE_NUMERIC)) {
                         try {
-                            BigDecimal bigDecimal = GncXmlHelper.parseSplitAmount(characterString);
+                            BigDecimal bigDecimal = GncXmlHelper.parseSplitAmount(mContent, mTextStart, mTextEnd - mTextStart);
                             //currency doesn't matter since we don't persist it in the budgets table
                             mBudgetAmount.setAmount(new Money(bigDecimal, Commodity.DEFAULT_COMMODITY));
                         } catch (ParseException e) {
@@ -598,102 +987,100 @@ public class GncXmlHandler extends DefaultHandler {
                 }
                 break;
 
-            case GncXmlHelper.TAG_BUDGET_SLOTS:
+            case BUDGET_SLOTS:
                 mInBudgetSlot = false;
                 break;
 
             //================  PROCESSING OF TRANSACTION TAGS =====================================
-            case GncXmlHelper.TAG_TRX_ID:
-                mTransaction.setUID(characterString);
+            case TRX_ID:
+                mTransaction.setUID(getText());
                 break;
-            case GncXmlHelper.TAG_TRN_DESCRIPTION:
-                mTransaction.setDescription(characterString);
+            case TRN_DESCRIPTION:
+                mTransaction.setDescription(getText());
                 break;
-            case GncXmlHelper.TAG_TS_DATE:
+            case TS_DATE:
+                if (mPrice == null && (mTransaction == null || !(mIsDatePosted || mIsDateEntered)))
+                    break;
+                long time;
                 try {
-                    if (mIsDatePosted && mTransaction != null) {
-                        mTransaction.setTime(GncXmlHelper.parseDate(characterString));
-                        mIsDatePosted = false;
-                    }
-                    if (mIsDateEntered && mTransaction != null) {
-                        Timestamp timestamp = new Timestamp(GncXmlHelper.parseDate(characterString));
-                        mTransaction.setCreatedTimestamp(timestamp);
-                        mIsDateEntered = false;
-                    }
-                    if (mPrice != null) {
-                        mPrice.setDate(new Timestamp(GncXmlHelper.parseDate(characterString)));
-                    }
+                    time = GncXmlHelper.parseDate(mContent, mTextStart, mTextEnd - mTextStart);
                 } catch (ParseException e) {
                     Crashlytics.logException(e);
-                    String message = "Unable to parse transaction time - " + characterString;
+                    String message = "Unable to parse transaction time - " + getText();
                     Log.e(LOG_TAG, message + "\n" + e.getMessage());
                     Crashlytics.log(message);
                     throw new SAXException(message, e);
                 }
+                if (mIsDatePosted && mTransaction != null) {
+                    mTransaction.setTime(time);
+                    mIsDatePosted = false;
+                }
+                if (mIsDateEntered && mTransaction != null) {
+                    mTransaction.setCreatedTimestamp(new Timestamp(time));
+                    mIsDateEntered = false;
+                }
+                if (mPrice != null) {
+                    mPrice.setDate(new Timestamp(time));
+                }
                 break;
-            case GncXmlHelper.TAG_RECURRENCE_PERIOD: //for parsing of old backup files
-                mRecurrencePeriod = Long.parseLong(characterString);
+            case RECURRENCE_PERIOD: //for parsing of old backup files
+                mRecurrencePeriod = parseLong(mTextStart, mTextEnd);
                 mTransaction.setTemplate(mRecurrencePeriod > 0);
                 break;
-            case GncXmlHelper.TAG_SPLIT_ID:
-                mSplit.setUID(characterString);
+            case SPLIT_ID:
+                mSplit.setUID(getText());
                 break;
-            case GncXmlHelper.TAG_SPLIT_MEMO:
-                mSplit.setMemo(characterString);
+            case SPLIT_MEMO:
+                mSplit.setMemo(getText());
                 break;
-            case GncXmlHelper.TAG_SPLIT_VALUE:
+            case SPLIT_VALUE:
                 try {
                     // The value and quantity can have different sign for custom currency(stock).
                     // Use the sign of value for split, as it would not be custom currency
-                    String q = characterString;
-                    if (q.charAt(0) == '-') {
-                        mNegativeQuantity = true;
-                        q = q.substring(1);
-                    } else {
-                        mNegativeQuantity = false;
-                    }
-                    mValue = GncXmlHelper.parseSplitAmount(characterString).abs(); // use sign from quantity
+                    mNegativeQuantity = mTextStart < mTextEnd && mContent[mTextStart] == '-';
+                    mValue = GncXmlHelper.parseSplitAmount(mContent, mTextStart, mTextEnd - mTextStart).abs(); // use sign from quantity
                 } catch (ParseException e) {
-                    String msg = "Error parsing split quantity - " + characterString;
+                    String msg = "Error parsing split quantity - " + getText();
                     Crashlytics.log(msg);
                     Crashlytics.logException(e);
                     throw new SAXException(msg, e);
                 }
                 break;
-            case GncXmlHelper.TAG_SPLIT_QUANTITY:
+            case SPLIT_QUANTITY:
                 // delay the assignment of currency when the split account is seen
                 try {
-                    mQuantity = GncXmlHelper.parseSplitAmount(characterString).abs();
+                    mQuantity = GncXmlHelper.parseSplitAmount(mContent, mTextStart, mTextEnd - mTextStart).abs();
                 } catch (ParseException e) {
-                    String msg = "Error parsing split quantity - " + characterString;
+                    String msg = "Error parsing split quantity - " + getText();
                     Crashlytics.log(msg);
                     Crashlytics.logException(e);
                     throw new SAXException(msg, e);
                 }
                 break;
-            case GncXmlHelper.TAG_SPLIT_ACCOUNT:
+            case SPLIT_ACCOUNT:
+                String splitAccountUID = getText();
                 if (!mInTemplates) {
                     //this is intentional: GnuCash XML formats split amounts, credits are negative, debits are positive.
                     mSplit.setType(mNegativeQuantity ? TransactionType.CREDIT : TransactionType.DEBIT);
                     //the split amount uses the account currency
-                    mSplit.setQuantity(new Money(mQuantity, getCommodityForAccount(characterString)));
+                    mSplit.setQuantity(new Money(mQuantity, getCommodityForAccount(splitAccountUID)));
                     //the split value uses the transaction currency
                     mSplit.setValue(new Money(mValue, mTransaction.getCommodity()));
-                    mSplit.setAccountUID(characterString);
+                    mSplit.setAccountUID(splitAccountUID);
                 } else {
                     if (!mIgnoreTemplateTransaction)
-                        mTemplateAccountToTransactionMap.put(characterString, mTransaction.getUID());
+                        mTemplateAccountToTransactionMap.put(splitAccountUID, mTransaction.getUID());
                 }
                 break;
             //todo: import split reconciled state and date
-            case GncXmlHelper.TAG_TRN_SPLIT:
+            case TRN_SPLIT:
                 mTransaction.addSplit(mSplit);
                 break;
-            case GncXmlHelper.TAG_TRANSACTION:
+            case TRANSACTION:
                 mTransaction.setTemplate(mInTemplates);
                 Split imbSplit = mTransaction.createAutoBalanceSplit();
                 if (imbSplit != null) {
-                    mAutoBalanceSplits.add(imbSplit);
+                    addAutoBalanceSplit(imbSplit);
                 }
                 if (mInTemplates){
                     if (!mIgnoreTemplateTransaction)
@@ -709,49 +1096,55 @@ public class GncXmlHandler extends DefaultHandler {
                 mRecurrencePeriod = 0;
                 mIgnoreTemplateTransaction = true;
                 mTransaction = null;
+                if (isStreaming() && mTransactionList.size() >= mBatchSize) {
+                    saveTransactionBatch();
+                    checkpointIfDue();
+                }
                 break;
-            case GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS:
+            case TEMPLATE_TRANSACTIONS:
                 mInTemplates = false;
                 break;
 
             // ========================= PROCESSING SCHEDULED ACTIONS ==================================
-            case GncXmlHelper.TAG_SX_ID:
-                mScheduledAction.setUID(characterString);
+            case SX_ID:
+                mScheduledAction.setUID(getText());
                 break;
-            case GncXmlHelper.TAG_SX_NAME:
-                if (characterString.equals(ScheduledAction.ActionType.BACKUP.name()))
+            case SX_NAME:
+                if (textEquals(ScheduledAction.ActionType.BACKUP.name()))
                     mScheduledAction.setActionType(ScheduledAction.ActionType.BACKUP);
                 else
                     mScheduledAction.setActionType(ScheduledAction.ActionType.TRANSACTION);
                 break;
-            case GncXmlHelper.TAG_SX_ENABLED:
-                mScheduledAction.setEnabled(characterString.equals("y"));
+            case SX_ENABLED:
+                mScheduledAction.setEnabled(textEquals("y"));
                 break;
-            case GncXmlHelper.TAG_SX_AUTO_CREATE:
-                mScheduledAction.setAutoCreate(characterString.equals("y"));
+            case SX_AUTO_CREATE:
+                mScheduledAction.setAutoCreate(textEquals("y"));
                 break;
             //todo: export auto_notify, advance_create, advance_notify
-            case GncXmlHelper.TAG_SX_NUM_OCCUR:
-                mScheduledAction.setTotalPlannedExecutionCount(Integer.parseInt(characterString));
+            case SX_NUM_OCCUR:
+                mScheduledAction.setTotalPlannedExecutionCount(Integer.parseInt(getText()));
                 break;
-            case GncXmlHelper.TAG_RX_MULT:
-                mRecurrenceMultiplier = Integer.parseInt(characterString);
+            case RX_MULT:
+                mRecurrenceMultiplier = Integer.parseInt(getText());
                 break;
-            case GncXmlHelper.TAG_RX_PERIOD_TYPE:
+            case RX_PERIOD_TYPE:
+                String periodTypeName = getText();
                 try {
-                    PeriodType periodType = PeriodType.valueOf(characterString.toUpperCase());
+                    PeriodType periodType = PeriodType.valueOf(periodTypeName.toUpperCase());
                     mRecurrence.setPeriodType(periodType);
                     mRecurrence.setMultiplier(mRecurrenceMultiplier);
                 } catch (IllegalArgumentException ex){ //the period type constant is not supported
-                    String msg = "Unsupported period constant: " + characterString;
+                    String msg = "Unsupported period constant: " + periodTypeName;
                     Log.e(LOG_TAG, msg);
                     Crashlytics.logException(ex);
                     mIgnoreScheduledAction = true;
                 }
                 break;
-            case GncXmlHelper.TAG_GDATE:
+            case GDATE:
+                String dateString = getText();
                 try {
-                    long date = GncXmlHelper.DATE_FORMATTER.parse(characterString).getTime();
+                    long date = GncXmlHelper.DATE_FORMATTER.parseMillis(dateString);
                     if (mIsScheduledStart && mScheduledAction != null) {
                         mScheduledAction.setCreatedTimestamp(new Timestamp(date));
                         mIsScheduledStart = false;
@@ -771,154 +1164,403 @@ public class GncXmlHandler extends DefaultHandler {
                         mRecurrence.setPeriodStart(new Timestamp(date));
                         mIsRecurrenceStart = false;
                     }
-                } catch (ParseException e) {
-                    String msg = "Error parsing scheduled action date " + characterString;
+                } catch (IllegalArgumentException e) {
+                    String msg = "Error parsing scheduled action date " + dateString;
                     Log.e(LOG_TAG, msg + e.getMessage());
                     Crashlytics.log(msg);
                     Crashlytics.logException(e);
                     throw new SAXException(msg, e);
                 }
                 break;
-            case GncXmlHelper.TAG_SX_TEMPL_ACCOUNT:
+            case SX_TEMPL_ACCOUNT:
                 if (mScheduledAction.getActionType() == ScheduledAction.ActionType.TRANSACTION) {
-                    mScheduledAction.setActionUID(mTemplateAccountToTransactionMap.get(characterString));
+                    mScheduledAction.setActionUID(mTemplateAccountToTransactionMap.get(getText()));
                 } else {
                     mScheduledAction.setActionUID(BaseModel.generateUID());
                 }
                 break;
-            case GncXmlHelper.TAG_GNC_RECURRENCE:
+            case GNC_RECURRENCE:
                 if (mScheduledAction != null){
                     mScheduledAction.setRecurrence(mRecurrence);
                 }
                 break;
 
-            case GncXmlHelper.TAG_SCHEDULED_ACTION:
+            case SCHEDULED_ACTION:
                 if (mScheduledAction.getActionUID() != null && !mIgnoreScheduledAction) {
                     if (mScheduledAction.getRecurrence().getPeriodType() == PeriodType.WEEK) {
                         // TODO: implement parsing of by days for scheduled actions
                         setMinimalScheduledActionByDays();
                     }
                     mScheduledActionsList.add(mScheduledAction);
-                    int count = generateMissedScheduledTransactions(mScheduledAction);
-                    Log.i(LOG_TAG, String.format("Generated %d transactions from scheduled action", count));
+                    if (mGenerateMissedTransactions) {
+                        int count = generateMissedScheduledTransactions(mScheduledAction);
+                        Log.i(LOG_TAG, String.format("Generated %d transactions from scheduled action", count));
+                        if (isStreaming() && mTransactionList.size() >= mBatchSize)
+                            saveTransactionBatch();
+                    }
                 }
                 mIgnoreScheduledAction = false;
                 break;
             // price table
-            case GncXmlHelper.TAG_PRICE_ID:
-                mPrice.setUID(characterString);
+            case PRICE_ID:
+                mPrice.setUID(getText());
                 break;
-            case GncXmlHelper.TAG_PRICE_SOURCE:
+            case PRICE_SOURCE:
                 if (mPrice != null) {
-                    mPrice.setSource(characterString);
+                    mPrice.setSource(getText());
                 }
                 break;
-            case GncXmlHelper.TAG_PRICE_VALUE:
+            case PRICE_VALUE:
                 if (mPrice != null) {
-                    String[] parts = characterString.split("/");
-                    if (parts.length != 2) {
-                        String message = "Illegal price - " + characterString;
+                    int slash = indexOfText('/', mTextStart);
+                    if (slash < 0 || indexOfText('/', slash + 1) >= 0) {
+                        String message = "Illegal price - " + getText();
                         Log.e(LOG_TAG, message);
                         Crashlytics.log(message);
                         throw new SAXException(message);
                     } else {
-                        mPrice.setValueNum(Long.valueOf(parts[0]));
-                        mPrice.setValueDenom(Long.valueOf(parts[1]));
-                        Log.d(getClass().getName(), "price " + characterString +
-                        " .. " + mPrice.getValueNum() + "/" + mPrice.getValueDenom());
+                        mPrice.setValueNum(parseLong(mTextStart, slash));
+                        mPrice.setValueDenom(parseLong(slash + 1, mTextEnd));
                     }
                 }
                 break;
-            case GncXmlHelper.TAG_PRICE_TYPE:
+            case PRICE_TYPE:
                 if (mPrice != null) {
-                    mPrice.setType(characterString);
+                    mPrice.setType(getText());
                 }
                 break;
-            case GncXmlHelper.TAG_PRICE:
+            case PRICE:
                 if (mPrice != null) {
                     mPriceList.add(mPrice);
                     mPrice = null;
+                    if (isStreaming() && mPriceList.size() >= mBatchSize) {
+                        savePriceBatch();
+                        checkpointIfDue();
+                    }
                 }
                 break;
 
-            case GncXmlHelper.TAG_BUDGET:
+            case BUDGET:
                 if (mBudget.getBudgetAmounts().size() > 0) //ignore if no budget amounts exist for the budget
                     mBudgetList.add(mBudget);
                 break;
 
-            case GncXmlHelper.TAG_BUDGET_NAME:
-                mBudget.setName(characterString);
+            case BUDGET_NAME:
+                mBudget.setName(getText());
                 break;
 
-            case GncXmlHelper.TAG_BUDGET_DESCRIPTION:
-                mBudget.setDescription(characterString);
+            case BUDGET_DESCRIPTION:
+                mBudget.setDescription(getText());
                 break;
 
-            case GncXmlHelper.TAG_BUDGET_NUM_PERIODS:
-                mBudget.setNumberOfPeriods(Long.parseLong(characterString));
+            case BUDGET_NUM_PERIODS:
+                mBudget.setNumberOfPeriods(parseLong(mTextStart, mTextEnd));
                 break;
 
-            case GncXmlHelper.TAG_BUDGET_RECURRENCE:
+            case BUDGET_RECURRENCE:
                 mBudget.setRecurrence(mRecurrence);
                 break;
 
+            case DELETED_RECORD:
+                List<String> deletedRecordUIDs = mDeletedRecordUIDs.get(mDeletedRecordType);
+                if (deletedRecordUIDs == null) {
+                    deletedRecordUIDs = new ArrayList<>();
+                    mDeletedRecordUIDs.put(mDeletedRecordType, deletedRecordUIDs);
+                }
+                deletedRecordUIDs.add(getText());
+                break;
+
+            case COUNT_DATA:
+                if (mCountDataType != null) {
+                    try {
+                        mCountData.put(mCountDataType, parseLong(mTextStart, mTextEnd));
+                    } catch (NumberFormatException e) {
+                        Log.w(LOG_TAG, "Invalid count of " + mCountDataType + " records: " + getText());
+                    }
+                    mCountDataType = null;
+                }
+                break;
+            case BOOK_ID:
+                mSourceBookUID = getText();
+                break;
         }
 
         //reset the accumulated characters
-        mContent.setLength(0);
+        mContentLength = 0;
     }
 
     @Override
     public void characters(char[] chars, int start, int length) throws SAXException {
-        mContent.append(chars, start, length);
+        if (!mCollectContent)
+            return;
+        int contentLength = mContentLength + length;
+        if (contentLength > mContent.length)
+            mContent = Arrays.copyOf(mContent, Math.max(contentLength, 2 * mContent.length));
+        System.arraycopy(chars, start, mContent, mContentLength, length);
+        mContentLength = contentLength;
+    }
+
+    /**
+     * Sets the range of the text of the element, without the surrounding whitespace like {@link String#trim()}
+     */
+    private void trimContent() {
+        int start = 0;
+        int end = mContentLength;
+        while (start < end && mContent[start] <= ' ') {
+            start++;
+        }
+        while (end > start && mContent[end - 1] <= ' ') {
+            end--;
+        }
+        mTextStart = start;
+        mTextEnd = end;
+    }
+
+    /**
+     * Returns the text of the element which has just been parsed, without the surrounding whitespace
+     * @return Text of the element
+     */
+    private String getText() {
+        return new String(mContent, mTextStart, mTextEnd - mTextStart);
+    }
+
+    /**
+     * Returns {@code true} if the text of the element which has just been parsed is a string, without decoding it
+     * @param value String to compare the text with
+     */
+    private boolean textEquals(String value) {
+        int length = mTextEnd - mTextStart;
+        if (length != value.length())
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (mContent[mTextStart + i] != value.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of a character in the text of the element which has just been parsed
+     * @param c Character to look for
+     * @param fromIndex Index in {@link #mContent} to start looking from
+     * @return Index of the character in {@link #mContent}, or -1 if the text doesn't contain it
+     */
+    private int indexOfText(char c, int fromIndex) {
+        for (int i = fromIndex; i < mTextEnd; i++) {
+            if (mContent[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the currency code of the commodity element which has just been parsed.
+     * <p>The same few codes are found in all the transactions and prices, so the string of the last code
+     * is reused instead of decoding the text again.</p>
+     * @return Currency code
+     */
+    private String getCurrencyCode() {
+        if (mLastCurrencyCode == null || !textEquals(mLastCurrencyCode))
+            mLastCurrencyCode = getText();
+        return mLastCurrencyCode;
+    }
+
+    /**
+     * Parses a range of the text of the element which has just been parsed as a decimal number, without decoding it
+     * @param start Index of the first character of the number in {@link #mContent}
+     * @param end Index after the last character of the number
+     * @return Parsed number
+     * @throws NumberFormatException if the characters are not a number which fits in a long
+     */
+    private long parseLong(int start, int end) {
+        boolean negative = start < end && mContent[start] == '-';
+        int i = negative || (start < end && mContent[start] == '+') ? start + 1 : start;
+        if (i == end)
+            throw new NumberFormatException("Invalid number: " + new String(mContent, start, end - start));
+        // accumulate negatively, so that Long.MIN_VALUE can be parsed
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = mContent[i] - '0';
+            if (digit < 0 || digit > 9 || result < (Long.MIN_VALUE + digit) / 10)
+                throw new NumberFormatException("Invalid number: " + new String(mContent, start, end - start));
+            result = result * 10 - digit;
+        }
+        if (negative)
+            return result;
+        if (result == Long.MIN_VALUE)
+            throw new NumberFormatException("Invalid number: " + new String(mContent, start, end - start));
+        return -result;
     }
 
     @Override
     public void endDocument() throws SAXException {
         super.endDocument();
-        HashMap<String, String> mapFullName = new HashMap<>(mAccountList.size());
-        HashMap<String, Account> mapImbalanceAccount = new HashMap<>();
+        checkResumedSource();
+        if (!isMerging())
+            validateCountData();
+        resolveParentAccounts();
+
+        // Set the account for created balancing splits to correct imbalance accounts
+        for (Split split : mAutoBalanceSplits) {
+            // XXX: yes, getAccountUID() returns a currency code in this case (see Transaction.createAutoBalanceSplit())
+            split.setAccountUID(getImbalanceAccount(split.getAccountUID()).getUID());
+        }
+        if (!isStreaming())
+            updateAccountFullNames();
+
+        String mostAppearedCurrency = "";
+        int mostCurrencyAppearance = 0;
+        for (Map.Entry<String, Integer> entry : mCurrencyCount.entrySet()) {
+            if (entry.getValue() > mostCurrencyAppearance) {
+                mostCurrencyAppearance = entry.getValue();
+                mostAppearedCurrency = entry.getKey();
+            }
+        }
 
-        // The XML has no ROOT, create one
+        FinalRecords records = new FinalRecords();
+        records.mAccounts = takeUnsavedAccounts();
+        records.mScheduledActions = mScheduledActionsList;
+        records.mTemplateTransactions = mTemplateTransactions;
+        records.mTransactions = mTransactionList;
+        records.mPrices = mPriceList;
+        records.mRootAccountUID = mRootAccount.getUID();
+        records.mUpdateAccountFullNames = isStreaming();
+        records.mDeletedRecordUIDs = mDeletedRecordUIDs;
+        countSubmittedTransactions(mTemplateTransactions);
+        countSubmittedTransactions(mTransactionList);
+        records.mTransactionCount = mSavedTransactionCount;
+        records.mSplitCount = mSavedSplitCount;
+        if (mostCurrencyAppearance > 0 && !isMerging())
+            records.mDefaultCurrencyCode = mostAppearedCurrency;
+        mWriter.finish(records);
+    }
+
+    /**
+     * Checks that the numbers of transactions and prices found in the file are those declared by its count data.
+     * <p>The template transactions are not counted. The count of splits is checked only if the file declares one,
+     * which GnuCash does not do.</p>
+     * @throws SAXException if a count does not match, e.g. because the file is truncated
+     */
+    private void validateCountData() throws SAXException {
+        validateCount(GncXmlHelper.ATTR_VALUE_TRANSACTION, mTransactionElementCount);
+        validateCount(GncXmlHelper.ATTR_VALUE_PRICE, mPriceElementCount);
+        validateCount("split", mSplitElementCount);
+    }
+
+    private void validateCount(String recordType, long parsedCount) throws SAXException {
+        Long declaredCount = mCountData.get(recordType);
+        if (declaredCount != null && declaredCount != parsedCount) {
+            String message = String.format("The file declares %d records of type %s, but %d were found",
+                    declaredCount, recordType, parsedCount);
+            Log.e(LOG_TAG, message);
+            Crashlytics.log(message);
+            // resuming would not make the file complete
+            mDiscardCheckpoint = true;
+            throw new SAXException(message);
+        }
+    }
+
+    /**
+     * Creates the ROOT account if the XML has none, and adds all accounts without a parent to it
+     */
+    private void resolveParentAccounts() {
         if (mRootAccount == null) {
             mRootAccount = new Account("ROOT");
             mRootAccount.setAccountType(AccountType.ROOT);
+            if (mResumedCheckpoint != null && mResumedCheckpoint.getRootAccountUID() != null)
+                mRootAccount.setUID(mResumedCheckpoint.getRootAccountUID()); //created and saved before the interruption
             mAccountList.add(mRootAccount);
             mAccountMap.put(mRootAccount.getUID(), mRootAccount);
         }
 
-        String imbalancePrefix = AccountsDbAdapter.getImbalanceAccountPrefix();
-
-        // Add all account without a parent to ROOT, and collect top level imbalance accounts
-        for(Account account:mAccountList) {
-            mapFullName.put(account.getUID(), null);
-            boolean topLevel = false;
+        for (Account account : mAccountList) {
             if (account.getParentUID() == null && account.getAccountType() != AccountType.ROOT) {
                 account.setParentUID(mRootAccount.getUID());
-                topLevel = true;
-            }
-            if (topLevel || (mRootAccount.getUID().equals(account.getParentUID()))) {
-                if (account.getName().startsWith(imbalancePrefix)) {
-                    mapImbalanceAccount.put(account.getName().substring(imbalancePrefix.length()), account);
-                }
             }
         }
+    }
 
-        // Set the account for created balancing splits to correct imbalance accounts
-        for (Split split: mAutoBalanceSplits) {
-            // XXX: yes, getAccountUID() returns a currency code in this case (see Transaction.createAutoBalanceSplit())
-            String currencyCode = split.getAccountUID();
-            Account imbAccount = mapImbalanceAccount.get(currencyCode);
-            if (imbAccount == null) {
-                imbAccount = new Account(imbalancePrefix + currencyCode, mCommoditiesDbAdapter.getCommodity(currencyCode));
-                imbAccount.setParentUID(mRootAccount.getUID());
-                imbAccount.setAccountType(AccountType.BANK);
-                mapImbalanceAccount.put(currencyCode, imbAccount);
-                mAccountList.add(imbAccount);
+    /**
+     * Returns the commodity with a currency code
+     * @param currencyCode Currency code (mnemonic) of the commodity
+     * @return Commodity, or {@code null} if there is no such commodity
+     */
+    private Commodity getCommodity(String currencyCode) {
+        return mWriter.getCommodity(currencyCode);
+    }
+
+    /**
+     * Returns the GUID of the commodity with a currency code
+     * @param currencyCode Currency code (mnemonic) of the commodity
+     * @return GUID of the commodity
+     * @throws IllegalArgumentException if there is no such commodity
+     */
+    private String getCommodityUID(String currencyCode) {
+        Commodity commodity = getCommodity(currencyCode);
+        if (commodity == null)
+            throw new IllegalArgumentException("Currency code not found in commodities");
+        return commodity.getUID();
+    }
+
+    /**
+     * Returns the top level imbalance accounts which have been parsed
+     * @return Map of the imbalance accounts, indexed by currency code
+     */
+    private Map<String, Account> getImbalanceAccounts() {
+        String imbalancePrefix = AccountsDbAdapter.getImbalanceAccountPrefix();
+        Map<String, Account> mapImbalanceAccount = new HashMap<>();
+        for (Account account : mAccountMap.values()) {
+            if (mRootAccount.getUID().equals(account.getParentUID())
+                    && account.getName().startsWith(imbalancePrefix)) {
+                mapImbalanceAccount.put(account.getName().substring(imbalancePrefix.length()), account);
             }
-            split.setAccountUID(imbAccount.getUID());
         }
+        return mapImbalanceAccount;
+    }
+
+    /**
+     * Returns the top level imbalance account of a currency, creating it if there is none.
+     * <p>The imbalance accounts are looked up when the first one is needed, once the accounts have been parsed</p>
+     * @param currencyCode Currency code of the account
+     * @return Imbalance account
+     */
+    private Account getImbalanceAccount(String currencyCode) {
+        if (mImbalanceAccounts == null) {
+            resolveParentAccounts();
+            mImbalanceAccounts = getImbalanceAccounts();
+        }
+        Account imbAccount = mImbalanceAccounts.get(currencyCode);
+        if (imbAccount == null) {
+            imbAccount = createImbalanceAccount(currencyCode, mRootAccount.getUID(), BaseModel.generateUID());
+            mImbalanceAccounts.put(currencyCode, imbAccount);
+        }
+        return imbAccount;
+    }
+
+    /**
+     * Creates a top level imbalance account and adds it to the accounts to be saved
+     * @param currencyCode Currency code of the account
+     * @param rootAccountUID GUID of the ROOT account
+     * @param accountUID GUID of the new account
+     * @return New imbalance account
+     */
+    private Account createImbalanceAccount(String currencyCode, String rootAccountUID, String accountUID) {
+        Account imbAccount = new Account(AccountsDbAdapter.getImbalanceAccountPrefix() + currencyCode,
+                getCommodity(currencyCode));
+        imbAccount.setUID(accountUID);
+        imbAccount.setParentUID(rootAccountUID);
+        imbAccount.setAccountType(AccountType.BANK);
+        mAccountList.add(imbAccount);
+        mAccountMap.put(accountUID, imbAccount);
+        mCreatedImbalanceAccountUIDs.put(currencyCode, accountUID);
+        return imbAccount;
+    }
 
+    /**
+     * Sets the full names of the parsed accounts from the account hierarchy
+     */
+    private void updateAccountFullNames() {
+        HashMap<String, String> mapFullName = new HashMap<>(mAccountList.size());
         java.util.Stack<Account> stack = new Stack<>();
         for (Account account:mAccountList){
             if (mapFullName.get(account.getUID()) != null) {
@@ -958,72 +1600,165 @@ public class GncXmlHandler extends DefaultHandler {
         for (Account account:mAccountList){
             account.setFullName(mapFullName.get(account.getUID()));
         }
+    }
 
-        String mostAppearedCurrency = "";
-        int mostCurrencyAppearance = 0;
-        for (Map.Entry<String, Integer> entry : mCurrencyCount.entrySet()) {
-            if (entry.getValue() > mostCurrencyAppearance) {
-                mostCurrencyAppearance = entry.getValue();
-                mostAppearedCurrency = entry.getKey();
+    /**
+     * Returns {@code true} if the records are merged into an existing book
+     */
+    private boolean isMerging() {
+        return mMerging;
+    }
+
+    /**
+     * Returns {@code true} if the records are saved in batches while parsing
+     */
+    private boolean isStreaming() {
+        return mBatchSize > 0;
+    }
+
+    /**
+     * Returns {@code true} if the records are committed in chunks, so that the import can be resumed
+     */
+    private boolean isCheckpointed() {
+        return mSourceUri != null;
+    }
+
+    /**
+     * Checks that the file is the one whose import is resumed, before the first element which would be skipped.
+     * <p>If it is not, e.g. because a new backup was written to the same path, the records committed by the
+     * interrupted import are deleted when saving starts and the whole file is imported</p>
+     */
+    private void checkResumedSource() {
+        if (mResumedCheckpoint == null || mResumedSourceChecked)
+            return;
+        mResumedSourceChecked = true;
+        String fingerprint = ImportCheckpoint.fingerprint(mSourceBookUID, mSourceSize);
+        if (fingerprint.equals(mResumedCheckpoint.getSourceFingerprint())) {
+            // the imbalance accounts created before the interruption are saved, but they are not in the file
+            for (Map.Entry<String, String> entry : mResumedCheckpoint.getImbalanceAccountUIDs().entrySet()) {
+                createImbalanceAccount(entry.getKey(), mResumedCheckpoint.getRootAccountUID(), entry.getValue());
             }
+            return;
         }
-        if (mostCurrencyAppearance > 0) {
-            GnuCashApplication.setDefaultCurrencyCode(mostAppearedCurrency);
-        }
+        Log.w(LOG_TAG, "The file was replaced since its import was interrupted, importing it from the start");
+        mResumedCheckpoint = null;
+        mWriter.discardResumedCheckpoint();
+        mSavedAccountCount = 0;
+        mSavedTransactionCount = 0;
+        mSavedSplitCount = 0;
+        mSplitElementCount = 0;
+    }
 
-        saveToDatabase();
+    /**
+     * Returns the number of transaction elements which are skipped because they were saved before an interruption
+     */
+    private long getSkippedTransactionElements() {
+        return mResumedCheckpoint == null ? 0 : mResumedCheckpoint.getTransactionElements();
     }
 
     /**
-     * Saves the imported data to the database
-     * @return GUID of the newly created book, or null if not successful
+     * Returns the number of price elements which are skipped because they were saved before an interruption
      */
-    private void saveToDatabase() {
-        BooksDbAdapter booksDbAdapter = BooksDbAdapter.getInstance();
-        mBook.setRootAccountUID(mRootAccount.getUID());
-        mBook.setDisplayName(booksDbAdapter.generateDefaultBookName());
-        //we on purpose do not set the book active. Only import. Caller should handle activation
-        
-        long startTime = System.nanoTime();
-        mAccountsDbAdapter.beginTransaction();
-        Log.d(getClass().getSimpleName(), "bulk insert starts");
-        try {
-            // disable foreign key. The database structure should be ensured by the data inserted.
-            // it will make insertion much faster.
-            mAccountsDbAdapter.enableForeignKey(false);
-            Log.d(getClass().getSimpleName(), "before clean up db");
-            mAccountsDbAdapter.deleteAllRecords();
-            Log.d(getClass().getSimpleName(), String.format("deb clean up done %d ns", System.nanoTime()-startTime));
-            long nAccounts = mAccountsDbAdapter.bulkAddRecords(mAccountList, DatabaseAdapter.UpdateMethod.insert);
-            Log.d("Handler:", String.format("%d accounts inserted", nAccounts));
-            //We need to add scheduled actions first because there is a foreign key constraint on transactions
-            //which are generated from scheduled actions (we do auto-create some transactions during import)
-            long nSchedActions = mScheduledActionsDbAdapter.bulkAddRecords(mScheduledActionsList, DatabaseAdapter.UpdateMethod.insert);
-            Log.d("Handler:", String.format("%d scheduled actions inserted", nSchedActions));
-
-            long nTempTransactions = mTransactionsDbAdapter.bulkAddRecords(mTemplateTransactions, DatabaseAdapter.UpdateMethod.insert);
-            Log.d("Handler:", String.format("%d template transactions inserted", nTempTransactions));
-
-            long nTransactions = mTransactionsDbAdapter.bulkAddRecords(mTransactionList, DatabaseAdapter.UpdateMethod.insert);
-            Log.d("Handler:", String.format("%d transactions inserted", nTransactions));
-
-            long nPrices = mPricesDbAdapter.bulkAddRecords(mPriceList, DatabaseAdapter.UpdateMethod.insert);
-            Log.d(getClass().getSimpleName(), String.format("%d prices inserted", nPrices));
-
-            //// TODO: 01.06.2016 Re-enable import of Budget stuff when the UI is complete
-//            long nBudgets = mBudgetsDbAdapter.bulkAddRecords(mBudgetList, DatabaseAdapter.UpdateMethod.insert);
-//            Log.d(getClass().getSimpleName(), String.format("%d budgets inserted", nBudgets));
-
-            long endTime = System.nanoTime();
-            Log.d(getClass().getSimpleName(), String.format("bulk insert time: %d", endTime - startTime));
-
-            //if all of the import went smoothly, then add the book to the book db
-            booksDbAdapter.addRecord(mBook, DatabaseAdapter.UpdateMethod.insert);
-            mAccountsDbAdapter.setTransactionSuccessful();
-        } finally {
-            mAccountsDbAdapter.enableForeignKey(true);
-            mAccountsDbAdapter.endTransaction();
-            mainDb.close(); //close it after import
+    private long getSkippedPriceElements() {
+        return mResumedCheckpoint == null ? 0 : mResumedCheckpoint.getPriceElements();
+    }
+
+    /**
+     * Rolls back the records saved by an import which could not be completed, and closes the database.
+     * <p>This should be called if parsing the XML fails. It has no effect once the import is complete.
+     * The records of a checkpointed import which have been committed are kept for resuming it.</p>
+     */
+    public void abort() {
+        mWriter.abort(!mDiscardCheckpoint);
+    }
+
+    /**
+     * Returns the accounts which have not been submitted for saving yet, and marks them as submitted
+     * @return Accounts to be saved
+     */
+    private List<Account> takeUnsavedAccounts() {
+        // when resuming, the saved accounts are counted before they are parsed again
+        if (mSavedAccountCount >= mAccountList.size())
+            return Collections.emptyList();
+        resolveParentAccounts();
+        List<Account> accounts = new ArrayList<>(mAccountList.subList(mSavedAccountCount, mAccountList.size()));
+        mSavedAccountCount = mAccountList.size();
+        return accounts;
+    }
+
+    /**
+     * Submits the parsed transactions for saving and releases them.
+     * <p>The accounts parsed so far are saved first</p>
+     */
+    private void saveTransactionBatch() throws SAXException {
+        if (mTransactionList.isEmpty())
+            return;
+        List<Account> accounts = takeUnsavedAccounts();
+        List<Transaction> transactions = mTransactionList;
+        mTransactionList = new ArrayList<>(mBatchSize);
+        countSubmittedTransactions(transactions);
+        mWriter.saveBatch(accounts, transactions, Collections.<Price>emptyList());
+    }
+
+    /**
+     * Submits the parsed prices for saving and releases them
+     */
+    private void savePriceBatch() throws SAXException {
+        if (mPriceList.isEmpty())
+            return;
+        List<Price> prices = mPriceList;
+        mPriceList = new ArrayList<>(mBatchSize);
+        mWriter.saveBatch(Collections.<Account>emptyList(), Collections.<Transaction>emptyList(), prices);
+    }
+
+    /**
+     * Commits the records parsed so far with a checkpoint, if enough batches have been saved since the last one.
+     * <p>The pending transactions and prices are saved first, so that the checkpoint covers all the elements parsed.
+     * Nothing is committed once scheduled actions have been parsed: the transactions generated from them would be
+     * generated again when resuming, and the scheduled actions are saved only at the end of the document.</p>
+     */
+    private void checkpointIfDue() throws SAXException {
+        if (!isCheckpointed() || ++mBatchesSinceCheckpoint < mCheckpointInterval || !mScheduledActionsList.isEmpty())
+            return;
+        mBatchesSinceCheckpoint = 0;
+        saveTransactionBatch();
+        savePriceBatch();
+
+        List<Account> accounts = takeUnsavedAccounts();
+        String rootAccountUID = mRootAccount == null ? null : mRootAccount.getUID();
+        mWriter.checkpoint(accounts, new ImportCheckpoint(mSourceUri,
+                ImportCheckpoint.fingerprint(mSourceBookUID, mSourceSize), mTransactionElementCount,
+                mSplitElementCount, mPriceElementCount, mSavedAccountCount, mSavedTransactionCount, mSavedSplitCount,
+                rootAccountUID, new HashMap<>(mCreatedImbalanceAccountUIDs)));
+    }
+
+    /**
+     * Counts the transactions which are submitted for saving, and their splits.
+     * The transactions without splits are not counted, since they are not kept
+     * @param transactions Transactions submitted for saving
+     */
+    private void countSubmittedTransactions(List<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            int nSplits = transaction.getSplits().size();
+            if (nSplits > 0) {
+                mSavedTransactionCount++;
+                mSavedSplitCount += nSplits;
+            }
+        }
+    }
+
+    /**
+     * Keeps track of an auto-balance split, whose account will be set to the imbalance account of its currency
+     * <p>Until then, the GUID of the account of the split is the currency code. In streaming mode the split is saved
+     * with the next batch, so its imbalance account is looked up, or created, right away.
+     * Otherwise this is done at the end of the document.</p>
+     * @param split Auto-balance split
+     */
+    private void addAutoBalanceSplit(Split split) {
+        if (isStreaming()) {
+            split.setAccountUID(getImbalanceAccount(split.getAccountUID()).getUID());
+        } else {
+            mAutoBalanceSplits.add(split);
         }
     }
 
@@ -1032,7 +1767,7 @@ public class GncXmlHandler extends DefaultHandler {
      * @return GUID of the newly imported book
      */
     public @NonNull String getBookUID(){
-        return mBook.getUID();
+        return mWriter.getBook().getUID();
     }
 
     /**
@@ -1110,9 +1845,11 @@ public class GncXmlHandler extends DefaultHandler {
                     transaction.setScheduledActionUID(scheduledAction.getUID());
                     mTransactionList.add(transaction);
                     //autobalance splits are generated with the currency of the transactions as the GUID
-                    //so we add them to the mAutoBalanceSplits which will be updated to real GUIDs before saving
+                    //so we keep track of them, their accounts will be set to the real GUIDs at the end
                     List<Split> autoBalanceSplits = transaction.getSplits(transaction.getCurrencyCode());
-                    mAutoBalanceSplits.addAll(autoBalanceSplits);
+                    for (Split split : autoBalanceSplits) {
+                        addAutoBalanceSplit(split);
+                    }
                     scheduledAction.setExecutionCount(scheduledAction.getExecutionCount() + 1);
                     ++generatedTransactionCount;
                     break;
@@ -16,6 +16,7 @@
  */
 package org.gnucash.android.importer;
 
+import android.support.annotation.NonNull;
 import android.util.Log;
 
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
@@ -47,6 +48,73 @@ public class GncXmlImporter {
      * @return GUID of the book into which the XML was imported
      */
     public static String parse(InputStream gncXmlInputStream) throws ParserConfigurationException, SAXException, IOException {
+        return parse(gncXmlInputStream, true);
+    }
+
+    /**
+     * Parse GnuCash XML input and populates the database
+     * @param gncXmlInputStream InputStream source of the GnuCash XML file
+     * @param generateMissedTransactions {@code false} to not generate the runs of the scheduled actions which
+     *                                   have been missed since the file was saved
+     * @return GUID of the book into which the XML was imported
+     */
+    public static String parse(InputStream gncXmlInputStream, boolean generateMissedTransactions)
+            throws ParserConfigurationException, SAXException, IOException {
+        //inflating and parsing the file overlaps with saving the records, on a separate thread
+        GncXmlHandler handler = new GncXmlHandler(GncXmlHandler.DEFAULT_BATCH_SIZE, true);
+        handler.setGenerateMissedTransactions(generateMissedTransactions);
+        return importBook(gncXmlInputStream, handler);
+    }
+
+    /**
+     * Parse GnuCash XML input and populates the database, resuming an interrupted import of the same source.
+     * <p>The records are committed in chunks while the file is parsed. If the import fails or the process is killed,
+     * the records committed so far are kept, and importing the same source again continues from there.</p>
+     * @param gncXmlInputStream InputStream source of the GnuCash XML file, read from the start
+     * @param sourceUri URI of the file, identifying the import to resume
+     * @param sourceSize Size of the file in bytes, or -1 if it is not known
+     * @return GUID of the book into which the XML was imported
+     * @see GncXmlHandler#GncXmlHandler(int, boolean, String, long)
+     */
+    public static String parse(InputStream gncXmlInputStream, @NonNull String sourceUri, long sourceSize)
+            throws ParserConfigurationException, SAXException, IOException {
+        return importBook(gncXmlInputStream,
+                new GncXmlHandler(GncXmlHandler.DEFAULT_BATCH_SIZE, true, sourceUri, sourceSize));
+    }
+
+    /**
+     * Imports a new book with a handler and sets its last export time
+     * @return GUID of the imported book
+     */
+    private static String importBook(InputStream gncXmlInputStream, GncXmlHandler handler)
+            throws ParserConfigurationException, SAXException, IOException {
+        String bookUID = parse(gncXmlInputStream, handler);
+        PreferencesHelper.setLastExportTime(
+                TransactionsDbAdapter.getInstance().getTimestampOfLastModification(),
+                bookUID
+        );
+
+        return bookUID;
+    }
+
+    /**
+     * Merges an incremental backup into an existing book
+     * <p>The book should not be the active one</p>
+     * @param gncXmlInputStream InputStream source of the incremental backup
+     * @param bookUID GUID of the book
+     * @see GncXmlHandler#GncXmlHandler(String)
+     */
+    public static void merge(InputStream gncXmlInputStream, String bookUID)
+            throws ParserConfigurationException, SAXException, IOException {
+        parse(gncXmlInputStream, new GncXmlHandler(bookUID));
+    }
+
+    /**
+     * Parses plain or gzipped GnuCash XML with a handler
+     * @return GUID of the book of the handler
+     */
+    private static String parse(InputStream gncXmlInputStream, GncXmlHandler handler)
+            throws ParserConfigurationException, SAXException, IOException {
         SAXParserFactory spf = SAXParserFactory.newInstance();
         SAXParser sp = spf.newSAXParser();
         XMLReader xr = sp.getXMLReader();
@@ -63,19 +131,19 @@ public class GncXmlImporter {
 
         //TODO: Set an error handler which can log errors
         Log.d(GncXmlImporter.class.getSimpleName(), "Start import");
-        GncXmlHandler handler = new GncXmlHandler();
         xr.setContentHandler(handler);
         long startTime = System.nanoTime();
-        xr.parse(new InputSource(bos));
+        boolean imported = false;
+        try {
+            xr.parse(new InputSource(bos));
+            imported = true;
+        } finally {
+            if (!imported)
+                handler.abort(); //roll back the transactions saved since the start or the last checkpoint
+        }
         long endTime = System.nanoTime();
         Log.d(GncXmlImporter.class.getSimpleName(), String.format("%d ns spent on importing the file", endTime-startTime));
 
-        String bookUID = handler.getBookUID();
-        PreferencesHelper.setLastExportTime(
-                TransactionsDbAdapter.getInstance().getTimestampOfLastModification(),
-                bookUID
-        );
-
-        return bookUID;
+        return handler.getBookUID();
     }
 }
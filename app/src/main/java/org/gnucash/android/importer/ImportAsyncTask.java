@@ -34,8 +34,10 @@ import org.gnucash.android.R;
 import org.gnucash.android.db.DatabaseSchema;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
 import org.gnucash.android.ui.util.TaskDelegate;
+import org.gnucash.android.util.BackupManager;
 import org.gnucash.android.util.BookUtils;
 
+import java.io.File;
 import java.io.InputStream;
 
 /**
@@ -77,8 +79,13 @@ public class ImportAsyncTask extends AsyncTask<Uri, Void, Boolean> {
     @Override
     protected Boolean doInBackground(Uri... uris) {
         try {
-            InputStream accountInputStream = mContext.getContentResolver().openInputStream(uris[0]);
-            mImportedBookUID = GncXmlImporter.parse(accountInputStream);
+            if (BackupManager.isIncrementalBackup(uris[0])) {
+                mImportedBookUID = BackupManager.restoreIncrementalBackup(new File(uris[0].getPath()));
+            } else {
+                InputStream accountInputStream = mContext.getContentResolver().openInputStream(uris[0]);
+                // a large import which is interrupted is resumed when the same file is imported again
+                mImportedBookUID = GncXmlImporter.parse(accountInputStream, uris[0].toString(), getSize(uris[0]));
+            }
 
         } catch (Exception exception){
             Log.e(ImportAsyncTask.class.getName(), "" + exception.getMessage());
@@ -121,6 +128,20 @@ public class ImportAsyncTask extends AsyncTask<Uri, Void, Boolean> {
         return true;
     }
 
+    /**
+     * Returns the size in bytes of the file at {@code uri}, or -1 if the provider does not know it
+     */
+    private long getSize(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, new String[]{OpenableColumns.SIZE}, null, null, null);
+        if (cursor == null)
+            return -1;
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     protected void onPostExecute(Boolean importSuccess) {
         try {
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.ImportCheckpointEntry;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Progress of an import into a new book, committed to the book database together with each chunk of records.
+ * <p>If the import is interrupted, e.g. because the process was killed in the background, importing the same
+ * source again resumes it: the records committed up to the checkpoint are kept, and the elements of the file
+ * from which they were parsed are skipped.</p>
+ * <p>The progress is a number of elements rather than a position in the file. A gzipped file cannot be read
+ * from the middle, and the parser needs the enclosing elements anyway, so the file is read again from the start.
+ * Only the elements after the checkpoint are converted into records and saved.</p>
+ * <p>The URI alone does not identify the file: a new backup can be written to the same path. The checkpoint
+ * also holds a fingerprint of the file, made of the GUID of its book and its size, and the import is only
+ * resumed if the file imported again has the same fingerprint.</p>
+ * <p>The book being imported is not in the books database until the import is complete, so it is registered
+ * in the preferences of the application. Only the last import can be resumed: starting to import another
+ * source discards it.</p>
+ */
+final class ImportCheckpoint {
+
+    private static final String LOG_TAG = "ImportCheckpoint";
+
+    /**
+     * Preference key of the source of the import in progress
+     */
+    static final String PREFERENCE_PENDING_IMPORT_URI_KEY = "pending_import_uri";
+
+    /**
+     * Preference key of the GUID of the book of the import in progress
+     */
+    static final String PREFERENCE_PENDING_IMPORT_BOOK_KEY = "pending_import_book_uid";
+
+    private final String mSourceUri;
+    private final String mSourceFingerprint;
+    private final long mTransactionElements;
+    private final long mSplitElements;
+    private final long mPriceElements;
+    private final int mSavedAccounts;
+    private final long mSavedTransactions;
+    private final long mSavedSplits;
+    private final String mRootAccountUID;
+    private final Map<String, String> mImbalanceAccountUIDs;
+
+    /**
+     * Creates a checkpoint
+     * @param sourceUri URI of the imported file
+     * @param sourceFingerprint Fingerprint of the imported file, see {@link #fingerprint(String, long)}
+     * @param transactionElements Number of transaction elements of the file, not counting the template transactions
+     * @param splitElements Number of split elements of these transactions
+     * @param priceElements Number of price elements of the file
+     * @param savedAccounts Number of parsed accounts which have been saved
+     * @param savedTransactions Number of transactions which have been saved, with at least one split
+     * @param savedSplits Number of splits which have been saved
+     * @param rootAccountUID GUID of the ROOT account of the book, or {@code null} if it is not known yet
+     * @param imbalanceAccountUIDs GUIDs of the imbalance accounts created by the import, indexed by currency code
+     */
+    ImportCheckpoint(@NonNull String sourceUri, @Nullable String sourceFingerprint,
+                     long transactionElements, long splitElements, long priceElements,
+                     int savedAccounts, long savedTransactions, long savedSplits,
+                     @Nullable String rootAccountUID, @NonNull Map<String, String> imbalanceAccountUIDs) {
+        mSourceUri = sourceUri;
+        mSourceFingerprint = sourceFingerprint;
+        mTransactionElements = transactionElements;
+        mSplitElements = splitElements;
+        mPriceElements = priceElements;
+        mSavedAccounts = savedAccounts;
+        mSavedTransactions = savedTransactions;
+        mSavedSplits = savedSplits;
+        mRootAccountUID = rootAccountUID;
+        mImbalanceAccountUIDs = imbalanceAccountUIDs;
+    }
+
+    /**
+     * Returns the fingerprint of the file from which the records up to the checkpoint were parsed
+     * @return Fingerprint, or {@code null} if the checkpoint was saved without one
+     */
+    @Nullable
+    String getSourceFingerprint() {
+        return mSourceFingerprint;
+    }
+
+    long getTransactionElements() {
+        return mTransactionElements;
+    }
+
+    long getSplitElements() {
+        return mSplitElements;
+    }
+
+    long getPriceElements() {
+        return mPriceElements;
+    }
+
+    int getSavedAccounts() {
+        return mSavedAccounts;
+    }
+
+    long getSavedTransactions() {
+        return mSavedTransactions;
+    }
+
+    long getSavedSplits() {
+        return mSavedSplits;
+    }
+
+    @Nullable
+    String getRootAccountUID() {
+        return mRootAccountUID;
+    }
+
+    @NonNull
+    Map<String, String> getImbalanceAccountUIDs() {
+        return mImbalanceAccountUIDs;
+    }
+
+    /**
+     * Returns the fingerprint of an imported file
+     * @param bookUID GUID of the book of the file, from its {@code book:id} element, or {@code null} if it has none
+     * @param sourceSize Size of the file in bytes, or -1 if it is not known
+     * @return Fingerprint to be compared with the one of a checkpoint
+     */
+    @NonNull
+    static String fingerprint(@Nullable String bookUID, long sourceSize) {
+        return bookUID + "/" + sourceSize;
+    }
+
+    /**
+     * Replaces the checkpoint in a book database.
+     * <p>This should be done in the database transaction which saves the records up to the checkpoint</p>
+     * @param db Database of the book being imported
+     */
+    void save(@NonNull SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        values.put(ImportCheckpointEntry.COLUMN_SOURCE_URI, mSourceUri);
+        values.put(ImportCheckpointEntry.COLUMN_SOURCE_FINGERPRINT, mSourceFingerprint);
+        values.put(ImportCheckpointEntry.COLUMN_TRANSACTION_ELEMENTS, mTransactionElements);
+        values.put(ImportCheckpointEntry.COLUMN_SPLIT_ELEMENTS, mSplitElements);
+        values.put(ImportCheckpointEntry.COLUMN_PRICE_ELEMENTS, mPriceElements);
+        values.put(ImportCheckpointEntry.COLUMN_SAVED_ACCOUNTS, mSavedAccounts);
+        values.put(ImportCheckpointEntry.COLUMN_SAVED_TRANSACTIONS, mSavedTransactions);
+        values.put(ImportCheckpointEntry.COLUMN_SAVED_SPLITS, mSavedSplits);
+        values.put(ImportCheckpointEntry.COLUMN_ROOT_ACCOUNT_UID, mRootAccountUID);
+        List<String> imbalanceAccounts = new ArrayList<>(mImbalanceAccountUIDs.size());
+        for (Map.Entry<String, String> entry : mImbalanceAccountUIDs.entrySet()) {
+            imbalanceAccounts.add(entry.getKey() + "=" + entry.getValue());
+        }
+        values.put(ImportCheckpointEntry.COLUMN_IMBALANCE_ACCOUNTS, TextUtils.join(",", imbalanceAccounts));
+        db.delete(ImportCheckpointEntry.TABLE_NAME, null, null);
+        db.insertOrThrow(ImportCheckpointEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Loads the checkpoint of an import from a book database
+     * @param db Database of the book being imported
+     * @param sourceUri URI of the imported file
+     * @return Checkpoint, or {@code null} if no records of the file have been committed
+     */
+    @Nullable
+    static ImportCheckpoint load(@NonNull SQLiteDatabase db, @NonNull String sourceUri) {
+        Cursor cursor = db.query(ImportCheckpointEntry.TABLE_NAME, null,
+                ImportCheckpointEntry.COLUMN_SOURCE_URI + " = ?", new String[]{sourceUri},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst())
+                return null;
+            String imbalanceAccounts = cursor.getString(cursor.getColumnIndexOrThrow(ImportCheckpointEntry.COLUMN_IMBALANCE_ACCOUNTS));
+            Map<String, String> imbalanceAccountUIDs = new HashMap<>();
+            if (!TextUtils.isEmpty(imbalanceAccounts)) {
+                for (String imbalanceAccount : TextUtils.split(imbalanceAccounts, ",")) {
+                    String[] currencyAndUID = TextUtils.split(imbalanceAccount, "=");
+                    imbalanceAccountUIDs.put(currencyAndUID[0], currencyAndUID[1]);
+                }
+            }
+            return new ImportCheckpoint(sourceUri,
+                    cursor.getString(cursor.getColumnIndexOrThrow(ImportCheckpointEntry.COLUMN_SOURCE_FINGERPRINT)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ImportCheckpointEntry.COLUMN_TRANSACTION_ELEMENTS)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ImportCheckpointEntry.COLUMN_SPLIT_ELEMENTS)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ImportCheckpointEntry.COLUMN_PRICE_ELEMENTS)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(ImportCheckpointEntry.COLUMN_SAVED_ACCOUNTS)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ImportCheckpointEntry.COLUMN_SAVED_TRANSACTIONS)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ImportCheckpointEntry.COLUMN_SAVED_SPLITS)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(ImportCheckpointEntry.COLUMN_ROOT_ACCOUNT_UID)),
+                    imbalanceAccountUIDs);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Deletes the checkpoint from a book database, once the import is complete
+     * @param db Database of the imported book
+     */
+    static void delete(@NonNull SQLiteDatabase db) {
+        db.delete(ImportCheckpointEntry.TABLE_NAME, null, null);
+    }
+
+    /**
+     * Returns the book of an import of a source which has been interrupted.
+     * <p>An interrupted import of another source is discarded</p>
+     * @param sourceUri URI of the imported file
+     * @return GUID of the book into which the source was being imported, or {@code null} if there is none
+     */
+    @Nullable
+    static String findPendingImport(@NonNull String sourceUri) {
+        SharedPreferences preferences = getPreferences();
+        String pendingUri = preferences.getString(PREFERENCE_PENDING_IMPORT_URI_KEY, null);
+        String bookUID = preferences.getString(PREFERENCE_PENDING_IMPORT_BOOK_KEY, null);
+        if (pendingUri == null || bookUID == null)
+            return null;
+        if (BooksDbAdapter.getInstance().hasRecord(bookUID)) {
+            // the import was complete, only the registration was left
+            clearPendingImport();
+            return null;
+        }
+        if (pendingUri.equals(sourceUri)
+                && GnuCashApplication.getAppContext().getDatabasePath(bookUID).exists()) {
+            Log.i(LOG_TAG, "Resuming the import of " + sourceUri + " into book " + bookUID);
+            return bookUID;
+        }
+        discardPendingImport();
+        return null;
+    }
+
+    /**
+     * Registers the import of a source into a new book, so that it can be resumed if it is interrupted
+     * @param sourceUri URI of the imported file
+     * @param bookUID GUID of the book
+     */
+    static void registerPendingImport(@NonNull String sourceUri, @NonNull String bookUID) {
+        // committed right away, the book database is written right after
+        getPreferences().edit()
+                .putString(PREFERENCE_PENDING_IMPORT_URI_KEY, sourceUri)
+                .putString(PREFERENCE_PENDING_IMPORT_BOOK_KEY, bookUID)
+                .commit();
+    }
+
+    /**
+     * Unregisters the import in progress, once it is complete
+     */
+    static void clearPendingImport() {
+        getPreferences().edit()
+                .remove(PREFERENCE_PENDING_IMPORT_URI_KEY)
+                .remove(PREFERENCE_PENDING_IMPORT_BOOK_KEY)
+                .commit();
+    }
+
+    /**
+     * Deletes the database of the import in progress and unregisters it, so that the next import starts from scratch.
+     * <p>The database should be closed</p>
+     */
+    static void discardPendingImport() {
+        String bookUID = getPreferences().getString(PREFERENCE_PENDING_IMPORT_BOOK_KEY, null);
+        clearPendingImport();
+        if (bookUID != null && !BooksDbAdapter.getInstance().hasRecord(bookUID)) {
+            Log.i(LOG_TAG, "Discarding the interrupted import into book " + bookUID);
+            GnuCashApplication.getAppContext().deleteDatabase(bookUID);
+        }
+    }
+
+    private static SharedPreferences getPreferences() {
+        Context context = GnuCashApplication.getAppContext();
+        return PreferenceManager.getDefaultSharedPreferences(context);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import android.util.Log;
+
+import com.crashlytics.android.Crashlytics;
+
+import org.xml.sax.SAXException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Saves the records of an import on a dedicated writer thread, while the parsing thread goes on
+ * inflating and parsing the XML.
+ * <p>The parsing thread submits the batches of parsed records as tasks, which the writer thread runs one
+ * after the other. The queue of pending batches is bounded, so the parser blocks when the writer falls
+ * behind and at most a few batches are held in memory at a time.</p>
+ * <p>SQLite transactions are bound to the thread which started them, so all the database work of the
+ * import, including beginning and ending the transaction, must be done in submitted tasks.
+ * The parsing thread must not access the database being imported at all: it would block until the
+ * transaction held by the writer thread is complete.</p>
+ * <p>When the pipeline is finished, the time spent parsing, inserting and waiting on each other is logged.
+ * If the stages are balanced, the import takes about as long as the slower of them.</p>
+ */
+class ImportPipeline {
+
+    private static final String LOG_TAG = "ImportPipeline";
+
+    /**
+     * Default number of batches which can wait to be saved
+     */
+    static final int DEFAULT_CAPACITY = 4;
+
+    /**
+     * Marks the end of the submitted tasks
+     */
+    private static final Runnable END_OF_TASKS = new Runnable() {
+        @Override
+        public void run() {
+            //nothing to do
+        }
+    };
+
+    private final BlockingQueue<Runnable> mTasks;
+
+    /**
+     * Task which is always run last on the writer thread, even if a task failed
+     */
+    private final Runnable mCleanup;
+
+    private final Thread mWriterThread;
+
+    private final long mStartTime;
+
+    /**
+     * Failure of a task. Once a task has failed, the remaining tasks are discarded
+     */
+    private volatile Throwable mFailure;
+
+    /**
+     * Whether the remaining tasks should be discarded because the import is aborted
+     */
+    private volatile boolean mCancelled;
+
+    private boolean mFinished;
+
+    /**
+     * Time the parsing thread spent blocked because the queue was full. Only accessed by the parsing thread
+     */
+    private long mParserWaitTime;
+
+    /**
+     * Time the writer thread spent running tasks and waiting for them.
+     * Only accessed by the writer thread until it is joined
+     */
+    private long mWriterBusyTime;
+    private long mWriterWaitTime;
+    private int mTaskCount;
+
+    /**
+     * Creates a pipeline and starts its writer thread
+     * @param capacity Maximum number of tasks which can wait to be run
+     * @param cleanup Task which is run last on the writer thread, even if the import fails.
+     *                It should end the database transaction if it is still open.
+     */
+    ImportPipeline(int capacity, Runnable cleanup) {
+        mTasks = new ArrayBlockingQueue<>(capacity);
+        mCleanup = cleanup;
+        mStartTime = System.nanoTime();
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runTasks();
+            }
+        }, "GncXmlImportWriter");
+        mWriterThread.start();
+    }
+
+    /**
+     * Queues a task to be run on the writer thread, waiting while the queue is full
+     * @param task Task which saves a batch of records
+     * @throws SAXException if a previously submitted task failed, or the parsing thread was interrupted
+     */
+    void submit(Runnable task) throws SAXException {
+        throwIfFailed();
+        long startTime = System.nanoTime();
+        try {
+            mTasks.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SAXException("Import interrupted while waiting for the database", e);
+        } finally {
+            mParserWaitTime += System.nanoTime() - startTime;
+        }
+    }
+
+    /**
+     * Waits until all the submitted tasks and the cleanup have run, and logs the timing of the stages
+     * @throws SAXException if one of the tasks failed
+     */
+    void finish() throws SAXException {
+        if (mFinished) {
+            throwIfFailed();
+            return;
+        }
+        long parseEndTime = System.nanoTime();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mTasks.put(END_OF_TASKS);
+                mWriterThread.join();
+                break;
+            } catch (InterruptedException e) {
+                // the writer thread holds the database transaction, so it must be waited for in any case
+                interrupted = true;
+            }
+        }
+        mFinished = true;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        long endTime = System.nanoTime();
+        Log.d(LOG_TAG, String.format("Import stages: parsing %d ns, parser waiting for inserts %d ns, "
+                        + "inserting %d ns in %d batches, writer waiting for batches %d ns, total %d ns",
+                parseEndTime - mStartTime - mParserWaitTime, mParserWaitTime,
+                mWriterBusyTime, mTaskCount, mWriterWaitTime, endTime - mStartTime));
+        throwIfFailed();
+    }
+
+    /**
+     * Discards the tasks which have not been run yet, runs the cleanup and waits for the writer thread
+     */
+    void cancel() {
+        mCancelled = true;
+        mTasks.clear();
+        try {
+            finish();
+        } catch (SAXException e) {
+            Log.w(LOG_TAG, "Import failed before it was cancelled: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the submitted tasks until the end marker, then the cleanup
+     */
+    private void runTasks() {
+        try {
+            while (true) {
+                long waitStartTime = System.nanoTime();
+                Runnable task = mTasks.take();
+                long startTime = System.nanoTime();
+                mWriterWaitTime += startTime - waitStartTime;
+                if (task == END_OF_TASKS)
+                    break;
+                if (mFailure != null || mCancelled)
+                    continue; //keep draining the queue so the parsing thread never blocks
+                try {
+                    task.run();
+                    mTaskCount++;
+                } catch (Throwable e) {
+                    Log.e(LOG_TAG, "Saving imported records failed: " + e.getMessage());
+                    Crashlytics.logException(e);
+                    mFailure = e;
+                }
+                mWriterBusyTime += System.nanoTime() - startTime;
+            }
+        } catch (InterruptedException e) {
+            mFailure = e;
+        } finally {
+            try {
+                mCleanup.run();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Cleaning up after the import failed: " + e.getMessage());
+                Crashlytics.logException(e);
+                if (mFailure == null)
+                    mFailure = e;
+            }
+        }
+    }
+
+    private void throwIfFailed() throws SAXException {
+        Throwable failure = mFailure;
+        if (failure == null)
+            return;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        throw new SAXException("Saving imported records failed", (Exception) failure);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Book;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Price;
+import org.gnucash.android.model.ScheduledAction;
+import org.gnucash.android.model.Transaction;
+import org.xml.sax.SAXException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the records parsed by {@link GncXmlHandler} into a book.
+ * <p>The handler decides which records are saved when: in streaming mode it hands over batches of transactions
+ * and prices while parsing, and all the other records at the end of the document. The writer decides how they
+ * are saved:</p>
+ * <ul>
+ *     <li>{@link SingleTransactionImportWriter} saves them into a new book in a single database transaction</li>
+ *     <li>{@link CheckpointedImportWriter} commits them in chunks, each with a checkpoint to resume from</li>
+ *     <li>{@link MergeImportWriter} merges them into an existing book</li>
+ *     <li>{@link PipelinedImportWriter} does the work of another writer on a separate thread</li>
+ * </ul>
+ * <p>The batches, checkpoints and final records are passed in the order they were parsed, and are not modified
+ * by the handler once passed.</p>
+ */
+interface ImportWriter {
+
+    /**
+     * Returns the book into which the records are saved
+     */
+    @NonNull Book getBook();
+
+    /**
+     * Returns the commodity with a currency code.
+     * <p>This is called by the parsing thread, while the records may be saved on another thread</p>
+     * @param currencyCode Currency code (mnemonic) of the commodity
+     * @return Commodity, or {@code null} if there is no such commodity
+     */
+    @Nullable Commodity getCommodity(@NonNull String currencyCode);
+
+    /**
+     * Returns the accounts which the book already has, and which the parsed records may refer to
+     * @return Accounts, empty for a new book
+     */
+    @NonNull List<Account> getExistingAccounts();
+
+    /**
+     * Returns the checkpoint of the interrupted import which is resumed
+     * @return Checkpoint, or {@code null} if the import starts from scratch
+     */
+    @Nullable ImportCheckpoint getResumedCheckpoint();
+
+    /**
+     * Gives up resuming the interrupted import, e.g. because the file was replaced since.
+     * The records committed before the interruption are deleted when saving starts.
+     * <p>This must be called before the first batch is saved</p>
+     */
+    void discardResumedCheckpoint();
+
+    /**
+     * Saves a batch of records parsed while streaming
+     * @param accounts Accounts which have not been saved yet, they are saved first
+     * @param transactions Transactions of the batch
+     * @param prices Prices of the batch
+     * @throws SAXException if saving a previous batch failed
+     */
+    void saveBatch(@NonNull List<Account> accounts, @NonNull List<Transaction> transactions,
+                   @NonNull List<Price> prices) throws SAXException;
+
+    /**
+     * Commits the records saved so far with a checkpoint of the import, if the writer supports resuming
+     * @param accounts Accounts which have not been saved yet, they are saved first
+     * @param checkpoint Progress of the import up to the records saved so far
+     * @throws SAXException if saving a previous batch failed
+     */
+    void checkpoint(@NonNull List<Account> accounts, @NonNull ImportCheckpoint checkpoint) throws SAXException;
+
+    /**
+     * Saves the records which are left at the end of the document, and completes the import
+     * @param records Records left, and what is needed to complete the book
+     * @throws SAXException if saving failed
+     */
+    void finish(@NonNull FinalRecords records) throws SAXException;
+
+    /**
+     * Rolls back the records saved so far, unless the import is already complete.
+     * <p>The records committed with a checkpoint are kept, so that the import can be resumed</p>
+     * @param resumable {@code false} if resuming the import would fail again, so it should start from scratch
+     */
+    void abort(boolean resumable);
+
+    /**
+     * Records which are left at the end of the document, see {@link #finish(FinalRecords)}
+     */
+    final class FinalRecords {
+        /**
+         * Accounts which have not been saved yet, followed by the imbalance accounts which have been created
+         */
+        List<Account> mAccounts;
+        List<ScheduledAction> mScheduledActions;
+        List<Transaction> mTemplateTransactions;
+
+        /**
+         * Transactions and prices which have not been saved yet
+         */
+        List<Transaction> mTransactions;
+        List<Price> mPrices;
+
+        String mRootAccountUID;
+
+        /**
+         * Whether the full names of the accounts saved in batches have to be set in the database
+         */
+        boolean mUpdateAccountFullNames;
+
+        /**
+         * GUIDs of the records listed as deleted by an incremental backup, indexed by record type
+         */
+        Map<String, List<String>> mDeletedRecordUIDs;
+
+        /**
+         * Numbers of transactions with splits, and of splits, submitted for saving during the whole import,
+         * including those committed before an interruption
+         */
+        long mTransactionCount;
+        long mSplitCount;
+
+        /**
+         * Currency code used most often by the file, or {@code null} if none was found
+         */
+        String mDefaultCurrencyCode;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.DatabaseAdapter;
+import org.gnucash.android.export.xml.GncXmlHelper;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Price;
+import org.gnucash.android.model.ScheduledAction;
+import org.gnucash.android.model.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the records of an incremental backup into an existing book.
+ * <p>All records are saved in a single database transaction at the end of the document,
+ * so the records cannot be saved in batches.</p>
+ */
+class MergeImportWriter extends DatabaseImportWriter {
+
+    private static final String LOG_TAG = "ImportWriter";
+
+    /**
+     * Creates a writer into an existing book
+     * @param bookUID GUID of the book
+     */
+    MergeImportWriter(@NonNull String bookUID) {
+        super(BooksDbAdapter.getInstance().getRecord(bookUID));
+    }
+
+    @NonNull
+    @Override
+    public List<Account> getExistingAccounts() {
+        return mAccountsDbAdapter.getAllRecords();
+    }
+
+    @Override
+    public void saveBatch(@NonNull List<Account> accounts, @NonNull List<Transaction> transactions,
+                          @NonNull List<Price> prices) {
+        throw new UnsupportedOperationException("The records are merged at the end of the document");
+    }
+
+    @Override
+    public void checkpoint(@NonNull List<Account> accounts, @NonNull ImportCheckpoint checkpoint) {
+        throw new UnsupportedOperationException("A merge cannot be resumed");
+    }
+
+    /**
+     * Merges the records of an incremental backup into the existing book
+     * <p>The records are added or replaced with the foreign keys enabled, so that replacing a transaction also
+     * deletes the splits which have been removed from it. Accounts and scheduled actions are updated instead of
+     * being replaced, because replacing them would delete their splits or detach their transactions.</p>
+     * <p>The records listed as deleted are then deleted.</p>
+     */
+    @Override
+    public void finish(@NonNull FinalRecords records) {
+        long startTime = System.nanoTime();
+        mAccountsDbAdapter.beginTransaction();
+        try {
+            List<Account> newAccounts = new ArrayList<>();
+            List<Account> existingAccounts = new ArrayList<>();
+            for (Account account : records.mAccounts) {
+                if (mAccountsDbAdapter.hasRecord(account.getUID()))
+                    existingAccounts.add(account);
+                else
+                    newAccounts.add(account);
+            }
+            mAccountsDbAdapter.bulkAddRecords(newAccounts, DatabaseAdapter.UpdateMethod.insert);
+            mAccountsDbAdapter.bulkAddRecords(existingAccounts, DatabaseAdapter.UpdateMethod.update);
+            Log.d(LOG_TAG, String.format("%d accounts added, %d updated", newAccounts.size(), existingAccounts.size()));
+
+            for (ScheduledAction scheduledAction : records.mScheduledActions) {
+                String scheduledActionUID = scheduledAction.getUID();
+                if (mScheduledActionsDbAdapter.hasRecord(scheduledActionUID)) {
+                    // the parsed recurrence has a new GUID, keep the one of the existing scheduled action
+                    scheduledAction.getRecurrence().setUID(mScheduledActionsDbAdapter.getAttribute(
+                            scheduledActionUID, ScheduledActionEntry.COLUMN_RECURRENCE_UID));
+                    mScheduledActionsDbAdapter.addRecord(scheduledAction, DatabaseAdapter.UpdateMethod.update);
+                } else {
+                    mScheduledActionsDbAdapter.addRecord(scheduledAction, DatabaseAdapter.UpdateMethod.insert);
+                }
+            }
+
+            mTransactionsDbAdapter.bulkAddRecords(records.mTemplateTransactions, DatabaseAdapter.UpdateMethod.replace);
+            long nTransactions = mTransactionsDbAdapter.bulkAddRecords(records.mTransactions, DatabaseAdapter.UpdateMethod.replace);
+            long nPrices = mPricesDbAdapter.bulkAddRecords(records.mPrices, DatabaseAdapter.UpdateMethod.replace);
+            Log.d(LOG_TAG, String.format("%d transactions and %d prices merged", nTransactions, nPrices));
+
+            // transactions first, so that the balances of the accounts to be deleted are still updated
+            Map<String, List<String>> deletedRecordUIDs = records.mDeletedRecordUIDs;
+            deleteRecords(mTransactionsDbAdapter, GncXmlHelper.ATTR_VALUE_TRANSACTION, deletedRecordUIDs);
+            deleteRecords(mScheduledActionsDbAdapter, GncXmlHelper.ATTR_VALUE_SCHEDXACTION, deletedRecordUIDs);
+            deleteRecords(mPricesDbAdapter, GncXmlHelper.ATTR_VALUE_PRICE, deletedRecordUIDs);
+            deleteRecords(mAccountsDbAdapter, GncXmlHelper.ATTR_VALUE_ACCOUNT, deletedRecordUIDs);
+
+            mAccountsDbAdapter.updateAllAccountFullNames();
+            mAccountsDbAdapter.setTransactionSuccessful();
+            Log.d(LOG_TAG, String.format("merge time: %d ns", System.nanoTime() - startTime));
+        } finally {
+            mAccountsDbAdapter.endTransaction();
+            closeDatabase();
+        }
+    }
+
+    @Override
+    public void abort(boolean resumable) {
+        // nothing is saved before the end of the document
+        if (mDb.isOpen())
+            closeDatabase();
+    }
+
+    /**
+     * Deletes the records of a type which the incremental backup lists as deleted.
+     * Records which do not exist in the book are skipped.
+     * @param adapter Adapter of the records
+     * @param recordType Type of the records in the {@link GncXmlHelper#TAG_DELETED_RECORD} elements
+     * @param deletedRecordUIDs GUIDs of the deleted records, indexed by record type
+     */
+    private void deleteRecords(DatabaseAdapter<?> adapter, String recordType,
+                               Map<String, List<String>> deletedRecordUIDs) {
+        List<String> recordUIDs = deletedRecordUIDs.get(recordType);
+        if (recordUIDs == null)
+            return;
+        for (String recordUID : recordUIDs) {
+            if (adapter.hasRecord(recordUID))
+                adapter.deleteRecord(recordUID);
+        }
+        Log.d(LOG_TAG, String.format("%d deleted records of type %s merged", recordUIDs.size(), recordType));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Book;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Price;
+import org.gnucash.android.model.Transaction;
+import org.xml.sax.SAXException;
+
+import java.util.List;
+
+/**
+ * Does the database work of another writer on the writer thread of an {@link ImportPipeline},
+ * so that the records are saved while parsing goes on.
+ * <p>The batches, checkpoints and final records are queued, and saved in the same order by the wrapped writer.
+ * The other calls are passed on directly: they happen before the first batch, or only read the commodities
+ * which the wrapped writer has loaded up front.</p>
+ */
+class PipelinedImportWriter implements ImportWriter {
+
+    private final ImportWriter mWriter;
+
+    /**
+     * Pipeline running the database work, started with the first batch
+     */
+    private ImportPipeline mPipeline;
+
+    /**
+     * Whether the import can be resumed if it is aborted, read by the cleanup on the writer thread
+     */
+    private volatile boolean mResumable = true;
+
+    /**
+     * Creates a writer which does the work of another one on a separate thread
+     * @param writer Writer which saves the records
+     */
+    PipelinedImportWriter(@NonNull ImportWriter writer) {
+        mWriter = writer;
+    }
+
+    @NonNull
+    @Override
+    public Book getBook() {
+        return mWriter.getBook();
+    }
+
+    @Nullable
+    @Override
+    public Commodity getCommodity(@NonNull String currencyCode) {
+        return mWriter.getCommodity(currencyCode);
+    }
+
+    @NonNull
+    @Override
+    public List<Account> getExistingAccounts() {
+        return mWriter.getExistingAccounts();
+    }
+
+    @Nullable
+    @Override
+    public ImportCheckpoint getResumedCheckpoint() {
+        return mWriter.getResumedCheckpoint();
+    }
+
+    @Override
+    public void discardResumedCheckpoint() {
+        mWriter.discardResumedCheckpoint();
+    }
+
+    @Override
+    public void saveBatch(@NonNull final List<Account> accounts, @NonNull final List<Transaction> transactions,
+                          @NonNull final List<Price> prices) throws SAXException {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mWriter.saveBatch(accounts, transactions, prices);
+                } catch (SAXException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void checkpoint(@NonNull final List<Account> accounts, @NonNull final ImportCheckpoint checkpoint)
+            throws SAXException {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mWriter.checkpoint(accounts, checkpoint);
+                } catch (SAXException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues the final records, and waits until all the records are saved
+     */
+    @Override
+    public void finish(@NonNull final FinalRecords records) throws SAXException {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mWriter.finish(records);
+                } catch (SAXException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        mPipeline.finish();
+    }
+
+    /**
+     * Discards the records which are still queued, and aborts the wrapped writer on the writer thread,
+     * which holds its database transaction
+     */
+    @Override
+    public void abort(boolean resumable) {
+        mResumable = resumable;
+        if (mPipeline != null) {
+            mPipeline.cancel();
+        } else {
+            mWriter.abort(resumable);
+        }
+    }
+
+    /**
+     * Queues database work, starting the pipeline if needed
+     * @param task Database work
+     * @throws SAXException if a previous task failed
+     */
+    private void submit(Runnable task) throws SAXException {
+        if (mPipeline == null) {
+            mPipeline = new ImportPipeline(ImportPipeline.DEFAULT_CAPACITY, new Runnable() {
+                @Override
+                public void run() {
+                    // no effect once the import is complete
+                    mWriter.abort(mResumable);
+                }
+            });
+        }
+        mPipeline.submit(task);
+    }
+}
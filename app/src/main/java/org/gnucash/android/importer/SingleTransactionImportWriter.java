@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import android.database.DatabaseUtils;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.DatabaseAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Book;
+import org.gnucash.android.model.Price;
+import org.gnucash.android.model.Transaction;
+
+import java.util.List;
+
+/**
+ * Saves the imported records into a new book, in a single database transaction.
+ * <p>The transaction is started with the first batch, and committed at the end of the document. Until then,
+ * the foreign keys are disabled and the secondary indexes which are not needed while importing are dropped,
+ * see {@link DatabaseHelper#dropDeferredIndexes(android.database.sqlite.SQLiteDatabase)}.
+ * The book is added to the books database once all its records are committed.</p>
+ */
+class SingleTransactionImportWriter extends DatabaseImportWriter {
+
+    private static final String LOG_TAG = "ImportWriter";
+
+    /**
+     * Whether the database transaction into which the records are saved has been started
+     */
+    private boolean mSaveStarted = false;
+
+    /**
+     * Whether the records of an interrupted import are discarded when the database is closed,
+     * because the import cannot be completed without starting from scratch
+     */
+    protected boolean mDiscardCheckpoint = false;
+
+    /**
+     * Creates a writer into a new book
+     */
+    SingleTransactionImportWriter() {
+        this(new Book());
+    }
+
+    /**
+     * Creates a writer into a new book, whose database may already hold records
+     * @param book New book, which is not in the books database yet
+     */
+    protected SingleTransactionImportWriter(@NonNull Book book) {
+        super(book);
+    }
+
+    @Override
+    public void saveBatch(@NonNull List<Account> accounts, @NonNull List<Transaction> transactions,
+                          @NonNull List<Price> prices) {
+        beginSave();
+        writeAccounts(accounts);
+        writeTransactions(transactions);
+        writePrices(prices);
+    }
+
+    @Override
+    public void checkpoint(@NonNull List<Account> accounts, @NonNull ImportCheckpoint checkpoint) {
+        //all records are committed at the end of the document
+    }
+
+    /**
+     * Saves the records left and commits all records.
+     * <p>The full names of the accounts saved in batches are then set.</p>
+     */
+    @Override
+    public void finish(@NonNull FinalRecords records) {
+        BooksDbAdapter booksDbAdapter = BooksDbAdapter.getInstance();
+        mBook.setRootAccountUID(records.mRootAccountUID);
+        mBook.setDisplayName(booksDbAdapter.generateDefaultBookName());
+        //we on purpose do not set the book active. Only import. Caller should handle activation
+
+        long startTime = System.nanoTime();
+        Log.d(LOG_TAG, "bulk insert starts");
+        beginSave();
+        try {
+            long nAccounts = writeAccounts(records.mAccounts);
+            Log.d(LOG_TAG, String.format("%d accounts inserted", nAccounts));
+            //We need to add scheduled actions first because there is a foreign key constraint on transactions
+            //which are generated from scheduled actions (we do auto-create some transactions during import)
+            long nSchedActions = mScheduledActionsDbAdapter.bulkAddRecords(records.mScheduledActions, DatabaseAdapter.UpdateMethod.insert);
+            Log.d(LOG_TAG, String.format("%d scheduled actions inserted", nSchedActions));
+
+            long nTempTransactions = writeTransactions(records.mTemplateTransactions);
+            Log.d(LOG_TAG, String.format("%d template transactions inserted", nTempTransactions));
+
+            long nTransactions = writeTransactions(records.mTransactions);
+            Log.d(LOG_TAG, String.format("%d transactions inserted", nTransactions));
+
+            long nPrices = writePrices(records.mPrices);
+            Log.d(LOG_TAG, String.format("%d prices inserted", nPrices));
+
+            long indexStartTime = System.nanoTime();
+            DatabaseHelper.createSecondaryIndexes(mDb);
+            Log.d(LOG_TAG, String.format("indexes created in %d ns", System.nanoTime() - indexStartTime));
+
+            //// TODO: 01.06.2016 Re-enable import of Budget stuff when the UI is complete
+//            long nBudgets = mBudgetsDbAdapter.bulkAddRecords(mBudgetList, DatabaseAdapter.UpdateMethod.insert);
+//            Log.d(getClass().getSimpleName(), String.format("%d budgets inserted", nBudgets));
+
+            if (records.mUpdateAccountFullNames)
+                mAccountsDbAdapter.updateAllAccountFullNames();
+
+            long endTime = System.nanoTime();
+            Log.d(LOG_TAG, String.format("bulk insert time: %d", endTime - startTime));
+
+            validateSavedCounts(records.mTransactionCount, records.mSplitCount);
+            onComplete();
+
+            //if all of the import went smoothly, then add the book to the book db
+            booksDbAdapter.addRecord(mBook, DatabaseAdapter.UpdateMethod.insert);
+            mAccountsDbAdapter.setTransactionSuccessful();
+        } finally {
+            endSave();
+        }
+        if (records.mDefaultCurrencyCode != null)
+            GnuCashApplication.setDefaultCurrencyCode(records.mDefaultCurrencyCode);
+    }
+
+    @Override
+    public void abort(boolean resumable) {
+        if (!resumable)
+            mDiscardCheckpoint = true;
+        if (mDb.isOpen()) {
+            Log.w(LOG_TAG, "Import aborted, rolling back the records saved after " + getLastCommit());
+            endSave();
+        }
+    }
+
+    /**
+     * Returns what the records rolled back by {@link #abort(boolean)} were saved after, for logging
+     */
+    protected String getLastCommit() {
+        return "the start";
+    }
+
+    /**
+     * Returns {@code true} if the records committed by an interrupted import are kept when saving starts
+     */
+    protected boolean keepsCommittedRecords() {
+        return false;
+    }
+
+    /**
+     * Called in the database transaction which commits all records, once they have been saved and checked
+     */
+    protected void onComplete() {
+        //nothing more to save
+    }
+
+    /**
+     * Called once the database is closed. The pending import is discarded then if it cannot be resumed
+     */
+    protected void onClosed() {
+        //no pending import
+    }
+
+    /**
+     * Checks that the database holds all the transactions and splits which have been submitted,
+     * including those committed before an interruption
+     * @throws IllegalStateException if a count does not match
+     */
+    private void validateSavedCounts(long expectedTransactionCount, long expectedSplitCount) {
+        // the transactions without splits are deleted when they are saved, so the transactions of the splits are counted
+        long transactionCount = DatabaseUtils.longForQuery(mDb, "SELECT COUNT(DISTINCT "
+                + SplitEntry.COLUMN_TRANSACTION_UID + ") FROM " + SplitEntry.TABLE_NAME, null);
+        long splitCount = DatabaseUtils.queryNumEntries(mDb, SplitEntry.TABLE_NAME);
+        if (transactionCount != expectedTransactionCount || splitCount != expectedSplitCount) {
+            mDiscardCheckpoint = true;
+            throw new IllegalStateException(String.format("%d transactions and %d splits were imported, "
+                    + "but the database has %d transactions and %d splits",
+                    expectedTransactionCount, expectedSplitCount, transactionCount, splitCount));
+        }
+    }
+
+    /**
+     * Starts the database transaction into which all records are saved, unless it is already started.
+     * <p>The secondary indexes which are not needed while importing are dropped, see
+     * {@link DatabaseHelper#dropDeferredIndexes(android.database.sqlite.SQLiteDatabase)}</p>
+     */
+    private void beginSave() {
+        if (mSaveStarted)
+            return;
+        // disable foreign key. The database structure should be ensured by the data inserted.
+        // it will make insertion much faster. This has no effect inside a transaction, so it is done first
+        mAccountsDbAdapter.enableForeignKey(false);
+        mAccountsDbAdapter.beginTransaction();
+        mSaveStarted = true;
+        // the indexes are built once all records are saved, in finish(). They stay dropped at the
+        // checkpoints, the database of an interrupted import is only used to resume it
+        DatabaseHelper.dropDeferredIndexes(mDb);
+        if (keepsCommittedRecords())
+            return;
+
+        long startTime = System.nanoTime();
+        Log.d(LOG_TAG, "before clean up db");
+        mAccountsDbAdapter.deleteAllRecords();
+        Log.d(LOG_TAG, String.format("deb clean up done %d ns", System.nanoTime()-startTime));
+    }
+
+    /**
+     * Commits the records saved so far, and starts a new database transaction for the next ones.
+     * <p>A batch must have been saved before</p>
+     */
+    protected void commit() {
+        mAccountsDbAdapter.setTransactionSuccessful();
+        mAccountsDbAdapter.endTransaction();
+        mAccountsDbAdapter.beginTransaction();
+    }
+
+    /**
+     * Ends the database transaction into which the records were saved and closes the database
+     */
+    private void endSave() {
+        try {
+            if (mSaveStarted) {
+                mSaveStarted = false;
+                mAccountsDbAdapter.endTransaction();
+                mAccountsDbAdapter.enableForeignKey(true);
+            }
+        } finally {
+            closeDatabase(); //close it after import
+            onClosed();
+        }
+    }
+
+    /**
+     * Inserts accounts into the database
+     * @return Number of accounts saved
+     */
+    protected long writeAccounts(List<Account> accounts) {
+        if (accounts.isEmpty())
+            return 0;
+        return mAccountsDbAdapter.bulkAddRecords(accounts, DatabaseAdapter.UpdateMethod.insert);
+    }
+
+    /**
+     * Inserts transactions into the database
+     * @return Number of transactions saved
+     */
+    private long writeTransactions(List<Transaction> transactions) {
+        if (transactions.isEmpty())
+            return 0;
+        long startTime = System.nanoTime();
+        long nTransactions = mTransactionsDbAdapter.bulkAddRecords(transactions, DatabaseAdapter.UpdateMethod.insert);
+        Log.d(LOG_TAG, String.format("Batch of %d transactions saved in %d ns", nTransactions, System.nanoTime() - startTime));
+        return nTransactions;
+    }
+
+    /**
+     * Inserts prices into the database
+     * @return Number of prices saved
+     */
+    private long writePrices(List<Price> prices) {
+        if (prices.isEmpty())
+            return 0;
+        return mPricesDbAdapter.bulkAddRecords(prices, DatabaseAdapter.UpdateMethod.insert);
+    }
+}
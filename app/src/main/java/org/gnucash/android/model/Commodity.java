@@ -16,7 +16,7 @@
 package org.gnucash.android.model;
 
 import org.gnucash.android.app.GnuCashApplication;
-import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
+import org.gnucash.android.db.adapter.CommodityCache;
 
 /**
  * Commodities are the currencies used in the application.
@@ -65,6 +65,23 @@ public class Commodity extends BaseModel {
         setSmallestFraction(smallestFraction);
     }
 
+    /**
+     * Clones the <code>sourceCommodity</code> to create a new instance with the same fields and UID
+     * @param sourceCommodity Commodity to be cloned
+     */
+    public Commodity(Commodity sourceCommodity){
+        this.mNamespace         = sourceCommodity.mNamespace;
+        this.mMnemonic          = sourceCommodity.mMnemonic;
+        this.mFullname          = sourceCommodity.mFullname;
+        this.mCusip             = sourceCommodity.mCusip;
+        this.mLocalSymbol       = sourceCommodity.mLocalSymbol;
+        this.mSmallestFraction  = sourceCommodity.mSmallestFraction;
+        this.mQuoteFlag         = sourceCommodity.mQuoteFlag;
+        setUID(sourceCommodity.getUID());
+        setCreatedTimestamp(sourceCommodity.getCreatedTimestamp());
+        setModifiedTimestamp(sourceCommodity.getModifiedTimestamp());
+    }
+
     /**
      * Returns an instance of commodity for the specified currencyCode
      * @param currencyCode ISO 4217 currency code (3-letter)
@@ -78,7 +95,7 @@ public class Commodity extends BaseModel {
             case "JPY": return JPY;
             case "AUD": return AUD;
             case "CAD": return CAD;
-            default: return CommoditiesDbAdapter.getInstance().getCommodity(currencyCode);
+            default: return CommodityCache.getInstance().getCommodity(currencyCode);
         }
     }
 
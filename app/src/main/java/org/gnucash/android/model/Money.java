@@ -84,6 +84,28 @@ public final class Money implements Comparable<Money>{
 		return sDefaultZero;
     }
 
+	/**
+	 * Largest number of decimal digits for which the power of 10 fits in a long
+	 */
+	static final int MAX_LONG_DIGITS = 18;
+
+	private static final long[] POWERS_OF_TEN = new long[MAX_LONG_DIGITS + 1];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * Returns 10 raised to the power of {@code digits}
+	 * @param digits Exponent, between 0 and {@link #MAX_LONG_DIGITS}
+	 * @return Power of 10
+	 */
+	static long powerOfTen(int digits) {
+		return POWERS_OF_TEN[digits];
+	}
+
 	/**
 	 * Returns the {@link BigDecimal} from the {@code numerator} and {@code denominator}
 	 * @param numerator Number of the fraction
@@ -214,6 +236,8 @@ public final class Money implements Comparable<Money>{
 	 */
 	public long getDenominator() {
 		int scale = getScale();
+		if (scale <= MAX_LONG_DIGITS)
+			return powerOfTen(scale);
 		return BigDecimal.ONE.scaleByPowerOfTen(scale).longValueExact();
 	}
 
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.model;
+
+import android.support.annotation.NonNull;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Mutable sum of money amounts in one commodity, for adding up many amounts without creating
+ * a {@link Money} and a {@link BigDecimal} for each of them.
+ * <p>The sum is kept as a numerator over the denominator of the commodity, e.g. in cents for USD.
+ * Amounts given as a GnuCash numerator and denominator are added to it with primitive arithmetic.
+ * Amounts which cannot be represented that way (finer than the commodity, or with a denominator which
+ * is not a power of 10) and sums which would overflow a {@code long} are kept exactly in a {@link BigDecimal}
+ * instead. The result is rounded to the commodity only once, by {@link #toMoney()}.</p>
+ * <p>Instances are not thread-safe.</p>
+ */
+public final class MoneyAccumulator {
+
+    private final Commodity mCommodity;
+
+    /**
+     * Number of decimal digits of the commodity, i.e. the scale of {@link #mNumerator}
+     */
+    private final int mScale;
+
+    /**
+     * Part of the sum which fits in a long, in units of the smallest fraction of the commodity
+     */
+    private long mNumerator = 0;
+
+    /**
+     * Part of the sum which overflowed or could not be represented by {@link #mNumerator}, or {@code null}
+     */
+    private BigDecimal mRemainder;
+
+    /**
+     * Creates an accumulator with a sum of zero
+     * @param commodity Commodity of the amounts to add up
+     */
+    public MoneyAccumulator(@NonNull Commodity commodity) {
+        mCommodity = commodity;
+        mScale = commodity.getSmallestFractionDigits();
+    }
+
+    /**
+     * Creates an accumulator with a sum of zero
+     * @param currencyCode ISO 4217 code of the currency of the amounts to add up
+     */
+    public MoneyAccumulator(@NonNull String currencyCode) {
+        this(Commodity.getInstance(currencyCode));
+    }
+
+    /**
+     * Returns the commodity of the amounts added up
+     * @return Commodity of the sum
+     */
+    public Commodity getCommodity() {
+        return mCommodity;
+    }
+
+    /**
+     * Adds an amount in GnuCash format to the sum
+     * @param numerator Numerator of the amount
+     * @param denominator Denominator of the amount, normally a power of 10
+     * @return This accumulator
+     * @throws IllegalArgumentException if the denominator is not positive
+     */
+    public MoneyAccumulator add(long numerator, long denominator) {
+        checkDenominator(denominator);
+        // 10^n = 2^n * 5^n has exactly n trailing zero bits, so they give the only candidate
+        // for the number of decimal digits. Any other denominator fails the power of ten check below,
+        // including those truncated by the cast to int.
+        int digits = Integer.numberOfTrailingZeros((int) denominator);
+        if (digits <= mScale && mScale - digits <= Money.MAX_LONG_DIGITS && denominator == Money.powerOfTen(digits)) {
+            long factor = Money.powerOfTen(mScale - digits);
+            if (numerator <= Long.MAX_VALUE / factor && numerator >= Long.MIN_VALUE / factor) {
+                addUnits(numerator * factor);
+                return this;
+            }
+        }
+        addExact(Money.getBigDecimal(numerator, denominator));
+        return this;
+    }
+
+    /**
+     * Subtracts an amount in GnuCash format from the sum
+     * @param numerator Numerator of the amount
+     * @param denominator Denominator of the amount, normally a power of 10
+     * @return This accumulator
+     * @throws IllegalArgumentException if the denominator is not positive
+     */
+    public MoneyAccumulator subtract(long numerator, long denominator) {
+        checkDenominator(denominator);
+        if (numerator == Long.MIN_VALUE) {
+            addExact(Money.getBigDecimal(numerator, denominator).negate());
+            return this;
+        }
+        return add(-numerator, denominator);
+    }
+
+    /**
+     * Adds a money amount to the sum
+     * @param amount Amount to add
+     * @return This accumulator
+     * @throws Money.CurrencyMismatchException if the amount is not in the commodity of the sum
+     */
+    public MoneyAccumulator add(@NonNull Money amount) {
+        addMoney(amount, false);
+        return this;
+    }
+
+    /**
+     * Subtracts a money amount from the sum
+     * @param amount Amount to subtract
+     * @return This accumulator
+     * @throws Money.CurrencyMismatchException if the amount is not in the commodity of the sum
+     */
+    public MoneyAccumulator subtract(@NonNull Money amount) {
+        addMoney(amount, true);
+        return this;
+    }
+
+    /**
+     * Adds an amount in the commodity of the sum, e.g. the result of a currency conversion
+     * @param amount Amount to add. It is not rounded
+     * @return This accumulator
+     */
+    public MoneyAccumulator add(@NonNull BigDecimal amount) {
+        addExact(amount);
+        return this;
+    }
+
+    /**
+     * Returns the sum of the amounts, rounded to the commodity
+     * @return Money amount of the sum
+     */
+    public Money toMoney() {
+        BigDecimal sum = BigDecimal.valueOf(mNumerator, mScale);
+        if (mRemainder != null)
+            sum = sum.add(mRemainder);
+        return new Money(sum, mCommodity);
+    }
+
+    private static void checkDenominator(long denominator) {
+        if (denominator <= 0)
+            throw new IllegalArgumentException("Denominator must be positive: " + denominator);
+    }
+
+    private void addMoney(Money amount, boolean negate) {
+        if (!mCommodity.equals(amount.getCommodity()))
+            throw amount.new CurrencyMismatchException();
+        // the amount of a money is normally already at the scale of its commodity, so this doesn't rescale it
+        BigDecimal value = amount.asBigDecimal();
+        BigInteger units = value.unscaledValue();
+        if (value.scale() == mScale && units.bitLength() < Long.SIZE - 1) {
+            addUnits(negate ? -units.longValue() : units.longValue());
+        } else {
+            addExact(negate ? value.negate() : value);
+        }
+    }
+
+    private void addUnits(long units) {
+        long sum = mNumerator + units;
+        // the sum overflowed if both operands have a sign different from the result
+        if (((mNumerator ^ sum) & (units ^ sum)) < 0) {
+            addExact(BigDecimal.valueOf(mNumerator, mScale));
+            mNumerator = units;
+        } else {
+            mNumerator = sum;
+        }
+    }
+
+    private void addExact(BigDecimal amount) {
+        mRemainder = mRemainder == null ? amount : mRemainder.add(amount);
+    }
+}
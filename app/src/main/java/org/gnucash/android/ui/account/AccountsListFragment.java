@@ -23,6 +23,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.graphics.Color;
 import android.os.AsyncTask;
 import android.os.Build;
@@ -39,6 +40,7 @@ import android.support.v7.widget.PopupMenu;
 import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.Pair;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -61,12 +63,18 @@ import org.gnucash.android.model.Money;
 import org.gnucash.android.ui.common.FormActivity;
 import org.gnucash.android.ui.common.Refreshable;
 import org.gnucash.android.ui.common.UxArgument;
+import org.gnucash.android.ui.transaction.TransactionsActivity;
 import org.gnucash.android.ui.util.AccountBalanceTask;
 import org.gnucash.android.ui.util.CursorRecyclerAdapter;
 import org.gnucash.android.ui.util.widget.EmptyRecyclerView;
 import org.gnucash.android.util.BackupManager;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -461,10 +469,130 @@ public class AccountsListFragment extends Fragment implements
 
             }
 
-            if (cursor != null)
+            if (cursor != null) {
+                cursor = new AccountRowsCursor(cursor,
+                        loadAccountRows((AccountsDbAdapter) mDatabaseAdapter, getAccountUIDs(cursor)));
                 registerContentObserver(cursor);
+            }
             return cursor;
         }
+
+        /**
+         * Computes what the list shows about each account, for all the accounts at once.
+         * @param accountsDbAdapter Accounts database adapter
+         * @param accountUIDs GUIDs of the accounts in the list
+         * @return Map of account GUID to the row of the account
+         */
+        private static Map<String, AccountRow> loadAccountRows(AccountsDbAdapter accountsDbAdapter,
+                                                               List<String> accountUIDs) {
+            Set<String> accountUIDSet = new HashSet<>(accountUIDs);
+            Map<String, Money> balances = accountsDbAdapter.getAccountBalances(accountUIDs, -1, -1);
+            Map<String, Integer> subAccountCounts = accountsDbAdapter.getSubAccountCounts(accountUIDSet);
+            Map<String, List<Budget>> accountBudgets = BudgetsDbAdapter.getInstance().getAccountsBudgets(accountUIDSet);
+
+            //TODO: include fetch only active budgets
+            // the balances for the budgets are computed together for all accounts with the same budgeting period
+            Map<Pair<Long, Long>, List<String>> accountsByBudgetPeriod = new HashMap<>();
+            for (Map.Entry<String, List<Budget>> entry : accountBudgets.entrySet()) {
+                if (entry.getValue().size() != 1)
+                    continue;
+                Budget budget = entry.getValue().get(0);
+                Pair<Long, Long> period = Pair.create(budget.getStartofCurrentPeriod(), budget.getEndOfCurrentPeriod());
+                List<String> periodAccountUIDs = accountsByBudgetPeriod.get(period);
+                if (periodAccountUIDs == null) {
+                    periodAccountUIDs = new ArrayList<>();
+                    accountsByBudgetPeriod.put(period, periodAccountUIDs);
+                }
+                periodAccountUIDs.add(entry.getKey());
+            }
+            Map<String, Integer> budgetProgresses = new HashMap<>();
+            for (Map.Entry<Pair<Long, Long>, List<String>> entry : accountsByBudgetPeriod.entrySet()) {
+                Pair<Long, Long> period = entry.getKey();
+                Map<String, Money> periodBalances = accountsDbAdapter.getAccountBalances(entry.getValue(),
+                        period.first, period.second);
+                for (String accountUID : entry.getValue()) {
+                    Budget budget = accountBudgets.get(accountUID).get(0);
+                    double budgetProgress = periodBalances.get(accountUID).divide(budget.getAmount(accountUID))
+                            .asBigDecimal().doubleValue() * 100;
+                    budgetProgresses.put(accountUID, (int) budgetProgress);
+                }
+            }
+
+            Map<String, AccountRow> accountRows = new HashMap<>(accountUIDs.size() * 2);
+            for (String accountUID : accountUIDs) {
+                Integer subAccountCount = subAccountCounts.get(accountUID);
+                Integer budgetProgress = budgetProgresses.get(accountUID);
+                accountRows.put(accountUID, new AccountRow(
+                        subAccountCount == null ? 0 : subAccountCount,
+                        balances.get(accountUID),
+                        budgetProgress == null ? AccountRow.NO_BUDGET : budgetProgress));
+            }
+            return accountRows;
+        }
+
+        /**
+         * Returns the GUIDs of all the accounts in the cursor and moves it back before the first row
+         * @param cursor Cursor to the accounts
+         * @return List of account GUIDs
+         */
+        private static List<String> getAccountUIDs(Cursor cursor) {
+            List<String> accountUIDs = new ArrayList<>(cursor.getCount());
+            int uidColumn = cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_UID);
+            while (cursor.moveToNext()) {
+                accountUIDs.add(cursor.getString(uidColumn));
+            }
+            cursor.moveToPosition(-1);
+            return accountUIDs;
+        }
+    }
+
+    /**
+     * What the list shows about an account, besides the columns of the account
+     */
+    private static final class AccountRow {
+        static final int NO_BUDGET = -1;
+
+        final int mSubAccountCount;
+
+        /**
+         * Balance of the account including sub-accounts, or {@code null} if it was not computed
+         */
+        final Money mBalance;
+
+        /**
+         * Percentage of the budget of the account spent in the current period,
+         * or {@link #NO_BUDGET} when the account does not have exactly one budget
+         */
+        final int mBudgetProgress;
+
+        AccountRow(int subAccountCount, Money balance, int budgetProgress) {
+            mSubAccountCount = subAccountCount;
+            mBalance = balance;
+            mBudgetProgress = budgetProgress;
+        }
+    }
+
+    /**
+     * Cursor to a list of accounts which also carries what is shown about those accounts.
+     * <p>The balances, sub-account counts and budget progress are computed together in the loader,
+     * so that the list does not need to query the database one row at a time</p>
+     */
+    private static final class AccountRowsCursor extends CursorWrapper {
+        private final Map<String, AccountRow> mAccountRows;
+
+        AccountRowsCursor(Cursor cursor, Map<String, AccountRow> accountRows) {
+            super(cursor);
+            mAccountRows = accountRows;
+        }
+
+        /**
+         * Returns the row of an account in the cursor
+         * @param accountUID GUID of the account
+         * @return Row of the account, or {@code null} if it was not computed
+         */
+        AccountRow getAccountRow(String accountUID) {
+            return mAccountRows.get(accountUID);
+        }
     }
 
 
@@ -482,14 +610,23 @@ public class AccountsListFragment extends Fragment implements
             return new AccountViewHolder(v);
         }
 
+        @Override
+        public void onViewRecycled(AccountViewHolder holder) {
+            super.onViewRecycled(holder);
+            holder.cancelBalanceTask();
+        }
+
         @Override
         public void onBindViewHolderCursor(final AccountViewHolder holder, final Cursor cursor) {
             final String accountUID = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_UID));
-            mAccountsDbAdapter = AccountsDbAdapter.getInstance();
-            holder.accoundId = mAccountsDbAdapter.getID(accountUID);
+            holder.accoundId = cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry._ID));
+            holder.cancelBalanceTask();
+
+            AccountRow accountRow = cursor instanceof AccountRowsCursor
+                    ? ((AccountRowsCursor) cursor).getAccountRow(accountUID) : null;
 
             holder.accountName.setText(cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_NAME)));
-            int subAccountCount = mAccountsDbAdapter.getSubAccountCount(accountUID);
+            int subAccountCount = accountRow == null ? 0 : accountRow.mSubAccountCount;
             if (subAccountCount > 0) {
                 holder.description.setVisibility(View.VISIBLE);
                 String text = getResources().getQuantityString(R.plurals.label_sub_accounts, subAccountCount, subAccountCount);
@@ -498,18 +635,23 @@ public class AccountsListFragment extends Fragment implements
                 holder.description.setVisibility(View.GONE);
 
             // add a summary of transactions to the account view
-
+            if (accountRow != null && accountRow.mBalance != null) {
+                TransactionsActivity.displayBalance(holder.accountBalance, accountRow.mBalance);
+            } else {
                 // Make sure the balance task is truly multithread
-            new AccountBalanceTask(holder.accountBalance).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, accountUID);
+                holder.balanceTask = new AccountBalanceTask(holder.accountBalance);
+                holder.balanceTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, accountUID);
+            }
 
             String accountColor = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_COLOR_CODE));
             int colorCode = accountColor == null ? Color.TRANSPARENT : Color.parseColor(accountColor);
             holder.colorStripView.setBackgroundColor(colorCode);
 
-            boolean isPlaceholderAccount = mAccountsDbAdapter.isPlaceholderAccount(accountUID);
+            boolean isPlaceholderAccount = cursor.getInt(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_PLACEHOLDER)) == 1;
             if (isPlaceholderAccount) {
                 holder.createTransaction.setVisibility(View.GONE);
             } else {
+                holder.createTransaction.setVisibility(View.VISIBLE);
                 holder.createTransaction.setOnClickListener(new View.OnClickListener() {
 
                     @Override
@@ -523,21 +665,15 @@ public class AccountsListFragment extends Fragment implements
                 });
             }
 
-            List<Budget> budgets = BudgetsDbAdapter.getInstance().getAccountBudgets(accountUID);
-            //TODO: include fetch only active budgets
-            if (budgets.size() == 1){
-                Budget budget = budgets.get(0);
-                Money balance = mAccountsDbAdapter.getAccountBalance(accountUID, budget.getStartofCurrentPeriod(), budget.getEndOfCurrentPeriod());
-                double budgetProgress = balance.divide(budget.getAmount(accountUID)).asBigDecimal().doubleValue() * 100;
-
+            if (accountRow != null && accountRow.mBudgetProgress != AccountRow.NO_BUDGET){
                 holder.budgetIndicator.setVisibility(View.VISIBLE);
-                holder.budgetIndicator.setProgress((int) budgetProgress);
+                holder.budgetIndicator.setProgress(accountRow.mBudgetProgress);
             } else {
                 holder.budgetIndicator.setVisibility(View.GONE);
             }
 
 
-            if (mAccountsDbAdapter.isFavoriteAccount(accountUID)){
+            if (cursor.getInt(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_FAVORITE)) == 1){
                 holder.favoriteStatus.setImageResource(R.drawable.ic_star_black_24dp);
             } else {
                 holder.favoriteStatus.setImageResource(R.drawable.ic_star_border_black_24dp);
@@ -580,6 +716,11 @@ public class AccountsListFragment extends Fragment implements
             @BindView(R.id.budget_indicator) ProgressBar budgetIndicator;
             long accoundId;
 
+            /**
+             * Task computing the balance of the account, when it was not computed by the loader
+             */
+            AccountBalanceTask balanceTask;
+
             public AccountViewHolder(View itemView) {
                 super(itemView);
                 ButterKnife.bind(this, itemView);
@@ -598,6 +739,16 @@ public class AccountsListFragment extends Fragment implements
             }
 
 
+            /**
+             * Cancels the computation of the balance of the account previously bound to this view, if any
+             */
+            void cancelBalanceTask() {
+                if (balanceTask != null) {
+                    balanceTask.cancel(true);
+                    balanceTask = null;
+                }
+            }
+
             @Override
             public boolean onMenuItemClick(MenuItem item) {
                 switch (item.getItemId()){
@@ -217,8 +217,7 @@ public class DeleteAccountDialogFragment extends DialogFragment {
                 if ((mTransactionCount > 0) && mMoveTransactionsRadioButton.isChecked()){
                     long targetAccountId = mTransactionsDestinationAccountSpinner.getSelectedItemId();
                     //move all the splits
-                    SplitsDbAdapter.getInstance().updateRecords(DatabaseSchema.SplitEntry.COLUMN_ACCOUNT_UID + " = ?",
-                            new String[]{mOriginAccountUID}, DatabaseSchema.SplitEntry.COLUMN_ACCOUNT_UID, accountsDbAdapter.getUID(targetAccountId));
+                    SplitsDbAdapter.getInstance().reassignAccountSplits(mOriginAccountUID, accountsDbAdapter.getUID(targetAccountId));
                 }
 
                 if ((mSubAccountCount > 0) && mMoveAccountsRadioButton.isChecked()){
@@ -16,12 +16,14 @@
 package org.gnucash.android.ui.report;
 
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Color;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.LayoutRes;
 import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
+import android.support.annotation.WorkerThread;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
@@ -38,14 +40,27 @@ import com.github.mikephil.charting.listener.OnChartValueSelectedListener;
 
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.ReadConnectionPool;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
+import org.gnucash.android.db.adapter.ReportsDbAdapter;
+import org.gnucash.android.db.adapter.ReportsDbAdapter.PeriodBalances;
 import org.gnucash.android.model.AccountType;
 import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.MoneyAccumulator;
 import org.gnucash.android.ui.common.Refreshable;
+import org.joda.time.LocalDate;
 import org.joda.time.LocalDateTime;
 import org.joda.time.Months;
+import org.joda.time.Period;
 import org.joda.time.Years;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
@@ -60,6 +75,8 @@ import butterknife.ButterKnife;
  * <p>Any custom information to be initialized for the report should be done in {@link #onActivityCreated(Bundle)} in implementing classes.
  * The report is then generated in {@link #onStart()}
  * </p>
+ * <p>Reports should read their balances with {@link #getAccountTypesBalance(List)}, {@link #getAccountBalances(AccountType, List, long, long)}
+ * and {@link #getPeriodBalances(AccountType, List, LocalDateTime, int)}, which share the results between reports through the {@link ReportDataCache}.</p>
  * @author Ngewi Fet <ngewif@gmail.com>
  */
 public abstract class BaseReportFragment extends Fragment implements
@@ -255,6 +272,126 @@ public abstract class BaseReportFragment extends Fragment implements
     }
 
 
+    /**
+     * Returns the start of the {@code mGroupInterval} period which contains the specified date
+     * @param date date
+     * @return start of the period
+     */
+    protected LocalDateTime getGroupPeriodStart(LocalDateTime date) {
+        LocalDateTime monthStart = date.withDayOfMonth(1).withMillisOfDay(0);
+        switch (mGroupInterval) {
+            case QUARTER:
+                return monthStart.withMonthOfYear(getQuarter(date) * 3 - 2);
+            case YEAR:
+                return monthStart.withMonthOfYear(1);
+            case MONTH:
+            default:
+                return monthStart;
+        }
+    }
+
+    /**
+     * Returns the length of a {@code mGroupInterval} period
+     * @return period length
+     */
+    protected Period getGroupPeriod() {
+        switch (mGroupInterval) {
+            case QUARTER:
+                return Period.months(3);
+            case YEAR:
+                return Period.years(1);
+            case MONTH:
+            default:
+                return Period.months(1);
+        }
+    }
+
+    /**
+     * Returns the balance of all the accounts of some types, from the start of the book until now,
+     * in the default currency.
+     * <p>The balance of each account type is taken from the {@link ReportDataCache}, where it is kept for the day</p>
+     * @param accountTypes Types of the accounts
+     * @return Total balance of the accounts
+     */
+    @WorkerThread
+    protected Money getAccountTypesBalance(List<AccountType> accountTypes) {
+        String currencyCode = GnuCashApplication.getDefaultCurrencyCode();
+        final long now = System.currentTimeMillis();
+        long today = new LocalDate().toDate().getTime();
+        MoneyAccumulator balance = new MoneyAccumulator(currencyCode);
+        for (final AccountType accountType : accountTypes) {
+            ReportDataCache.Key key = new ReportDataCache.Key(ReportDataCache.DataType.ACCOUNT_TYPE_BALANCE,
+                    accountType, Collections.<String>emptyList(), currencyCode, null, -1, today);
+            balance.add(ReportDataCache.getInstance().get(key, new ReportDataCache.Generator<Money>() {
+                @Override
+                public Money generate() {
+                    return AccountsDbAdapter.getInstance().getAccountBalance(accountType, -1, now);
+                }
+            }));
+        }
+        return balance.toMoney();
+    }
+
+    /**
+     * Returns the balance of each of some accounts in a time range, taken from the {@link ReportDataCache} if possible
+     * @param accountType Type of the accounts
+     * @param accountUIDs GUIDs of the accounts
+     * @param start Start of the time range in milliseconds, or -1
+     * @param end End of the time range in milliseconds, or -1
+     * @return Map of account GUID to its balance
+     */
+    @WorkerThread
+    protected Map<String, Double> getAccountBalances(AccountType accountType, final List<String> accountUIDs,
+                                                     final long start, final long end) {
+        ReportDataCache.Key key = new ReportDataCache.Key(ReportDataCache.DataType.ACCOUNT_BALANCES,
+                accountType, accountUIDs, mCommodity.getCurrencyCode(), null, start, end);
+        return ReportDataCache.getInstance().get(key, new ReportDataCache.Generator<Map<String, Double>>() {
+            @Override
+            public Map<String, Double> generate() {
+                AccountsDbAdapter accountsDbAdapter = AccountsDbAdapter.getInstance();
+                Map<String, Double> balances = new HashMap<>(accountUIDs.size() * 2);
+                for (String accountUID : accountUIDs) {
+                    balances.put(accountUID, accountsDbAdapter.getAccountsBalance(
+                            Collections.singletonList(accountUID), start, end).asDouble());
+                }
+                return balances;
+            }
+        });
+    }
+
+    /**
+     * Returns the balances of some accounts in consecutive periods of {@code mGroupInterval},
+     * taken from the {@link ReportDataCache} if possible.
+     * <p>They are computed with a connection of the {@link ReadConnectionPool}, as reports are generated in the background</p>
+     * @param accountType Type of the accounts
+     * @param accountUIDs GUIDs of the accounts
+     * @param firstPeriodStart Start of the first period
+     * @param periodCount Number of periods
+     * @return Balances of the accounts in each period
+     * @see ReportsDbAdapter#getPeriodBalances(List, LocalDateTime, Period, int)
+     */
+    @WorkerThread
+    protected PeriodBalances getPeriodBalances(AccountType accountType, final List<String> accountUIDs,
+                                               final LocalDateTime firstPeriodStart, final int periodCount) {
+        final Period period = getGroupPeriod();
+        long start = firstPeriodStart.toDate().getTime();
+        long end = firstPeriodStart.plus(period.multipliedBy(periodCount)).toDate().getTime();
+        ReportDataCache.Key key = new ReportDataCache.Key(ReportDataCache.DataType.PERIOD_BALANCES,
+                accountType, accountUIDs, mCommodity.getCurrencyCode(), mGroupInterval, start, end);
+        return ReportDataCache.getInstance().get(key, new ReportDataCache.Generator<PeriodBalances>() {
+            @Override
+            public PeriodBalances generate() {
+                ReadConnectionPool readConnectionPool = GnuCashApplication.getReadConnectionPool();
+                SQLiteDatabase db = readConnectionPool.acquire();
+                try {
+                    return new ReportsDbAdapter(db).getPeriodBalances(accountUIDs, firstPeriodStart, period, periodCount);
+                } finally {
+                    readConnectionPool.release(db);
+                }
+            }
+        });
+    }
+
     /**
      * Returns a quarter of the specified date
      * @param date date
@@ -284,6 +421,7 @@ public abstract class BaseReportFragment extends Fragment implements
 
             @Override
             protected Void doInBackground(Void... params) {
+                ReportDataCache.getInstance().validate();
                 generateReport();
                 return null;
             }
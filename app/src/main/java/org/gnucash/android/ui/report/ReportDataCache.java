@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.ui.report;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.ReportsDbAdapter;
+import org.gnucash.android.model.AccountType;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the balances computed for the reports, shared by all the report fragments.
+ * <p>Changing the options of a report, switching between reports or rotating the screen
+ * regenerates a report. The balances it needs are taken from this cache when they were already
+ * computed for the same options, by this report or another one.</p>
+ * <p>All entries are dropped when the active book changes, or when any of its records was written
+ * since they were computed: the cache remembers the database connection of the book and the number of
+ * rows it has changed, see {@link ReportsDbAdapter#getChangeCount()}, and {@link #validate()} compares them
+ * once at the start of each report generation, not at each lookup.
+ * This covers the changes to splits, accounts and prices as well as to transactions, including those made
+ * with SQL by the adapters. The accounts of a result are part of its key, so that adding or removing accounts
+ * doesn't reuse the balances of the old ones.</p>
+ */
+public final class ReportDataCache {
+
+    private static final String LOG_TAG = "ReportDataCache";
+
+    /**
+     * Maximum number of cached results
+     */
+    static final int MAX_ENTRIES = 32;
+
+    private static final ReportDataCache sInstance = new ReportDataCache();
+
+    /**
+     * Kinds of data cached for the reports
+     */
+    public enum DataType {
+        /**
+         * Balance of all the accounts of a type, as a {@link org.gnucash.android.model.Money}
+         */
+        ACCOUNT_TYPE_BALANCE,
+        /**
+         * Balance of each account of a type, in a map of account GUID to amount
+         */
+        ACCOUNT_BALANCES,
+        /**
+         * Balance of each account of a type in each period,
+         * as {@link org.gnucash.android.db.adapter.ReportsDbAdapter.PeriodBalances}
+         */
+        PERIOD_BALANCES
+    }
+
+    /**
+     * Computes a result which is not in the cache
+     * @param <T> Type of the result
+     */
+    public interface Generator<T> {
+        T generate();
+    }
+
+    private final Map<Key, Object> mEntries = new LinkedHashMap<Key, Object>(MAX_ENTRIES * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * State of the book when the cached entries were computed
+     */
+    private String mBookUID;
+    private WeakReference<SQLiteDatabase> mDatabase = new WeakReference<>(null);
+    private long mChangeCount;
+
+    /**
+     * Incremented whenever the entries are dropped, so that results computed before are not cached
+     */
+    private int mGeneration;
+
+    private ReportDataCache() {
+        //singleton
+    }
+
+    /**
+     * Returns the report data cache of the application
+     * @return Report data cache
+     */
+    public static ReportDataCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Drops the cached results if the active book was changed or written since they were computed.
+     * <p>This should be called once before generating a report, it waits for a database transaction
+     * in progress to end</p>
+     */
+    @WorkerThread
+    public void validate() {
+        String bookUID = BooksDbAdapter.getInstance().getActiveBookUID();
+        SQLiteDatabase db = GnuCashApplication.getActiveDb();
+        long changeCount = new ReportsDbAdapter(db).getChangeCount();
+
+        synchronized (this) {
+            // the change count restarts from zero when the book database is opened again
+            if (bookUID.equals(mBookUID) && db == mDatabase.get() && changeCount == mChangeCount)
+                return;
+            if (!mEntries.isEmpty())
+                Log.d(LOG_TAG, "The book changed, dropping " + mEntries.size() + " cached results");
+            mEntries.clear();
+            mGeneration++;
+            mBookUID = bookUID;
+            mDatabase = new WeakReference<>(db);
+            mChangeCount = changeCount;
+        }
+    }
+
+    /**
+     * Returns a cached result, computing and caching it if needed.
+     * <p>Results are only cached once the state of the book was checked by {@link #validate()}</p>
+     * @param key Key of the result
+     * @param generator Computes the result if it is not in the cache. It is not run while holding any lock
+     * @param <T> Type of the result
+     * @return Cached or computed result
+     */
+    @WorkerThread
+    @SuppressWarnings("unchecked")
+    public <T> T get(@NonNull Key key, @NonNull Generator<T> generator) {
+        int generation;
+        synchronized (this) {
+            Object result = mEntries.get(key);
+            if (result != null)
+                return (T) result;
+            generation = mGeneration;
+        }
+
+        T result = generator.generate();
+        synchronized (this) {
+            // don't cache a result of a book state which was replaced meanwhile
+            if (result != null && mBookUID != null && generation == mGeneration)
+                mEntries.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Drops all cached results
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mGeneration++;
+        mBookUID = null;
+        mDatabase.clear();
+    }
+
+    /**
+     * Key of a cached result: what was computed, for which accounts, in which currency, grouped how and for which time range
+     */
+    public static final class Key {
+        private final DataType mDataType;
+        private final AccountType mAccountType;
+        private final List<String> mAccountUIDs;
+        private final String mCurrencyCode;
+        private final ReportsActivity.GroupInterval mGroupInterval;
+        private final long mStart;
+        private final long mEnd;
+
+        /**
+         * Creates a key
+         * @param dataType What is computed
+         * @param accountType Type of the accounts
+         * @param accountUIDs GUIDs of the accounts, or an empty list if they are all the accounts of the type
+         * @param currencyCode Currency of the accounts
+         * @param groupInterval Length of the periods, or {@code null} if the data is not grouped by period
+         * @param start Start of the time range in milliseconds, or -1
+         * @param end End of the time range in milliseconds, or -1
+         */
+        public Key(@NonNull DataType dataType, @NonNull AccountType accountType, @NonNull List<String> accountUIDs,
+            @NonNull String currencyCode, @Nullable ReportsActivity.GroupInterval groupInterval, long start, long end) {
+            mDataType = dataType;
+            mAccountType = accountType;
+            mAccountUIDs = new ArrayList<>(accountUIDs);
+            mCurrencyCode = currencyCode;
+            mGroupInterval = groupInterval;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return mStart == key.mStart && mEnd == key.mEnd
+                    && mDataType == key.mDataType
+                    && mAccountType == key.mAccountType
+                    && mGroupInterval == key.mGroupInterval
+                    && mCurrencyCode.equals(key.mCurrencyCode)
+                    && mAccountUIDs.equals(key.mAccountUIDs);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mDataType.hashCode();
+            result = 31 * result + mAccountType.hashCode();
+            result = 31 * result + mAccountUIDs.hashCode();
+            result = 31 * result + mCurrencyCode.hashCode();
+            result = 31 * result + (mGroupInterval != null ? mGroupInterval.hashCode() : 0);
+            result = 31 * result + (int) (mStart ^ (mStart >>> 32));
+            result = 31 * result + (int) (mEnd ^ (mEnd >>> 32));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return mDataType + " " + mAccountType + " (" + mAccountUIDs.size() + " accounts) " + mCurrencyCode + " " + mGroupInterval + " " + mStart + "-" + mEnd;
+        }
+    }
+}
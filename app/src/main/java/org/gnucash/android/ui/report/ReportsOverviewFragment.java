@@ -50,6 +50,7 @@ import org.joda.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import butterknife.BindView;
 import butterknife.OnClick;
@@ -163,12 +164,12 @@ public class ReportsOverviewFragment extends BaseReportFragment {
         accountTypes.add(AccountType.ASSET);
         accountTypes.add(AccountType.CASH);
         accountTypes.add(AccountType.BANK);
-        mAssetsBalance = mAccountsDbAdapter.getAccountBalance(accountTypes, -1, System.currentTimeMillis());
+        mAssetsBalance = getAccountTypesBalance(accountTypes);
 
         accountTypes.clear();
         accountTypes.add(AccountType.LIABILITY);
         accountTypes.add(AccountType.CREDIT);
-        mLiabilitiesBalance = mAccountsDbAdapter.getAccountBalance(accountTypes, -1, System.currentTimeMillis());
+        mLiabilitiesBalance = getAccountTypesBalance(accountTypes);
     }
 
     /**
@@ -179,22 +180,28 @@ public class ReportsOverviewFragment extends BaseReportFragment {
         PieDataSet dataSet = new PieDataSet(null, "");
         List<String> labels = new ArrayList<>();
         List<Integer> colors = new ArrayList<>();
+        List<Account> accounts = new ArrayList<>();
+        List<String> accountUIDs = new ArrayList<>();
         for (Account account : mAccountsDbAdapter.getSimpleAccountList()) {
             if (account.getAccountType() == AccountType.EXPENSE
                     && !account.isPlaceholderAccount()
                     && account.getCommodity().equals(mCommodity)) {
+                accounts.add(account);
+                accountUIDs.add(account.getUID());
+            }
+        }
 
-                long start = new LocalDate().minusMonths(2).dayOfMonth().withMinimumValue().toDate().getTime();
-                long end = new LocalDate().plusDays(1).toDate().getTime();
-                double balance = mAccountsDbAdapter.getAccountsBalance(
-                        Collections.singletonList(account.getUID()), start, end).asDouble();
-                if (balance > 0) {
-                    dataSet.addEntry(new Entry((float) balance, dataSet.getEntryCount()));
-                    colors.add(account.getColor() != Account.DEFAULT_COLOR
-                            ? account.getColor()
-                            : ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length]);
-                    labels.add(account.getName());
-                }
+        long start = new LocalDate().minusMonths(2).dayOfMonth().withMinimumValue().toDate().getTime();
+        long end = new LocalDate().plusDays(1).toDate().getTime();
+        Map<String, Double> balances = getAccountBalances(AccountType.EXPENSE, accountUIDs, start, end);
+        for (Account account : accounts) {
+            double balance = balances.get(account.getUID());
+            if (balance > 0) {
+                dataSet.addEntry(new Entry((float) balance, dataSet.getEntryCount()));
+                colors.add(account.getColor() != Account.DEFAULT_COLOR
+                        ? account.getColor()
+                        : ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length]);
+                labels.add(account.getName());
             }
         }
         dataSet.setColors(colors);
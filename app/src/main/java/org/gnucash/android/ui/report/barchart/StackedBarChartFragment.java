@@ -36,6 +36,7 @@ import com.github.mikephil.charting.utils.LargeValueFormatter;
 
 import org.gnucash.android.R;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.ReportsDbAdapter.PeriodBalances;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
@@ -46,7 +47,6 @@ import org.joda.time.LocalDateTime;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -130,73 +130,71 @@ public class StackedBarChartFragment extends BaseReportFragment {
         LocalDateTime tmpDate = new LocalDateTime(getStartDate(mAccountType).toDate().getTime());
         int count = getDateDiff(new LocalDateTime(getStartDate(mAccountType).toDate().getTime()),
                 new LocalDateTime(getEndDate(mAccountType).toDate().getTime()));
+
+        List<Account> accounts = new ArrayList<>();
+        List<String> accountUIDs = new ArrayList<>();
+        for (Account account : mAccountsDbAdapter.getSimpleAccountList()) {
+            if (account.getAccountType() == mAccountType
+                    && !account.isPlaceholderAccount()
+                    && account.getCommodity().equals(mCommodity)) {
+                accounts.add(account);
+                accountUIDs.add(account.getUID());
+            }
+        }
+        PeriodBalances balances = getPeriodBalances(mAccountType, accountUIDs, getGroupPeriodStart(tmpDate), count + 1);
+        int sign = mAccountType.hasDebitNormalBalance() ? 1 : -1;
+
         for (int i = 0; i <= count; i++) {
-            long start = 0;
-            long end = 0;
             switch (mGroupInterval) {
                 case MONTH:
-                    start = tmpDate.dayOfMonth().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = tmpDate.dayOfMonth().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
                     xValues.add(tmpDate.toString(X_AXIS_MONTH_PATTERN));
                     tmpDate = tmpDate.plusMonths(1);
                     break;
                 case QUARTER:
                     int quarter = getQuarter(tmpDate);
-                    start = tmpDate.withMonthOfYear(quarter * 3 - 2).dayOfMonth().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = tmpDate.withMonthOfYear(quarter * 3).dayOfMonth().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
                     xValues.add(String.format(X_AXIS_QUARTER_PATTERN, quarter, tmpDate.toString(" YY")));
                     tmpDate = tmpDate.plusMonths(3);
                     break;
                 case YEAR:
-                    start = tmpDate.dayOfYear().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = tmpDate.dayOfYear().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
                     xValues.add(tmpDate.toString(X_AXIS_YEAR_PATTERN));
                     tmpDate = tmpDate.plusYears(1);
                     break;
             }
             List<Float> stack = new ArrayList<>();
-            for (Account account : mAccountsDbAdapter.getSimpleAccountList()) {
-                if (account.getAccountType() == mAccountType
-                        && !account.isPlaceholderAccount()
-                        && account.getCommodity().equals(mCommodity)) {
-
-                    double balance = mAccountsDbAdapter.getAccountsBalance(
-                            Collections.singletonList(account.getUID()), start, end).asDouble();
-                    if (balance != 0) {
-                        stack.add((float) balance);
-
-                        String accountName = account.getName();
-                        while (labels.contains(accountName)) {
-                            if (!accountToColorMap.containsKey(account.getUID())) {
-                                for (String label : labels) {
-                                    if (label.equals(accountName)) {
-                                        accountName += " ";
-                                    }
+            for (int accountIndex = 0; accountIndex < accounts.size(); accountIndex++) {
+                Account account = accounts.get(accountIndex);
+                double balance = sign * balances.getAmount(accountIndex, i);
+                if (balance != 0) {
+                    stack.add((float) balance);
+
+                    String accountName = account.getName();
+                    while (labels.contains(accountName)) {
+                        if (!accountToColorMap.containsKey(account.getUID())) {
+                            for (String label : labels) {
+                                if (label.equals(accountName)) {
+                                    accountName += " ";
                                 }
-                            } else {
-                                break;
                             }
+                        } else {
+                            break;
                         }
-                        labels.add(accountName);
-
-                        if (!accountToColorMap.containsKey(account.getUID())) {
-                            Integer color;
-                            if (mUseAccountColor) {
-                                color = (account.getColor() != Account.DEFAULT_COLOR)
-                                        ? account.getColor()
-                                        : COLORS[accountToColorMap.size() % COLORS.length];
-                            } else {
-                                color = COLORS[accountToColorMap.size() % COLORS.length];
-                            }
-                            accountToColorMap.put(account.getUID(), color);
+                    }
+                    labels.add(accountName);
+
+                    if (!accountToColorMap.containsKey(account.getUID())) {
+                        Integer color;
+                        if (mUseAccountColor) {
+                            color = (account.getColor() != Account.DEFAULT_COLOR)
+                                    ? account.getColor()
+                                    : COLORS[accountToColorMap.size() % COLORS.length];
+                        } else {
+                            color = COLORS[accountToColorMap.size() % COLORS.length];
                         }
-                        colors.add(accountToColorMap.get(account.getUID()));
-
-                        Log.d(TAG, mAccountType + tmpDate.toString(" MMMM yyyy ") + account.getName() + " = " + stack.get(stack.size() - 1));
+                        accountToColorMap.put(account.getUID(), color);
                     }
+                    colors.add(accountToColorMap.get(account.getUID()));
+
+                    Log.d(TAG, mAccountType + tmpDate.toString(" MMMM yyyy ") + account.getName() + " = " + stack.get(stack.size() - 1));
                 }
             }
 
@@ -34,6 +34,7 @@ import com.github.mikephil.charting.utils.LargeValueFormatter;
 
 import org.gnucash.android.R;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.ReportsDbAdapter.PeriodBalances;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
@@ -227,35 +228,14 @@ public class CashFlowLineChartFragment extends BaseReportFragment {
 
         int xAxisOffset = getDateDiff(new LocalDateTime(mEarliestTransactionTimestamp), earliest);
         int count = getDateDiff(earliest, latest);
+        PeriodBalances balances = getPeriodBalances(accountType, accountUIDList, getGroupPeriodStart(earliest), count + 1);
+        int sign = accountType.hasDebitNormalBalance() ? 1 : -1;
+
         List<Entry> values = new ArrayList<>(count + 1);
         for (int i = 0; i <= count; i++) {
-            long start = 0;
-            long end = 0;
-            switch (mGroupInterval) {
-                case QUARTER:
-                    int quarter = getQuarter(earliest);
-                    start = earliest.withMonthOfYear(quarter * 3 - 2).dayOfMonth().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = earliest.withMonthOfYear(quarter * 3).dayOfMonth().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
-                    earliest = earliest.plusMonths(3);
-                    break;
-                case MONTH:
-                    start = earliest.dayOfMonth().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = earliest.dayOfMonth().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
-                    earliest = earliest.plusMonths(1);
-                    break;
-                case YEAR:
-                    start = earliest.dayOfYear().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = earliest.dayOfYear().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
-                    earliest = earliest.plusYears(1);
-                    break;
-            }
-            float balance = (float) mAccountsDbAdapter.getAccountsBalance(accountUIDList, start, end).asDouble();
+            float balance = (float) (sign * balances.getTotalAmount(i));
             values.add(new Entry(balance, i + xAxisOffset));
-            Log.d(TAG, accountType + earliest.toString(" MMM yyyy") + ", balance = " + balance);
-
+            Log.d(TAG, accountType + new LocalDateTime(balances.getPeriodStart(i)).toString(" MMM yyyy") + ", balance = " + balance);
         }
 
         return values;
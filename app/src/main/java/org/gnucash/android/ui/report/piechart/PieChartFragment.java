@@ -41,6 +41,7 @@ import org.gnucash.android.ui.report.ReportsActivity;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import butterknife.BindView;
 
@@ -148,26 +149,32 @@ public class PieChartFragment extends BaseReportFragment {
         PieDataSet dataSet = new PieDataSet(null, "");
         List<String> labels = new ArrayList<>();
         List<Integer> colors = new ArrayList<>();
+        List<Account> accounts = new ArrayList<>();
+        List<String> accountUIDs = new ArrayList<>();
         for (Account account : mAccountsDbAdapter.getSimpleAccountList()) {
             if (account.getAccountType() == mAccountType
                     && !account.isPlaceholderAccount()
                     && account.getCommodity().equals(mCommodity)) {
+                accounts.add(account);
+                accountUIDs.add(account.getUID());
+            }
+        }
 
-                double balance = mAccountsDbAdapter.getAccountsBalance(Collections.singletonList(account.getUID()),
-                        mReportPeriodStart, mReportPeriodEnd).asDouble();
-                if (balance > 0) {
-                    dataSet.addEntry(new Entry((float) balance, dataSet.getEntryCount()));
-                    int color;
-                    if (mUseAccountColor) {
-                        color = (account.getColor() != Account.DEFAULT_COLOR)
-                                ? account.getColor()
-                                : ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length];
-                    } else {
-                        color = ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length];
-                    }
-                    colors.add(color);
-                    labels.add(account.getName());
+        Map<String, Double> balances = getAccountBalances(mAccountType, accountUIDs, mReportPeriodStart, mReportPeriodEnd);
+        for (Account account : accounts) {
+            double balance = balances.get(account.getUID());
+            if (balance > 0) {
+                dataSet.addEntry(new Entry((float) balance, dataSet.getEntryCount()));
+                int color;
+                if (mUseAccountColor) {
+                    color = (account.getColor() != Account.DEFAULT_COLOR)
+                            ? account.getColor()
+                            : ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length];
+                } else {
+                    color = ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length];
                 }
+                colors.add(color);
+                labels.add(account.getName());
             }
         }
         dataSet.setColors(colors);
@@ -37,6 +37,7 @@ import org.gnucash.android.ui.transaction.TransactionsActivity;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import butterknife.BindView;
 
@@ -56,6 +57,7 @@ public class BalanceSheetFragment extends BaseReportFragment {
 
     private Money mAssetsBalance;
     private Money mLiabilitiesBalance;
+    private Money mEquityBalance;
     private List<AccountType> mAssetAccountTypes;
     private List<AccountType> mLiabilityAccountTypes;
     private List<AccountType> mEquityAccountTypes;
@@ -103,15 +105,16 @@ public class BalanceSheetFragment extends BaseReportFragment {
 
     @Override
     protected void generateReport() {
-        mAssetsBalance = mAccountsDbAdapter.getAccountBalance(mAssetAccountTypes, -1, System.currentTimeMillis());
-        mLiabilitiesBalance = mAccountsDbAdapter.getAccountBalance(mLiabilityAccountTypes, -1, System.currentTimeMillis());
+        mAssetsBalance = getAccountTypesBalance(mAssetAccountTypes);
+        mLiabilitiesBalance = getAccountTypesBalance(mLiabilityAccountTypes);
+        mEquityBalance = getAccountTypesBalance(mEquityAccountTypes);
     }
 
     @Override
     protected void displayReport() {
-        loadAccountViews(mAssetAccountTypes, mAssetsTableLayout);
-        loadAccountViews(mLiabilityAccountTypes, mLiabilitiesTableLayout);
-        loadAccountViews(mEquityAccountTypes, mEquityTableLayout);
+        loadAccountViews(mAssetAccountTypes, mAssetsTableLayout, mAssetsBalance);
+        loadAccountViews(mLiabilityAccountTypes, mLiabilitiesTableLayout, mLiabilitiesBalance);
+        loadAccountViews(mEquityAccountTypes, mEquityTableLayout, mEquityBalance);
 
         TransactionsActivity.displayBalance(mNetWorth, mAssetsBalance.subtract(mLiabilitiesBalance));
     }
@@ -126,8 +129,9 @@ public class BalanceSheetFragment extends BaseReportFragment {
      * Loads rows for the individual accounts and adds them to the report
      * @param accountTypes Account types for which to load balances
      * @param tableLayout Table layout into which to load the rows
+     * @param total Total balance of the account types
      */
-    private void loadAccountViews(List<AccountType> accountTypes, TableLayout tableLayout){
+    private void loadAccountViews(List<AccountType> accountTypes, TableLayout tableLayout, Money total){
         LayoutInflater inflater = LayoutInflater.from(getActivity());
 
         Cursor cursor = mAccountsDbAdapter.fetchAccounts(DatabaseSchema.AccountEntry.COLUMN_TYPE
@@ -135,12 +139,22 @@ public class BalanceSheetFragment extends BaseReportFragment {
                         + DatabaseSchema.AccountEntry.COLUMN_PLACEHOLDER + " = 0",
                 null, DatabaseSchema.AccountEntry.COLUMN_FULL_NAME + " ASC");
 
-        while (cursor.moveToNext()){
-            String accountUID = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_UID));
-            String name = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_NAME));
-            Money balance = mAccountsDbAdapter.getAccountBalance(accountUID);
+        List<String> accountUIDs = new ArrayList<>();
+        List<String> accountNames = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                accountUIDs.add(cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_UID)));
+                accountNames.add(cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_NAME)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Map<String, Money> balances = mAccountsDbAdapter.getAccountBalances(accountUIDs, -1, -1);
+        for (int i = 0; i < accountUIDs.size(); i++) {
+            Money balance = balances.get(accountUIDs.get(i));
             View view = inflater.inflate(R.layout.row_balance_sheet, tableLayout, false);
-            ((TextView)view.findViewById(R.id.account_name)).setText(name);
+            ((TextView)view.findViewById(R.id.account_name)).setText(accountNames.get(i));
             TextView balanceTextView = (TextView) view.findViewById(R.id.account_balance);
             TransactionsActivity.displayBalance(balanceTextView, balance);
             tableLayout.addView(view);
@@ -157,7 +171,7 @@ public class BalanceSheetFragment extends BaseReportFragment {
         TextView accountBalance = (TextView) totalView.findViewById(R.id.account_balance);
         accountBalance.setTextSize(16);
         accountBalance.setTypeface(null, Typeface.BOLD);
-        TransactionsActivity.displayBalance(accountBalance, mAccountsDbAdapter.getAccountBalance(accountTypes, -1, System.currentTimeMillis()));
+        TransactionsActivity.displayBalance(accountBalance, total);
 
         tableLayout.addView(totalView);
     }
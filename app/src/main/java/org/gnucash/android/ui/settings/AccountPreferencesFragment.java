@@ -27,6 +27,7 @@ import android.support.v7.app.AppCompatActivity;
 import android.support.v7.preference.ListPreference;
 import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceFragmentCompat;
+import android.util.Log;
 import android.widget.Toast;
 
 import com.crashlytics.android.Crashlytics;
@@ -34,6 +35,7 @@ import com.crashlytics.android.Crashlytics;
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.DatabaseSchema;
+import org.gnucash.android.db.adapter.AccountBalancesDbAdapter;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
 import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
 import org.gnucash.android.export.ExportAsyncTask;
@@ -42,6 +44,7 @@ import org.gnucash.android.export.ExportParams;
 import org.gnucash.android.export.Exporter;
 import org.gnucash.android.model.Money;
 import org.gnucash.android.ui.account.AccountsActivity;
+import org.gnucash.android.ui.homescreen.WidgetConfigurationActivity;
 import org.gnucash.android.ui.settings.dialog.DeleteAllAccountsConfirmationDialog;
 
 import java.util.ArrayList;
@@ -57,6 +60,8 @@ import java.util.concurrent.ExecutionException;
 public class AccountPreferencesFragment extends PreferenceFragmentCompat implements
         Preference.OnPreferenceChangeListener, Preference.OnPreferenceClickListener{
 
+    private static final String LOG_TAG = "AccountPreferences";
+
     private static final int REQUEST_EXPORT_FILE = 0xC5;
 
     List<CharSequence> mCurrencyEntries = new ArrayList<>();
@@ -114,6 +119,15 @@ public class AccountPreferencesFragment extends PreferenceFragmentCompat impleme
             }
         });
 
+        preference = findPreference(getString(R.string.key_rebuild_account_balances));
+        preference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                rebuildAccountBalances();
+                return true;
+            }
+        });
+
         preference = findPreference(getString(R.string.key_create_default_accounts));
         preference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
             @Override
@@ -193,6 +207,27 @@ public class AccountPreferencesFragment extends PreferenceFragmentCompat impleme
         deleteConfirmationDialog.show(getActivity().getSupportFragmentManager(), "account_settings");
     }
 
+    /**
+     * Checks the stored account balances of the active book against its splits,
+     * and recomputes them all if any of them differs
+     */
+    private void rebuildAccountBalances() {
+        AccountBalancesDbAdapter accountBalancesDbAdapter =
+                new AccountBalancesDbAdapter(GnuCashApplication.getActiveDb());
+        List<String> inconsistentAccountUIDs = accountBalancesDbAdapter.findInconsistentAccounts();
+        if (inconsistentAccountUIDs.isEmpty()) {
+            Toast.makeText(getActivity(), R.string.toast_account_balances_consistent, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        Log.w(LOG_TAG, "Inconsistent account balances: " + inconsistentAccountUIDs);
+        accountBalancesDbAdapter.rebuild();
+        int count = inconsistentAccountUIDs.size();
+        Toast.makeText(getActivity(), getResources().getQuantityString(R.plurals.toast_account_balances_rebuilt,
+                count, count), Toast.LENGTH_SHORT).show();
+        WidgetConfigurationActivity.updateAllWidgets(getActivity());
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         switch (requestCode){
@@ -82,6 +82,7 @@ import org.gnucash.android.ui.util.RecurrenceParser;
 import org.gnucash.android.ui.util.RecurrenceViewClickListener;
 import org.gnucash.android.ui.util.widget.CalculatorEditText;
 import org.gnucash.android.ui.util.widget.TransactionTypeSwitch;
+import org.gnucash.android.util.AmountParser;
 import org.gnucash.android.util.QualifiedAccountNameCursorAdapter;
 
 import java.math.BigDecimal;
@@ -1023,19 +1024,10 @@ public class TransactionFormFragment extends Fragment implements
 	 * All non-digit information is removed, but the sign is preserved.
 	 * @param s String to be stripped
 	 * @return Stripped string with all non-digits removed
+	 * @see AmountParser#stripCurrencyFormatting(String)
 	 */
 	public static String stripCurrencyFormatting(String s){
-        if (s.length() == 0)
-            return s;
-		//remove all currency formatting and anything else which is not a number
-        String sign = s.trim().substring(0,1);
-        String stripped = s.trim().replaceAll("\\D*", "");
-        if (stripped.length() == 0)
-            return "";
-        if (sign.equals("+") || sign.equals("-")){
-            stripped = sign + stripped;
-        }
-		return stripped;
+		return AmountParser.stripCurrencyFormatting(s);
 	}
 
     /**
@@ -19,11 +19,12 @@ package org.gnucash.android.ui.transaction;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
-import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
+import android.support.v4.content.AsyncTaskLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
@@ -43,14 +44,8 @@ import android.widget.TextView;
 
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
-import org.gnucash.android.db.DatabaseCursorLoader;
-import org.gnucash.android.db.DatabaseSchema;
-import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.DatabaseAdapter;
-import org.gnucash.android.db.adapter.SplitsDbAdapter;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
-import org.gnucash.android.model.Money;
-import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
 import org.gnucash.android.ui.common.FormActivity;
 import org.gnucash.android.ui.common.Refreshable;
@@ -58,10 +53,10 @@ import org.gnucash.android.ui.common.UxArgument;
 import org.gnucash.android.ui.homescreen.WidgetConfigurationActivity;
 import org.gnucash.android.ui.settings.PreferenceActivity;
 import org.gnucash.android.ui.transaction.dialog.BulkMoveDialogFragment;
-import org.gnucash.android.ui.util.CursorRecyclerAdapter;
 import org.gnucash.android.ui.util.widget.EmptyRecyclerView;
 import org.gnucash.android.util.BackupManager;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import butterknife.BindView;
@@ -73,7 +68,7 @@ import butterknife.ButterKnife;
  *
  */
 public class TransactionsListFragment extends Fragment implements
-        Refreshable, LoaderCallbacks<Cursor>{
+        Refreshable, LoaderCallbacks<List<TransactionsPager.Item>>{
 
 	/**
 	 * Logging tag
@@ -138,7 +133,7 @@ public class TransactionsListFragment extends Fragment implements
 		aBar.setDisplayShowTitleEnabled(false);
 		aBar.setDisplayHomeAsUpEnabled(true);
 
-		mTransactionRecyclerAdapter = new TransactionRecyclerAdapter(null);
+		mTransactionRecyclerAdapter = new TransactionRecyclerAdapter();
 		mRecyclerView.setAdapter(mTransactionRecyclerAdapter);
 
 		setHasOptionsMenu(true);		
@@ -169,12 +164,18 @@ public class TransactionsListFragment extends Fragment implements
 		refresh();
 	}
 
-	public void onListItemClick(long id) {
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		if (mTransactionRecyclerAdapter != null)
+			mTransactionRecyclerAdapter.cancelPageLoad();
+	}
+
+	public void onListItemClick(String transactionUID) {
 		Intent intent = new Intent(getActivity(), TransactionDetailActivity.class);
-		intent.putExtra(UxArgument.SELECTED_TRANSACTION_UID, mTransactionsDbAdapter.getUID(id));
+		intent.putExtra(UxArgument.SELECTED_TRANSACTION_UID, transactionUID);
 		intent.putExtra(UxArgument.SELECTED_ACCOUNT_UID, mAccountUID);
 		startActivity(intent);
-//		mTransactionEditListener.editTransaction(mTransactionsDbAdapter.getUID(id));
 	}
 
 	@Override
@@ -204,53 +205,126 @@ public class TransactionsListFragment extends Fragment implements
 	}
 	
 	@Override
-	public Loader<Cursor> onCreateLoader(int arg0, Bundle arg1) {
+	public Loader<List<TransactionsPager.Item>> onCreateLoader(int arg0, Bundle arg1) {
 		Log.d(LOG_TAG, "Creating transactions loader");
-		return new TransactionsCursorLoader(getActivity(), mAccountUID);
+		return new TransactionsPageLoader(getActivity(), new TransactionsPager(mTransactionsDbAdapter, mAccountUID));
 	}
 
 	@Override
-	public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-		Log.d(LOG_TAG, "Transactions loader finished. Swapping in cursor");
-		mTransactionRecyclerAdapter.swapCursor(cursor);
-		mTransactionRecyclerAdapter.notifyDataSetChanged();
+	public void onLoadFinished(Loader<List<TransactionsPager.Item>> loader, List<TransactionsPager.Item> firstPage) {
+		Log.d(LOG_TAG, "Transactions loader finished. Swapping in first page");
+		mTransactionRecyclerAdapter.swapFirstPage(((TransactionsPageLoader) loader).mPager, firstPage);
 	}
 
 	@Override
-	public void onLoaderReset(Loader<Cursor> loader) {
+	public void onLoaderReset(Loader<List<TransactionsPager.Item>> loader) {
 		Log.d(LOG_TAG, "Resetting transactions loader");
-		mTransactionRecyclerAdapter.swapCursor(null);
+		mTransactionRecyclerAdapter.swapFirstPage(null, null);
 	}
 
 	/**
-	 * {@link DatabaseCursorLoader} for loading transactions asynchronously from the database
+	 * Loader of the first page of transactions of an account.
+	 * The following pages are loaded by the adapter, as the list is scrolled
 	 * @author Ngewi Fet <ngewif@gmail.com>
 	 */
-	protected static class TransactionsCursorLoader extends DatabaseCursorLoader {
-		private String accountUID;
-		
-		public TransactionsCursorLoader(Context context, String accountUID) {
-			super(context);			
-			this.accountUID = accountUID;
+	protected static class TransactionsPageLoader extends AsyncTaskLoader<List<TransactionsPager.Item>> {
+		private final TransactionsPager mPager;
+		private List<TransactionsPager.Item> mFirstPage;
+
+		public TransactionsPageLoader(Context context, TransactionsPager pager) {
+			super(context);
+			mPager = pager;
 		}
-		
+
+		@Override
+		public List<TransactionsPager.Item> loadInBackground() {
+			return mPager.loadPage(null);
+		}
+
 		@Override
-		public Cursor loadInBackground() {
-			mDatabaseAdapter = TransactionsDbAdapter.getInstance();
-			Cursor c = ((TransactionsDbAdapter) mDatabaseAdapter).fetchAllTransactionsForAccount(accountUID);
-			if (c != null)
-				registerContentObserver(c);
-			return c;
-		}		
+		public void deliverResult(List<TransactionsPager.Item> firstPage) {
+			if (isReset())
+				return;
+			mFirstPage = firstPage;
+			if (isStarted())
+				super.deliverResult(firstPage);
+		}
+
+		@Override
+		protected void onStartLoading() {
+			if (mFirstPage != null)
+				deliverResult(mFirstPage);
+			if (takeContentChanged() || mFirstPage == null)
+				forceLoad();
+		}
+
+		@Override
+		protected void onStopLoading() {
+			cancelLoad();
+		}
+
+		@Override
+		protected void onReset() {
+			super.onReset();
+			onStopLoading();
+			mFirstPage = null;
+		}
 	}
 
-	public class TransactionRecyclerAdapter extends CursorRecyclerAdapter<TransactionRecyclerAdapter.ViewHolder>{
+	/**
+	 * Adapter of the list of transactions.
+	 * <p>It starts with the first page of transactions, and loads the next page in the background
+	 * when the rows near the end of the list are bound.</p>
+	 */
+	public class TransactionRecyclerAdapter extends RecyclerView.Adapter<TransactionRecyclerAdapter.ViewHolder>{
 
 		public static final int ITEM_TYPE_COMPACT 	= 0x111;
 		public static final int ITEM_TYPE_FULL		= 0x100;
 
-		public TransactionRecyclerAdapter(Cursor cursor) {
-			super(cursor);
+		/**
+		 * Number of rows left before the end of the list, at which the next page is loaded
+		 */
+		private static final int PREFETCH_DISTANCE = TransactionsPager.PAGE_SIZE / 2;
+
+		private final List<TransactionsPager.Item> mItems = new ArrayList<>();
+		private TransactionsPager mPager;
+		private boolean mHasMorePages;
+		private LoadPageTask mLoadPageTask;
+
+		/**
+		 * Replaces the transactions of the list with the first page of a pager.
+		 * A page of the previous pager which is still loading is discarded
+		 * @param pager Pager of the following pages, or {@code null} if the list is cleared
+		 * @param firstPage First page of transactions, or {@code null} if the list is cleared
+		 */
+		public void swapFirstPage(@Nullable TransactionsPager pager, @Nullable List<TransactionsPager.Item> firstPage) {
+			cancelPageLoad();
+			mPager = pager;
+			mItems.clear();
+			if (firstPage != null)
+				mItems.addAll(firstPage);
+			mHasMorePages = pager != null && firstPage != null && firstPage.size() == TransactionsPager.PAGE_SIZE;
+			notifyDataSetChanged();
+		}
+
+		/**
+		 * Cancels the loading of the next page, if any
+		 */
+		public void cancelPageLoad() {
+			if (mLoadPageTask != null) {
+				mLoadPageTask.cancel(false);
+				mLoadPageTask = null;
+			}
+		}
+
+		@Override
+		public int getItemCount() {
+			return mItems.size();
+		}
+
+		@Override
+		public long getItemId(int position) {
+			return mItems.get(position).mId;
 		}
 
 		@Override
@@ -267,45 +341,36 @@ public class TransactionsListFragment extends Fragment implements
 		}
 
 		@Override
-		public void onBindViewHolderCursor(ViewHolder holder, Cursor cursor) {
-			holder.transactionId = cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseSchema.TransactionEntry._ID));
-
-			String description = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.TransactionEntry.COLUMN_DESCRIPTION));
-			holder.primaryText.setText(description);
+		public void onBindViewHolder(ViewHolder holder, int position) {
+			if (mHasMorePages && mLoadPageTask == null && position >= mItems.size() - PREFETCH_DISTANCE) {
+				mLoadPageTask = new LoadPageTask(mPager);
+				mLoadPageTask.execute(mItems.get(mItems.size() - 1));
+			}
 
-			final String transactionUID = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.TransactionEntry.COLUMN_UID));
-			Money amount = mTransactionsDbAdapter.getBalance(transactionUID, mAccountUID);
-			TransactionsActivity.displayBalance(holder.transactionAmount, amount);
+			final TransactionsPager.Item item = mItems.get(position);
+			holder.transactionId = item.mId;
+			holder.primaryText.setText(item.mDescription);
+			TransactionsActivity.displayBalance(holder.transactionAmount, item.mAmount);
 
-			long dateMillis = cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseSchema.TransactionEntry.COLUMN_TIMESTAMP));
-			String dateText = TransactionsActivity.getPrettyDateFormat(getActivity(), dateMillis);
+			String dateText = TransactionsActivity.getPrettyDateFormat(getActivity(), item.mTimestamp);
 
-			final long id = holder.transactionId;
 			holder.itemView.setOnClickListener(new View.OnClickListener() {
 				@Override
 				public void onClick(View v) {
-					onListItemClick(id);
+					onListItemClick(item.mUID);
 				}
 			});
 
 			if (mUseCompactView) {
 				holder.secondaryText.setText(dateText);
 			} else {
-
-				List<Split> splits = SplitsDbAdapter.getInstance().getSplitsForTransaction(transactionUID);
 				String text = "";
-
-				if (splits.size() == 2 && splits.get(0).isPairOf(splits.get(1))) {
-					for (Split split : splits) {
-						if (!split.getAccountUID().equals(mAccountUID)) {
-							text = AccountsDbAdapter.getInstance().getFullyQualifiedAccountName(split.getAccountUID());
-							break;
-						}
-					}
+				if (item.mTransferAccountName != null) {
+					text = item.mTransferAccountName;
 				}
 
-				if (splits.size() > 2) {
-					text = splits.size() + " splits";
+				if (item.mSplitCount > 2) {
+					text = item.mSplitCount + " splits";
 				}
 				holder.secondaryText.setText(text);
 				holder.transactionDate.setText(dateText);
@@ -315,7 +380,7 @@ public class TransactionsListFragment extends Fragment implements
 					public void onClick(View v) {
 						Intent intent = new Intent(getActivity(), FormActivity.class);
 						intent.putExtra(UxArgument.FORM_TYPE, FormActivity.FormType.TRANSACTION.name());
-						intent.putExtra(UxArgument.SELECTED_TRANSACTION_UID, transactionUID);
+						intent.putExtra(UxArgument.SELECTED_TRANSACTION_UID, item.mUID);
 						intent.putExtra(UxArgument.SELECTED_ACCOUNT_UID, mAccountUID);
 						startActivity(intent);
 					}
@@ -323,6 +388,33 @@ public class TransactionsListFragment extends Fragment implements
 			}
 		}
 
+		/**
+		 * Loads the page following a transaction, and appends it to the list if the list still shows the same pager
+		 */
+		private class LoadPageTask extends AsyncTask<TransactionsPager.Item, Void, List<TransactionsPager.Item>> {
+			private final TransactionsPager mTaskPager;
+
+			LoadPageTask(TransactionsPager pager) {
+				mTaskPager = pager;
+			}
+
+			@Override
+			protected List<TransactionsPager.Item> doInBackground(TransactionsPager.Item... last) {
+				return mTaskPager.loadPage(last[0]);
+			}
+
+			@Override
+			protected void onPostExecute(List<TransactionsPager.Item> page) {
+				if (mLoadPageTask != this || mPager != mTaskPager)
+					return;
+				mLoadPageTask = null;
+				mHasMorePages = page.size() == TransactionsPager.PAGE_SIZE;
+				int positionStart = mItems.size();
+				mItems.addAll(page);
+				notifyItemRangeInserted(positionStart, page.size());
+			}
+		}
+
 		public class ViewHolder extends RecyclerView.ViewHolder implements PopupMenu.OnMenuItemClickListener{
 			@BindView(R.id.primary_text) 		public TextView primaryText;
 			@BindView(R.id.secondary_text) 		public TextView secondaryText;
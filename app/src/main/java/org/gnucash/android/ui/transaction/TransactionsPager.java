@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.ui.transaction;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.MoneyAccumulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the transactions of an account one page at a time, for the list of transactions.
+ * <p>Each page continues after the last transaction of the previous one, see
+ * {@link TransactionsDbAdapter#fetchTransactionsPageForAccount(String, String, long, long, int)}.
+ * Everything shown in a row of the list is read with the page, so that no database access
+ * is needed when the rows are bound.</p>
+ */
+class TransactionsPager {
+
+    /**
+     * Number of transactions loaded at once
+     */
+    static final int PAGE_SIZE = 50;
+
+    private final TransactionsDbAdapter mTransactionsDbAdapter;
+    private final String mAccountUID;
+
+    /**
+     * Currency and type of the account, read with the first page
+     */
+    private String mAccountCurrencyCode;
+    private Commodity mAccountCommodity;
+    private boolean mHasDebitNormalBalance;
+
+    /**
+     * Creates a pager for the transactions of an account. No database access happens until a page is loaded
+     * @param transactionsDbAdapter Transactions database adapter
+     * @param accountUID GUID of the account
+     */
+    TransactionsPager(@NonNull TransactionsDbAdapter transactionsDbAdapter, @NonNull String accountUID) {
+        mTransactionsDbAdapter = transactionsDbAdapter;
+        mAccountUID = accountUID;
+    }
+
+    /**
+     * Loads the page of transactions following a transaction
+     * @param last Last transaction of the previous page, or {@code null} to load the first page
+     * @return Transactions of the page. There are fewer than {@link #PAGE_SIZE} only on the last page
+     */
+    @WorkerThread
+    synchronized List<Item> loadPage(@Nullable Item last) {
+        if (mAccountCurrencyCode == null) {
+            AccountsDbAdapter accountsDbAdapter = AccountsDbAdapter.getInstance();
+            mAccountCurrencyCode = accountsDbAdapter.getAccountCurrencyCode(mAccountUID);
+            mAccountCommodity = Commodity.getInstance(mAccountCurrencyCode);
+            mHasDebitNormalBalance = accountsDbAdapter.getAccountType(mAccountUID).hasDebitNormalBalance();
+        }
+
+        long beforeTimestamp = last == null ? Long.MAX_VALUE : last.mTimestamp;
+        long beforeId = last == null ? Long.MAX_VALUE : last.mId;
+        Cursor cursor = mTransactionsDbAdapter.fetchTransactionsPageForAccount(
+                mAccountUID, mAccountCurrencyCode, beforeTimestamp, beforeId, PAGE_SIZE);
+        List<Item> items = new ArrayList<>(PAGE_SIZE);
+        try {
+            int idIndex = cursor.getColumnIndexOrThrow(TransactionEntry._ID);
+            int uidIndex = cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_UID);
+            int descriptionIndex = cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_DESCRIPTION);
+            int timestampIndex = cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_TIMESTAMP);
+            int amountNumIndex = cursor.getColumnIndexOrThrow("amount_num");
+            int amountDenomIndex = cursor.getColumnIndexOrThrow("amount_denom");
+            int splitCountIndex = cursor.getColumnIndexOrThrow("split_count");
+            int transferAccountIndex = cursor.getColumnIndexOrThrow("transfer_account");
+            boolean hasRow = cursor.moveToNext();
+            while (hasRow) {
+                long id = cursor.getLong(idIndex);
+                String uid = cursor.getString(uidIndex);
+                String description = cursor.getString(descriptionIndex);
+                long timestamp = cursor.getLong(timestampIndex);
+                int splitCount = cursor.getInt(splitCountIndex);
+                String transferAccountName = cursor.getString(transferAccountIndex);
+                // a transaction has one row for each denominator of its splits in the account
+                MoneyAccumulator amount = new MoneyAccumulator(mAccountCommodity);
+                do {
+                    if (mHasDebitNormalBalance) {
+                        amount.add(cursor.getLong(amountNumIndex), cursor.getLong(amountDenomIndex));
+                    } else {
+                        amount.subtract(cursor.getLong(amountNumIndex), cursor.getLong(amountDenomIndex));
+                    }
+                    hasRow = cursor.moveToNext();
+                } while (hasRow && cursor.getLong(idIndex) == id);
+                items.add(new Item(id, uid, description, timestamp, amount.toMoney(), splitCount, transferAccountName));
+            }
+        } finally {
+            cursor.close();
+        }
+        return items;
+    }
+
+    /**
+     * A transaction as shown in the list of transactions of an account
+     */
+    static final class Item {
+        final long mId;
+        final String mUID;
+        final String mDescription;
+        final long mTimestamp;
+
+        /**
+         * Amount of the transaction in the account, signed like the account balance
+         */
+        final Money mAmount;
+
+        final int mSplitCount;
+
+        /**
+         * Full name of the other account of a transfer between two accounts, or {@code null}
+         */
+        final String mTransferAccountName;
+
+        Item(long id, String uid, String description, long timestamp, Money amount,
+             int splitCount, @Nullable String transferAccountName) {
+            mId = id;
+            mUID = uid;
+            mDescription = description;
+            mTimestamp = timestamp;
+            mAmount = amount;
+            mSplitCount = splitCount;
+            mTransferAccountName = transferAccountName;
+        }
+    }
+}
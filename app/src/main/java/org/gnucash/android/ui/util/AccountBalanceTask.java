@@ -52,6 +52,9 @@ public class AccountBalanceTask extends AsyncTask<String, Void, Money> {
             cancel(true);
             return Money.getZeroInstance();
         }
+        //the view may have been bound to another account while the task was waiting to run
+        if (isCancelled())
+            return null;
 
         Money balance = Money.getZeroInstance();
         try {
@@ -29,4 +29,24 @@ public class AmountParser {
 
         return parsedAmount;
     }
-}
\ No newline at end of file
+
+    /**
+     * Strips formatting from a currency string.
+     * All non-digit information is removed, but the sign is preserved.
+     * @param s String to be stripped
+     * @return Stripped string with all non-digits removed
+     */
+    public static String stripCurrencyFormatting(String s) {
+        if (s.length() == 0)
+            return s;
+        //remove all currency formatting and anything else which is not a number
+        String sign = s.trim().substring(0, 1);
+        String stripped = s.trim().replaceAll("\\D*", "");
+        if (stripped.length() == 0)
+            return "";
+        if (sign.equals("+") || sign.equals("-")) {
+            stripped = sign + stripped;
+        }
+        return stripped;
+    }
+}
@@ -20,42 +20,85 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.SystemClock;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.crashlytics.android.Crashlytics;
 
 import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.DeletedRecordsDbAdapter;
 import org.gnucash.android.export.ExportFormat;
 import org.gnucash.android.export.ExportParams;
 import org.gnucash.android.export.Exporter;
 import org.gnucash.android.export.xml.GncXmlExporter;
+import org.gnucash.android.importer.GncXmlImporter;
 import org.gnucash.android.model.Book;
 import org.gnucash.android.receivers.PeriodicJobReceiver;
 import org.gnucash.android.ui.settings.PreferenceActivity;
+import org.xml.sax.SAXException;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
+import java.util.Locale;
+
+import javax.xml.parsers.ParserConfigurationException;
 
 
 /**
  * Deals with all backup-related tasks.
+ *
+ * <p>Unless the user has set a backup file, backups are incremental: a full snapshot of the book is followed by
+ * delta files which hold the changes made since the previous backup. The deltas of a snapshot are kept in the
+ * folder {@code <snapshot file name>.deltas} next to it. A new snapshot is made once the deltas grow to half
+ * the size of the snapshot, and the deltas are compacted into one when there are {@link #MAX_DELTA_COUNT} of them.
+ * A delta is restored by importing its snapshot and merging the deltas up to it.</p>
  */
 public class BackupManager {
     private static final String LOG_TAG = "BackupManager";
     public static final String KEY_BACKUP_FILE = "book_backup_file_key";
 
+    /**
+     * Name of the file of the current snapshot of the book, in the book preferences
+     */
+    private static final String KEY_SNAPSHOT_FILE = "book_backup_snapshot_file_key";
+
+    /**
+     * Start time of the current snapshot of the book, in the book preferences
+     */
+    private static final String KEY_SNAPSHOT_TIME = "book_backup_snapshot_time_key";
+
+    /**
+     * Start time of the last backup of the book, in the book preferences.
+     * The next delta holds the changes made after this time.
+     */
+    static final String KEY_LAST_BACKUP_TIME = "book_backup_last_time_key";
+
+    /**
+     * Suffix of the name of the folder of the deltas of a snapshot
+     */
+    private static final String DELTAS_FOLDER_SUFFIX = ".deltas";
+
+    /**
+     * Number of deltas of a snapshot after which they are compacted into one
+     */
+    static final int MAX_DELTA_COUNT = 10;
+
     /**
      * Perform an automatic backup of all books in the database.
      * This method is run every time the service is executed
@@ -72,18 +115,18 @@ public class BackupManager {
                 continue;
             }
 
-            try (BufferedOutputStream bufferedOutputStream =
-                    new BufferedOutputStream(context.getContentResolver().openOutputStream(Uri.parse(backupFile)))){
-                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(bufferedOutputStream);
-                OutputStreamWriter writer = new OutputStreamWriter(gzipOutputStream);
+            Timestamp startTime = TimestampHelper.getTimestampFromNow();
+            try (OutputStream gzipOutputStream = GncXmlExporter.createGzipOutputStream(
+                    context.getContentResolver().openOutputStream(Uri.parse(backupFile)))){
                 ExportParams params = new ExportParams(ExportFormat.XML);
-                new GncXmlExporter(params).generateExport(writer);
-                writer.close();
+                new GncXmlExporter(params).generateExport(gzipOutputStream);
             } catch (IOException ex) {
                 Log.e(LOG_TAG, "Auto backup failed for book " + bookUID);
                 ex.printStackTrace();
                 Crashlytics.logException(ex);
+                continue;
             }
+            endIncrementalBackup(bookUID, startTime);
         }
     }
 
@@ -99,28 +142,28 @@ public class BackupManager {
     /**
      * Backs up the book with UID {@code bookUID} to the directory
      * {@link #getBackupFolderPath(String)}.
+     * <p>The backup is incremental, unless the user has set a backup file. Then the full book is written to it.</p>
      *
      * @param bookUID Unique ID of the book
      * @return {@code true} if backup was successful, {@code false} otherwise
      */
     public static boolean backupBook(String bookUID){
         OutputStream outputStream;
+        Timestamp startTime = TimestampHelper.getTimestampFromNow();
         try {
             String backupFile = getBookBackupFileUri(bookUID);
             if (backupFile != null){
                 outputStream = GnuCashApplication.getAppContext().getContentResolver().openOutputStream(Uri.parse(backupFile));
             } else { //no Uri set by user, use default location on SD card
-                backupFile = getBackupFilePath(bookUID);
-                outputStream = new FileOutputStream(backupFile);
+                return backupBookIncrementally(bookUID);
             }
 
-            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream);
-            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(bufferedOutputStream);
-            OutputStreamWriter writer = new OutputStreamWriter(gzipOutputStream);
+            OutputStream gzipOutputStream = GncXmlExporter.createGzipOutputStream(outputStream);
 
             ExportParams params = new ExportParams(ExportFormat.XML);
-            new GncXmlExporter(params).generateExport(writer);
-            writer.close();
+            new GncXmlExporter(params).generateExport(gzipOutputStream);
+            gzipOutputStream.close();
+            endIncrementalBackup(bookUID, startTime);
             return true;
         } catch (IOException | Exporter.ExporterException e) {
             Crashlytics.logException(e);
@@ -129,6 +172,225 @@ public class BackupManager {
         }
     }
 
+    /**
+     * Backs up a book to its backup folder, as a delta of the current snapshot or as a new snapshot
+     * @param bookUID GUID of the book
+     * @return {@code true} if backup was successful, {@code false} otherwise
+     */
+    private static boolean backupBookIncrementally(String bookUID) {
+        Timestamp startTime = TimestampHelper.getTimestampFromNow();
+        SharedPreferences preferences = PreferenceActivity.getBookSharedPreferences(bookUID);
+        DatabaseHelper databaseHelper = null;
+        try {
+            SQLiteDatabase db;
+            if (bookUID.equals(BooksDbAdapter.getInstance().getActiveBookUID())) {
+                db = GnuCashApplication.getActiveDb();
+            } else {
+                databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID);
+                db = databaseHelper.getWritableDatabase();
+            }
+
+            File snapshotFile = getSnapshotFile(bookUID);
+            if (snapshotFile == null) {
+                return backupSnapshot(bookUID, db, startTime);
+            }
+            List<File> deltaFiles = getDeltaFiles(snapshotFile);
+            long deltasSize = 0;
+            for (File deltaFile : deltaFiles) {
+                deltasSize += deltaFile.length();
+            }
+            if (deltasSize > snapshotFile.length() / 2) {
+                return backupSnapshot(bookUID, db, startTime);
+            }
+
+            File deltaFolder = getDeltaFolder(snapshotFile);
+            deltaFolder.mkdirs();
+            File deltaFile = new File(deltaFolder, buildDeltaFilename(bookUID, deltaFiles.size() + 1));
+            if (deltaFiles.size() >= MAX_DELTA_COUNT) {
+                // the compacted delta is written before the others are deleted, so the chain stays valid
+                writeExport(db, deltaFile, new Timestamp(preferences.getLong(KEY_SNAPSHOT_TIME, 0)));
+                for (File oldDeltaFile : deltaFiles) {
+                    oldDeltaFile.delete();
+                }
+                Log.i(LOG_TAG, String.format("%d deltas of %s compacted", deltaFiles.size(), snapshotFile.getName()));
+            } else {
+                writeExport(db, deltaFile, new Timestamp(preferences.getLong(KEY_LAST_BACKUP_TIME, 0)));
+            }
+            preferences.edit().putLong(KEY_LAST_BACKUP_TIME, startTime.getTime()).apply();
+            return true;
+        } catch (IOException | Exporter.ExporterException e) {
+            Crashlytics.logException(e);
+            Log.e(LOG_TAG, "Error creating incremental backup", e);
+            return false;
+        } finally {
+            if (databaseHelper != null)
+                databaseHelper.close();
+        }
+    }
+
+    /**
+     * Writes a full snapshot of a book and starts a new chain of deltas from it
+     * @param bookUID GUID of the book
+     * @param db Database of the book
+     * @param startTime Time at which the backup started
+     * @return {@code true}
+     * @throws IOException if the snapshot could not be written
+     */
+    private static boolean backupSnapshot(String bookUID, SQLiteDatabase db, Timestamp startTime) throws IOException {
+        File snapshotFile = new File(getBackupFilePath(bookUID));
+        writeExport(db, snapshotFile, null);
+        // the deletions which happened before the snapshot are part of it
+        new DeletedRecordsDbAdapter(db).purge(startTime);
+        PreferenceActivity.getBookSharedPreferences(bookUID).edit()
+                .putString(KEY_SNAPSHOT_FILE, snapshotFile.getName())
+                .putLong(KEY_SNAPSHOT_TIME, startTime.getTime())
+                .putLong(KEY_LAST_BACKUP_TIME, startTime.getTime())
+                .apply();
+        return true;
+    }
+
+    /**
+     * Ends the incremental backup of a book once a full backup has been written to the backup file set by the user.
+     * <p>The deleted records are purged, as the deletions before the full backup are part of it. The current
+     * snapshot is dropped, so that the next incremental backup starts with a new snapshot instead of a delta
+     * which would miss the purged deletions.</p>
+     * @param bookUID GUID of the book
+     * @param startTime Time at which the full backup started
+     */
+    private static void endIncrementalBackup(String bookUID, Timestamp startTime) {
+        DatabaseHelper databaseHelper = null;
+        try {
+            SQLiteDatabase db;
+            if (bookUID.equals(BooksDbAdapter.getInstance().getActiveBookUID())) {
+                db = GnuCashApplication.getActiveDb();
+            } else {
+                databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID);
+                db = databaseHelper.getWritableDatabase();
+            }
+            new DeletedRecordsDbAdapter(db).purge(startTime);
+        } finally {
+            if (databaseHelper != null)
+                databaseHelper.close();
+        }
+        PreferenceActivity.getBookSharedPreferences(bookUID).edit()
+                .remove(KEY_SNAPSHOT_FILE)
+                .apply();
+    }
+
+    /**
+     * Writes a gzipped XML export of a book to a file
+     * @param db Database of the book
+     * @param file Output file
+     * @param since Start time of a delta export, or {@code null} for a full export
+     * @throws IOException if the file could not be written
+     */
+    private static void writeExport(SQLiteDatabase db, File file, @Nullable Timestamp since) throws IOException {
+        OutputStream gzipOutputStream = GncXmlExporter.createGzipOutputStream(new FileOutputStream(file));
+        try {
+            GncXmlExporter exporter = new GncXmlExporter(new ExportParams(ExportFormat.XML), db);
+            if (since == null) {
+                exporter.generateExport(gzipOutputStream);
+            } else {
+                exporter.generateDeltaExport(gzipOutputStream, since);
+            }
+        } finally {
+            gzipOutputStream.close();
+        }
+    }
+
+    /**
+     * Returns the current snapshot of a book, which deltas are made from
+     * @param bookUID GUID of the book
+     * @return Snapshot file, or {@code null} if there is none
+     */
+    @Nullable
+    private static File getSnapshotFile(String bookUID) {
+        String snapshotName = PreferenceActivity.getBookSharedPreferences(bookUID).getString(KEY_SNAPSHOT_FILE, null);
+        if (snapshotName == null)
+            return null;
+        File snapshotFile = new File(getBackupFolderPath(bookUID), snapshotName);
+        return snapshotFile.isFile() ? snapshotFile : null;
+    }
+
+    private static File getDeltaFolder(File snapshotFile) {
+        return new File(snapshotFile.getParentFile(), snapshotFile.getName() + DELTAS_FOLDER_SUFFIX);
+    }
+
+    /**
+     * Returns the deltas of a snapshot, oldest first
+     * @param snapshotFile Snapshot file
+     * @return List of delta files
+     */
+    private static List<File> getDeltaFiles(File snapshotFile) {
+        File[] deltaFiles = getDeltaFolder(snapshotFile).listFiles();
+        if (deltaFiles == null)
+            return new ArrayList<>();
+        Arrays.sort(deltaFiles);
+        return new ArrayList<>(Arrays.asList(deltaFiles));
+    }
+
+    /**
+     * Builds the name of a delta file. A sequence number follows the time of the backup,
+     * so that the deltas sort in the order they were made and {@link Exporter#getExportTime(String)} still works.
+     * @param bookUID GUID of the book
+     * @param sequenceNumber Sequence number of the delta
+     * @return Name of the delta file
+     */
+    private static String buildDeltaFilename(String bookUID, int sequenceNumber) {
+        String bookName = BooksDbAdapter.getInstance().getRecord(bookUID).getDisplayName();
+        String filename = Exporter.buildExportFilename(ExportFormat.XML, bookName);
+        int timeLength = "yyyyMMdd_HHmmss".length();
+        return filename.substring(0, timeLength) + String.format(Locale.US, "_%04d", sequenceNumber)
+                + filename.substring(timeLength);
+    }
+
+    /**
+     * Returns {@code true} if the backup file is a delta of an incremental backup
+     * @param backupUri URI of the backup file
+     * @return {@code true} if the file is a delta, {@code false} otherwise
+     */
+    public static boolean isIncrementalBackup(@NonNull Uri backupUri) {
+        if (!"file".equals(backupUri.getScheme()) || backupUri.getPath() == null)
+            return false;
+        File parentFile = new File(backupUri.getPath()).getParentFile();
+        return parentFile != null && parentFile.getName().endsWith(DELTAS_FOLDER_SUFFIX);
+    }
+
+    /**
+     * Restores a delta of an incremental backup into a new book.
+     * <p>The snapshot of the delta is imported, then the deltas are merged in order up to and including this one.
+     * The scheduled transactions missed since the backup are left to the scheduled action service.</p>
+     * @param deltaFile Delta file
+     * @return GUID of the new book
+     */
+    public static String restoreIncrementalBackup(@NonNull File deltaFile)
+            throws ParserConfigurationException, SAXException, IOException {
+        File deltaFolder = deltaFile.getParentFile();
+        String folderName = deltaFolder.getName();
+        File snapshotFile = new File(deltaFolder.getParentFile(),
+                folderName.substring(0, folderName.length() - DELTAS_FOLDER_SUFFIX.length()));
+
+        String bookUID;
+        InputStream inputStream = new FileInputStream(snapshotFile);
+        try {
+            bookUID = GncXmlImporter.parse(inputStream, false);
+        } finally {
+            inputStream.close();
+        }
+
+        for (File file : getDeltaFiles(snapshotFile)) {
+            if (file.getName().compareTo(deltaFile.getName()) > 0)
+                break;
+            inputStream = new FileInputStream(file);
+            try {
+                GncXmlImporter.merge(inputStream, bookUID);
+            } finally {
+                inputStream.close();
+            }
+        }
+        return bookUID;
+    }
+
     /**
      * Returns the full path of a file to make database backup of the specified book.
      * Backups are done in XML format and are Gzipped (with ".gnca" extension).
@@ -171,10 +433,26 @@ public class BackupManager {
         return sharedPreferences.getString(KEY_BACKUP_FILE, null);
     }
 
+    /**
+     * Returns the backups of a book, including the deltas of incremental backups, newest first
+     * @param bookUID GUID of the book
+     * @return List of backup files
+     */
     public static List<File> getBackupList(String bookUID) {
-        File[] backupFiles = new File(getBackupFolderPath(bookUID)).listFiles();
-        Arrays.sort(backupFiles);
-        List<File> backupFilesList = Arrays.asList(backupFiles);
+        List<File> backupFilesList = new ArrayList<>();
+        for (File file : new File(getBackupFolderPath(bookUID)).listFiles()) {
+            if (file.isFile()) {
+                backupFilesList.add(file);
+                backupFilesList.addAll(getDeltaFiles(file));
+            }
+        }
+        // the names start with the time of the backup
+        Collections.sort(backupFilesList, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return lhs.getName().compareTo(rhs.getName());
+            }
+        });
         Collections.reverse(backupFilesList);
         return  backupFilesList;
     }
@@ -54,6 +54,19 @@ public final class TimestampHelper {
         return UTC_DATE_WITH_MILLISECONDS_FORMAT.withZone(UTC_TIME_ZONE).print(timestamp.getTime());
     }
 
+    /**
+     * Get a {@link String} representing the {@link Timestamp}
+     * in UTC time zone and 'yyyy-MM-dd HH:mm:ss' format, the format of SQLite's CURRENT_TIMESTAMP.
+     * <p>The milliseconds are truncated, so that the string compares lower than or equal to
+     * the timestamps set by the database within the same second.</p>
+     *
+     * @param timestamp The {@link Timestamp} to format.
+     * @return The formatted {@link String}.
+     */
+    public static String getUtcStringWithoutMilliseconds(Timestamp timestamp) {
+        return UTC_DATE_FORMAT.withZone(UTC_TIME_ZONE).print(timestamp.getTime());
+    }
+
     /**
      * @return A {@link Timestamp} with time in milliseconds equals to zero.
      */
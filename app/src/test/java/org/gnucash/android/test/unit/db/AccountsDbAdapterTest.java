@@ -57,7 +57,11 @@ import org.xml.sax.SAXException;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -233,6 +237,26 @@ public class AccountsDbAdapterTest{
         assertThat(child.getFullName()).isEqualTo("Test:Child");
     }
 
+    @Test
+    public void getSubAccountCounts_shouldCountFirstLevelSubAccounts(){
+        Account parent = new Account("Parent");
+        Account firstChild = new Account("First child");
+        firstChild.setParentUID(parent.getUID());
+        Account secondChild = new Account("Second child");
+        secondChild.setParentUID(parent.getUID());
+        Account grandChild = new Account("Grand child");
+        grandChild.setParentUID(firstChild.getUID());
+        mAccountsDbAdapter.bulkAddRecords(Arrays.asList(parent, firstChild, secondChild, grandChild));
+
+        Map<String, Integer> subAccountCounts = mAccountsDbAdapter.getSubAccountCounts(
+                new HashSet<>(Arrays.asList(parent.getUID(), firstChild.getUID(), secondChild.getUID())));
+
+        assertThat(subAccountCounts).hasSize(2);
+        assertThat(subAccountCounts.get(parent.getUID())).isEqualTo(2);
+        assertThat(subAccountCounts.get(firstChild.getUID())).isEqualTo(1);
+        assertThat(subAccountCounts.get(parent.getUID())).isEqualTo(mAccountsDbAdapter.getSubAccountCount(parent.getUID()));
+    }
+
     @Test
     public void shouldAddTransactionsAndSplitsWhenAddingAccounts(){
         Account account = new Account("Test");
@@ -350,6 +374,57 @@ public class AccountsDbAdapterTest{
         assertThat(balance).isEqualTo(expectedBalance);
     }
 
+    @Test
+    public void shouldComputeBalancesOfAccountHierarchy(){
+        Account parent = new Account("Parent", Commodity.USD);
+        parent.setAccountType(AccountType.ASSET);
+        Account child = new Account("Child", Commodity.USD);
+        child.setAccountType(AccountType.ASSET);
+        child.setParentUID(parent.getUID());
+        Account grandChild = new Account("Grand child", Commodity.USD);
+        grandChild.setAccountType(AccountType.ASSET);
+        grandChild.setParentUID(child.getUID());
+        Account transferAcct = new Account("Transfer", Commodity.USD);
+
+        mAccountsDbAdapter.addRecord(parent);
+        mAccountsDbAdapter.addRecord(child);
+        mAccountsDbAdapter.addRecord(grandChild);
+        mAccountsDbAdapter.addRecord(transferAcct);
+
+        long now = System.currentTimeMillis();
+        String[] accountUIDs = {parent.getUID(), child.getUID(), grandChild.getUID()};
+        String[] amounts = {"1.50", "20.25", "300.00"};
+        for (int i = 0; i < accountUIDs.length; i++) {
+            Transaction transaction = new Transaction("Deposit " + i);
+            transaction.setTime(now - (i + 1) * 1000L);
+            Split split = new Split(new Money(amounts[i], "USD"), accountUIDs[i]);
+            split.setType(TransactionType.DEBIT);
+            transaction.addSplit(split);
+            transaction.addSplit(split.createPair(transferAcct.getUID()));
+            mTransactionsDbAdapter.addRecord(transaction);
+        }
+
+        List<String> requested = new ArrayList<>();
+        Collections.addAll(requested, accountUIDs);
+        requested.add("non-existent-account");
+        Map<String, Money> balances = mAccountsDbAdapter.getAccountBalances(requested, -1, -1);
+
+        assertThat(balances).hasSize(3);
+        assertThat(balances.get(parent.getUID())).isEqualTo(new Money("321.75", "USD"));
+        assertThat(balances.get(child.getUID())).isEqualTo(new Money("320.25", "USD"));
+        assertThat(balances.get(grandChild.getUID())).isEqualTo(new Money("300.00", "USD"));
+        //the balance of a single account only loads its sub-tree
+        assertThat(mAccountsDbAdapter.getAccountBalance(parent.getUID())).isEqualTo(balances.get(parent.getUID()));
+        assertThat(mAccountsDbAdapter.getAccountBalance(child.getUID())).isEqualTo(balances.get(child.getUID()));
+        assertThat(mAccountsDbAdapter.getAccountBalance(grandChild.getUID())).isEqualTo(balances.get(grandChild.getUID()));
+
+        //only the deposits in the parent and child accounts are after the start of the range
+        balances = mAccountsDbAdapter.getAccountBalances(Collections.singletonList(parent.getUID()), now - 2500, now);
+        assertThat(balances.get(parent.getUID())).isEqualTo(new Money("21.75", "USD"));
+        assertThat(mAccountsDbAdapter.getAccountBalance(parent.getUID(), now - 2500, now)).isEqualTo(new Money("21.75", "USD"));
+        assertThat(mAccountsDbAdapter.getAccountBalance(grandChild.getUID(), now - 2500, now).isAmountZero()).isTrue();
+    }
+
     /**
      * Test creating an account hierarchy by specifying fully qualified name
      */
@@ -37,7 +37,11 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -131,6 +135,21 @@ public class BudgetsDbAdapterTest {
         assertThat(mBudgetsDbAdapter.getAccountBudgets(mSecondAccount.getUID())).hasSize(1);
     }
 
+    @Test
+    public void getAccountsBudgets_shouldMatchBudgetsOfEachAccount(){
+        mBudgetsDbAdapter.bulkAddRecords(bulkCreateBudgets());
+
+        Map<String, List<Budget>> accountBudgets = mBudgetsDbAdapter.getAccountsBudgets(
+                new HashSet<>(Arrays.asList(mAccount.getUID(), mSecondAccount.getUID())));
+        assertThat(accountBudgets.get(mAccount.getUID()))
+                .containsOnly(mBudgetsDbAdapter.getAccountBudgets(mAccount.getUID()).toArray(new Budget[2]));
+        assertThat(accountBudgets.get(mSecondAccount.getUID()))
+                .containsOnly(mBudgetsDbAdapter.getAccountBudgets(mSecondAccount.getUID()).toArray(new Budget[1]));
+
+        accountBudgets = mBudgetsDbAdapter.getAccountsBudgets(Collections.singleton(mSecondAccount.getUID()));
+        assertThat(accountBudgets).hasSize(1).containsKey(mSecondAccount.getUID());
+    }
+
     @NonNull
     private List<Budget> bulkCreateBudgets() {
         List<Budget> budgets = new ArrayList<>();
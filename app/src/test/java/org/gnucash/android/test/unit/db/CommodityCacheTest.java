@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Pair;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.PriceEntry;
+import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
+import org.gnucash.android.db.adapter.CommodityCache;
+import org.gnucash.android.db.adapter.DatabaseAdapter;
+import org.gnucash.android.db.adapter.PricesDbAdapter;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Price;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class CommodityCacheTest {
+
+    private CommodityCache mCommodityCache;
+
+    @Before
+    public void setUp() {
+        mCommodityCache = CommodityCache.getInstance();
+        mCommodityCache.resetStatistics();
+    }
+
+    @Test
+    public void shouldAnswerRepeatedLookupsFromMemory() {
+        Commodity commodity = mCommodityCache.getCommodity("XAF");
+        assertThat(commodity).isNotNull();
+        assertThat(mCommodityCache.getCurrencyCode(commodity.getUID())).isEqualTo("XAF");
+        assertThat(mCommodityCache.getCommodityUID("XAF")).isEqualTo(commodity.getUID());
+        assertThat(mCommodityCache.getCommodity("XAF")).isEqualTo(commodity);
+
+        assertThat(mCommodityCache.getMissCount()).isLessThanOrEqualTo(1);
+        assertThat(mCommodityCache.getHitCount()).isGreaterThanOrEqualTo(3);
+    }
+
+    @Test
+    public void savingPrice_shouldInvalidateCachedPrice() {
+        String commodityUID = mCommodityCache.getCommodityUID("EUR");
+        String currencyUID = mCommodityCache.getCommodityUID("USD");
+        assertThat(mCommodityCache.getPrice(commodityUID, currencyUID)).isEqualTo(new Pair<>(0L, 0L));
+
+        Price price = new Price(commodityUID, currencyUID);
+        price.setValueNum(3);
+        price.setValueDenom(2);
+        PricesDbAdapter.getInstance().addRecord(price);
+
+        assertThat(mCommodityCache.getPrice(commodityUID, currencyUID)).isEqualTo(new Pair<>(3L, 2L));
+        assertThat(mCommodityCache.getPrice(currencyUID, commodityUID)).isEqualTo(new Pair<>(2L, 3L));
+    }
+
+    @Test
+    public void modifyingReturnedCommodity_shouldNotAffectCache() {
+        Commodity commodity = mCommodityCache.getCommodity("XAF");
+        commodity.setSmallestFraction(1000);
+        commodity.setFullname("Changed");
+
+        Commodity cached = mCommodityCache.getCommodity("XAF");
+        assertThat(cached).isNotSameAs(commodity);
+        assertThat(cached.getSmallestFraction()).isNotEqualTo(1000);
+        assertThat(cached.getFullname()).isNotEqualTo("Changed");
+    }
+
+    @Test
+    public void savingCommodity_shouldInvalidateCachedCommodity() {
+        Commodity commodity = mCommodityCache.getCommodity("XAF");
+        commodity.setSmallestFraction(1000);
+        CommoditiesDbAdapter.getInstance().addRecord(commodity, DatabaseAdapter.UpdateMethod.update);
+
+        assertThat(mCommodityCache.getCommodity("XAF").getSmallestFraction()).isEqualTo(1000);
+    }
+
+    @Test
+    public void cachedLookups_shouldNotAccessDatabase() {
+        String commodityUID = mCommodityCache.getCommodityUID("EUR");
+        String currencyUID = mCommodityCache.getCommodityUID("USD");
+        mCommodityCache.getPrice(commodityUID, currencyUID);
+        SQLiteDatabase db = GnuCashApplication.getActiveDb();
+        db.execSQL("ALTER TABLE " + PriceEntry.TABLE_NAME + " RENAME TO prices_hidden");
+        try {
+            assertThat(mCommodityCache.getCommodityUID("EUR")).isEqualTo(commodityUID);
+            assertThat(mCommodityCache.getPrice(commodityUID, currencyUID)).isEqualTo(new Pair<>(0L, 0L));
+        } finally {
+            db.execSQL("ALTER TABLE prices_hidden RENAME TO " + PriceEntry.TABLE_NAME);
+        }
+    }
+
+    @Test
+    public void priceOfRolledBackTransaction_shouldBeDiscarded() {
+        String commodityUID = mCommodityCache.getCommodityUID("EUR");
+        String currencyUID = mCommodityCache.getCommodityUID("USD");
+        SQLiteDatabase db = GnuCashApplication.getActiveDb();
+        db.beginTransaction();
+        try {
+            Price price = new Price(commodityUID, currencyUID);
+            price.setValueNum(3);
+            price.setValueDenom(2);
+            PricesDbAdapter.getInstance().addRecord(price);
+            assertThat(mCommodityCache.getPrice(commodityUID, currencyUID)).isEqualTo(new Pair<>(3L, 2L));
+        } finally {
+            db.endTransaction();
+        }
+
+        assertThat(mCommodityCache.getPrice(commodityUID, currencyUID)).isEqualTo(new Pair<>(0L, 0L));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.PriceEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.CommodityCache;
+import org.gnucash.android.db.adapter.PricesDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.StatementCache;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the frequently used queries are answered from indexes instead of full table scans.
+ * <p>The queries are run through the database adapters, on a connection which records the SQL
+ * of every query, so that the plans checked are those of the SQL the adapters actually build.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class QueryPlanTest {
+
+    /**
+     * Matches plan steps which read a whole table, e.g. "SCAN TABLE splits" or "SCAN splits"
+     */
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?("
+            + SplitEntry.TABLE_NAME + "|" + TransactionEntry.TABLE_NAME + "|"
+            + AccountEntry.TABLE_NAME + "|" + PriceEntry.TABLE_NAME + ")\\b");
+
+    private final QueryRecorder mQueryRecorder = new QueryRecorder();
+    private SQLiteDatabase mDb;
+    private SplitsDbAdapter mSplitsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private PricesDbAdapter mPricesDbAdapter;
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.openDatabase(GnuCashApplication.getActiveDb().getPath(), mQueryRecorder,
+                SQLiteDatabase.OPEN_READWRITE);
+        mSplitsDbAdapter = new SplitsDbAdapter(mDb);
+        mTransactionsDbAdapter = new TransactionsDbAdapter(mDb, mSplitsDbAdapter);
+        mAccountsDbAdapter = new AccountsDbAdapter(mDb, mTransactionsDbAdapter);
+        mPricesDbAdapter = new PricesDbAdapter(mDb);
+        mQueryRecorder.mQueries.clear();
+    }
+
+    @After
+    public void tearDown() {
+        StatementCache.release(mDb);
+        CommodityCache.release(mDb);
+        mDb.close();
+    }
+
+    @Test
+    public void transactionsForAccount_shouldUseSplitAccountIndex() {
+        mTransactionsDbAdapter.fetchAllTransactionsForAccount("account-uid").close();
+
+        assertNoFullScan();
+    }
+
+    @Test
+    public void splitBalance_shouldUseSplitAccountIndex() {
+        mSplitsDbAdapter.computeSplitBalance(Arrays.asList("account-1", "account-2"), "USD", true, 0, 1000);
+
+        assertNoFullScan();
+    }
+
+    @Test
+    public void splitsForTransaction_shouldUseSplitTransactionIndex() {
+        mSplitsDbAdapter.fetchSplitsForTransaction("transaction-uid").close();
+
+        assertNoFullScan();
+    }
+
+    @Test
+    public void descendantAccounts_shouldUseParentAccountIndex() {
+        mAccountsDbAdapter.getDescendantAccountUIDs("account-1", null, null);
+
+        assertNoFullScan();
+    }
+
+    @Test
+    public void latestPrice_shouldUsePriceIndex() {
+        mPricesDbAdapter.getPrice("commodity", "currency");
+
+        assertNoFullScan();
+    }
+
+    /**
+     * Asserts that the query plans of the queries recorded since the last call do not scan any of the main tables.
+     * <p>The parameters of the queries are left unbound. The plans do not depend on their values</p>
+     */
+    private void assertNoFullScan() {
+        List<String> queries = new ArrayList<>(mQueryRecorder.mQueries);
+        mQueryRecorder.mQueries.clear();
+        assertThat(queries).isNotEmpty();
+
+        for (String sql : queries) {
+            List<String> steps = new ArrayList<>();
+            // explained on another connection, so that it is not recorded
+            Cursor cursor = GnuCashApplication.getActiveDb().rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+            try {
+                int detailIndex = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) {
+                    steps.add(cursor.getString(detailIndex));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            assertThat(steps).isNotEmpty();
+            for (String step : steps) {
+                assertThat(FULL_SCAN.matcher(step).find())
+                        .as("Full table scan in query plan of " + sql + ": " + steps)
+                        .isFalse();
+            }
+        }
+    }
+
+    /**
+     * Cursor factory which records the SQL of the queries run on a database
+     */
+    private static class QueryRecorder implements SQLiteDatabase.CursorFactory {
+        /**
+         * Prefix of {@link SQLiteQuery#toString()}, followed by the SQL of the query
+         */
+        private static final String QUERY_PREFIX = "SQLiteQuery: ";
+
+        final List<String> mQueries = new ArrayList<>();
+
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query) {
+            String description = query.toString();
+            mQueries.add(description.startsWith(QUERY_PREFIX) ? description.substring(QUERY_PREFIX.length()) : description);
+            return new SQLiteCursor(masterQuery, editTable, query);
+        }
+    }
+}
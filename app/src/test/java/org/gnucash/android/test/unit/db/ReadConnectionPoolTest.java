@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.db;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.ReadConnectionPool;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.CommodityCache;
+import org.gnucash.android.db.adapter.ReportsDbAdapter;
+import org.gnucash.android.db.adapter.ReportsDbAdapter.PeriodBalances;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.StatementCache;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.BaseModel;
+import org.gnucash.android.test.unit.testutil.BookGenerator;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.joda.time.LocalDateTime;
+import org.joda.time.Period;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class ReadConnectionPoolTest {
+
+    private static final LocalDateTime REPORT_START = new LocalDateTime(2016, 1, 1, 0, 0);
+    private static final int REPORT_MONTHS = 60;
+    private static final int PAGE_SIZE = 50;
+
+    private ReadConnectionPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new ReadConnectionPool(GnuCashApplication.getActiveDb().getPath(), 2);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.close();
+        AccountsDbAdapter.getInstance().deleteAllRecords();
+    }
+
+    @Test
+    public void readConnection_shouldSeeCommittedChanges() {
+        Account account = new Account("Read from the pool");
+        AccountsDbAdapter.getInstance().addRecord(account);
+
+        SQLiteDatabase db = mPool.acquire();
+        try {
+            assertThat(db.isReadOnly()).isTrue();
+            String name = DatabaseUtils.stringForQuery(db, "SELECT " + AccountEntry.COLUMN_NAME
+                    + " FROM " + AccountEntry.TABLE_NAME + " WHERE " + AccountEntry.COLUMN_UID + " = ?",
+                    new String[]{account.getUID()});
+            assertThat(name).isEqualTo("Read from the pool");
+        } finally {
+            mPool.release(db);
+        }
+    }
+
+    @Test
+    public void releasedConnections_shouldBeReused() {
+        SQLiteDatabase first = mPool.acquire();
+        SQLiteDatabase second = mPool.acquire();
+        assertThat(second).isNotSameAs(first);
+        mPool.release(second);
+
+        assertThat(mPool.acquire()).isSameAs(second);
+        mPool.release(second);
+        mPool.release(first);
+    }
+
+    @Test
+    public void closingThePool_shouldCloseConnectionsWhenReleased() {
+        SQLiteDatabase idle = mPool.acquire();
+        SQLiteDatabase inUse = mPool.acquire();
+        mPool.release(idle);
+
+        mPool.close();
+        assertThat(idle.isOpen()).isFalse();
+        assertThat(inUse.isOpen()).isTrue();
+
+        mPool.release(inUse);
+        assertThat(inUse.isOpen()).isFalse();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedPool_shouldNotHandOutConnections() {
+        mPool.close();
+        mPool.acquire();
+    }
+
+    /**
+     * Reads a report in the background while the transactions of an account are paged in,
+     * as when the reports are opened from the transactions list, once with the report on the
+     * primary connection and once with the report on a pooled read connection.
+     */
+    @Test
+    public void reportAndListLoad_shouldReadSameDataWithAndWithoutPool() throws Exception {
+        SQLiteDatabase db = new DatabaseHelper(GnuCashApplication.getAppContext(), BaseModel.generateUID())
+                .getWritableDatabase();
+        try {
+            new BookGenerator().setAccountCount(20).setTransactionCount(1000).populate(db);
+            List<String> accountUIDs = new ArrayList<>();
+            Cursor cursor = db.query(AccountEntry.TABLE_NAME, new String[]{AccountEntry.COLUMN_UID},
+                    AccountEntry.COLUMN_TYPE + " <> ?", new String[]{AccountType.ROOT.name()}, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    accountUIDs.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            String listAccountUID = DatabaseUtils.stringForQuery(db, "SELECT " + SplitEntry.COLUMN_ACCOUNT_UID
+                    + " FROM " + SplitEntry.TABLE_NAME + " GROUP BY " + SplitEntry.COLUMN_ACCOUNT_UID
+                    + " ORDER BY COUNT(*) DESC LIMIT 1", null);
+            String currencyCode = DatabaseUtils.stringForQuery(db, "SELECT " + AccountEntry.COLUMN_CURRENCY
+                    + " FROM " + AccountEntry.TABLE_NAME + " WHERE " + AccountEntry.COLUMN_UID + " = ?",
+                    new String[]{listAccountUID});
+
+            String withoutPool = loadReportAndList(db, db, accountUIDs, listAccountUID, currencyCode);
+            ReadConnectionPool pool = new ReadConnectionPool(db.getPath(), 1);
+            SQLiteDatabase readDb = pool.acquire();
+            String withPool;
+            try {
+                withPool = loadReportAndList(db, readDb, accountUIDs, listAccountUID, currencyCode);
+            } finally {
+                pool.release(readDb);
+                pool.close();
+            }
+
+            assertThat(withPool).isEqualTo(withoutPool);
+        } finally {
+            StatementCache.release(db);
+            CommodityCache.release(db);
+            db.close();
+        }
+    }
+
+    /**
+     * Reads the period balances of the accounts on {@code reportDb} in another thread, while reading
+     * all the pages of the transactions of an account on {@code listDb}
+     * @return Description of the balances and the transactions read
+     */
+    private static String loadReportAndList(SQLiteDatabase listDb, final SQLiteDatabase reportDb,
+                                            final List<String> accountUIDs, String listAccountUID,
+                                            String currencyCode) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<PeriodBalances> report = executor.submit(new Callable<PeriodBalances>() {
+                @Override
+                public PeriodBalances call() {
+                    return new ReportsDbAdapter(reportDb)
+                            .getPeriodBalances(accountUIDs, REPORT_START, Period.months(1), REPORT_MONTHS);
+                }
+            });
+
+            StringBuilder result = new StringBuilder();
+            TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(listDb, new SplitsDbAdapter(listDb));
+            long beforeTimestamp = Long.MAX_VALUE;
+            long beforeId = Long.MAX_VALUE;
+            int pageCount;
+            do {
+                Cursor cursor = transactionsDbAdapter.fetchTransactionsPageForAccount(listAccountUID, currencyCode,
+                        beforeTimestamp, beforeId, PAGE_SIZE);
+                try {
+                    pageCount = 0;
+                    while (cursor.moveToNext()) {
+                        long id = cursor.getLong(cursor.getColumnIndexOrThrow(TransactionEntry._ID));
+                        if (id != beforeId)
+                            pageCount++; //a transaction has a row for each denominator of its splits
+                        beforeTimestamp = cursor.getLong(cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_TIMESTAMP));
+                        beforeId = id;
+                        result.append(cursor.getString(cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_UID)))
+                                .append(' ').append(cursor.getString(cursor.getColumnIndexOrThrow("amount_num")))
+                                .append('/').append(cursor.getString(cursor.getColumnIndexOrThrow("amount_denom")))
+                                .append('\n');
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } while (pageCount == PAGE_SIZE);
+
+            PeriodBalances balances = report.get();
+            for (int account = 0; account < balances.getAccountUIDs().size(); account++) {
+                result.append(balances.getAccountUIDs().get(account))
+                        .append(' ').append(Arrays.toString(balances.getNumerators(account)))
+                        .append('/').append(balances.getDenominator(account)).append('\n');
+            }
+            return result.toString();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
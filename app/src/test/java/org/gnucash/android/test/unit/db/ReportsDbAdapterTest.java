@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.db;
+
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.ReportsDbAdapter;
+import org.gnucash.android.db.adapter.ReportsDbAdapter.PeriodBalances;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.joda.time.LocalDateTime;
+import org.joda.time.Period;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class ReportsDbAdapterTest {
+
+    private static final LocalDateTime FIRST_PERIOD_START = new LocalDateTime(2016, 1, 1, 0, 0);
+
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+    private Account mExpenseAccount;
+    private Account mOtherExpenseAccount;
+    private Account mCashAccount;
+
+    @Before
+    public void setUp() {
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mTransactionsDbAdapter = TransactionsDbAdapter.getInstance();
+
+        mExpenseAccount = new Account("Groceries", Commodity.USD);
+        mExpenseAccount.setAccountType(AccountType.EXPENSE);
+        mOtherExpenseAccount = new Account("Rent", Commodity.USD);
+        mOtherExpenseAccount.setAccountType(AccountType.EXPENSE);
+        mCashAccount = new Account("Cash", Commodity.USD);
+        mCashAccount.setAccountType(AccountType.CASH);
+
+        mAccountsDbAdapter.addRecord(mExpenseAccount);
+        mAccountsDbAdapter.addRecord(mOtherExpenseAccount);
+        mAccountsDbAdapter.addRecord(mCashAccount);
+    }
+
+    @Test
+    public void shouldGroupBalancesByAccountAndPeriod() {
+        addExpense(mExpenseAccount, "10.50", FIRST_PERIOD_START.plusDays(3));
+        addExpense(mExpenseAccount, "4.25", FIRST_PERIOD_START.plusDays(20));
+        addExpense(mExpenseAccount, "7.00", FIRST_PERIOD_START.plusMonths(2));
+        addExpense(mOtherExpenseAccount, "500.00", FIRST_PERIOD_START.plusMonths(1));
+        //outside of the report range
+        addExpense(mExpenseAccount, "99.00", FIRST_PERIOD_START.minusDays(1));
+        addExpense(mExpenseAccount, "99.00", FIRST_PERIOD_START.plusMonths(3));
+
+        PeriodBalances balances = ReportsDbAdapter.getInstance().getPeriodBalances(
+                Arrays.asList(mExpenseAccount.getUID(), mOtherExpenseAccount.getUID()),
+                FIRST_PERIOD_START, Period.months(1), 3);
+
+        assertThat(balances.getPeriodCount()).isEqualTo(3);
+        assertThat(balances.getAccountUIDs()).containsExactly(mExpenseAccount.getUID(), mOtherExpenseAccount.getUID());
+        assertThat(balances.getDenominator(0)).isEqualTo(100);
+        assertThat(balances.getNumerators(0)).isEqualTo(new long[]{1475, 0, 700});
+        assertThat(balances.getNumerators(1)).isEqualTo(new long[]{0, 50000, 0});
+        assertThat(balances.getAmount(0, 0)).isEqualTo(14.75);
+        assertThat(balances.getTotalAmount(1)).isEqualTo(500.0);
+        assertThat(balances.getPeriodStart(1)).isEqualTo(FIRST_PERIOD_START.plusMonths(1).toDate().getTime());
+    }
+
+    @Test
+    public void creditsShouldBeNegative() {
+        addExpense(mExpenseAccount, "10.00", FIRST_PERIOD_START.plusDays(1));
+
+        PeriodBalances balances = ReportsDbAdapter.getInstance().getPeriodBalances(
+                Arrays.asList(mCashAccount.getUID()), FIRST_PERIOD_START, Period.years(1), 1);
+
+        assertThat(balances.getNumerators(0)).isEqualTo(new long[]{-1000});
+    }
+
+    private void addExpense(Account account, String amount, LocalDateTime time) {
+        Transaction transaction = new Transaction("Expense");
+        transaction.setTime(time.toDate().getTime());
+        Split split = new Split(new Money(amount, "USD"), account.getUID());
+        split.setType(TransactionType.DEBIT);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(mCashAccount.getUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+    }
+
+    @After
+    public void tearDown() {
+        mAccountsDbAdapter.deleteAllRecords();
+    }
+}
@@ -17,7 +17,9 @@ package org.gnucash.android.test.unit.db;
 
 import android.database.sqlite.SQLiteException;
 
+import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.DatabaseSchema;
+import org.gnucash.android.db.adapter.AccountBalancesDbAdapter;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.SplitsDbAdapter;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
@@ -34,6 +36,7 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.Collections;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -119,6 +122,30 @@ public class SplitsDbAdapterTest {
         assertThat(Boolean.parseBoolean(isExported)).isFalse();
     }
 
+    @Test
+    public void movingSplitToAnotherTransaction_shouldUpdateBalancesOfBoth(){
+        String currencyCode = mAccount.getCommodity().getCurrencyCode();
+        Transaction first = new Transaction("First");
+        mTransactionsDbAdapter.addRecord(first);
+        Transaction second = new Transaction("Second");
+        mTransactionsDbAdapter.addRecord(second);
+
+        Split split = new Split(new Money("10.00", currencyCode), mAccount.getUID());
+        split.setTransactionUID(first.getUID());
+        mSplitsDbAdapter.addRecord(split);
+
+        split.setTransactionUID(second.getUID());
+        mSplitsDbAdapter.addRecord(split);
+
+        List<String> accountUIDs = Collections.singletonList(mAccount.getUID());
+        Money storedBalance = mSplitsDbAdapter.computeSplitBalance(accountUIDs, currencyCode, true);
+        Money computedBalance = mSplitsDbAdapter.computeSplitBalance(accountUIDs, currencyCode, true,
+                -1, Long.MAX_VALUE);
+        assertThat(storedBalance).isEqualTo(computedBalance);
+        assertThat(computedBalance).isEqualTo(new Money("10.00", currencyCode));
+        assertThat(new AccountBalancesDbAdapter(GnuCashApplication.getActiveDb()).isConsistent()).isTrue();
+    }
+
     @After
     public void tearDown(){
         mAccountsDbAdapter.deleteAllRecords();
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.db;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.StatementCache;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class StatementCacheTest {
+
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private StatementCache mStatementCache;
+
+    @Before
+    public void setUp() {
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mStatementCache = StatementCache.getInstance(GnuCashApplication.getActiveDb());
+    }
+
+    @After
+    public void tearDown() {
+        mAccountsDbAdapter.deleteAllRecords();
+    }
+
+    @Test
+    public void repeatedLookups_shouldReuseCompiledStatements() {
+        Account account = new Account("Cached");
+        account.setAccountType(AccountType.ASSET);
+        mAccountsDbAdapter.addRecord(account);
+        long id = mAccountsDbAdapter.getID(account.getUID());
+
+        long misses = mStatementCache.getMissCount();
+        long hits = mStatementCache.getHitCount();
+        for (int i = 0; i < 5; i++) {
+            assertThat(mAccountsDbAdapter.getID(account.getUID())).isEqualTo(id);
+            assertThat(mAccountsDbAdapter.getUID(id)).isEqualTo(account.getUID());
+            assertThat(mAccountsDbAdapter.getAccountType(account.getUID())).isEqualTo(AccountType.ASSET);
+        }
+
+        assertThat(mStatementCache.getMissCount() - misses).isLessThanOrEqualTo(2);
+        assertThat(mStatementCache.getHitCount() - hits).isGreaterThanOrEqualTo(13);
+    }
+
+    @Test
+    public void lookupOfMissingRecord_shouldStillThrow() {
+        try {
+            mAccountsDbAdapter.getID("does-not-exist");
+            assertThat(false).as("IllegalArgumentException expected").isTrue();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("does-not-exist");
+        }
+
+        // the statement is reusable after a lookup without result
+        Account account = new Account("After a miss");
+        mAccountsDbAdapter.addRecord(account);
+        assertThat(mAccountsDbAdapter.getUID(mAccountsDbAdapter.getID(account.getUID()))).isEqualTo(account.getUID());
+    }
+
+    @Test
+    public void leastRecentlyUsedStatements_shouldBeEvicted() {
+        long evictions = mStatementCache.getEvictionCount();
+        for (int i = 0; i <= StatementCache.CAPACITY; i++) {
+            mStatementCache.queryForLong("SELECT " + i);
+        }
+        assertThat(mStatementCache.getEvictionCount()).isGreaterThan(evictions);
+        assertThat(mStatementCache.queryForString("SELECT ?", "bound")).isEqualTo("bound");
+    }
+
+    @Test
+    public void releasedCache_shouldNotBeReused() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            StatementCache cache = StatementCache.getInstance(db);
+            assertThat(cache.queryForLong("SELECT 1")).isEqualTo(1);
+            assertThat(StatementCache.getInstance(db)).isSameAs(cache);
+
+            StatementCache.release(db);
+            StatementCache newCache = StatementCache.getInstance(db);
+            assertThat(newCache).isNotSameAs(cache);
+            assertThat(newCache.queryForLong("SELECT 1")).isEqualTo(1);
+        } finally {
+            StatementCache.release(db);
+            db.close();
+        }
+    }
+}
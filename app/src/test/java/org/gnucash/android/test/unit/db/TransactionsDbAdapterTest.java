@@ -15,13 +15,20 @@
  */
 package org.gnucash.android.test.unit.db;
 
+import android.database.Cursor;
+
 import org.assertj.core.data.Index;
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.AccountBalancesDbAdapter;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.SplitsDbAdapter;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
+import org.gnucash.android.model.MoneyAccumulator;
 import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
 import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
@@ -34,6 +41,8 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -143,6 +152,201 @@ public class TransactionsDbAdapterTest {
 		assertThat(savedBalance.getCommodity()).isEqualTo(secondSplitAmount.getCommodity());
 	}
 
+	@Test
+	public void bulkLoadedTransactionsShouldMatchSingleLoadedTransactions(){
+		for (int i = 0; i < 3; i++) {
+			Transaction transaction = new Transaction("Bulk " + i);
+			Split split = new Split(new Money("1" + i + ".50", DEFAULT_CURRENCY.getCurrencyCode()), alphaAccount.getUID());
+			transaction.addSplit(split);
+			transaction.addSplit(split.createPair(bravoAccount.getUID()));
+			mTransactionsDbAdapter.addRecord(transaction);
+		}
+
+		List<Transaction> transactions = mTransactionsDbAdapter.getAllTransactions();
+		assertThat(transactions).hasSize(3);
+		for (Transaction transaction : transactions) {
+			Transaction singleLoaded = mTransactionsDbAdapter.getRecord(transaction.getUID());
+			assertThat(transaction.getSplits()).hasSize(2);
+			assertThat(transaction.getSplits()).containsOnly(singleLoaded.getSplits().toArray(new Split[2]));
+			assertThat(transaction.getCommodity()).isEqualTo(singleLoaded.getCommodity());
+		}
+	}
+
+	@Test
+	public void bulkInsertedTransactions_shouldMatchTheInsertedModels(){
+		//more than two multi-row statements of transactions and of splits, plus single-row inserts
+		List<Transaction> transactions = new ArrayList<>();
+		for (int i = 0; i < 250; i++) {
+			Transaction transaction = new Transaction("Bulk " + i);
+			Split split = new Split(new Money(i + ".25", DEFAULT_CURRENCY.getCurrencyCode()), alphaAccount.getUID());
+			if (i % 2 == 0)
+				split.setMemo("Memo " + i);
+			transaction.addSplit(split);
+			transaction.addSplit(split.createPair(bravoAccount.getUID()));
+			transactions.add(transaction);
+		}
+		Transaction emptyTransaction = new Transaction("No splits");
+		transactions.add(emptyTransaction);
+
+		long inserted = mTransactionsDbAdapter.bulkAddRecords(transactions, TransactionsDbAdapter.UpdateMethod.insert);
+
+		assertThat(inserted).isEqualTo(251);
+		assertThat(mTransactionsDbAdapter.hasRecord(emptyTransaction.getUID())).isFalse();
+		assertThat(mTransactionsDbAdapter.getRecordsCount()).isEqualTo(250);
+		assertThat(mSplitsDbAdapter.getRecordsCount()).isEqualTo(500);
+		for (int i = 0; i < 250; i += 49) {
+			Transaction transaction = transactions.get(i);
+			Transaction saved = mTransactionsDbAdapter.getRecord(transaction.getUID());
+			assertThat(saved.getDescription()).isEqualTo(transaction.getDescription());
+			assertThat(saved.getSplits()).containsOnly(transaction.getSplits().toArray(new Split[2]));
+		}
+	}
+
+	@Test
+	public void accountBalancesShouldFollowTransactionChanges(){
+		AccountBalancesDbAdapter balancesDbAdapter = new AccountBalancesDbAdapter(GnuCashApplication.getActiveDb());
+		List<String> alphaUIDs = Collections.singletonList(alphaAccount.getUID());
+
+		Transaction first = new Transaction("First");
+		Split split = new Split(new Money("12.50", DEFAULT_CURRENCY.getCurrencyCode()), alphaAccount.getUID());
+		first.addSplit(split);
+		first.addSplit(split.createPair(bravoAccount.getUID()));
+		mTransactionsDbAdapter.addRecord(first);
+
+		Transaction second = new Transaction("Second");
+		split = new Split(new Money("7.25", DEFAULT_CURRENCY.getCurrencyCode()), bravoAccount.getUID());
+		second.addSplit(split);
+		second.addSplit(split.createPair(alphaAccount.getUID()));
+		mTransactionsDbAdapter.addRecord(second);
+		assertThat(balancesDbAdapter.isConsistent()).isTrue();
+
+		Money storedBalance = mSplitsDbAdapter.computeSplitBalance(alphaUIDs, DEFAULT_CURRENCY.getCurrencyCode(), true);
+		Money computedBalance = mSplitsDbAdapter.computeSplitBalance(alphaUIDs, DEFAULT_CURRENCY.getCurrencyCode(), true,
+				-1, Long.MAX_VALUE);
+		assertThat(storedBalance).isEqualTo(computedBalance);
+		assertThat(storedBalance.isAmountZero()).isFalse();
+
+		first.getSplits().get(0).setValue(new Money("20.00", DEFAULT_CURRENCY.getCurrencyCode()));
+		first.getSplits().get(0).setQuantity(new Money("20.00", DEFAULT_CURRENCY.getCurrencyCode()));
+		first.getSplits().get(1).setValue(new Money("20.00", DEFAULT_CURRENCY.getCurrencyCode()));
+		first.getSplits().get(1).setQuantity(new Money("20.00", DEFAULT_CURRENCY.getCurrencyCode()));
+		mTransactionsDbAdapter.addRecord(first);
+		assertThat(balancesDbAdapter.isConsistent()).isTrue();
+
+		mTransactionsDbAdapter.moveTransaction(second.getUID(), alphaAccount.getUID(), bravoAccount.getUID());
+		assertThat(balancesDbAdapter.isConsistent()).isTrue();
+
+		mTransactionsDbAdapter.deleteRecord(first.getUID());
+		assertThat(balancesDbAdapter.isConsistent()).isTrue();
+		assertThat(mSplitsDbAdapter.computeSplitBalance(alphaUIDs, DEFAULT_CURRENCY.getCurrencyCode(), true).isAmountZero())
+				.isTrue();
+	}
+
+	@Test
+	public void fetchTransactionsPageForAccount_shouldPageThroughAllTransactionsInOrder(){
+		long time = System.currentTimeMillis();
+		List<String> expectedUIDs = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Transaction transaction = new Transaction("Transaction " + i);
+			transaction.setTime(i < 3 ? time : time - i * 1000); //some transactions at the same time
+			Split split = new Split(new Money(BigDecimal.valueOf(i + 1), DEFAULT_CURRENCY), alphaAccount.getUID());
+			transaction.addSplit(split);
+			transaction.addSplit(split.createPair(bravoAccount.getUID()));
+			mTransactionsDbAdapter.addRecord(transaction);
+		}
+		Transaction threeSplits = new Transaction("Three splits");
+		threeSplits.setTime(time - 10000);
+		threeSplits.addSplit(new Split(new Money(BigDecimal.TEN, DEFAULT_CURRENCY), alphaAccount.getUID()));
+		threeSplits.addSplit(new Split(new Money(BigDecimal.ONE, DEFAULT_CURRENCY), bravoAccount.getUID()));
+		mTransactionsDbAdapter.addRecord(threeSplits);
+		for (Transaction transaction : mTransactionsDbAdapter.getAllTransactionsForAccount(alphaAccount.getUID())) {
+			expectedUIDs.add(transaction.getUID());
+		}
+		assertThat(expectedUIDs).hasSize(6);
+
+		String currencyCode = DEFAULT_CURRENCY.getCurrencyCode();
+		List<String> pagedUIDs = new ArrayList<>();
+		long lastTimestamp = Long.MAX_VALUE;
+		long lastId = Long.MAX_VALUE;
+		int pageCount = 0;
+		while (true) {
+			Cursor cursor = mTransactionsDbAdapter.fetchTransactionsPageForAccount(
+					alphaAccount.getUID(), currencyCode, lastTimestamp, lastId, 4);
+			try {
+				if (!cursor.moveToFirst())
+					break;
+				pageCount++;
+				assertThat(cursor.getCount()).isLessThanOrEqualTo(4);
+				do {
+					String uid = cursor.getString(cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_UID));
+					pagedUIDs.add(uid);
+					long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_TIMESTAMP));
+					long id = cursor.getLong(cursor.getColumnIndexOrThrow(TransactionEntry._ID));
+					assertThat(timestamp < lastTimestamp || (timestamp == lastTimestamp && id < lastId)).isTrue();
+					lastTimestamp = timestamp;
+					lastId = id;
+
+					BigDecimal amount = Money.getBigDecimal(cursor.getLong(cursor.getColumnIndexOrThrow("amount_num")),
+							cursor.getLong(cursor.getColumnIndexOrThrow("amount_denom")));
+					assertThat(amount.compareTo(mTransactionsDbAdapter.getBalance(uid, alphaAccount.getUID()).asBigDecimal())).isZero();
+
+					String transferAccount = cursor.getString(cursor.getColumnIndexOrThrow("transfer_account"));
+					int splitCount = cursor.getInt(cursor.getColumnIndexOrThrow("split_count"));
+					if (uid.equals(threeSplits.getUID())) {
+						assertThat(splitCount).isEqualTo(3); //including the imbalance split
+						assertThat(transferAccount).isNull();
+					} else {
+						assertThat(splitCount).isEqualTo(2);
+						assertThat(transferAccount).isEqualTo(BRAVO_ACCOUNT_NAME);
+					}
+				} while (cursor.moveToNext());
+			} finally {
+				cursor.close();
+			}
+		}
+
+		assertThat(pageCount).isEqualTo(2);
+		assertThat(pagedUIDs).hasSize(6).doesNotHaveDuplicates()
+				.containsOnly(expectedUIDs.toArray(new String[expectedUIDs.size()]));
+	}
+
+	@Test
+	public void fetchTransactionsPageForAccount_shouldAddUpSplitsWithDifferentDenominators(){
+		Transaction transaction = new Transaction("Mixed denominators");
+		Split cents = new Split(new Money(new BigDecimal("10.25"), DEFAULT_CURRENCY), alphaAccount.getUID());
+		Split mills = new Split(new Money(new BigDecimal("1.50"), DEFAULT_CURRENCY), alphaAccount.getUID());
+		transaction.addSplit(cents);
+		transaction.addSplit(cents.createPair(bravoAccount.getUID()));
+		transaction.addSplit(mills);
+		transaction.addSplit(mills.createPair(bravoAccount.getUID()));
+		mTransactionsDbAdapter.addRecord(transaction);
+		// books imported from GnuCash desktop may use finer denominators than the currency for some splits
+		GnuCashApplication.getActiveDb().execSQL("UPDATE " + SplitEntry.TABLE_NAME + " SET "
+				+ SplitEntry.COLUMN_VALUE_NUM + " = " + SplitEntry.COLUMN_VALUE_NUM + " * 10, "
+				+ SplitEntry.COLUMN_VALUE_DENOM + " = " + SplitEntry.COLUMN_VALUE_DENOM + " * 10, "
+				+ SplitEntry.COLUMN_QUANTITY_NUM + " = " + SplitEntry.COLUMN_QUANTITY_NUM + " * 10, "
+				+ SplitEntry.COLUMN_QUANTITY_DENOM + " = " + SplitEntry.COLUMN_QUANTITY_DENOM + " * 10"
+				+ " WHERE " + SplitEntry.COLUMN_UID + " = ?", new Object[]{mills.getUID()});
+
+		Cursor cursor = mTransactionsDbAdapter.fetchTransactionsPageForAccount(alphaAccount.getUID(),
+				DEFAULT_CURRENCY.getCurrencyCode(), Long.MAX_VALUE, Long.MAX_VALUE, 10);
+		MoneyAccumulator amount = new MoneyAccumulator(DEFAULT_CURRENCY);
+		try {
+			assertThat(cursor.getCount()).isEqualTo(2);
+			while (cursor.moveToNext()) {
+				assertThat(cursor.getString(cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_UID)))
+						.isEqualTo(transaction.getUID());
+				amount.add(cursor.getLong(cursor.getColumnIndexOrThrow("amount_num")),
+						cursor.getLong(cursor.getColumnIndexOrThrow("amount_denom")));
+			}
+		} finally {
+			cursor.close();
+		}
+		assertThat(amount.toMoney().asBigDecimal())
+				.isEqualByComparingTo(mTransactionsDbAdapter.getBalance(transaction.getUID(), alphaAccount.getUID()).asBigDecimal());
+		assertThat(amount.toMoney().abs().asBigDecimal()).isEqualByComparingTo("11.75");
+	}
+
 	@After
 	public void tearDown() throws Exception {
 		mAccountsDbAdapter.deleteAllRecords();
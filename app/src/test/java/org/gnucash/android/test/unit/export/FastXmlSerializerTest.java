@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.export;
+
+import org.gnucash.android.export.xml.FastXmlSerializer;
+import org.junit.Test;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test the XML serializer of the exports
+ */
+public class FastXmlSerializerTest {
+
+    private static final String XML_DECLARATION = "<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n";
+
+    @Test
+    public void shouldWriteElementsWithoutIndentation() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        XmlSerializer xmlSerializer = new FastXmlSerializer();
+        xmlSerializer.setOutput(outputStream, "utf-8");
+        xmlSerializer.startDocument("utf-8", true);
+        xmlSerializer.startTag(null, "gnc-v2");
+        xmlSerializer.attribute(null, "xmlns:gnc", "http://www.gnucash.org/XML/gnc");
+        xmlSerializer.startTag(null, "gnc:count-data");
+        xmlSerializer.attribute(null, "cd:type", "book");
+        xmlSerializer.text("1");
+        xmlSerializer.endTag(null, "gnc:count-data");
+        xmlSerializer.startTag(null, "trn:slots");
+        xmlSerializer.endTag(null, "trn:slots");
+        xmlSerializer.endTag(null, "gnc-v2");
+        xmlSerializer.endDocument();
+
+        assertThat(outputStream.toString("UTF-8")).isEqualTo(XML_DECLARATION
+                + "<gnc-v2 xmlns:gnc=\"http://www.gnucash.org/XML/gnc\">"
+                + "<gnc:count-data cd:type=\"book\">1</gnc:count-data>"
+                + "<trn:slots /></gnc-v2>");
+    }
+
+    @Test
+    public void shouldEscapeTextAndAttributes() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        XmlSerializer xmlSerializer = new FastXmlSerializer();
+        xmlSerializer.setOutput(outputStream, "utf-8");
+        xmlSerializer.startTag(null, "slot:value");
+        xmlSerializer.attribute(null, "type", "a \"quoted\" <value>\n");
+        xmlSerializer.text("Fish & \"chips\" <3\n");
+        char[] buffer = "x€ 😀y".toCharArray();
+        xmlSerializer.text(buffer, 1, buffer.length - 2);
+        xmlSerializer.endTag(null, "slot:value");
+        xmlSerializer.flush();
+
+        assertThat(outputStream.toString("UTF-8")).isEqualTo(
+                "<slot:value type=\"a &quot;quoted&quot; &lt;value&gt;&#10;\">"
+                + "Fish &amp; \"chips\" &lt;3\n€ 😀</slot:value>");
+    }
+
+    @Test
+    public void shouldWriteLargeDocuments() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        XmlSerializer xmlSerializer = new FastXmlSerializer();
+        xmlSerializer.setOutput(outputStream, "utf-8");
+        xmlSerializer.startTag(null, "gnc:book");
+        StringBuilder expected = new StringBuilder("<gnc:book>");
+        for (int i = 0; i < 10000; i++) {
+            xmlSerializer.startTag(null, "trn:description");
+            xmlSerializer.text("Transaction é " + i);
+            xmlSerializer.endTag(null, "trn:description");
+            expected.append("<trn:description>Transaction é ").append(i).append("</trn:description>");
+        }
+        xmlSerializer.endTag(null, "gnc:book");
+        xmlSerializer.flush();
+        expected.append("</gnc:book>");
+
+        assertThat(outputStream.toString("UTF-8")).isEqualTo(expected.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectMismatchedEndTag() throws IOException {
+        XmlSerializer xmlSerializer = new FastXmlSerializer();
+        xmlSerializer.setOutput(new ByteArrayOutputStream(), "utf-8");
+        xmlSerializer.startTag(null, "gnc:book");
+        xmlSerializer.endTag(null, "gnc:account");
+    }
+}
@@ -18,11 +18,16 @@ package org.gnucash.android.test.unit.export;
 
 import org.gnucash.android.export.xml.GncXmlHelper;
 import org.gnucash.android.model.Commodity;
+import org.joda.time.DateTimeZone;
 import org.junit.Test;
 
 import java.math.BigDecimal;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Currency;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -63,4 +68,68 @@ public class GncXmlHelperTest {
         amount = GncXmlHelper.formatSplitAmount(bigDecimal, euroCommodity);
         assertThat(amount).isEqualTo("35000/100");
     }
+
+    @Test
+    public void testFormatDate_shouldMatchDateFormat(){
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        DateTimeZone defaultDateTimeZone = DateTimeZone.getDefault();
+        long[] times = {0, 1471949059000L, -86400001L, 951782400000L, 4102444799999L};
+        try {
+            for (String zone : new String[]{"UTC", "Europe/Berlin", "America/St_Johns", "Asia/Kathmandu"}) {
+                TimeZone.setDefault(TimeZone.getTimeZone(zone));
+                DateTimeZone.setDefault(DateTimeZone.forID(zone));
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.US);
+                for (long time : times) {
+                    StringBuilder builder = new StringBuilder("<");
+                    GncXmlHelper.formatDate(time, builder);
+                    assertThat(builder.toString()).isEqualTo("<" + format.format(new Date(time)));
+                    assertThat(GncXmlHelper.formatDate(time)).isEqualTo(format.format(new Date(time)));
+                }
+            }
+
+            // before the Gregorian calendar, the Julian calendar is used
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            DateTimeZone.setDefault(DateTimeZone.UTC);
+            assertThat(GncXmlHelper.formatDate(-12219292800000L)).isEqualTo("1582-10-15 00:00:00 +0000");
+            assertThat(GncXmlHelper.formatDate(-12219379200000L)).isEqualTo("1582-10-04 00:00:00 +0000");
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+            DateTimeZone.setDefault(defaultDateTimeZone);
+        }
+    }
+
+    @Test
+    public void testParseDate() throws ParseException {
+        assertThat(GncXmlHelper.parseDate("2016-08-23 12:44:19 +0200")).isEqualTo(1471949059000L);
+        assertThat(GncXmlHelper.parseDate("1969-12-31 19:00:00 -0500")).isEqualTo(0);
+        assertThat(GncXmlHelper.parseDate("2000-02-29 05:45:00 +0545")).isEqualTo(951782400000L);
+
+        char[] chars = "<ts:date>  2016-08-23 12:44:19 +0200\n</ts:date>".toCharArray();
+        assertThat(GncXmlHelper.parseDate(chars, 9, 28)).isEqualTo(1471949059000L);
+    }
+
+    @Test(expected = ParseException.class)
+    public void parseDate_shouldFailOnInvalidDate() throws ParseException {
+        GncXmlHelper.parseDate("2016-02-30 12:44:19 +0200");
+    }
+
+    @Test
+    public void testParseSplitAmountFromChars() throws ParseException {
+        char[] chars = "<split:value>-123456/100</split:value>".toCharArray();
+        assertThat(GncXmlHelper.parseSplitAmount(chars, 13, 11).toPlainString()).isEqualTo("-1234.56");
+
+        assertThat(GncXmlHelper.parseSplitAmount("123456789012345678901/100").toPlainString())
+                .isEqualTo("1234567890123456789.01");
+    }
+
+    @Test
+    public void testFormatSplitAmountIntoBuilder(){
+        StringBuilder builder = new StringBuilder();
+        GncXmlHelper.formatSplitAmount(4590, 100, false, builder);
+        assertThat(builder.toString()).isEqualTo("4590/100");
+
+        builder.setLength(0);
+        GncXmlHelper.formatSplitAmount(Long.MAX_VALUE, 1000000, true, builder);
+        assertThat(builder.toString()).isEqualTo("-9223372036854775807/1000000");
+    }
 }
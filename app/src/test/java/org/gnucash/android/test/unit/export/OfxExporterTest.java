@@ -22,14 +22,19 @@ import org.gnucash.android.db.BookDbHelper;
 import org.gnucash.android.db.DatabaseHelper;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.export.ExportFormat;
 import org.gnucash.android.export.ExportParams;
 import org.gnucash.android.export.ofx.OfxExporter;
+import org.gnucash.android.export.ofx.OfxHelper;
 import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
 import org.gnucash.android.model.Book;
 import org.gnucash.android.model.Money;
 import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
 import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
 import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
 import org.gnucash.android.util.TimestampHelper;
@@ -40,6 +45,10 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -78,18 +87,30 @@ public class OfxExporterTest {
     }
 
     /**
-     * Test that OFX files are generated
+     * The OFX export should contain one statement per account, in the layout which was produced
+     * by serializing a DOM document with an indenting transformer
      */
-    //FIXME: test failing with NPE
-    public void testGenerateOFXExport(){
+    @Test
+    public void testGenerateOFXExport() throws IOException {
         AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(mDb);
+        TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(mDb, new SplitsDbAdapter(mDb));
 
-        Account account = new Account("Basic Account");
-        Transaction transaction = new Transaction("One transaction");
-        transaction.addSplit(new Split(Money.createZeroInstance("EUR"),account.getUID()));
-        account.addTransaction(transaction);
+        Account cashAccount = new Account("Cash");
+        cashAccount.setAccountType(AccountType.CASH);
+        accountsDbAdapter.addRecord(cashAccount);
+        Account expenseAccount = new Account("Food");
+        expenseAccount.setAccountType(AccountType.EXPENSE);
+        accountsDbAdapter.addRecord(expenseAccount);
 
-        accountsDbAdapter.addRecord(account);
+        String currencyCode = cashAccount.getCommodity().getCurrencyCode();
+        Transaction transaction = new Transaction("Lunch & drinks");
+        transaction.setNotes("With <friends>");
+        transaction.setTime(1500000000000L);
+        Split split = new Split(new Money("12.50", currencyCode), cashAccount.getUID());
+        split.setType(TransactionType.CREDIT);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(expenseAccount.getUID()));
+        transactionsDbAdapter.addRecord(transaction);
 
         ExportParams exportParameters = new ExportParams(ExportFormat.OFX);
         exportParameters.setExportStartTime(TimestampHelper.getTimestampFromEpochZero());
@@ -102,6 +123,77 @@ public class OfxExporterTest {
         assertThat(exportedFiles).hasSize(1);
         File file = new File(exportedFiles.get(0));
         assertThat(file).exists().hasExtension("ofx");
-        assertThat(file.length()).isGreaterThan(0L);
+
+        String datePosted = OfxHelper.getOfxFormattedTime(transaction.getTimeMillis());
+        String cashStatement = buildStatement(cashAccount, expenseAccount, transaction, "DEBIT", "-12.50", datePosted);
+        String expenseStatement = buildStatement(expenseAccount, cashAccount, transaction, "CREDIT", "12.50", datePosted);
+        String statements = cashAccount.getUID().compareTo(expenseAccount.getUID()) < 0
+                ? cashStatement + expenseStatement : expenseStatement + cashStatement;
+        String expectedOfx = OfxHelper.OFX_SGML_HEADER + "\n"
+                + "<OFX>\n"
+                + "  <BANKMSGSRSV1>\n"
+                + "    <STMTTRNRS>\n"
+                + "      <TRNUID>0</TRNUID>\n"
+                + statements
+                + "    </STMTTRNRS>\n"
+                + "  </BANKMSGSRSV1>\n"
+                + "</OFX>";
+
+        // the statement times are the time of the export
+        String exportedOfx = readFileContent(file)
+                .replaceAll("<(DTSTART|DTEND|DTASOF)>[^<]*<", "<$1>NOW<");
+        assertThat(exportedOfx).isEqualTo(expectedOfx);
+    }
+
+    /**
+     * Builds the expected statement of an account with a single transfer transaction
+     */
+    private String buildStatement(Account account, Account transferAccount, Transaction transaction,
+                                  String transactionType, String amount, String datePosted) {
+        return "      <STMTRS>\n"
+                + "        <CURDEF>" + account.getCommodity().getCurrencyCode() + "</CURDEF>\n"
+                + "        <BANKACCTFROM>\n"
+                + "          <BANKID>" + OfxHelper.APP_ID + "</BANKID>\n"
+                + "          <ACCTID>" + account.getUID() + "</ACCTID>\n"
+                + "          <ACCTTYPE>CHECKING</ACCTTYPE>\n"
+                + "        </BANKACCTFROM>\n"
+                + "        <BANKTRANLIST>\n"
+                + "          <DTSTART>NOW</DTSTART>\n"
+                + "          <DTEND>NOW</DTEND>\n"
+                + "          <STMTTRN>\n"
+                + "            <TRNTYPE>" + transactionType + "</TRNTYPE>\n"
+                + "            <DTPOSTED>" + datePosted + "</DTPOSTED>\n"
+                + "            <DTUSER>" + datePosted + "</DTUSER>\n"
+                + "            <TRNAMT>" + amount + "</TRNAMT>\n"
+                + "            <FITID>" + transaction.getUID() + "</FITID>\n"
+                + "            <NAME>Lunch &amp; drinks</NAME>\n"
+                + "            <MEMO>With &lt;friends&gt;</MEMO>\n"
+                + "            <BANKACCTTO>\n"
+                + "              <BANKID>" + OfxHelper.APP_ID + "</BANKID>\n"
+                + "              <ACCTID>" + transferAccount.getUID() + "</ACCTID>\n"
+                + "              <ACCTTYPE>CHECKING</ACCTTYPE>\n"
+                + "            </BANKACCTTO>\n"
+                + "          </STMTTRN>\n"
+                + "        </BANKTRANLIST>\n"
+                + "        <LEDGERBAL>\n"
+                + "          <BALAMT>" + amount + "</BALAMT>\n"
+                + "          <DTASOF>NOW</DTASOF>\n"
+                + "        </LEDGERBAL>\n"
+                + "      </STMTRS>\n";
+    }
+
+    private String readFileContent(File file) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            char[] buffer = new char[1024];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                contents.append(buffer, 0, count);
+            }
+        } finally {
+            reader.close();
+        }
+        return contents.toString();
     }
-}
\ No newline at end of file
+}
@@ -19,8 +19,10 @@ import android.database.sqlite.SQLiteDatabase;
 
 import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.adapter.AccountBalancesDbAdapter;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.PricesDbAdapter;
 import org.gnucash.android.db.adapter.RecurrenceDbAdapter;
 import org.gnucash.android.db.adapter.ScheduledActionDbAdapter;
 import org.gnucash.android.db.adapter.SplitsDbAdapter;
@@ -29,7 +31,9 @@ import org.gnucash.android.export.xml.GncXmlHelper;
 import org.gnucash.android.importer.GncXmlHandler;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Price;
 import org.gnucash.android.model.ScheduledAction;
 import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
@@ -48,6 +52,9 @@ import org.xml.sax.XMLReader;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.text.ParseException;
 import java.util.Calendar;
 import java.util.Date;
@@ -65,10 +72,13 @@ import static org.junit.Assert.fail;
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
 public class GncXmlHandlerTest {
+    private static final String SOURCE_URI = "content://org.gnucash.android.test/streamingImport.xml";
+
     private BooksDbAdapter mBooksDbAdapter;
     private TransactionsDbAdapter mTransactionsDbAdapter;
     private AccountsDbAdapter mAccountsDbAdapter;
     private ScheduledActionDbAdapter mScheduledActionDbAdapter;
+    private SQLiteDatabase mDb;
 
     @Before
     public void setUp() throws Exception {
@@ -78,12 +88,20 @@ public class GncXmlHandlerTest {
     }
 
     private String importGnuCashXml(String filename) {
+        return importGnuCashXml(filename, 0);
+    }
+
+    private String importGnuCashXml(String filename, int batchSize) {
+        return importGnuCashXml(filename, batchSize, false);
+    }
+
+    private String importGnuCashXml(String filename, int batchSize, boolean pipelined) {
         SAXParser parser;
         GncXmlHandler handler = null;
         try {
             parser = SAXParserFactory.newInstance().newSAXParser();
             XMLReader reader = parser.getXMLReader();
-            handler = new GncXmlHandler();
+            handler = new GncXmlHandler(batchSize, pipelined);
             reader.setContentHandler(handler);
             InputStream inputStream = getClass().getClassLoader().getResourceAsStream(filename);
             InputSource inputSource = new InputSource(new BufferedInputStream(inputStream));
@@ -95,9 +113,29 @@ public class GncXmlHandlerTest {
         return handler.getBookUID();
     }
 
+    private static void parse(String xml, GncXmlHandler handler)
+            throws ParserConfigurationException, SAXException, IOException {
+        XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(new StringReader(xml)));
+    }
+
+    private String readResource(String filename) throws IOException {
+        Reader reader = new InputStreamReader(getClass().getClassLoader().getResourceAsStream(filename), "UTF-8");
+        StringBuilder content = new StringBuilder();
+        char[] buffer = new char[4096];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            content.append(buffer, 0, count);
+        }
+        reader.close();
+        return content.toString();
+    }
+
     private void setUpDbAdapters(String bookUID) {
         DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID);
         SQLiteDatabase mainDb = databaseHelper.getReadableDatabase();
+        mDb = mainDb;
         mTransactionsDbAdapter = new TransactionsDbAdapter(mainDb, new SplitsDbAdapter(mainDb));
         mAccountsDbAdapter = new AccountsDbAdapter(mainDb, mTransactionsDbAdapter);
         RecurrenceDbAdapter recurrenceDbAdapter = new RecurrenceDbAdapter(mainDb);
@@ -286,6 +324,13 @@ public class GncXmlHandlerTest {
         assertThat(split2.getValue()).isEqualTo(new Money("20", "USD"));
         assertThat(split2.getQuantity()).isEqualTo(new Money("17.93", "EUR"));
         assertThat(split2.isPairOf(split1)).isTrue();
+
+        Price price = new PricesDbAdapter(mDb).getRecord("8622e90f9ba655d4170d24fcfd55504f");
+        assertThat(price.getDate().getTime()).isEqualTo(1474223035000L); //2016-09-18 20:23:55 +0200
+        assertThat(price.getSource()).isEqualTo("Finance::Quote");
+        assertThat(price.getType()).isEqualTo("last");
+        assertThat(price.getValueNum()).isEqualTo(11153);
+        assertThat(price.getValueDenom()).isEqualTo(10000);
     }
 
     /**
@@ -406,4 +451,144 @@ public class GncXmlHandlerTest {
         //assertThat(split2.getQuantity()).isEqualTo(new Money("20", "USD"));
         assertThat(split2.isPairOf(split1)).isTrue();
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests importing transactions in batches while parsing.
+     *
+     * <p>The imbalance account of the auto-balance split of the unbalanced transaction is not in the file.
+     * It is created when the split is parsed, and saved with it.</p>
+     */
+    @Test
+    public void streamingImport_shouldSaveAutoBalanceSplitsInImbalanceAccount() {
+        String bookUID = importGnuCashXml("streamingImport.xml", 2);
+        setUpDbAdapters(bookUID);
+
+        assertImportedBook();
+    }
+
+    /**
+     * Checks that saving the batches on a separate thread gives the same result as a streaming import
+     */
+    @Test
+    public void pipelinedImport_shouldMatchStreamingImport() {
+        String bookUID = importGnuCashXml("streamingImport.xml", 1, true);
+        setUpDbAdapters(bookUID);
+
+        assertImportedBook();
+    }
+
+    /**
+     * Checks that importing all transactions at the end gives the same result as a streaming import
+     */
+    @Test
+    public void bufferedImport_shouldMatchStreamingImport() {
+        String bookUID = importGnuCashXml("streamingImport.xml");
+        setUpDbAdapters(bookUID);
+
+        assertImportedBook();
+    }
+
+    /**
+     * Tests resuming an import which was interrupted after its last checkpoint.
+     *
+     * <p>The transactions committed before the interruption are kept and skipped when the file is
+     * imported again, and their auto-balance split is still assigned to the imbalance account.</p>
+     */
+    @Test
+    public void interruptedImport_shouldBeResumedFromCheckpoint() throws Exception {
+        String xml = readResource("streamingImport.xml");
+        GncXmlHandler handler = new GncXmlHandler(1, false, SOURCE_URI);
+        handler.setCheckpointInterval(1);
+        try {
+            parse(xml.substring(0, xml.indexOf("</gnc:book>")), handler);
+            fail("The truncated file should not be imported");
+        } catch (SAXException e) {
+            handler.abort();
+        }
+        String interruptedBookUID = handler.getBookUID();
+        assertThat(mBooksDbAdapter.hasRecord(interruptedBookUID)).isFalse();
+
+        handler = new GncXmlHandler(1, false, SOURCE_URI);
+        parse(xml, handler);
+
+        assertThat(handler.getBookUID()).isEqualTo(interruptedBookUID);
+        assertThat(mBooksDbAdapter.hasRecord(interruptedBookUID)).isTrue();
+        setUpDbAdapters(interruptedBookUID);
+        assertImportedBook();
+    }
+
+    /**
+     * Checks that a different file imported from the same source is not resumed from the checkpoint
+     * of the interrupted import, but imported from the start
+     */
+    @Test
+    public void replacedSource_shouldNotBeResumedFromCheckpoint() throws Exception {
+        String xml = readResource("streamingImport.xml");
+        GncXmlHandler handler = new GncXmlHandler(1, false, SOURCE_URI, xml.length());
+        handler.setCheckpointInterval(1);
+        try {
+            parse(xml.substring(0, xml.indexOf("</gnc:book>")), handler);
+            fail("The truncated file should not be imported");
+        } catch (SAXException e) {
+            handler.abort();
+        }
+
+        String replacedXml = xml.replace("fb0911dd508266db9446bc605edad3e4", "0e5c1f8ad2a34cbf9d6e1a7c3b2f4d80")
+                .replace(">Kahuna Burger<", ">Kahuna Burger refund<");
+        handler = new GncXmlHandler(1, false, SOURCE_URI, replacedXml.length());
+        parse(replacedXml, handler);
+
+        setUpDbAdapters(handler.getBookUID());
+        assertThat(mTransactionsDbAdapter.getRecord("b33c8a6160494417558fd143731fc26a").getDescription())
+                .isEqualTo("Kahuna Burger refund");
+        assertImportedBook();
+    }
+
+    /**
+     * Checks that a file with fewer transactions than declared by its count data is not imported,
+     * and that the next import of the same source starts from scratch
+     */
+    @Test
+    public void importWithMissingTransactions_shouldFailValidation() throws Exception {
+        String xml = readResource("streamingImport.xml");
+        GncXmlHandler handler = new GncXmlHandler(1, false, SOURCE_URI);
+        handler.setCheckpointInterval(1);
+        try {
+            parse(xml.replace("cd:type=\"transaction\">3<", "cd:type=\"transaction\">4<"), handler);
+            fail("The file should not pass the validation");
+        } catch (SAXException e) {
+            handler.abort();
+        }
+        String failedBookUID = handler.getBookUID();
+        assertThat(mBooksDbAdapter.hasRecord(failedBookUID)).isFalse();
+        assertThat(GnuCashApplication.getAppContext().getDatabasePath(failedBookUID).exists()).isFalse();
+
+        handler = new GncXmlHandler(1, false, SOURCE_URI);
+        parse(xml, handler);
+
+        assertThat(handler.getBookUID()).isNotEqualTo(failedBookUID);
+        setUpDbAdapters(handler.getBookUID());
+        assertImportedBook();
+    }
+
+    private void assertImportedBook() {
+        assertThat(mTransactionsDbAdapter.getRecordsCount()).isEqualTo(3);
+        assertThat(mAccountsDbAdapter.getAccountFullName("308ade8cf0be2b0b05c5eec3114a65fa"))
+                .isEqualTo(AccountsDbAdapter.ROOT_ACCOUNT_FULL_NAME);
+        assertThat(mAccountsDbAdapter.getAccountFullName("9b607f63aecb1a175556676904432365")).isEqualTo("Expenses");
+        assertThat(mAccountsDbAdapter.getAccountFullName("6a7cf8267314992bdddcee56d71a3908")).isEqualTo("Expenses:Dining");
+        assertThat(mAccountsDbAdapter.getAccountFullName("dae686a1636addc0dae1ae670701aa4a")).isEqualTo("Assets:Cash in Wallet");
+
+        String imbalanceAccountName = AccountsDbAdapter.getImbalanceAccountName(Commodity.USD);
+        String imbalanceUID = mAccountsDbAdapter.findAccountUidByFullName(imbalanceAccountName);
+        assertThat(imbalanceUID).isNotNull();
+        assertThat(mAccountsDbAdapter.getParentAccountUID(imbalanceUID)).isEqualTo("308ade8cf0be2b0b05c5eec3114a65fa");
+
+        SplitsDbAdapter splitsDbAdapter = mTransactionsDbAdapter.getSplitDbAdapter();
+        assertThat(splitsDbAdapter.getSplitsForTransactionInAccount("4c2b5a0e9b2f4dd19ab0a3a4f1b4a002", imbalanceUID))
+                .hasSize(1);
+        assertThat(mAccountsDbAdapter.getAccountBalance(imbalanceUID)).isEqualTo(new Money("-5", "USD"));
+        assertThat(mAccountsDbAdapter.getAccountBalance("6a7cf8267314992bdddcee56d71a3908")).isEqualTo(new Money("40", "USD"));
+        assertThat(new AccountBalancesDbAdapter(mDb).isConsistent()).isTrue();
+    }
+}
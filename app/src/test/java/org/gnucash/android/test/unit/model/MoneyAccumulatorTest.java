@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.model;
+
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.MoneyAccumulator;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class MoneyAccumulatorTest {
+
+    @Test
+    public void shouldAddUpAmountsOfDifferentDenominators() {
+        MoneyAccumulator sum = new MoneyAccumulator("USD");
+        sum.add(1225, 100)
+                .add(3, 1)
+                .subtract(5, 10)
+                .add(new Money("0.75", "USD"))
+                .subtract(new Money("1.00", "USD"));
+
+        assertThat(sum.toMoney()).isEqualTo(new Money("14.50", "USD"));
+    }
+
+    @Test
+    public void shouldRoundOnlyTheSum() {
+        MoneyAccumulator sum = new MoneyAccumulator("USD");
+        sum.add(1005, 1000).add(1005, 1000);
+
+        assertThat(sum.toMoney()).isEqualTo(new Money("2.01", "USD"));
+    }
+
+    @Test
+    public void shouldFallBackToBigDecimalOnOverflow() {
+        MoneyAccumulator sum = new MoneyAccumulator("USD");
+        sum.add(Long.MAX_VALUE, 100).add(Long.MAX_VALUE, 100).subtract(Long.MIN_VALUE, 100);
+
+        BigDecimal expected = BigDecimal.valueOf(Long.MAX_VALUE).multiply(BigDecimal.valueOf(2))
+                .subtract(BigDecimal.valueOf(Long.MIN_VALUE)).movePointLeft(2);
+        assertThat(sum.toMoney().asBigDecimal()).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldMatchMoneyArithmetic() {
+        MoneyAccumulator sum = new MoneyAccumulator("EUR");
+        Money expected = Money.createZeroInstance("EUR");
+        for (int i = -500; i < 1000; i += 7) {
+            Money amount = new Money(i * 13, 100, "EUR");
+            sum.add(amount);
+            expected = expected.add(amount);
+        }
+
+        assertThat(sum.toMoney()).isEqualTo(expected);
+    }
+
+    @Test(expected = Money.CurrencyMismatchException.class)
+    public void shouldRejectOtherCurrencies() {
+        new MoneyAccumulator("USD").add(new Money("1", "EUR"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveDenominators() {
+        new MoneyAccumulator("USD").add(1, 0);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.report;
+
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.gnucash.android.ui.report.ReportDataCache;
+import org.gnucash.android.ui.report.ReportDataCache.DataType;
+import org.gnucash.android.ui.report.ReportDataCache.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class ReportDataCacheTest {
+
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+    private Account mExpenseAccount;
+    private Account mOtherExpenseAccount;
+    private Account mCashAccount;
+    private int mGenerateCount;
+
+    @Before
+    public void setUp() {
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mTransactionsDbAdapter = TransactionsDbAdapter.getInstance();
+        ReportDataCache.getInstance().clear();
+
+        mExpenseAccount = new Account("Groceries", Commodity.USD);
+        mExpenseAccount.setAccountType(AccountType.EXPENSE);
+        mOtherExpenseAccount = new Account("Rent", Commodity.USD);
+        mOtherExpenseAccount.setAccountType(AccountType.EXPENSE);
+        mCashAccount = new Account("Cash", Commodity.USD);
+        mCashAccount.setAccountType(AccountType.CASH);
+        mAccountsDbAdapter.addRecord(mExpenseAccount);
+        mAccountsDbAdapter.addRecord(mOtherExpenseAccount);
+        mAccountsDbAdapter.addRecord(mCashAccount);
+    }
+
+    @Test
+    public void cachedResult_shouldBeReusedUntilTheBookChanges() {
+        addExpense(mExpenseAccount, "10.00");
+
+        assertThat(getExpenseBalance().asBigDecimal()).isEqualByComparingTo(new BigDecimal("10.00"));
+        assertThat(getExpenseBalance().asBigDecimal()).isEqualByComparingTo(new BigDecimal("10.00"));
+        assertThat(mGenerateCount).isEqualTo(1);
+
+        addExpense(mExpenseAccount, "5.00");
+
+        assertThat(getExpenseBalance().asBigDecimal()).isEqualByComparingTo(new BigDecimal("15.00"));
+        assertThat(mGenerateCount).isEqualTo(2);
+    }
+
+    @Test
+    public void movingSplits_shouldInvalidateCachedResults() {
+        Transaction transaction = addExpense(mExpenseAccount, "10.00");
+        assertThat(getExpenseBalance().asBigDecimal()).isEqualByComparingTo(new BigDecimal("10.00"));
+
+        // only the split rows are updated, the transaction is not modified
+        mTransactionsDbAdapter.moveTransaction(transaction.getUID(), mExpenseAccount.getUID(),
+                mOtherExpenseAccount.getUID());
+
+        assertThat(getExpenseBalance().asBigDecimal()).isEqualByComparingTo(new BigDecimal("0.00"));
+        assertThat(mGenerateCount).isEqualTo(2);
+    }
+
+    private Money getExpenseBalance() {
+        Key key = new Key(DataType.ACCOUNT_BALANCES, AccountType.EXPENSE,
+                Collections.singletonList(mExpenseAccount.getUID()), "USD", null, -1, -1);
+        ReportDataCache.getInstance().validate();
+        return ReportDataCache.getInstance().get(key, new ReportDataCache.Generator<Money>() {
+            @Override
+            public Money generate() {
+                mGenerateCount++;
+                return mAccountsDbAdapter.getAccountBalance(mExpenseAccount.getUID());
+            }
+        });
+    }
+
+    private Transaction addExpense(Account account, String amount) {
+        Transaction transaction = new Transaction("Expense");
+        Split split = new Split(new Money(amount, "USD"), account.getUID());
+        split.setType(TransactionType.DEBIT);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(mCashAccount.getUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+        return transaction;
+    }
+
+    @After
+    public void tearDown() {
+        ReportDataCache.getInstance().clear();
+        mAccountsDbAdapter.deleteAllRecords();
+    }
+}
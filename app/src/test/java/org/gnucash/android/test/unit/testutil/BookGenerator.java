@@ -0,0 +1,725 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.testutil;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.CommodityCache;
+import org.gnucash.android.db.adapter.DatabaseAdapter;
+import org.gnucash.android.db.adapter.PricesDbAdapter;
+import org.gnucash.android.db.adapter.RecurrenceDbAdapter;
+import org.gnucash.android.db.adapter.ScheduledActionDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.export.xml.GncXmlHelper;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.PeriodType;
+import org.gnucash.android.model.Price;
+import org.gnucash.android.model.Recurrence;
+import org.gnucash.android.model.ScheduledAction;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates synthetic books of any size, for tests and benchmarks which need large datasets.
+ * <p>The same book can either be written as GnuCash XML, which {@link org.gnucash.android.importer.GncXmlImporter}
+ * imports, or be saved directly to a book database with the database adapters. The content of the book
+ * only depends on the parameters and the seed, so the generated records have the same GUIDs every time.</p>
+ * <p>The book has a tree of accounts under the ROOT account, transactions with balanced splits which are spread
+ * over five years, a history of prices of each currency in the first one, and monthly scheduled transactions
+ * which are not auto-created. Transactions are generated one after the other while they are written,
+ * so books with millions of splits do not have to fit in memory.</p>
+ * <p>Only the currencies which {@link Commodity#getInstance(String)} knows without a database are used,
+ * so that the XML can also be generated on a plain JVM.</p>
+ */
+public class BookGenerator {
+
+    /**
+     * Currencies of the generated books, in the order they are used
+     */
+    private static final String[] CURRENCY_CODES = {"USD", "EUR", "GBP", "CHF", "JPY", "AUD", "CAD"};
+
+    /**
+     * Types of the top-level accounts, in the order they are created. Sub-accounts have the type of their parent
+     */
+    private static final AccountType[] TOP_LEVEL_TYPES = {AccountType.ASSET, AccountType.EXPENSE,
+            AccountType.INCOME, AccountType.LIABILITY, AccountType.EQUITY};
+
+    private static final long FIRST_TRANSACTION_TIME = 1451606400000L; //2016-01-01 UTC
+    private static final long TRANSACTIONS_TIME_SPAN = 5 * 365 * 24 * 3600 * 1000L;
+    private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+
+    /**
+     * Range of the split amounts, in the smallest unit of the currency
+     */
+    private static final int MIN_SPLIT_AMOUNT = 100;
+    private static final int MAX_SPLIT_AMOUNT = 100000;
+
+    private static final long PRICE_DENOMINATOR = 10000;
+
+    /**
+     * Number of transactions saved in one bulk insert by {@link #populate(SQLiteDatabase)}
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Offset of the seed for the transactions, so that they do not depend on the rest of the book
+     */
+    private static final long TRANSACTIONS_SEED_OFFSET = 0x5DEECE66DL;
+
+    private long mSeed = 42;
+    private int mAccountCount = 50;
+    private int mTreeDepth = 3;
+    private int mTransactionCount = 1000;
+    private int[] mSplitCountWeights = {80, 15, 5};
+    private int mCurrencyCount = 1;
+    private int mPriceHistoryLength = 0;
+    private int mScheduledActionCount = 0;
+
+    /**
+     * Sets the seed of the random generator. Books generated with the same parameters and seed are identical
+     * @param seed Seed of the random generator
+     * @return This generator
+     */
+    public BookGenerator setSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    /**
+     * Sets the number of accounts, not counting the ROOT account
+     * @param accountCount Number of accounts
+     * @return This generator
+     */
+    public BookGenerator setAccountCount(int accountCount) {
+        mAccountCount = accountCount;
+        return this;
+    }
+
+    /**
+     * Sets the maximum depth of the account tree. Top-level accounts are at depth 1
+     * @param treeDepth Maximum depth of the accounts
+     * @return This generator
+     */
+    public BookGenerator setTreeDepth(int treeDepth) {
+        mTreeDepth = treeDepth;
+        return this;
+    }
+
+    /**
+     * Sets the number of transactions, not counting the templates of the scheduled actions
+     * @param transactionCount Number of transactions
+     * @return This generator
+     */
+    public BookGenerator setTransactionCount(int transactionCount) {
+        mTransactionCount = transactionCount;
+        return this;
+    }
+
+    /**
+     * Sets the number of transactions so that the book has about a number of splits,
+     * given the current distribution of splits per transaction
+     * @param splitCount Approximate number of splits
+     * @return This generator
+     * @see #setSplitCountWeights(int...)
+     */
+    public BookGenerator setApproximateSplitCount(int splitCount) {
+        long weightSum = 0;
+        long splitSum = 0;
+        for (int i = 0; i < mSplitCountWeights.length; i++) {
+            weightSum += mSplitCountWeights[i];
+            splitSum += (long) mSplitCountWeights[i] * (i + 2);
+        }
+        mTransactionCount = (int) Math.max(1, splitCount * weightSum / splitSum);
+        return this;
+    }
+
+    /**
+     * Sets the distribution of the number of splits per transaction.
+     * <p>The weight at index {@code i} is the relative frequency of transactions with {@code i + 2} splits.
+     * The default {80, 15, 5} gives 80% of transactions with 2 splits, 15% with 3 and 5% with 4</p>
+     * @param weights Relative frequencies of the split counts
+     * @return This generator
+     */
+    public BookGenerator setSplitCountWeights(int... weights) {
+        mSplitCountWeights = weights.clone();
+        return this;
+    }
+
+    /**
+     * Sets the number of currencies used by the accounts and transactions
+     * @param currencyCount Number of currencies, at most 7
+     * @return This generator
+     */
+    public BookGenerator setCurrencyCount(int currencyCount) {
+        mCurrencyCount = currencyCount;
+        return this;
+    }
+
+    /**
+     * Sets the number of daily prices of each currency, other than the first one, in the first currency
+     * @param priceHistoryLength Number of prices per currency
+     * @return This generator
+     */
+    public BookGenerator setPriceHistoryLength(int priceHistoryLength) {
+        mPriceHistoryLength = priceHistoryLength;
+        return this;
+    }
+
+    /**
+     * Sets the number of scheduled transactions
+     * @param scheduledActionCount Number of scheduled actions
+     * @return This generator
+     */
+    public BookGenerator setScheduledActionCount(int scheduledActionCount) {
+        mScheduledActionCount = scheduledActionCount;
+        return this;
+    }
+
+    /**
+     * Writes the book as uncompressed GnuCash XML
+     * @param writer Output of the XML
+     * @throws IOException if the XML could not be written
+     * @throws IllegalArgumentException if the parameters of the generator are invalid
+     */
+    public void writeXml(@NonNull Writer writer) throws IOException {
+        Commodity[] commodities = new Commodity[mCurrencyCount];
+        for (int i = 0; i < mCurrencyCount; i++) {
+            commodities[i] = Commodity.getInstance(CURRENCY_CODES[i]);
+        }
+        GeneratedBook book = generate(commodities);
+
+        XmlSerializer xmlSerializer;
+        try {
+            xmlSerializer = XmlPullParserFactory.newInstance().newSerializer();
+        } catch (XmlPullParserException e) {
+            throw new IOException("Could not create the XML serializer", e);
+        }
+        xmlSerializer.setOutput(writer);
+        xmlSerializer.startDocument("utf-8", true);
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_ROOT);
+        for (String ns : new String[]{"gnc", "act", "book", "cd", "cmdty", "price", "slot",
+                "split", "trn", "ts", "sx", "bgt", "recurrence"}) {
+            xmlSerializer.attribute(null, "xmlns:" + ns, "http://www.gnucash.org/XML/" + ns);
+        }
+        writeCountData(xmlSerializer, GncXmlHelper.ATTR_VALUE_BOOK, 1);
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_BOOK);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, GncXmlHelper.BOOK_VERSION);
+        writeGuid(xmlSerializer, GncXmlHelper.TAG_BOOK_ID, book.mBookUID);
+        writeCountData(xmlSerializer, "commodity", mCurrencyCount);
+        writeCountData(xmlSerializer, "account", book.mAccounts.size());
+        writeCountData(xmlSerializer, "transaction", mTransactionCount);
+        if (!book.mPrices.isEmpty())
+            writeCountData(xmlSerializer, "price", book.mPrices.size());
+
+        for (Commodity commodity : commodities) {
+            xmlSerializer.startTag(null, GncXmlHelper.TAG_COMMODITY);
+            xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, GncXmlHelper.BOOK_VERSION);
+            writeText(xmlSerializer, GncXmlHelper.TAG_COMMODITY_SPACE, "ISO4217");
+            writeText(xmlSerializer, GncXmlHelper.TAG_COMMODITY_ID, commodity.getCurrencyCode());
+            xmlSerializer.endTag(null, GncXmlHelper.TAG_COMMODITY);
+        }
+        if (!book.mPrices.isEmpty())
+            writePrices(xmlSerializer, book);
+        for (Account account : book.mAccounts) {
+            writeAccount(xmlSerializer, account, "ISO4217", account.getCommodity());
+        }
+
+        Random random = new Random(mSeed + TRANSACTIONS_SEED_OFFSET);
+        for (int i = 0; i < mTransactionCount; i++) {
+            writeTransaction(xmlSerializer, generateTransaction(random, book, i), null);
+        }
+
+        if (!book.mScheduledActions.isEmpty()) {
+            xmlSerializer.startTag(null, GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS);
+            Account templateRoot = new Account("Template Root");
+            templateRoot.setUID(book.mTemplateRootUID);
+            templateRoot.setAccountType(AccountType.ROOT);
+            writeAccount(xmlSerializer, templateRoot, "template", null);
+            for (ScheduledAction scheduledAction : book.mScheduledActions) {
+                Account templateAccount = new Account(scheduledAction.getUID());
+                templateAccount.setUID(scheduledAction.getTemplateAccountUID());
+                templateAccount.setAccountType(AccountType.BANK);
+                templateAccount.setParentUID(templateRoot.getUID());
+                writeAccount(xmlSerializer, templateAccount, "template", null);
+            }
+            for (int i = 0; i < book.mTemplateTransactions.size(); i++) {
+                writeTransaction(xmlSerializer, book.mTemplateTransactions.get(i),
+                        book.mScheduledActions.get(i).getTemplateAccountUID());
+            }
+            xmlSerializer.endTag(null, GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS);
+            for (int i = 0; i < book.mScheduledActions.size(); i++) {
+                writeScheduledAction(xmlSerializer, book.mScheduledActions.get(i), book.mTemplateTransactions.get(i));
+            }
+        }
+
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_BOOK);
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_ROOT);
+        xmlSerializer.endDocument();
+        xmlSerializer.flush();
+    }
+
+    /**
+     * Saves the book to a book database, in a single database transaction.
+     * <p>The database should be empty, apart from the commodities which are created with it</p>
+     * @param db Database of the book
+     * @throws IllegalArgumentException if the parameters of the generator are invalid
+     */
+    public void populate(@NonNull SQLiteDatabase db) {
+        CommodityCache commodityCache = CommodityCache.getInstance(db);
+        Commodity[] commodities = new Commodity[mCurrencyCount];
+        for (int i = 0; i < mCurrencyCount; i++) {
+            commodities[i] = commodityCache.getCommodity(CURRENCY_CODES[i]);
+            if (commodities[i] == null)
+                throw new IllegalArgumentException("Currency code not found in commodities");
+        }
+        GeneratedBook book = generate(commodities);
+
+        SplitsDbAdapter splitsDbAdapter = new SplitsDbAdapter(db);
+        TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(db, splitsDbAdapter);
+        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(db, transactionsDbAdapter);
+        ScheduledActionDbAdapter scheduledActionDbAdapter = new ScheduledActionDbAdapter(db, new RecurrenceDbAdapter(db));
+        PricesDbAdapter pricesDbAdapter = new PricesDbAdapter(db);
+
+        db.beginTransaction();
+        try {
+            accountsDbAdapter.bulkAddRecords(book.mAccounts, DatabaseAdapter.UpdateMethod.insert);
+            //scheduled actions first, like the importer does
+            scheduledActionDbAdapter.bulkAddRecords(book.mScheduledActions, DatabaseAdapter.UpdateMethod.insert);
+            transactionsDbAdapter.bulkAddRecords(book.mTemplateTransactions, DatabaseAdapter.UpdateMethod.insert);
+
+            Random random = new Random(mSeed + TRANSACTIONS_SEED_OFFSET);
+            List<Transaction> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < mTransactionCount; i++) {
+                batch.add(generateTransaction(random, book, i));
+                if (batch.size() == BATCH_SIZE) {
+                    transactionsDbAdapter.bulkAddRecords(batch, DatabaseAdapter.UpdateMethod.insert);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty())
+                transactionsDbAdapter.bulkAddRecords(batch, DatabaseAdapter.UpdateMethod.insert);
+
+            pricesDbAdapter.bulkAddRecords(book.mPrices, DatabaseAdapter.UpdateMethod.insert);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Generates the accounts, prices and scheduled actions of the book.
+     * The transactions are generated separately by {@link #generateTransaction(Random, GeneratedBook, int)}
+     * @param commodities Commodities of the currencies of the book
+     * @return Generated records
+     */
+    private GeneratedBook generate(Commodity[] commodities) {
+        validate();
+        Random random = new Random(mSeed);
+        GeneratedBook book = new GeneratedBook(commodities);
+        book.mBookUID = generateUID(random);
+        book.mTemplateRootUID = generateUID(random);
+
+        Account rootAccount = new Account("Root Account", commodities[0]);
+        rootAccount.setUID(generateUID(random));
+        rootAccount.setAccountType(AccountType.ROOT);
+        rootAccount.setFullName(AccountsDbAdapter.ROOT_ACCOUNT_FULL_NAME);
+        rootAccount.setHidden(true);
+        book.mAccounts.add(rootAccount);
+
+        List<Account> parentCandidates = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        for (int i = 0; i < mAccountCount; i++) {
+            Commodity commodity = commodities[i % mCurrencyCount];
+            Account account = new Account(String.format(Locale.US, "Account %d", i), commodity);
+            account.setUID(generateUID(random));
+            int depth = 1;
+            if (i < TOP_LEVEL_TYPES.length || parentCandidates.isEmpty()) {
+                account.setAccountType(TOP_LEVEL_TYPES[i % TOP_LEVEL_TYPES.length]);
+                account.setParentUID(rootAccount.getUID());
+                account.setFullName(account.getName());
+            } else {
+                int parentIndex = random.nextInt(parentCandidates.size());
+                Account parent = parentCandidates.get(parentIndex);
+                depth = depths.get(parentIndex) + 1;
+                account.setAccountType(parent.getAccountType());
+                account.setParentUID(parent.getUID());
+                account.setFullName(parent.getFullName() + AccountsDbAdapter.ACCOUNT_NAME_SEPARATOR + account.getName());
+            }
+            if (depth < mTreeDepth) {
+                parentCandidates.add(account);
+                depths.add(depth);
+            }
+            book.mAccounts.add(account);
+            book.mAccountsByCurrency.get(i % mCurrencyCount).add(account);
+        }
+
+        for (int currency = 1; currency < mCurrencyCount; currency++) {
+            long valueNum = PRICE_DENOMINATOR / 2 + random.nextInt((int) PRICE_DENOMINATOR);
+            for (int i = 0; i < mPriceHistoryLength; i++) {
+                Price price = new Price(commodities[currency].getUID(), commodities[0].getUID());
+                price.setUID(generateUID(random));
+                price.setDate(new Timestamp(FIRST_TRANSACTION_TIME + i * DAY_MILLIS));
+                price.setSource(Price.SOURCE_USER);
+                valueNum = Math.max(1, valueNum + random.nextInt(201) - 100);
+                price.setValueNum(valueNum);
+                price.setValueDenom(PRICE_DENOMINATOR);
+                book.mPrices.add(price);
+            }
+        }
+
+        for (int i = 0; i < mScheduledActionCount; i++) {
+            Transaction templateTransaction = generateTransaction(random, book,
+                    String.format(Locale.US, "Scheduled transaction %d", i), FIRST_TRANSACTION_TIME, 2);
+            templateTransaction.setTemplate(true);
+
+            ScheduledAction scheduledAction = new ScheduledAction(ScheduledAction.ActionType.TRANSACTION);
+            scheduledAction.setUID(generateUID(random));
+            scheduledAction.setActionUID(templateTransaction.getUID());
+            scheduledAction.setTemplateAccountUID(generateUID(random));
+            scheduledAction.setStartTime(FIRST_TRANSACTION_TIME);
+            scheduledAction.setCreatedTimestamp(new Timestamp(FIRST_TRANSACTION_TIME));
+            //not auto-created, so that importing the book does not generate the missed transactions
+            scheduledAction.setAutoCreate(false);
+            Recurrence recurrence = new Recurrence(PeriodType.MONTH);
+            recurrence.setUID(generateUID(random));
+            scheduledAction.setRecurrence(recurrence);
+
+            book.mTemplateTransactions.add(templateTransaction);
+            book.mScheduledActions.add(scheduledAction);
+        }
+        return book;
+    }
+
+    /**
+     * Generates the transaction at an index of the book.
+     * <p>Transactions must be generated in order with the same random generator, seeded with
+     * {@link #TRANSACTIONS_SEED_OFFSET} added to the seed, so that they are the same every time</p>
+     */
+    private Transaction generateTransaction(Random random, GeneratedBook book, int index) {
+        long time = FIRST_TRANSACTION_TIME + index * (TRANSACTIONS_TIME_SPAN / mTransactionCount);
+        return generateTransaction(random, book, String.format(Locale.US, "Transaction %d", index),
+                time, pickSplitCount(random));
+    }
+
+    /**
+     * Generates a transaction in a random currency, with debit splits of random amounts
+     * balanced by a single credit split
+     */
+    private Transaction generateTransaction(Random random, GeneratedBook book, String description,
+                                            long time, int splitCount) {
+        int currency = random.nextInt(mCurrencyCount);
+        Commodity commodity = book.mCommodities[currency];
+        List<Account> accounts = book.mAccountsByCurrency.get(currency);
+
+        Transaction transaction = new Transaction(description);
+        transaction.setUID(generateUID(random));
+        transaction.setCommodity(commodity);
+        transaction.setTime(time);
+        long total = 0;
+        for (int i = 0; i < splitCount - 1; i++) {
+            long amount = MIN_SPLIT_AMOUNT + random.nextInt(MAX_SPLIT_AMOUNT - MIN_SPLIT_AMOUNT);
+            total += amount;
+            transaction.addSplit(generateSplit(random, commodity, amount, TransactionType.DEBIT,
+                    accounts.get(random.nextInt(accounts.size()))));
+        }
+        transaction.addSplit(generateSplit(random, commodity, total, TransactionType.CREDIT,
+                accounts.get(random.nextInt(accounts.size()))));
+        return transaction;
+    }
+
+    private static Split generateSplit(Random random, Commodity commodity, long amount, TransactionType type,
+                                       Account account) {
+        Money money = new Money(BigDecimal.valueOf(amount, commodity.getSmallestFractionDigits()), commodity);
+        Split split = new Split(money, money, account.getUID());
+        split.setUID(generateUID(random));
+        split.setType(type);
+        return split;
+    }
+
+    private int pickSplitCount(Random random) {
+        int weightSum = 0;
+        for (int weight : mSplitCountWeights) {
+            weightSum += weight;
+        }
+        int pick = random.nextInt(weightSum);
+        for (int i = 0; i < mSplitCountWeights.length; i++) {
+            pick -= mSplitCountWeights[i];
+            if (pick < 0)
+                return i + 2;
+        }
+        return mSplitCountWeights.length + 1;
+    }
+
+    private void validate() {
+        if (mCurrencyCount < 1 || mCurrencyCount > CURRENCY_CODES.length)
+            throw new IllegalArgumentException("The number of currencies must be between 1 and " + CURRENCY_CODES.length);
+        if (mAccountCount < 2 * mCurrencyCount)
+            throw new IllegalArgumentException("At least two accounts are needed for each currency");
+        if (mTreeDepth < 1)
+            throw new IllegalArgumentException("The tree depth must be at least 1");
+        if (mTransactionCount < 0 || mPriceHistoryLength < 0 || mScheduledActionCount < 0)
+            throw new IllegalArgumentException("The number of records cannot be negative");
+        int weightSum = 0;
+        for (int weight : mSplitCountWeights) {
+            if (weight < 0)
+                throw new IllegalArgumentException("Split count weights cannot be negative");
+            weightSum += weight;
+        }
+        if (weightSum == 0)
+            throw new IllegalArgumentException("At least one split count must have a positive weight");
+    }
+
+    /**
+     * Returns a GUID drawn from the random generator, so that it is the same every time the book is generated
+     */
+    private static String generateUID(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "");
+    }
+
+    private static void writeCountData(XmlSerializer xmlSerializer, String type, int count) throws IOException {
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_COUNT_DATA);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_CD_TYPE, type);
+        xmlSerializer.text(Integer.toString(count));
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
+    }
+
+    private static void writeText(XmlSerializer xmlSerializer, String tag, String text) throws IOException {
+        xmlSerializer.startTag(null, tag);
+        xmlSerializer.text(text);
+        xmlSerializer.endTag(null, tag);
+    }
+
+    private static void writeGuid(XmlSerializer xmlSerializer, String tag, String uid) throws IOException {
+        xmlSerializer.startTag(null, tag);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_TYPE, GncXmlHelper.ATTR_VALUE_GUID);
+        xmlSerializer.text(uid);
+        xmlSerializer.endTag(null, tag);
+    }
+
+    private static void writeCommodity(XmlSerializer xmlSerializer, String tag, String space, String id) throws IOException {
+        xmlSerializer.startTag(null, tag);
+        writeText(xmlSerializer, GncXmlHelper.TAG_COMMODITY_SPACE, space);
+        writeText(xmlSerializer, GncXmlHelper.TAG_COMMODITY_ID, id);
+        xmlSerializer.endTag(null, tag);
+    }
+
+    private static void writeTime(XmlSerializer xmlSerializer, String tag, long timeMillis) throws IOException {
+        xmlSerializer.startTag(null, tag);
+        writeText(xmlSerializer, GncXmlHelper.TAG_TS_DATE, GncXmlHelper.formatDate(timeMillis));
+        xmlSerializer.endTag(null, tag);
+    }
+
+    private static void writeDate(XmlSerializer xmlSerializer, String tag, long timeMillis) throws IOException {
+        xmlSerializer.startTag(null, tag);
+        writeText(xmlSerializer, GncXmlHelper.TAG_GDATE, GncXmlHelper.DATE_FORMATTER.print(timeMillis));
+        xmlSerializer.endTag(null, tag);
+    }
+
+    /**
+     * Writes an account. Template accounts have no commodity of their own
+     */
+    private static void writeAccount(XmlSerializer xmlSerializer, Account account, String commoditySpace,
+                                     Commodity commodity) throws IOException {
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_ACCOUNT);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, GncXmlHelper.BOOK_VERSION);
+        writeText(xmlSerializer, GncXmlHelper.TAG_ACCT_NAME, account.getName());
+        writeGuid(xmlSerializer, GncXmlHelper.TAG_ACCT_ID, account.getUID());
+        writeText(xmlSerializer, GncXmlHelper.TAG_ACCT_TYPE, account.getAccountType().name());
+        writeCommodity(xmlSerializer, GncXmlHelper.TAG_ACCT_COMMODITY, commoditySpace,
+                commodity == null ? commoditySpace : commodity.getCurrencyCode());
+        writeText(xmlSerializer, GncXmlHelper.TAG_COMMODITY_SCU,
+                commodity == null ? "1" : Integer.toString(commodity.getSmallestFraction()));
+        if (account.getAccountType() != AccountType.ROOT)
+            writeGuid(xmlSerializer, GncXmlHelper.TAG_PARENT_UID, account.getParentUID());
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_ACCOUNT);
+    }
+
+    /**
+     * Writes a transaction. The splits of template transactions are written like the exporter does:
+     * with zero amounts in the template account, and the real account and amount in slots
+     * @param templateAccountUID GUID of the template account, or {@code null} for normal transactions
+     */
+    private static void writeTransaction(XmlSerializer xmlSerializer, Transaction transaction,
+                                         String templateAccountUID) throws IOException {
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_TRANSACTION);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, GncXmlHelper.BOOK_VERSION);
+        writeGuid(xmlSerializer, GncXmlHelper.TAG_TRX_ID, transaction.getUID());
+        writeCommodity(xmlSerializer, GncXmlHelper.TAG_TRX_CURRENCY, "ISO4217", transaction.getCurrencyCode());
+        writeTime(xmlSerializer, GncXmlHelper.TAG_DATE_POSTED, transaction.getTimeMillis());
+        writeTime(xmlSerializer, GncXmlHelper.TAG_DATE_ENTERED, transaction.getTimeMillis());
+        writeText(xmlSerializer, GncXmlHelper.TAG_TRN_DESCRIPTION, transaction.getDescription());
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_TRN_SPLITS);
+        for (Split split : transaction.getSplits()) {
+            xmlSerializer.startTag(null, GncXmlHelper.TAG_TRN_SPLIT);
+            writeGuid(xmlSerializer, GncXmlHelper.TAG_SPLIT_ID, split.getUID());
+            writeText(xmlSerializer, GncXmlHelper.TAG_RECONCILED_STATE, "n");
+            Money value = split.getValue();
+            if (templateAccountUID == null) {
+                String sign = split.getType() == TransactionType.CREDIT ? "-" : "";
+                writeText(xmlSerializer, GncXmlHelper.TAG_SPLIT_VALUE,
+                        sign + value.getNumerator() + "/" + value.getDenominator());
+                Money quantity = split.getQuantity();
+                writeText(xmlSerializer, GncXmlHelper.TAG_SPLIT_QUANTITY,
+                        sign + quantity.getNumerator() + "/" + quantity.getDenominator());
+                writeGuid(xmlSerializer, GncXmlHelper.TAG_SPLIT_ACCOUNT, split.getAccountUID());
+            } else {
+                writeText(xmlSerializer, GncXmlHelper.TAG_SPLIT_VALUE, "0/" + value.getDenominator());
+                writeText(xmlSerializer, GncXmlHelper.TAG_SPLIT_QUANTITY, "0/" + value.getDenominator());
+                writeGuid(xmlSerializer, GncXmlHelper.TAG_SPLIT_ACCOUNT, templateAccountUID);
+                writeTemplateSplitSlots(xmlSerializer, split, transaction.getCommodity());
+            }
+            xmlSerializer.endTag(null, GncXmlHelper.TAG_TRN_SPLIT);
+        }
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_TRN_SPLITS);
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_TRANSACTION);
+    }
+
+    private static void writeTemplateSplitSlots(XmlSerializer xmlSerializer, Split split, Commodity commodity)
+            throws IOException {
+        BigDecimal amount = split.getValue().asBigDecimal();
+        boolean credit = split.getType() == TransactionType.CREDIT;
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_SPLIT_SLOTS);
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_SLOT);
+        writeText(xmlSerializer, GncXmlHelper.TAG_SLOT_KEY, GncXmlHelper.KEY_SCHEDX_ACTION);
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_SLOT_VALUE);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_TYPE, GncXmlHelper.ATTR_VALUE_FRAME);
+        writeSlot(xmlSerializer, GncXmlHelper.KEY_SPLIT_ACCOUNT_SLOT, GncXmlHelper.ATTR_VALUE_GUID, split.getAccountUID());
+        writeSlot(xmlSerializer, credit ? GncXmlHelper.KEY_CREDIT_FORMULA : GncXmlHelper.KEY_DEBIT_FORMULA,
+                GncXmlHelper.ATTR_VALUE_STRING, GncXmlHelper.formatTemplateSplitAmount(amount));
+        writeSlot(xmlSerializer, credit ? GncXmlHelper.KEY_CREDIT_NUMERIC : GncXmlHelper.KEY_DEBIT_NUMERIC,
+                GncXmlHelper.ATTR_VALUE_NUMERIC, GncXmlHelper.formatSplitAmount(amount, commodity));
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_SLOT_VALUE);
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_SLOT);
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_SPLIT_SLOTS);
+    }
+
+    private static void writeSlot(XmlSerializer xmlSerializer, String key, String type, String value) throws IOException {
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_SLOT);
+        writeText(xmlSerializer, GncXmlHelper.TAG_SLOT_KEY, key);
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_SLOT_VALUE);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_TYPE, type);
+        xmlSerializer.text(value);
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_SLOT_VALUE);
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_SLOT);
+    }
+
+    private static void writeScheduledAction(XmlSerializer xmlSerializer, ScheduledAction scheduledAction,
+                                             Transaction templateTransaction) throws IOException {
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_SCHEDULED_ACTION);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, GncXmlHelper.BOOK_VERSION);
+        writeGuid(xmlSerializer, GncXmlHelper.TAG_SX_ID, scheduledAction.getUID());
+        writeText(xmlSerializer, GncXmlHelper.TAG_SX_NAME, templateTransaction.getDescription());
+        writeText(xmlSerializer, GncXmlHelper.TAG_SX_ENABLED, scheduledAction.isEnabled() ? "y" : "n");
+        writeText(xmlSerializer, GncXmlHelper.TAG_SX_AUTO_CREATE, scheduledAction.shouldAutoCreate() ? "y" : "n");
+        writeText(xmlSerializer, GncXmlHelper.TAG_SX_AUTO_CREATE_NOTIFY, scheduledAction.shouldAutoNotify() ? "y" : "n");
+        writeText(xmlSerializer, GncXmlHelper.TAG_SX_ADVANCE_CREATE_DAYS, Integer.toString(scheduledAction.getAdvanceCreateDays()));
+        writeText(xmlSerializer, GncXmlHelper.TAG_SX_ADVANCE_REMIND_DAYS, Integer.toString(scheduledAction.getAdvanceNotifyDays()));
+        writeText(xmlSerializer, GncXmlHelper.TAG_SX_INSTANCE_COUNT, Integer.toString(scheduledAction.getExecutionCount()));
+        writeDate(xmlSerializer, GncXmlHelper.TAG_SX_START, scheduledAction.getStartTime());
+        int totalFrequency = scheduledAction.getTotalPlannedExecutionCount();
+        writeText(xmlSerializer, GncXmlHelper.TAG_SX_NUM_OCCUR, Integer.toString(totalFrequency));
+        writeText(xmlSerializer, GncXmlHelper.TAG_SX_REM_OCCUR,
+                Integer.toString(totalFrequency - scheduledAction.getExecutionCount()));
+        writeGuid(xmlSerializer, GncXmlHelper.TAG_SX_TEMPL_ACCOUNT, scheduledAction.getTemplateAccountUID());
+
+        Recurrence recurrence = scheduledAction.getRecurrence();
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_SX_SCHEDULE);
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_GNC_RECURRENCE);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, GncXmlHelper.RECURRENCE_VERSION);
+        writeText(xmlSerializer, GncXmlHelper.TAG_RX_MULT, String.valueOf(recurrence.getMultiplier()));
+        writeText(xmlSerializer, GncXmlHelper.TAG_RX_PERIOD_TYPE, recurrence.getPeriodType().name().toLowerCase(Locale.US));
+        writeDate(xmlSerializer, GncXmlHelper.TAG_RX_START, recurrence.getPeriodStart().getTime());
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_GNC_RECURRENCE);
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_SX_SCHEDULE);
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_SCHEDULED_ACTION);
+    }
+
+    private static void writePrices(XmlSerializer xmlSerializer, GeneratedBook book) throws IOException {
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_PRICEDB);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, "1");
+        for (Price price : book.mPrices) {
+            xmlSerializer.startTag(null, GncXmlHelper.TAG_PRICE);
+            writeGuid(xmlSerializer, GncXmlHelper.TAG_PRICE_ID, price.getUID());
+            writeCommodity(xmlSerializer, GncXmlHelper.TAG_PRICE_COMMODITY, "ISO4217",
+                    book.getCurrencyCode(price.getCommodityUID()));
+            writeCommodity(xmlSerializer, GncXmlHelper.TAG_PRICE_CURRENCY, "ISO4217",
+                    book.getCurrencyCode(price.getCurrencyUID()));
+            writeTime(xmlSerializer, GncXmlHelper.TAG_PRICE_TIME, price.getDate().getTime());
+            writeText(xmlSerializer, GncXmlHelper.TAG_PRICE_SOURCE, price.getSource());
+            writeText(xmlSerializer, GncXmlHelper.TAG_PRICE_VALUE, price.getValueNum() + "/" + price.getValueDenom());
+            xmlSerializer.endTag(null, GncXmlHelper.TAG_PRICE);
+        }
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_PRICEDB);
+    }
+
+    /**
+     * Records of a generated book, apart from the transactions
+     */
+    private static class GeneratedBook {
+        final Commodity[] mCommodities;
+        String mBookUID;
+        String mTemplateRootUID;
+
+        /**
+         * All accounts including the ROOT account, parents before their children
+         */
+        final List<Account> mAccounts = new ArrayList<>();
+        final List<List<Account>> mAccountsByCurrency = new ArrayList<>();
+        final List<Price> mPrices = new ArrayList<>();
+        final List<ScheduledAction> mScheduledActions = new ArrayList<>();
+
+        /**
+         * Template transactions, at the same index as their scheduled action
+         */
+        final List<Transaction> mTemplateTransactions = new ArrayList<>();
+
+        GeneratedBook(Commodity[] commodities) {
+            mCommodities = commodities;
+            for (int i = 0; i < commodities.length; i++) {
+                mAccountsByCurrency.add(new ArrayList<Account>());
+            }
+        }
+
+        String getCurrencyCode(String commodityUID) {
+            for (Commodity commodity : mCommodities) {
+                if (commodity.getUID().equals(commodityUID))
+                    return commodity.getCurrencyCode();
+            }
+            throw new IllegalArgumentException("guid " + commodityUID + " not exits in commodity db");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.testutil;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.AccountBalanceEntry;
+import org.gnucash.android.db.adapter.AccountBalancesDbAdapter;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.PricesDbAdapter;
+import org.gnucash.android.db.adapter.RecurrenceDbAdapter;
+import org.gnucash.android.db.adapter.ScheduledActionDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.importer.GncXmlImporter;
+import org.gnucash.android.model.BaseModel;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that generated books are reproducible, and the same whether imported from XML or saved directly
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class BookGeneratorTest {
+
+    private static BookGenerator createGenerator() {
+        return new BookGenerator()
+                .setAccountCount(20)
+                .setTreeDepth(3)
+                .setTransactionCount(200)
+                .setCurrencyCount(3)
+                .setPriceHistoryLength(10)
+                .setScheduledActionCount(3);
+    }
+
+    private static String toXml(BookGenerator generator) throws Exception {
+        StringWriter writer = new StringWriter();
+        generator.writeXml(writer);
+        return writer.toString();
+    }
+
+    private static SQLiteDatabase openBook(String bookUID) {
+        return new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID).getWritableDatabase();
+    }
+
+    @Test
+    public void sameSeed_shouldGenerateSameBook() throws Exception {
+        String xml = toXml(createGenerator());
+
+        assertThat(toXml(createGenerator())).isEqualTo(xml);
+        assertThat(toXml(createGenerator().setSeed(7))).isNotEqualTo(xml);
+    }
+
+    @Test
+    public void populate_shouldSaveAllRecords() {
+        SQLiteDatabase db = openBook(BaseModel.generateUID());
+        createGenerator().populate(db);
+
+        TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(db, new SplitsDbAdapter(db));
+        assertThat(new AccountsDbAdapter(db, transactionsDbAdapter).getRecordsCount()).isEqualTo(21); //with ROOT
+        assertThat(transactionsDbAdapter.getRecordsCount()).isEqualTo(200);
+        assertThat(transactionsDbAdapter.getTemplateTransactionsCount()).isEqualTo(3);
+        assertThat(new ScheduledActionDbAdapter(db, new RecurrenceDbAdapter(db)).getRecordsCount()).isEqualTo(3);
+        assertThat(new PricesDbAdapter(db).getRecordsCount()).isEqualTo(20);
+        assertThat(new AccountBalancesDbAdapter(db).isConsistent()).isTrue();
+    }
+
+    @Test
+    public void importedXml_shouldMatchPopulatedBook() throws Exception {
+        BookGenerator generator = createGenerator();
+        String bookUID = GncXmlImporter.parse(new ByteArrayInputStream(toXml(generator).getBytes("UTF-8")));
+        SQLiteDatabase importedDb = openBook(bookUID);
+        SQLiteDatabase populatedDb = openBook(BaseModel.generateUID());
+        generator.populate(populatedDb);
+
+        assertThat(new AccountsDbAdapter(importedDb).getRecordsCount())
+                .isEqualTo(new AccountsDbAdapter(populatedDb).getRecordsCount());
+        assertThat(new SplitsDbAdapter(importedDb).getRecordsCount())
+                .isEqualTo(new SplitsDbAdapter(populatedDb).getRecordsCount());
+        assertThat(new ScheduledActionDbAdapter(importedDb, new RecurrenceDbAdapter(importedDb)).getRecordsCount())
+                .isEqualTo(3);
+        assertThat(new PricesDbAdapter(importedDb).getRecordsCount()).isEqualTo(20);
+        assertThat(readBalances(importedDb)).isEqualTo(readBalances(populatedDb));
+    }
+
+    private static List<String> readBalances(SQLiteDatabase db) {
+        Cursor cursor = db.query(AccountBalanceEntry.TABLE_NAME,
+                new String[]{AccountBalanceEntry.COLUMN_ACCOUNT_UID, AccountBalanceEntry.COLUMN_QUANTITY_DENOM,
+                        AccountBalanceEntry.COLUMN_BALANCE_NUM},
+                null, null, null, null,
+                AccountBalanceEntry.COLUMN_ACCOUNT_UID + " , " + AccountBalanceEntry.COLUMN_QUANTITY_DENOM);
+        List<String> balances = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                balances.add(cursor.getString(0) + " " + cursor.getLong(1) + " " + cursor.getLong(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return balances;
+    }
+}
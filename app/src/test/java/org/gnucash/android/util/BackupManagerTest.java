@@ -1,11 +1,26 @@
 package org.gnucash.android.util;
 
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.importer.GncXmlImporter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
 import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
 import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.gnucash.android.ui.settings.PreferenceActivity;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -13,7 +28,10 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import org.xml.sax.SAXException;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -67,6 +85,74 @@ public class BackupManagerTest {
         assertThat(BackupManager.getBackupList(bookUID)).isEmpty();
     }
 
+    @Test
+    public void restoringDeltaBackup_shouldReplayChangesSinceSnapshot() throws Exception {
+        String bookUID = createNewBookWithDefaultAccounts();
+        BookUtils.activateBook(bookUID);
+        AccountsDbAdapter accountsDbAdapter = AccountsDbAdapter.getInstance();
+        TransactionsDbAdapter transactionsDbAdapter = TransactionsDbAdapter.getInstance();
+
+        List<Account> accounts = new ArrayList<>();
+        for (Account account : accountsDbAdapter.getAllRecords()) {
+            if (account.getAccountType() != AccountType.ROOT)
+                accounts.add(account);
+        }
+        Account account = accounts.get(0);
+        Account transferAccount = accounts.get(1);
+        Transaction modifiedTransaction = createTransaction("Groceries", account, transferAccount);
+        Transaction deletedTransaction = createTransaction("Rent", account, transferAccount);
+
+        assertThat(BackupManager.backupActiveBook()).isTrue();
+        //the modification times have a precision of one second, so the delta starts a second before the snapshot
+        SharedPreferences preferences = PreferenceActivity.getBookSharedPreferences(bookUID);
+        long lastBackupTime = preferences.getLong(BackupManager.KEY_LAST_BACKUP_TIME, 0);
+        preferences.edit().putLong(BackupManager.KEY_LAST_BACKUP_TIME, lastBackupTime - 1000).commit();
+
+        transactionsDbAdapter.updateRecord(modifiedTransaction.getUID(), TransactionEntry.COLUMN_DESCRIPTION, "Food");
+        transactionsDbAdapter.deleteRecord(deletedTransaction.getUID());
+        Transaction addedTransaction = createTransaction("Salary", transferAccount, account);
+
+        assertThat(BackupManager.backupActiveBook()).isTrue();
+        List<File> backupFiles = BackupManager.getBackupList(bookUID);
+        assertThat(backupFiles).hasSize(2);
+        File deltaFile = backupFiles.get(0);
+        assertThat(BackupManager.isIncrementalBackup(Uri.fromFile(deltaFile))).isTrue();
+        assertThat(BackupManager.isIncrementalBackup(Uri.fromFile(backupFiles.get(1)))).isFalse();
+
+        String restoredBookUID = BackupManager.restoreIncrementalBackup(deltaFile);
+        DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), restoredBookUID);
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        try {
+            TransactionsDbAdapter restoredTransactionsDbAdapter = new TransactionsDbAdapter(db, new SplitsDbAdapter(db));
+            AccountsDbAdapter restoredAccountsDbAdapter = new AccountsDbAdapter(db, restoredTransactionsDbAdapter);
+
+            assertThat(restoredTransactionsDbAdapter.getRecordsCount()).isEqualTo(2);
+            assertThat(restoredTransactionsDbAdapter.hasRecord(deletedTransaction.getUID())).isFalse();
+            assertThat(restoredTransactionsDbAdapter.hasRecord(addedTransaction.getUID())).isTrue();
+            assertThat(restoredTransactionsDbAdapter.getAttribute(modifiedTransaction.getUID(),
+                    TransactionEntry.COLUMN_DESCRIPTION)).isEqualTo("Food");
+            assertThat(restoredAccountsDbAdapter.getAccountBalance(account.getUID()))
+                    .isEqualTo(accountsDbAdapter.getAccountBalance(account.getUID()));
+            assertThat(restoredAccountsDbAdapter.getAccountBalance(transferAccount.getUID()))
+                    .isEqualTo(accountsDbAdapter.getAccountBalance(transferAccount.getUID()));
+        } finally {
+            databaseHelper.close();
+        }
+    }
+
+    /**
+     * Creates and saves a transaction between two accounts of the active book
+     */
+    private Transaction createTransaction(String description, Account account, Account transferAccount) {
+        Transaction transaction = new Transaction(description);
+        transaction.setCommodity(account.getCommodity());
+        Split split = new Split(new Money("10", account.getCommodity().getCurrencyCode()), account.getUID());
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(transferAccount.getUID()));
+        TransactionsDbAdapter.getInstance().addRecord(transaction);
+        return transaction;
+    }
+
     /**
      * Creates a new database with default accounts
      * @return The book UID for the new database
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db;
+
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a report read while the transactions of an account are paged in, as when the reports are opened
+ * from the transactions list, with both reads on one connection and with the report on its own connection,
+ * as {@link ReadConnectionPool} hands out.
+ * <p>The Android SQLite bindings only run on a device, so the queries are executed through the JDBC driver
+ * of SQLite, on a database file in write-ahead logging mode. The queries have the shape of those of the report
+ * and the transactions list, on the columns they read. A connection is used by one thread at a time,
+ * like the connections of an Android database.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReadConnectionPoolBenchmark {
+
+    private static final int ACCOUNT_COUNT = 50;
+    private static final int PAGE_SIZE = 50;
+    private static final long MONTH_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Database file holding a generated book
+     */
+    @State(Scope.Benchmark)
+    public static class Book {
+        @Param({"5000", "50000"})
+        public int transactionCount;
+
+        String mPath;
+        String mListAccountUID;
+
+        @Setup
+        public void setUp() throws IOException, SQLException {
+            File file = File.createTempFile("gnucash-benchmark", ".db");
+            mPath = file.getPath();
+            Connection connection = open(mPath);
+            try {
+                populate(connection, transactionCount);
+            } finally {
+                connection.close();
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            new File(mPath).delete();
+            new File(mPath + "-wal").delete();
+            new File(mPath + "-shm").delete();
+        }
+
+        private void populate(Connection connection, int transactionCount) throws SQLException {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute("CREATE TABLE " + TransactionEntry.TABLE_NAME + " ( "
+                        + TransactionEntry._ID + " integer primary key autoincrement, "
+                        + TransactionEntry.COLUMN_UID + " varchar(255) not null UNIQUE, "
+                        + TransactionEntry.COLUMN_DESCRIPTION + " varchar(255), "
+                        + TransactionEntry.COLUMN_TIMESTAMP + " integer not null )");
+                statement.execute("CREATE TABLE " + SplitEntry.TABLE_NAME + " ( "
+                        + SplitEntry._ID + " integer primary key autoincrement, "
+                        + SplitEntry.COLUMN_TYPE + " varchar(255) not null, "
+                        + SplitEntry.COLUMN_QUANTITY_NUM + " integer not null, "
+                        + SplitEntry.COLUMN_QUANTITY_DENOM + " integer not null, "
+                        + SplitEntry.COLUMN_ACCOUNT_UID + " varchar(255) not null, "
+                        + SplitEntry.COLUMN_TRANSACTION_UID + " varchar(255) not null )");
+                statement.execute("CREATE INDEX " + SplitEntry.INDEX_ACCOUNT_UID + " ON "
+                        + SplitEntry.TABLE_NAME + " ( " + SplitEntry.COLUMN_ACCOUNT_UID + " )");
+                statement.execute("CREATE INDEX " + SplitEntry.INDEX_TRANSACTION_UID + " ON "
+                        + SplitEntry.TABLE_NAME + " ( " + SplitEntry.COLUMN_TRANSACTION_UID + " )");
+            } finally {
+                statement.close();
+            }
+
+            Random random = new Random(42);
+            String[] accountUIDs = new String[ACCOUNT_COUNT];
+            for (int i = 0; i < ACCOUNT_COUNT; i++) {
+                accountUIDs[i] = randomUID(random);
+            }
+            mListAccountUID = accountUIDs[0];
+
+            connection.setAutoCommit(false);
+            PreparedStatement transactionInsert = connection.prepareStatement("INSERT INTO "
+                    + TransactionEntry.TABLE_NAME + " ( " + TransactionEntry.COLUMN_UID + " , "
+                    + TransactionEntry.COLUMN_DESCRIPTION + " , " + TransactionEntry.COLUMN_TIMESTAMP
+                    + " ) VALUES ( ? , ? , ? )");
+            PreparedStatement splitInsert = connection.prepareStatement("INSERT INTO "
+                    + SplitEntry.TABLE_NAME + " ( " + SplitEntry.COLUMN_TYPE + " , "
+                    + SplitEntry.COLUMN_QUANTITY_NUM + " , " + SplitEntry.COLUMN_QUANTITY_DENOM + " , "
+                    + SplitEntry.COLUMN_ACCOUNT_UID + " , " + SplitEntry.COLUMN_TRANSACTION_UID
+                    + " ) VALUES ( ? , ? , 100 , ? , ? )");
+            try {
+                for (int i = 0; i < transactionCount; i++) {
+                    String transactionUID = randomUID(random);
+                    transactionInsert.setString(1, transactionUID);
+                    transactionInsert.setString(2, "Transaction " + i);
+                    transactionInsert.setLong(3, (long) (random.nextDouble() * 60 * MONTH_MILLIS));
+                    transactionInsert.executeUpdate();
+                    long amount = random.nextInt(100000);
+                    // a quarter of the transactions go through the listed account
+                    String debitAccountUID = i % 4 == 0
+                            ? mListAccountUID : accountUIDs[1 + random.nextInt(ACCOUNT_COUNT - 1)];
+                    insertSplit(splitInsert, "DEBIT", amount, debitAccountUID, transactionUID);
+                    insertSplit(splitInsert, "CREDIT", amount,
+                            accountUIDs[1 + random.nextInt(ACCOUNT_COUNT - 1)], transactionUID);
+                }
+            } finally {
+                transactionInsert.close();
+                splitInsert.close();
+            }
+            connection.commit();
+        }
+
+        private static void insertSplit(PreparedStatement statement, String type, long amount,
+                                        String accountUID, String transactionUID) throws SQLException {
+            statement.setString(1, type);
+            statement.setLong(2, amount);
+            statement.setString(3, accountUID);
+            statement.setString(4, transactionUID);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Connection shared by the threads of a group, as the primary connection of a database
+     */
+    @State(Scope.Group)
+    public static class SharedConnection {
+        Connection mConnection;
+
+        @Setup
+        public void setUp(Book book) throws SQLException {
+            mConnection = open(book.mPath);
+        }
+
+        @TearDown
+        public void tearDown() throws SQLException {
+            mConnection.close();
+        }
+    }
+
+    /**
+     * Connection of a single thread, as a connection of the read connection pool
+     */
+    @State(Scope.Thread)
+    public static class OwnConnection {
+        Connection mConnection;
+
+        @Setup
+        public void setUp(Book book) throws SQLException {
+            mConnection = open(book.mPath);
+        }
+
+        @TearDown
+        public void tearDown() throws SQLException {
+            mConnection.close();
+        }
+    }
+
+    @Benchmark
+    @Group("sharedConnection")
+    @GroupThreads(1)
+    public int listOnSharedConnection(Book book, SharedConnection shared) throws SQLException {
+        synchronized (shared) {
+            return pageTransactions(shared.mConnection, book.mListAccountUID);
+        }
+    }
+
+    @Benchmark
+    @Group("sharedConnection")
+    @GroupThreads(1)
+    public long reportOnSharedConnection(SharedConnection shared) throws SQLException {
+        synchronized (shared) {
+            return computePeriodBalances(shared.mConnection);
+        }
+    }
+
+    @Benchmark
+    @Group("ownConnections")
+    @GroupThreads(1)
+    public int listOnOwnConnection(Book book, OwnConnection own) throws SQLException {
+        return pageTransactions(own.mConnection, book.mListAccountUID);
+    }
+
+    @Benchmark
+    @Group("ownConnections")
+    @GroupThreads(1)
+    public long reportOnOwnConnection(OwnConnection own) throws SQLException {
+        return computePeriodBalances(own.mConnection);
+    }
+
+    /**
+     * Reads all the pages of the transactions of an account, latest first
+     * @return Number of transactions read
+     */
+    private static int pageTransactions(Connection connection, String accountUID) throws SQLException {
+        String timestamp = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP;
+        String id = TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID;
+        PreparedStatement statement = connection.prepareStatement("SELECT " + id + " , " + timestamp + " , "
+                + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_DESCRIPTION + " , "
+                + "SUM ( CASE WHEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END )"
+                + " FROM " + TransactionEntry.TABLE_NAME + " INNER JOIN " + SplitEntry.TABLE_NAME + " ON "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = "
+                + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                + " WHERE " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " = ?"
+                + " AND ( " + timestamp + " < ? OR ( " + timestamp + " = ? AND " + id + " < ? ) )"
+                + " GROUP BY " + id
+                + " ORDER BY " + timestamp + " DESC , " + id + " DESC"
+                + " LIMIT " + PAGE_SIZE);
+        try {
+            long beforeTimestamp = Long.MAX_VALUE;
+            long beforeId = Long.MAX_VALUE;
+            int transactionCount = 0;
+            int pageCount;
+            do {
+                statement.setString(1, accountUID);
+                statement.setLong(2, beforeTimestamp);
+                statement.setLong(3, beforeTimestamp);
+                statement.setLong(4, beforeId);
+                ResultSet resultSet = statement.executeQuery();
+                try {
+                    pageCount = 0;
+                    while (resultSet.next()) {
+                        beforeId = resultSet.getLong(1);
+                        beforeTimestamp = resultSet.getLong(2);
+                        pageCount++;
+                    }
+                } finally {
+                    resultSet.close();
+                }
+                transactionCount += pageCount;
+            } while (pageCount == PAGE_SIZE);
+            return transactionCount;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Sums up the splits of each account per month
+     * @return Number of balances computed
+     */
+    private static long computePeriodBalances(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery("SELECT "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " , "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " / " + MONTH_MILLIS
+                    + " AS period_index , "
+                    + "SUM ( CASE WHEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END )"
+                    + " FROM " + SplitEntry.TABLE_NAME + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                    + " GROUP BY " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " , period_index");
+            long balanceCount = 0;
+            try {
+                while (resultSet.next()) {
+                    balanceCount++;
+                }
+            } finally {
+                resultSet.close();
+            }
+            return balanceCount;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Opens a connection to a database file in write-ahead logging mode
+     */
+    private static Connection open(String path) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("PRAGMA journal_mode = WAL");
+        } finally {
+            statement.close();
+        }
+        return connection;
+    }
+
+    private static String randomUID(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "");
+    }
+}
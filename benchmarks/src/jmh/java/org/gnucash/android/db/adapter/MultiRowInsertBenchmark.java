@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db.adapter;
+
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the bulk insert of splits with one statement per row, and with the multi-row statements
+ * of {@link MultiRowInsertAdapter}.
+ * <p>The Android SQLite bindings only run on a device, so the statements are executed through the JDBC driver
+ * of SQLite, on an in-memory database. Each insert runs in a database transaction which is rolled back,
+ * so that the table is empty at every invocation. The results compare the two kinds of statements,
+ * they are not the throughput of a device.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MultiRowInsertBenchmark {
+
+    /**
+     * Columns bound by the splits adapter, the GUID is bound last
+     */
+    private static final String[] COLUMNS = {
+            SplitEntry.COLUMN_MEMO,
+            SplitEntry.COLUMN_TYPE,
+            SplitEntry.COLUMN_VALUE_NUM,
+            SplitEntry.COLUMN_VALUE_DENOM,
+            SplitEntry.COLUMN_QUANTITY_NUM,
+            SplitEntry.COLUMN_QUANTITY_DENOM,
+            SplitEntry.COLUMN_CREATED_AT,
+            SplitEntry.COLUMN_RECONCILE_STATE,
+            SplitEntry.COLUMN_RECONCILE_DATE,
+            SplitEntry.COLUMN_ACCOUNT_UID,
+            SplitEntry.COLUMN_TRANSACTION_UID,
+            SplitEntry.COLUMN_UID
+    };
+
+    @Param({"1000", "10000"})
+    public int splitCount;
+
+    private Connection mConnection;
+    private Object[][] mRows;
+
+    @Setup
+    public void setUp() throws SQLException {
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.execute("CREATE TABLE " + SplitEntry.TABLE_NAME + " ("
+                    + SplitEntry._ID                    + " integer primary key autoincrement, "
+                    + SplitEntry.COLUMN_UID             + " varchar(255) not null UNIQUE, "
+                    + SplitEntry.COLUMN_MEMO            + " text, "
+                    + SplitEntry.COLUMN_TYPE            + " varchar(255) not null, "
+                    + SplitEntry.COLUMN_VALUE_NUM       + " integer not null, "
+                    + SplitEntry.COLUMN_VALUE_DENOM     + " integer not null, "
+                    + SplitEntry.COLUMN_QUANTITY_NUM    + " integer not null, "
+                    + SplitEntry.COLUMN_QUANTITY_DENOM  + " integer not null, "
+                    + SplitEntry.COLUMN_ACCOUNT_UID     + " varchar(255) not null, "
+                    + SplitEntry.COLUMN_TRANSACTION_UID + " varchar(255) not null, "
+                    + SplitEntry.COLUMN_RECONCILE_STATE + " varchar(1) not null default 'n', "
+                    + SplitEntry.COLUMN_RECONCILE_DATE  + " timestamp not null default current_timestamp, "
+                    + SplitEntry.COLUMN_CREATED_AT      + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + SplitEntry.COLUMN_MODIFIED_AT     + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP )");
+            statement.execute("CREATE INDEX " + SplitEntry.INDEX_ACCOUNT_UID + " ON "
+                    + SplitEntry.TABLE_NAME + " ( " + SplitEntry.COLUMN_ACCOUNT_UID + " )");
+            statement.execute("CREATE INDEX " + SplitEntry.INDEX_TRANSACTION_UID + " ON "
+                    + SplitEntry.TABLE_NAME + " ( " + SplitEntry.COLUMN_TRANSACTION_UID + " )");
+        } finally {
+            statement.close();
+        }
+        mConnection.setAutoCommit(false);
+
+        Random random = new Random(42);
+        String[] accountUIDs = {randomUID(random), randomUID(random)};
+        mRows = new Object[splitCount][];
+        String transactionUID = null;
+        for (int i = 0; i < splitCount; i++) {
+            if (i % 2 == 0)
+                transactionUID = randomUID(random);
+            long amount = random.nextInt(100000);
+            mRows[i] = new Object[]{i % 4 == 0 ? "Memo " + i : null, i % 2 == 0 ? "DEBIT" : "CREDIT",
+                    amount, 100L, amount, 100L, "2018-01-01 00:00:00", "n", "2018-01-01 00:00:00",
+                    accountUIDs[i % 2], transactionUID, randomUID(random)};
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @TearDown(Level.Invocation)
+    public void rollback() throws SQLException {
+        mConnection.rollback();
+    }
+
+    @Benchmark
+    public int insertSingleRows() throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(buildInsertSql(1));
+        try {
+            for (Object[] row : mRows) {
+                bindRow(statement, 0, row);
+                statement.executeUpdate();
+            }
+        } finally {
+            statement.close();
+        }
+        return mRows.length;
+    }
+
+    /**
+     * Inserts the rows as {@link MultiRowInsertAdapter#insertRecords(java.util.List)} does:
+     * full multi-row statements first, then the remaining rows one by one
+     */
+    @Benchmark
+    public int insertMultiRows() throws SQLException {
+        int rowsPerInsert = Math.min(MultiRowInsertAdapter.MAX_SQL_VARIABLES / COLUMNS.length,
+                MultiRowInsertAdapter.MAX_VALUES_ROWS);
+        int multiRowCount = mRows.length - mRows.length % rowsPerInsert;
+        int nRow = 0;
+        if (multiRowCount > 0) {
+            PreparedStatement statement = mConnection.prepareStatement(buildInsertSql(rowsPerInsert));
+            try {
+                while (nRow < multiRowCount) {
+                    for (int row = 0; row < rowsPerInsert; row++) {
+                        bindRow(statement, row * COLUMNS.length, mRows[nRow++]);
+                    }
+                    statement.executeUpdate();
+                }
+            } finally {
+                statement.close();
+            }
+        }
+        PreparedStatement statement = mConnection.prepareStatement(buildInsertSql(1));
+        try {
+            while (nRow < mRows.length) {
+                bindRow(statement, 0, mRows[nRow++]);
+                statement.executeUpdate();
+            }
+        } finally {
+            statement.close();
+        }
+        return nRow;
+    }
+
+    private static void bindRow(PreparedStatement statement, int offset, Object[] row) throws SQLException {
+        for (int i = 0; i < row.length; i++) {
+            statement.setObject(offset + i + 1, row[i]);
+        }
+    }
+
+    private static String buildInsertSql(int rowCount) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(SplitEntry.TABLE_NAME).append(" ( ");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i == 0 ? "" : " , ").append(COLUMNS[i]);
+        }
+        sql.append(" ) VALUES ");
+        for (int row = 0; row < rowCount; row++) {
+            sql.append(row == 0 ? "( " : " , ( ");
+            for (int i = 0; i < COLUMNS.length; i++) {
+                sql.append(i == 0 ? "?" : " , ?");
+            }
+            sql.append(" )");
+        }
+        return sql.toString();
+    }
+
+    private static String randomUID(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "");
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export.csv;
+
+import android.database.MatrixCursor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the streaming CSV transactions export, from the rows of the joined split cursor to the CSV lines.
+ * <p>SQLite is not available, so the rows come from an in-memory cursor with the columns of the export query.
+ * The score is the throughput in split rows per second.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CsvTransactionsWriterBenchmark {
+
+    private static final int ROW_COUNT = 100000;
+
+    private static final String[] COLUMNS = new String[]{"trans_uid", "trans_time", "trans_desc", "trans_notes",
+            "trans_currency", "split_memo", "split_type", "split_value_num", "split_value_denom",
+            "split_quantity_num", "split_quantity_denom", "split_reconcile_state", "split_reconcile_date",
+            "acct_full_name", "acct_name", "acct_currency"};
+
+    private MatrixCursor mCursor;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mCursor = new MatrixCursor(COLUMNS, ROW_COUNT);
+        long time = 1451606400000L; //2016-01-01
+        for (int i = 0; i < ROW_COUNT / 2; i++) {
+            String transactionUID = new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "");
+            String description = "Transaction, number " + i;
+            long amount = random.nextInt(100000);
+            time += random.nextInt(3600000);
+            mCursor.addRow(new Object[]{transactionUID, time, description, "", "USD", "", "DEBIT",
+                    amount, 100L, amount, 100L, "n", null, "Expenses:Dining", "Dining", "USD"});
+            mCursor.addRow(new Object[]{transactionUID, time, description, "", "USD", "", "CREDIT",
+                    amount, 100L, amount, 100L, "y", "2016-08-23 10:00:00", "Assets:Cash in Wallet", "Cash in Wallet", "USD"});
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public int writeTransactions() throws IOException {
+        mCursor.moveToPosition(-1);
+        CsvWriter writer = new CsvWriter(new NullWriter(), ",");
+        int rowCount = new CsvTransactionsWriter(writer, ',').writeTransactions(mCursor);
+        writer.close();
+        return rowCount;
+    }
+
+    /**
+     * Discards everything written, so that only the formatting of the rows is measured
+     */
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] buffer, int offset, int count) {
+            //discard
+        }
+
+        @Override
+        public void flush() {
+            //nothing to flush
+        }
+
+        @Override
+        public void close() {
+            //nothing to close
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export.csv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks writing the rows of a CSV transactions export, with one line per split.
+ * <p>The tokens are prepared up front, so only the quoting and writing of {@link CsvWriter} is measured</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CsvWriterBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int transactionCount;
+
+    private String[][] mTransactionTokens;
+    private String[][] mSplitTokens;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mTransactionTokens = new String[transactionCount][];
+        mSplitTokens = new String[transactionCount * 2][];
+        for (int i = 0; i < transactionCount; i++) {
+            mTransactionTokens[i] = new String[]{"2016-08-23",
+                    new UUID(random.nextLong(), random.nextLong()).toString().replace("-", ""),
+                    null, "Transaction, number " + i, "Note with \"quotes\"", "CURRENCY::USD", null, null};
+            String amount = String.valueOf(random.nextInt(100000) / 100.0);
+            mSplitTokens[2 * i] = new String[]{"", "Expenses:Dining", "Dining", amount, amount, "n", null, "1"};
+            mSplitTokens[2 * i + 1] = new String[]{"", "Assets:Cash in Wallet", "Cash in Wallet",
+                    "-" + amount, "-" + amount, "n", null, "1"};
+        }
+    }
+
+    @Benchmark
+    public void writeTransactions() throws IOException {
+        CsvWriter writer = new CsvWriter(new NullWriter(), ",");
+        for (int i = 0; i < mTransactionTokens.length; i++) {
+            for (String token : mTransactionTokens[i]) {
+                writer.writeToken(token);
+            }
+            writeSplit(writer, mSplitTokens[2 * i]);
+            writer.write(",,,,,,,,");
+            writeSplit(writer, mSplitTokens[2 * i + 1]);
+        }
+        writer.close();
+    }
+
+    private static void writeSplit(CsvWriter writer, String[] tokens) throws IOException {
+        for (int i = 0; i < tokens.length - 1; i++) {
+            writer.writeToken(tokens[i]);
+        }
+        writer.writeEndToken(tokens[tokens.length - 1]);
+    }
+
+    /**
+     * Discards everything written, so that only the CSV formatting is measured
+     */
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] buffer, int offset, int count) {
+            //discard
+        }
+
+        @Override
+        public void flush() {
+            //nothing to flush
+        }
+
+        @Override
+        public void close() {
+            //nothing to close
+        }
+    }
+}
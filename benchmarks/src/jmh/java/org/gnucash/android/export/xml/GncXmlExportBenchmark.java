@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export.xml;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Benchmarks writing the transactions of a 100k transactions book as GnuCash XML, like {@link GncXmlExporter} does,
+ * with the indenting XmlPull serializer and string formatting of the backups before, and with the
+ * {@link FastXmlSerializer}, the reused format buffer and the tuned gzip stream they use now.
+ * <p>SQLite is not available, so the transactions are generated in memory and the database queries of the
+ * export are not measured. The primary score is in transactions per second. The {@code bytes} counter is
+ * the throughput of uncompressed XML in bytes per second, divide it by 2^20 for MB/s.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GncXmlExportBenchmark {
+
+    private static final int TRANSACTION_COUNT = 100000;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private String[] mTransactionUIDs = new String[TRANSACTION_COUNT];
+    private String[] mSplitUIDs = new String[TRANSACTION_COUNT * 2];
+    private String[] mDescriptions = new String[TRANSACTION_COUNT];
+    private long[] mTimes = new long[TRANSACTION_COUNT];
+    private long[] mAmounts = new long[TRANSACTION_COUNT];
+    private String[] mAccountUIDs = new String[2];
+
+    private final StringBuilder mFormatBuilder = new StringBuilder(64);
+    private final char[] mFormatBuffer = new char[64];
+
+    /**
+     * Number of bytes of XML written, before compression
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Output {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        long time = 1451606400000L; //2016-01-01
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+            mTransactionUIDs[i] = generateUID(random);
+            mSplitUIDs[2 * i] = generateUID(random);
+            mSplitUIDs[2 * i + 1] = generateUID(random);
+            mDescriptions[i] = "Transaction number " + i;
+            time += random.nextInt(3600000);
+            mTimes[i] = time;
+            mAmounts[i] = 100 + random.nextInt(100000);
+        }
+        mAccountUIDs[0] = generateUID(random);
+        mAccountUIDs[1] = generateUID(random);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTION_COUNT)
+    public void writeWithIndentingSerializer(Output output) throws Exception {
+        OutputStream outputStream = gzip
+                ? new GZIPOutputStream(new BufferedOutputStream(new NullOutputStream()))
+                : new BufferedOutputStream(new NullOutputStream());
+        CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+        OutputStreamWriter writer = new OutputStreamWriter(countingStream, "UTF-8");
+        XmlSerializer xmlSerializer = XmlPullParserFactory.newInstance().newSerializer();
+        xmlSerializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        xmlSerializer.setOutput(writer);
+        writeTransactions(xmlSerializer, false);
+        writer.close();
+        output.bytes += countingStream.mCount;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTION_COUNT)
+    public void writeWithFastSerializer(Output output) throws IOException {
+        OutputStream outputStream = gzip
+                ? GncXmlExporter.createGzipOutputStream(new NullOutputStream())
+                : new NullOutputStream();
+        CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+        XmlSerializer xmlSerializer = new FastXmlSerializer();
+        xmlSerializer.setOutput(countingStream, "utf-8");
+        writeTransactions(xmlSerializer, true);
+        countingStream.close();
+        output.bytes += countingStream.mCount;
+    }
+
+    /**
+     * Writes the transactions with the elements of {@link GncXmlExporter}, each with a debit and a credit split
+     * @param useFormatBuffer Whether the times and amounts are formatted into a buffer instead of strings
+     */
+    private void writeTransactions(XmlSerializer xmlSerializer, boolean useFormatBuffer) throws IOException {
+        xmlSerializer.startDocument("utf-8", true);
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_ROOT);
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_BOOK);
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+            xmlSerializer.startTag(null, GncXmlHelper.TAG_TRANSACTION);
+            xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_VERSION, GncXmlHelper.BOOK_VERSION);
+            writeGuid(xmlSerializer, GncXmlHelper.TAG_TRX_ID, mTransactionUIDs[i]);
+            xmlSerializer.startTag(null, GncXmlHelper.TAG_TRX_CURRENCY);
+            writeText(xmlSerializer, GncXmlHelper.TAG_COMMODITY_SPACE, "ISO4217");
+            writeText(xmlSerializer, GncXmlHelper.TAG_COMMODITY_ID, "USD");
+            xmlSerializer.endTag(null, GncXmlHelper.TAG_TRX_CURRENCY);
+            writeTime(xmlSerializer, GncXmlHelper.TAG_DATE_POSTED, mTimes[i], useFormatBuffer);
+            writeTime(xmlSerializer, GncXmlHelper.TAG_DATE_ENTERED, mTimes[i], useFormatBuffer);
+            writeText(xmlSerializer, GncXmlHelper.TAG_TRN_DESCRIPTION, mDescriptions[i]);
+            xmlSerializer.startTag(null, GncXmlHelper.TAG_TRN_SLOTS);
+            xmlSerializer.endTag(null, GncXmlHelper.TAG_TRN_SLOTS);
+            xmlSerializer.startTag(null, GncXmlHelper.TAG_TRN_SPLITS);
+            for (int j = 0; j < 2; j++) {
+                boolean isCredit = j == 1;
+                xmlSerializer.startTag(null, GncXmlHelper.TAG_TRN_SPLIT);
+                writeGuid(xmlSerializer, GncXmlHelper.TAG_SPLIT_ID, mSplitUIDs[2 * i + j]);
+                writeText(xmlSerializer, GncXmlHelper.TAG_RECONCILED_STATE, "n");
+                writeAmount(xmlSerializer, GncXmlHelper.TAG_SPLIT_VALUE, mAmounts[i], isCredit, useFormatBuffer);
+                writeAmount(xmlSerializer, GncXmlHelper.TAG_SPLIT_QUANTITY, mAmounts[i], isCredit, useFormatBuffer);
+                writeGuid(xmlSerializer, GncXmlHelper.TAG_SPLIT_ACCOUNT, mAccountUIDs[j]);
+                xmlSerializer.endTag(null, GncXmlHelper.TAG_TRN_SPLIT);
+            }
+            xmlSerializer.endTag(null, GncXmlHelper.TAG_TRN_SPLITS);
+            xmlSerializer.endTag(null, GncXmlHelper.TAG_TRANSACTION);
+        }
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_BOOK);
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_ROOT);
+        xmlSerializer.endDocument();
+        xmlSerializer.flush();
+    }
+
+    private void writeTime(XmlSerializer xmlSerializer, String tag, long time, boolean useFormatBuffer) throws IOException {
+        xmlSerializer.startTag(null, tag);
+        xmlSerializer.startTag(null, GncXmlHelper.TAG_TS_DATE);
+        if (useFormatBuffer) {
+            GncXmlHelper.formatDate(time, mFormatBuilder);
+            writeFormatted(xmlSerializer);
+        } else {
+            xmlSerializer.text(GncXmlHelper.formatDate(time));
+        }
+        xmlSerializer.endTag(null, GncXmlHelper.TAG_TS_DATE);
+        xmlSerializer.endTag(null, tag);
+    }
+
+    private void writeAmount(XmlSerializer xmlSerializer, String tag, long amount, boolean isCredit,
+                             boolean useFormatBuffer) throws IOException {
+        xmlSerializer.startTag(null, tag);
+        if (useFormatBuffer) {
+            GncXmlHelper.formatSplitAmount(amount, 100, isCredit, mFormatBuilder);
+            writeFormatted(xmlSerializer);
+        } else {
+            xmlSerializer.text((isCredit ? "-" : "") + amount + "/" + 100);
+        }
+        xmlSerializer.endTag(null, tag);
+    }
+
+    private void writeFormatted(XmlSerializer xmlSerializer) throws IOException {
+        int length = mFormatBuilder.length();
+        mFormatBuilder.getChars(0, length, mFormatBuffer, 0);
+        mFormatBuilder.setLength(0);
+        xmlSerializer.text(mFormatBuffer, 0, length);
+    }
+
+    private static void writeGuid(XmlSerializer xmlSerializer, String tag, String uid) throws IOException {
+        xmlSerializer.startTag(null, tag);
+        xmlSerializer.attribute(null, GncXmlHelper.ATTR_KEY_TYPE, GncXmlHelper.ATTR_VALUE_GUID);
+        xmlSerializer.text(uid);
+        xmlSerializer.endTag(null, tag);
+    }
+
+    private static void writeText(XmlSerializer xmlSerializer, String tag, String text) throws IOException {
+        xmlSerializer.startTag(null, tag);
+        xmlSerializer.text(text);
+        xmlSerializer.endTag(null, tag);
+    }
+
+    private static String generateUID(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "");
+    }
+
+    /**
+     * Counts the bytes written to it before passing them on
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream mOutputStream;
+        long mCount = 0;
+
+        CountingOutputStream(OutputStream outputStream) {
+            mOutputStream = outputStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOutputStream.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            mOutputStream.write(buffer, offset, count);
+            mCount += count;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOutputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOutputStream.close();
+        }
+    }
+
+    /**
+     * Discards everything written, so that only the serialization and compression are measured
+     */
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+            //discard
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) {
+            //discard
+        }
+    }
+}
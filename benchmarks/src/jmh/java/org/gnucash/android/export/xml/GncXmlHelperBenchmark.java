@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export.xml;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the parsing of dates and amounts, which is done several times for each transaction of an import,
+ * and their formatting, which is done for each transaction of an export
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GncXmlHelperBenchmark {
+
+    private String mDate = "2016-08-23 12:44:19 +0200";
+    private String mSplitAmount = "-123456/100";
+    private char[] mDateChars = mDate.toCharArray();
+    private char[] mSplitAmountChars = mSplitAmount.toCharArray();
+    private long mTime = 1471949059000L;
+    private StringBuilder mBuilder = new StringBuilder(64);
+
+    @Benchmark
+    public long parseDate() throws ParseException {
+        return GncXmlHelper.parseDate(mDate);
+    }
+
+    @Benchmark
+    public long parseDateFromChars() throws ParseException {
+        return GncXmlHelper.parseDate(mDateChars, 0, mDateChars.length);
+    }
+
+    @Benchmark
+    public BigDecimal parseSplitAmount() throws ParseException {
+        return GncXmlHelper.parseSplitAmount(mSplitAmount);
+    }
+
+    @Benchmark
+    public BigDecimal parseSplitAmountFromChars() throws ParseException {
+        return GncXmlHelper.parseSplitAmount(mSplitAmountChars, 0, mSplitAmountChars.length);
+    }
+
+    @Benchmark
+    public String formatDate() {
+        return GncXmlHelper.formatDate(mTime);
+    }
+
+    @Benchmark
+    public int formatDateIntoBuilder() {
+        mBuilder.setLength(0);
+        GncXmlHelper.formatDate(mTime, mBuilder);
+        return mBuilder.length();
+    }
+}
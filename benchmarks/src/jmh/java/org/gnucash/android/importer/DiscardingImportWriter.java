@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Book;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Price;
+import org.gnucash.android.model.Transaction;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writer which discards the records parsed by {@link GncXmlHandler}, without opening a database,
+ * so that the parsing can be benchmarked on a plain JVM.
+ * <p>The commodities are looked up with {@link Commodity#getInstance(String)}, so only the most common
+ * currencies can be used.</p>
+ */
+class DiscardingImportWriter implements ImportWriter {
+
+    private final Book mBook = new Book();
+
+    @NonNull
+    @Override
+    public Book getBook() {
+        return mBook;
+    }
+
+    @Nullable
+    @Override
+    public Commodity getCommodity(@NonNull String currencyCode) {
+        return Commodity.getInstance(currencyCode);
+    }
+
+    @NonNull
+    @Override
+    public List<Account> getExistingAccounts() {
+        return Collections.emptyList();
+    }
+
+    @Nullable
+    @Override
+    public ImportCheckpoint getResumedCheckpoint() {
+        return null;
+    }
+
+    @Override
+    public void discardResumedCheckpoint() {
+        //nothing to resume
+    }
+
+    @Override
+    public void saveBatch(@NonNull List<Account> accounts, @NonNull List<Transaction> transactions,
+                          @NonNull List<Price> prices) {
+        //discarded
+    }
+
+    @Override
+    public void checkpoint(@NonNull List<Account> accounts, @NonNull ImportCheckpoint checkpoint) {
+        //nothing is committed
+    }
+
+    @Override
+    public void finish(@NonNull FinalRecords records) {
+        //discarded
+    }
+
+    @Override
+    public void abort(boolean resumable) {
+        //nothing to roll back
+    }
+}
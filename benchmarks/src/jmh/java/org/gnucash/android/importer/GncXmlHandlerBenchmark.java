@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import org.gnucash.android.test.unit.testutil.BookGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Benchmarks parsing synthetic GnuCash XML books into model objects with {@link GncXmlHandler}.
+ * <p>The handler hands the records over to a {@link DiscardingImportWriter} instead of saving them to a database.
+ * The books have no scheduled actions: their template accounts have no ISO 4217 currency,
+ * which cannot be looked up without a database. Their transactions are balanced, so no imbalance accounts
+ * are created, which would need the resources of the app.</p>
+ * <p>Saving the records needs SQLite, which is not available here. The rate at which SQLite inserts the rows
+ * is measured by {@code TransactionsDbAdapterTest} in the unit tests instead.</p>
+ * <p>Run it with the GC profiler to see the memory allocated per parse, most of which is the parsed records:
+ * {@code ./gradlew :benchmarks:jmh -PjmhInclude=GncXmlHandlerBenchmark -PjmhProfilers=gc}</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GncXmlHandlerBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int splitCount;
+
+    /**
+     * The larger books do not fit in memory as a byte array, so they are parsed from a file
+     */
+    private File mXmlFile;
+    private SAXParserFactory mParserFactory;
+
+    @Setup
+    public void setUp() throws Exception {
+        mXmlFile = File.createTempFile("book", ".gnca");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mXmlFile), "UTF-8");
+        try {
+            new BookGenerator()
+                    .setAccountCount(100)
+                    .setCurrencyCount(2)
+                    .setPriceHistoryLength(365)
+                    .setApproximateSplitCount(splitCount)
+                    .writeXml(writer);
+        } finally {
+            writer.close();
+        }
+        mParserFactory = SAXParserFactory.newInstance();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mXmlFile.delete();
+    }
+
+    @Benchmark
+    public String parse() throws Exception {
+        return parseBook().getBookUID();
+    }
+
+    private GncXmlHandler parseBook() throws Exception {
+        XMLReader reader = mParserFactory.newSAXParser().getXMLReader();
+        GncXmlHandler handler = new GncXmlHandler(GncXmlHandler.DEFAULT_BATCH_SIZE, new DiscardingImportWriter());
+        reader.setContentHandler(handler);
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(mXmlFile));
+        try {
+            reader.parse(new InputSource(inputStream));
+        } finally {
+            inputStream.close();
+        }
+        return handler;
+    }
+}
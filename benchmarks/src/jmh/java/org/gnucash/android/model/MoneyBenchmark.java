@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the arithmetic of {@link Money}, which is done for every split when computing balances.
+ * <p>The sums compare adding up amounts with {@link Money} and with {@link MoneyAccumulator}.
+ * Run with {@code -Pjmh.profilers=gc} (or {@code -prof gc}) to compare their allocation rates as well.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MoneyBenchmark {
+
+    private Money mAmount;
+    private Money mAddend;
+    private BigDecimal mMultiplier;
+
+    /**
+     * Amounts of the splits of an account, in cents
+     */
+    private long[] mSplitAmounts;
+    private Money[] mSplitMoneys;
+
+    @Setup
+    public void setUp() {
+        mAmount = new Money("1234.56", "USD");
+        mAddend = new Money("78.90", "USD");
+        mMultiplier = new BigDecimal("1.0825");
+
+        Random random = new Random(42);
+        mSplitAmounts = new long[1000];
+        mSplitMoneys = new Money[mSplitAmounts.length];
+        for (int i = 0; i < mSplitAmounts.length; i++) {
+            mSplitAmounts[i] = random.nextInt(2000000) - 1000000;
+            mSplitMoneys[i] = new Money(mSplitAmounts[i], 100, "USD");
+        }
+    }
+
+    @Benchmark
+    public Money add() {
+        return mAmount.add(mAddend);
+    }
+
+    @Benchmark
+    public Money multiply() {
+        return mAmount.multiply(mMultiplier);
+    }
+
+    @Benchmark
+    public long getNumerator() {
+        return mAmount.getNumerator();
+    }
+
+    @Benchmark
+    public Money sumWithMoney() {
+        Money total = Money.createZeroInstance("USD");
+        for (long amount : mSplitAmounts) {
+            total = total.add(new Money(amount, 100, "USD"));
+        }
+        return total;
+    }
+
+    @Benchmark
+    public Money sumWithAccumulator() {
+        MoneyAccumulator total = new MoneyAccumulator("USD");
+        for (long amount : mSplitAmounts) {
+            total.add(amount, 100);
+        }
+        return total.toMoney();
+    }
+
+    @Benchmark
+    public Money sumMoneysWithMoney() {
+        Money total = Money.createZeroInstance("USD");
+        for (Money amount : mSplitMoneys) {
+            total = total.add(amount);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public Money sumMoneysWithAccumulator() {
+        MoneyAccumulator total = new MoneyAccumulator("USD");
+        for (Money amount : mSplitMoneys) {
+            total.add(amount);
+        }
+        return total.toMoney();
+    }
+}
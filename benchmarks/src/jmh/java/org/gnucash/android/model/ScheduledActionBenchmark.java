@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2018 GnuCash Android contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the computation of the next run of scheduled actions, which is done for every
+ * scheduled action each time the scheduler service runs
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScheduledActionBenchmark {
+
+    @Param({"DAY", "WEEK", "MONTH"})
+    public PeriodType periodType;
+
+    private ScheduledAction mScheduledAction;
+
+    @Setup
+    public void setUp() {
+        Recurrence recurrence = new Recurrence(periodType);
+        if (periodType == PeriodType.WEEK)
+            recurrence.setByDays(Arrays.asList(Calendar.MONDAY, Calendar.THURSDAY));
+        mScheduledAction = new ScheduledAction(ScheduledAction.ActionType.TRANSACTION);
+        mScheduledAction.setRecurrence(recurrence);
+        mScheduledAction.setStartTime(1451606400000L); //2016-01-01
+        mScheduledAction.setLastRun(1470009600000L); //2016-08-01
+    }
+
+    @Benchmark
+    public long computeNextTimeBasedScheduledExecutionTime() {
+        return mScheduledAction.computeNextTimeBasedScheduledExecutionTime();
+    }
+
+    @Benchmark
+    public long recurrencePeriod() {
+        return mScheduledAction.getRecurrence().getPeriod();
+    }
+}